@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs;
+
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.ServerPingRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.ShouldAssignWorkQuery;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.ShouldAssignWorkRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request dispatch and parsing of the requests the server sends most often. Requests which go on to call AWS
+ * are only parsed here, as {@link ECSElasticPlugin#handle} would otherwise be measuring the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginRequestBenchmark {
+    private static final String CLUSTER_PROFILE_PROPERTIES = """
+            {
+              "GoServerUrl": "https://cd.server.com/go",
+              "ClusterName": "deployment-cluster",
+              "AWSRegion": "us-east-1",
+              "LinuxAmi": "ami-0123456789",
+              "LinuxInstanceType": "c5.large",
+              "MaxLinuxInstancesAllowed": "10",
+              "MinLinuxInstanceCount": "1",
+              "SubnetIds": "subnet-1,subnet-2,subnet-3",
+              "SecurityGroupIds": "sg-1,sg-2"
+            }""";
+
+    private static final String CREATE_AGENT_REQUEST = """
+            {
+              "auto_register_key": "secret-key",
+              "elastic_agent_profile_properties": {
+                "Image": "gocd/gocd-agent-alpine-3.18:v23.3.0",
+                "MaxMemory": "2G",
+                "ReservedMemory": "150M",
+                "CPU": "512",
+                "Environment": "FOO=bar\\nBAZ=qux"
+              },
+              "cluster_profile_properties": %s,
+              "environment": "prod",
+              "job_identifier": {
+                "pipeline_name": "up42",
+                "pipeline_label": "42",
+                "pipeline_counter": 42,
+                "stage_name": "build",
+                "stage_counter": "1",
+                "job_name": "unit",
+                "job_id": 100
+              }
+            }""".formatted(CLUSTER_PROFILE_PROPERTIES);
+
+    private static final String SHOULD_ASSIGN_WORK_REQUEST = """
+            {
+              "environment": "prod",
+              "agent": {
+                "agent_id": "GoCD2dab24e9f7d8443e9e4f0e5e6a5d9a2a",
+                "agent_state": "Idle",
+                "build_state": "Idle",
+                "config_state": "Enabled"
+              },
+              "elastic_agent_profile_properties": {
+                "Image": "gocd/gocd-agent-alpine-3.18:v23.3.0",
+                "MaxMemory": "2G"
+              },
+              "cluster_profile_properties": %s,
+              "job_identifier": {
+                "pipeline_name": "up42",
+                "pipeline_label": "42",
+                "pipeline_counter": 42,
+                "stage_name": "build",
+                "stage_counter": "1",
+                "job_name": "unit",
+                "job_id": 100
+              }
+            }""".formatted(CLUSTER_PROFILE_PROPERTIES);
+
+    private static final String SERVER_PING_REQUEST = """
+            {
+              "all_cluster_profile_properties": [%s, %s, %s]
+            }""".formatted(CLUSTER_PROFILE_PROPERTIES, CLUSTER_PROFILE_PROPERTIES, CLUSTER_PROFILE_PROPERTIES);
+
+    private ECSElasticPlugin plugin;
+    private DefaultGoPluginApiRequest getCapabilities;
+    private DefaultGoPluginApiRequest validateElasticAgentProfile;
+
+    @Setup
+    public void setUp() {
+        plugin = new ECSElasticPlugin(new PluginServices(Clock.DEFAULT));
+        getCapabilities = new DefaultGoPluginApiRequest("elastic-agent", "5.0", "cd.go.elastic-agent.get-capabilities");
+        validateElasticAgentProfile = new DefaultGoPluginApiRequest("elastic-agent", "5.0", "cd.go.elastic-agent.validate-elastic-agent-profile");
+        validateElasticAgentProfile.setRequestBody("""
+                {
+                  "Image": "gocd/gocd-agent-alpine-3.18:v23.3.0",
+                  "MaxMemory": "2G",
+                  "ReservedMemory": "150M",
+                  "CPU": "512"
+                }""");
+    }
+
+    @Benchmark
+    public GoPluginApiResponse handleGetCapabilities() {
+        return plugin.handle(getCapabilities);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse handleValidateElasticAgentProfile() {
+        return plugin.handle(validateElasticAgentProfile);
+    }
+
+    @Benchmark
+    public Request dispatch() {
+        return Request.fromString("cd.go.elastic-agent.server-ping");
+    }
+
+    @Benchmark
+    public CreateAgentRequest parseCreateAgentRequest() {
+        return CreateAgentRequest.fromJSON(CREATE_AGENT_REQUEST);
+    }
+
+    @Benchmark
+    public ShouldAssignWorkRequest parseShouldAssignWorkRequest() {
+        return ShouldAssignWorkRequest.fromJSON(SHOULD_ASSIGN_WORK_REQUEST);
+    }
+
+    @Benchmark
+    public ShouldAssignWorkQuery parseShouldAssignWorkQuery() {
+        return ShouldAssignWorkQuery.fromJSON(SHOULD_ASSIGN_WORK_REQUEST);
+    }
+
+    @Benchmark
+    public ServerPingRequest parseServerPingRequest() {
+        return ServerPingRequest.fromJSON(SERVER_PING_REQUEST);
+    }
+}
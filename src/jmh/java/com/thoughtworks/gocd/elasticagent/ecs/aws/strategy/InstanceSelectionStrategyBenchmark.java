@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerDefinitionBuilder.PlacementRequirement;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.ContainerInstanceMatcher;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.InstanceMatcher;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticProfileBuilder;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettingsBuilder;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.SyntheticCluster;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choosing a container instance for a new agent. No instance has enough memory left, so every instance is
+ * matched and skipped: this is the path taken on every create agent request while the cluster is full.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstanceSelectionStrategyBenchmark {
+    @Param({"1000"})
+    private int instanceCount;
+
+    @Param({"StopIdle", "Oldest"})
+    private String strategyName;
+
+    private InstanceSelectionStrategy strategy;
+    private PluginSettings pluginSettings;
+    private ElasticAgentProfileProperties profile;
+    private PlacementRequirement placementRequirement;
+
+    @Setup
+    public void setUp() {
+        final ContainerInstanceHelper helper = new InMemoryContainerInstanceHelper(
+                SyntheticCluster.containerInstances(instanceCount, 1024), SyntheticCluster.instances(instanceCount));
+
+        strategy = switch (strategyName) {
+            case "StopIdle" -> new StopIdleInstanceSelectionStrategy(helper, Clock.DEFAULT, new InstanceStateTable());
+            case "Oldest" -> new OldestInstanceSelectionStrategy(helper, new InstanceMatcher(), new ContainerInstanceMatcher());
+            default -> throw new IllegalArgumentException(strategyName);
+        };
+
+        pluginSettings = new PluginSettingsBuilder()
+                .addSetting("ClusterName", SyntheticCluster.CLUSTER_NAME)
+                .addSetting("LinuxAmi", SyntheticCluster.AMI)
+                .addSetting("LinuxInstanceType", SyntheticCluster.INSTANCE_TYPE.toString())
+                .build();
+        profile = new ElasticProfileBuilder()
+                .addSetting("Image", "gocd/gocd-agent-alpine-3.18:v23.3.0")
+                .addSetting("MaxMemory", "2G")
+                .build();
+        placementRequirement = new PlacementRequirement(512, profile.getMaxMemory(), null);
+    }
+
+    @Benchmark
+    public Optional<ContainerInstance> instanceForScheduling() {
+        return strategy.instanceForScheduling(pluginSettings, profile, placementRequirement);
+    }
+
+    private static class InMemoryContainerInstanceHelper extends ContainerInstanceHelper {
+        private final List<ContainerInstance> containerInstances;
+        private final List<Instance> instances;
+
+        private InMemoryContainerInstanceHelper(List<ContainerInstance> containerInstances, List<Instance> instances) {
+            this.containerInstances = containerInstances;
+            this.instances = instances;
+        }
+
+        @Override
+        public List<ContainerInstance> getContainerInstances(PluginSettings settings) {
+            return containerInstances;
+        }
+
+        @Override
+        public List<Instance> ec2InstancesFromContainerInstances(PluginSettings settings, List<ContainerInstance> containerInstanceList) {
+            return instances;
+        }
+
+        @Override
+        public void removeLastSeenIdleTag(PluginSettings pluginSettings, Collection<String> instanceIds) {
+        }
+    }
+}
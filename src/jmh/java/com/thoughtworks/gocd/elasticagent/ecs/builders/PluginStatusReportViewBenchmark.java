@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.builders;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSCluster;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.SyntheticCluster;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Rendering of the cluster status report, which is re-rendered every time the page is opened or refreshed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginStatusReportViewBenchmark {
+    @Param({"500"})
+    private int instanceCount;
+
+    private PluginStatusReportViewBuilder builder;
+    private Template template;
+    private Map<String, Object> dataModel;
+
+    @Setup
+    public void setUp() throws IOException, ParseException {
+        builder = PluginStatusReportViewBuilder.instance();
+        template = builder.getTemplate("status-report.template.ftlh");
+
+        final ECSCluster cluster = SyntheticCluster.ecsCluster(instanceCount);
+        dataModel = new HashMap<>();
+        dataModel.put("region", "us-east-1");
+        dataModel.put("cluster", cluster);
+        dataModel.put("metrics", new PluginMetrics().scrape(cluster, null));
+        dataModel.put("fullVersion", "benchmark");
+        dataModel.put("errors", emptyList());
+        dataModel.put("warnings", emptyList());
+    }
+
+    @Benchmark
+    public String render() throws IOException, TemplateException {
+        return builder.build(template, dataModel);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.domain;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the agent list the server sends on every server ping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentBenchmark {
+    @Param({"5000"})
+    private int agentCount;
+
+    private String agentsJson;
+
+    @Setup
+    public void setUp() {
+        final Agent.AgentState[] agentStates = Agent.AgentState.values();
+        final Agent.BuildState[] buildStates = Agent.BuildState.values();
+        final List<Agent> agents = new ArrayList<>(agentCount);
+        for (int i = 0; i < agentCount; i++) {
+            agents.add(new Agent("GoCD" + Integer.toHexString(i * 7919) + "-agent-" + i,
+                    agentStates[i % agentStates.length], buildStates[i % buildStates.length], Agent.ConfigState.Enabled));
+        }
+        agentsJson = Agent.toJSONArray(agents);
+    }
+
+    @Benchmark
+    public List<Agent> fromJSONArray() {
+        return Agent.fromJSONArray(agentsJson);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.domain;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ecs.model.Cluster;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the status report model from the AWS responses for a cluster.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ECSClusterBenchmark {
+    @Param({"500"})
+    private int instanceCount;
+
+    private Cluster cluster;
+    private List<ContainerInstance> containerInstances;
+    private List<Instance> instances;
+    private List<ECSContainer> containers;
+
+    @Setup
+    public void setUp() throws ParseException {
+        cluster = SyntheticCluster.cluster(instanceCount);
+        containerInstances = SyntheticCluster.containerInstances(instanceCount, 1792);
+        instances = SyntheticCluster.instances(instanceCount);
+        containers = SyntheticCluster.containers(instanceCount);
+    }
+
+    @Benchmark
+    public ECSCluster construct() {
+        return new ECSCluster(cluster, containerInstances, instances, containers, instanceCount, 0, instanceCount, 0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.domain;
+
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+import software.amazon.awssdk.services.ecs.model.Cluster;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceMother.instanceBuilder;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.AWSModelMother.clusterWith;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.AWSModelMother.containerWith;
+import static java.lang.String.format;
+import static software.amazon.awssdk.services.ec2.model.InstanceStateName.RUNNING;
+
+/**
+ * Deterministic, AWS-free cluster state of any size for the benchmarks. Every fourth instance is a spot instance
+ * and every container instance runs {@link #CONTAINERS_PER_INSTANCE} agent containers.
+ */
+public class SyntheticCluster {
+    public static final String CLUSTER_NAME = "GoCD";
+    public static final String AMI = "ami-0123456789abcdef0";
+    public static final InstanceType INSTANCE_TYPE = InstanceType.C5_LARGE;
+    public static final int CONTAINERS_PER_INSTANCE = 2;
+
+    private static final Instant LAUNCH_TIME = Instant.parse("2024-01-01T00:00:00Z");
+
+    public static String instanceId(int index) {
+        return format("i-%017x", index);
+    }
+
+    public static String containerInstanceArn(int index) {
+        return format("arn:aws:ecs:us-east-1:123456789012:container-instance/%s/%032x", CLUSTER_NAME, index);
+    }
+
+    public static Cluster cluster(int instanceCount) {
+        return clusterWith(CLUSTER_NAME, instanceCount, instanceCount * CONTAINERS_PER_INSTANCE, 0);
+    }
+
+    public static List<ContainerInstance> containerInstances(int count, int remainingMemory) {
+        final List<ContainerInstance> containerInstances = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            containerInstances.add(containerInstance(instanceId(i), containerInstanceArn(i), "ACTIVE", 2048, 3840, 1024, remainingMemory));
+        }
+        return containerInstances;
+    }
+
+    public static List<Instance> instances(int count) {
+        final List<Instance> instances = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Instance.Builder builder = instanceBuilder(instanceId(i), RUNNING, Platform.LINUX.name())
+                    .instanceType(INSTANCE_TYPE)
+                    .imageId(AMI)
+                    .launchTime(LAUNCH_TIME.plusSeconds(i));
+            instances.add(i % 4 == 3 ? builder.spotInstanceRequestId(format("sir-%08x", i)).build() : builder.build());
+        }
+        return instances;
+    }
+
+    public static List<ECSContainer> containers(int instanceCount) throws ParseException {
+        final List<ECSContainer> containers = new ArrayList<>(instanceCount * CONTAINERS_PER_INSTANCE);
+        for (int i = 0; i < instanceCount; i++) {
+            for (int c = 0; c < CONTAINERS_PER_INSTANCE; c++) {
+                final long jobId = (long) i * CONTAINERS_PER_INSTANCE + c;
+                containers.add(containerWith(containerInstanceArn(i), format("GoCD%08x", jobId), "gocd/gocd-agent-alpine-3.18:v23.3.0",
+                        1024, 2048, "01/01/2024 10:00:00", "01/01/2024 10:00:30",
+                        new JobIdentifier("up42", jobId, String.valueOf(jobId), "build", "1", "unit", jobId)));
+            }
+        }
+        return containers;
+    }
+
+    public static ECSCluster ecsCluster(int instanceCount) throws ParseException {
+        return new ECSCluster(cluster(instanceCount), containerInstances(instanceCount, 1792), instances(instanceCount), containers(instanceCount),
+                instanceCount, 0, instanceCount, 0);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.JobTrace.DEFAULT_PROFILE;
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.ReplayHarness.DEFAULT_CLUSTER_PROFILE;
+
+/**
+ * Should-assign-work handled end to end by {@link ECSElasticPlugin#handle}, from several threads at once as the
+ * server sends it, against a plugin that has scheduled an agent on the simulator. The known agent takes the fast
+ * path; the unknown one falls back to parsing the whole request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ShouldAssignWorkBenchmark {
+    private SimulatedAws.Installation installation;
+    private ECSElasticPlugin plugin;
+    private GoPluginApiRequest knownAgent;
+    private GoPluginApiRequest unknownAgent;
+
+    @Setup
+    public void setUp() {
+        final SimulatedAws aws = new SimulatedAws(new SimulatorConfig(), new SimulatedClock(Instant.now()));
+        installation = aws.install();
+        plugin = new ECSElasticPlugin(new PluginServices(aws.clock()));
+        plugin.initializeGoApplicationAccessor(new FakeGoServer());
+
+        final JobIdentifier jobIdentifier = new JobIdentifier("up42", 42L, "42", "build", "1", "unit", 100L);
+        plugin.handle(ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, jobIdentifier));
+        final String agentId = aws.startedTasks().getFirst().family();
+
+        knownAgent = ServerRequests.shouldAssignWork(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, jobIdentifier, agentId);
+        unknownAgent = ServerRequests.shouldAssignWork(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, jobIdentifier, "GoCD-unknown");
+    }
+
+    @TearDown
+    public void tearDown() {
+        installation.close();
+    }
+
+    @Benchmark
+    public GoPluginApiResponse handleShouldAssignWork() {
+        return plugin.handle(knownAgent);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse handleShouldAssignWorkForUnknownAgent() {
+        return plugin.handle(unknownAgent);
+    }
+}
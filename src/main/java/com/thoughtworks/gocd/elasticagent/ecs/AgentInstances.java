@@ -27,6 +27,13 @@ import java.util.Optional;
 public interface AgentInstances<T> {
     Optional<ECSTask> create(CreateAgentRequest request, PluginSettings settings, ConsoleLogAppender consoleLogAppender) throws Exception;
 
+    /**
+     * Whether the request's job is already waiting for the cluster to have room for it and no capacity has been
+     * freed since it last tried, in which case the request is kept for when the job gets placed and nothing else
+     * needs to be done.
+     */
+    boolean stillWaitingForCapacity(CreateAgentRequest request, ConsoleLogAppender consoleLogAppender);
+
     void terminate(String agentId, PluginSettings settings);
 
     void terminateUnregisteredInstances(PluginSettings settings, Agents agents);
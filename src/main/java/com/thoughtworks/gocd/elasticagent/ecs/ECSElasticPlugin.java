@@ -27,20 +27,22 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
-import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
-import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
 import com.thoughtworks.gocd.elasticagent.ecs.executors.*;
 import com.thoughtworks.gocd.elasticagent.ecs.info.PluginProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.jfr.PluginRequestEvent;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.*;
+import com.thoughtworks.gocd.elasticagent.ecs.state.PluginStateStore;
 import org.apache.commons.lang3.concurrent.ConcurrentException;
 import org.apache.commons.lang3.concurrent.LazyInitializer;
 import software.amazon.awssdk.services.ec2.model.Ec2Exception;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Extension
 public class ECSElasticPlugin implements GoPlugin {
@@ -49,12 +51,24 @@ public class ECSElasticPlugin implements GoPlugin {
     private PluginRequest pluginRequest;
     private static LazyInitializer<String> serverId;
     private Map<String, ECSTasks> clusterSpecificAgentInstances;
+    private final PluginServices services;
+
+    public ECSElasticPlugin() {
+        this(new PluginServices());
+    }
+
+    public ECSElasticPlugin(PluginServices services) {
+        this.services = services;
+    }
 
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor accessor) {
         pluginRequest = new PluginRequest(accessor);
         serverId = LazyInitializer.<String>builder().setInitializer(() -> pluginRequest.getServerInfo().getServerId()).get();
-        clusterSpecificAgentInstances = new HashMap<>();
+        clusterSpecificAgentInstances = new ConcurrentHashMap<>();
+        final PluginStateStore stateStore = services.stateStore();
+        services.spotInstanceService().restore(stateStore.restoredSpotRequests(), stateStore);
+        services.instanceStates().restore(stateStore.restoredInstanceStates(), stateStore);
     }
 
     @Load
@@ -65,7 +79,11 @@ public class ECSElasticPlugin implements GoPlugin {
 
     @Override
     public GoPluginApiResponse handle(GoPluginApiRequest request) {
-        ClusterProfileProperties clusterProfileProperties;
+        ClusterProfileProperties clusterProfileProperties = null;
+        final PluginRequestEvent event = new PluginRequestEvent(request.requestName());
+        event.begin();
+        final AwsRateLimiter.Priority previousPriority = AwsRateLimiter.usePriority(awsCallPriority(request.requestName()));
+        final PluginMetrics previousMetrics = PluginMetrics.useForAwsCalls(services.metrics());
         try {
             LOG.debug("Request from server: " + request.requestName());
             switch (Request.fromString(request.requestName())) {
@@ -95,6 +113,11 @@ public class ECSElasticPlugin implements GoPlugin {
                     refreshInstancesForCluster(clusterProfileProperties);
                     return createAgentRequest.executor(getAgentInstancesFor(clusterProfileProperties), pluginRequest, getEventStreamFor(clusterProfileProperties)).execute();
                 case REQUEST_SHOULD_ASSIGN_WORK:
+                    ShouldAssignWorkQuery shouldAssignWorkQuery = ShouldAssignWorkQuery.fromJSON(request.requestBody());
+                    ECSTasks agentInstances = agentInstancesRunning(shouldAssignWorkQuery.elasticAgentId());
+                    if (agentInstances != null) {
+                        return new ShouldAssignWorkRequestExecutor(shouldAssignWorkQuery.elasticAgentId(), shouldAssignWorkQuery.jobIdentifier(), agentInstances).execute();
+                    }
                     ShouldAssignWorkRequest shouldAssignWorkRequest = ShouldAssignWorkRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = shouldAssignWorkRequest.clusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
@@ -108,17 +131,17 @@ public class ECSElasticPlugin implements GoPlugin {
                     ServerPingRequest serverPingRequest = ServerPingRequest.fromJSON(request.requestBody());
                     List<ClusterProfileProperties> listOfClusterProfileProperties = serverPingRequest.allClusterProfileProperties();
                     refreshInstancesForAllClusters(listOfClusterProfileProperties);
-                    return serverPingRequest.executor(clusterSpecificAgentInstances, pluginRequest).execute();
+                    return serverPingRequest.executor(clusterSpecificAgentInstances, pluginRequest, services).execute();
                 case REQUEST_CLUSTER_STATUS_REPORT:
                     ClusterStatusReportRequest clusterStatusReportRequest = ClusterStatusReportRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = clusterStatusReportRequest.clusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return clusterStatusReportRequest.executor(getAgentInstancesFor(clusterProfileProperties), getEventStreamFor(clusterProfileProperties)).execute();
+                    return clusterStatusReportRequest.executor(getAgentInstancesFor(clusterProfileProperties), getEventStreamFor(clusterProfileProperties), services).execute();
                 case REQUEST_AGENT_STATUS_REPORT:
                     AgentStatusReportRequest statusReportRequest = AgentStatusReportRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = statusReportRequest.clusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return statusReportRequest.executor(getAgentInstancesFor(clusterProfileProperties)).execute();
+                    return statusReportRequest.executor(getAgentInstancesFor(clusterProfileProperties), services).execute();
                 case REQUEST_CLUSTER_PROFILE_CHANGED:
                     return new DefaultGoPluginApiResponse(200);
                 default:
@@ -130,15 +153,46 @@ public class ECSElasticPlugin implements GoPlugin {
         } catch (Exception e) {
             LOG.error("Failed to handle request " + request.requestName() + " due to:", e);
             return DefaultGoPluginApiResponse.error("Failed to handle request " + request.requestName() + " due to:" + e.getMessage());
+        } finally {
+            AwsRateLimiter.usePriority(previousPriority);
+            PluginMetrics.useForAwsCalls(previousMetrics);
+            event.finish(clusterProfileProperties);
         }
     }
 
+    // a job waits on these, so their AWS calls go ahead of background cleanup when AWS throttles the plugin
+    private static AwsRateLimiter.Priority awsCallPriority(String requestName) {
+        final Request request = Request.fromString(requestName);
+        return request == Request.REQUEST_CREATE_AGENT || request == Request.REQUEST_SHOULD_ASSIGN_WORK
+                ? AwsRateLimiter.Priority.INTERACTIVE : AwsRateLimiter.Priority.BACKGROUND;
+    }
+
     private void refreshInstancesForAllClusters(List<ClusterProfileProperties> listOfClusterProfileProperties) {
         for (ClusterProfileProperties clusterProfileProperties : listOfClusterProfileProperties) {
             refreshInstancesForCluster(clusterProfileProperties);
+            // the server pings every minute, which paces reconciliation without a thread of the plugin's own
+            getAgentInstancesFor(clusterProfileProperties).reconcile(clusterProfileProperties);
         }
     }
 
+    /**
+     * Agent ids are unique across clusters, so an agent whose task is already known to any cluster can be looked up
+     * without reading the cluster profile. Agents not found here take the full path, which lists the cluster's
+     * tasks on first use.
+     */
+    private ECSTasks agentInstancesRunning(String elasticAgentId) {
+        if (elasticAgentId == null) {
+            return null;
+        }
+
+        for (ECSTasks agentInstances : clusterSpecificAgentInstances.values()) {
+            if (agentInstances.hasInstance(elasticAgentId)) {
+                return agentInstances;
+            }
+        }
+        return null;
+    }
+
     private ECSTasks getAgentInstancesFor(ClusterProfileProperties clusterProfileProperties) {
         return clusterSpecificAgentInstances.get(clusterProfileProperties.uuid());
     }
@@ -148,10 +202,13 @@ public class ECSElasticPlugin implements GoPlugin {
     }
 
     private void refreshInstancesForCluster(ClusterProfileProperties clusterProfileProperties) {
-        ECSTasks ecsTasks = clusterSpecificAgentInstances.getOrDefault(clusterProfileProperties.uuid(), new ECSTasks(new TaskHelper(), new ContainerInstanceHelper(), new EventStream()));
+        ECSTasks ecsTasks = clusterSpecificAgentInstances.computeIfAbsent(clusterProfileProperties.uuid(), clusterKey -> {
+            final ECSTasks restored = new ECSTasks(services.taskHelper(), services.containerInstanceHelper(), new EventStream(), services.stateStore().taskJournal(clusterKey),
+                    services.instanceHealth(), services.metrics(), new PendingDemand(), services.clock());
+            restored.restore(services.stateStore().restoredTasks(clusterKey));
+            return restored;
+        });
         ecsTasks.refreshAll(clusterProfileProperties);
-
-        clusterSpecificAgentInstances.put(clusterProfileProperties.uuid(), ecsTasks);
     }
 
     @Override
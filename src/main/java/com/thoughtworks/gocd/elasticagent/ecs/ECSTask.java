@@ -42,8 +42,10 @@ public class ECSTask {
         this.taskDefinition = taskDefinition;
         this.elasticAgentProfileProperties = elasticAgentProfileProperties;
         this.ec2InstanceId = ec2InstanceId;
-        // startedAt may be absent for a task that has not started yet; treat as "now" as the v1 (Joda) code did
-        this.createdAt = this.task.startedAt() == null ? Instant.now() : this.task.startedAt();
+        // startedAt is absent for a task that has not started yet; ECS still reports when it was created, which unlike
+        // "now" does not depend on whose clock reads it
+        this.createdAt = this.task.startedAt() != null ? this.task.startedAt()
+                : this.task.createdAt() != null ? this.task.createdAt() : Instant.now();
     }
 
     public String name() {
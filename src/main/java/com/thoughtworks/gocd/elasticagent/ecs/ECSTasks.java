@@ -18,104 +18,241 @@ package com.thoughtworks.gocd.elasticagent.ecs;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScalingPlan;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Agent;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ConsoleLogAppender;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
+import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.ServerRequestFailedException;
+import com.thoughtworks.gocd.elasticagent.ecs.jfr.CreateLockEvent;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.state.TaskJournal;
 import com.thoughtworks.gocd.elasticagent.ecs.utils.Util;
+import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ecs.model.*;
 
 import java.text.MessageFormat;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin.getServerId;
 import static java.text.MessageFormat.format;
 
 public class ECSTasks implements AgentInstances<ECSTask> {
     private static final Logger LOG = Logger.getLoggerFor(ECSTasks.class);
+    public static final Duration RECONCILE_INTERVAL = Duration.ofMinutes(1);
+    static final Duration EARLY_STOP_WITHIN = Duration.ofMinutes(10);
 
-    private final Map<String, ECSTask> tasks = new ConcurrentHashMap<>();
+    private final TaskRegistry tasks;
     private final TaskHelper taskHelper;
     private final EventStream eventStream;
     private final ContainerInstanceHelper containerInstanceHelper;
-    public Clock clock = Clock.DEFAULT;
+    private final PluginMetrics metrics;
+    private final PendingDemand pendingDemand;
+    private final InstanceHealth instanceHealth;
+    public Clock clock;
     private boolean refreshed;
+    private volatile Instant lastReconciledAt;
+    private volatile ScalingPlan lastScalingPlan;
 
     public ECSTasks(TaskHelper taskHelper, ContainerInstanceHelper containerInstanceHelper, EventStream eventStream) {
+        this(taskHelper, containerInstanceHelper, eventStream, TaskJournal.NONE, new InstanceHealth(Clock.DEFAULT), new PluginMetrics(), new PendingDemand(),
+                Clock.DEFAULT);
+    }
+
+    public ECSTasks(TaskHelper taskHelper, ContainerInstanceHelper containerInstanceHelper, EventStream eventStream, TaskJournal journal, InstanceHealth instanceHealth,
+                    PluginMetrics metrics, PendingDemand pendingDemand, Clock clock) {
+        this.tasks = new TaskRegistry(journal);
         this.taskHelper = taskHelper;
         this.eventStream = eventStream;
         this.containerInstanceHelper = containerInstanceHelper;
+        this.instanceHealth = instanceHealth;
+        this.metrics = metrics;
+        this.pendingDemand = pendingDemand;
+        this.clock = clock;
     }
 
     @Override
     public Optional<ECSTask> create(CreateAgentRequest request, PluginSettings settings, ConsoleLogAppender consoleLogAppender) throws Exception {
-        synchronized (request.elasticProfile().platform()) {
-            final ECSTask existingTask = findByJobIdentifier(request.getJobIdentifier());
-            if (existingTask != null) {
-                consoleLogAppender.accept(String.format("An ECS task to perform current job is already scheduled on instance %s. Skipping current create agent request.", existingTask.getEC2InstanceId()));
-                LOG.info(MessageFormat.format("Task is already scheduled on instance {0}.", existingTask.getEC2InstanceId()));
-                return Optional.of(existingTask);
+        final Platform platform = request.elasticProfile().platform();
+        final long startedAt = System.nanoTime();
+        boolean succeeded = false;
+        metrics.createStarted(settings.getClusterName(), platform);
+        try {
+            final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("create-agent", platform, settings);
+            synchronized (platform) {
+                lockEvent.acquired();
+                final ECSTask existingTask = findByJobIdentifier(request.getJobIdentifier());
+                if (existingTask != null) {
+                    consoleLogAppender.accept(String.format("An ECS task to perform current job is already scheduled on instance %s. Skipping current create agent request.", existingTask.getEC2InstanceId()));
+                    LOG.info(MessageFormat.format("Task is already scheduled on instance {0}.", existingTask.getEC2InstanceId()));
+                    pendingDemand.placed(request.getJobIdentifier());
+                    succeeded = true;
+                    return Optional.of(existingTask);
+                }
+
+                final Optional<ECSTask> task = taskHelper.create(request, settings, consoleLogAppender);
+
+                task.ifPresent(this::register);
+                task.ifPresent(created -> pendingDemand.placed(request.getJobIdentifier()));
+
+                succeeded = task.isPresent();
+                return task;
             }
+        } catch (LimitExceededException e) {
+            pendingDemand.waitFor(request, consoleLogAppender, clock.now());
+            throw e;
+        } finally {
+            metrics.createFinished(settings.getClusterName(), platform, Duration.ofNanos(System.nanoTime() - startedAt), succeeded);
+        }
+    }
 
-            final Optional<ECSTask> task = taskHelper.create(request, settings, consoleLogAppender);
+    @Override
+    public boolean stillWaitingForCapacity(CreateAgentRequest request, ConsoleLogAppender consoleLogAppender) {
+        return pendingDemand.requestedAgain(request, consoleLogAppender, clock.now());
+    }
+
+    /**
+     * Jobs whose create agent request hit the cluster's instance limit and that GoCD still wants an agent for,
+     * oldest first. The server ping places them with {@link #placeWaiting} as capacity frees up.
+     */
+    public List<PendingDemand.Waiting> waitingForCapacity() {
+        return pendingDemand.waiting(clock.now());
+    }
 
-            task.ifPresent(this::register);
+    /**
+     * Places a waiting job on one of the given container instances, read by the caller, without listing the cluster
+     * or starting and launching instances. Returns empty when none of them has room for the job. A job that fails
+     * to be placed for another reason too often stops waiting, so that GoCD's next request for it is a regular create.
+     */
+    public Optional<ECSTask> placeWaiting(PendingDemand.Waiting job, PluginSettings settings, List<ContainerInstance> containerInstances,
+                                          List<Instance> instances) throws Exception {
+        final Platform platform = job.platform();
+        final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("place-waiting", platform, settings);
+        synchronized (platform) {
+            lockEvent.acquired();
+            final ECSTask existingTask = findByJobIdentifier(job.jobIdentifier());
+            if (existingTask != null) {
+                pendingDemand.placed(job.jobIdentifier());
+                return Optional.of(existingTask);
+            }
 
-            return task;
+            try {
+                final Optional<ECSTask> task = taskHelper.createOn(job.request(), settings, job.consoleLogAppender(), containerInstances, instances);
+                task.ifPresent(this::register);
+                task.ifPresent(created -> pendingDemand.placed(job.jobIdentifier()));
+                return task;
+            } catch (Exception e) {
+                if (pendingDemand.placementFailed(job.jobIdentifier(), clock.now())) {
+                    job.consoleLogAppender().accept(String.format("Could not place the job on an instance: %s. No longer waiting for capacity, the next request for an agent will create one.", e.getMessage()));
+                }
+                throw e;
+            }
         }
     }
 
     @Override
     public void terminate(String agentId, PluginSettings pluginSettings) {
-        ECSTask task = tasks.get(agentId);
-        try {
+        terminateAll(List.of(agentId), pluginSettings);
+    }
+
+    /**
+     * Terminates the tasks of the given agents together: the tasks are stopped concurrently and their task
+     * definitions cleaned up in batches. A task that fails to stop or clean up is reported as an error event for its
+     * agent without holding up the others; every agent is removed from the registry either way.
+     */
+    public void terminateAll(Collection<String> agentIds, PluginSettings pluginSettings) {
+        final Map<String, ECSTask> toTerminate = new LinkedHashMap<>();
+        for (String agentId : agentIds) {
+            final ECSTask task = tasks.byAgentId(agentId);
             if (task != null) {
-                taskHelper.stopAndCleanupTask(pluginSettings, task);
-                containerInstanceHelper.checkAndMarkEC2InstanceIdle(pluginSettings, task.getEC2InstanceId());
-                LOG.info(format("Task {0} is terminated.", task.name()));
+                toTerminate.put(agentId, task);
             } else {
                 LOG.warn(format("Requested to deregister task that does not exist {0}", agentId));
+                eventStream.remove(EventFingerprint.forTerminateAgent(agentId));
             }
-            eventStream.remove(EventFingerprint.forTerminateAgent(agentId));
-        } catch (ClientException | ServerException e) {
-            EventFingerprint eventFingerprint = EventFingerprint.forTerminateAgent(agentId);
-            eventStream.update(Event.errorEvent(eventFingerprint, format("Error terminating container with id: {0}", agentId), e.getMessage()));
-            LOG.warn(format("Cannot terminate a task that does not exist {0}", task == null ? null : task.taskDefinitionArn()));
         }
-        tasks.remove(agentId);
+        if (toTerminate.isEmpty()) {
+            return;
+        }
+
+        final Map<ECSTask, RuntimeException> notStopped = taskHelper.stopTasks(pluginSettings, List.copyOf(toTerminate.values()));
+        final Map<String, String> notCleanedUp = taskHelper.cleanupTaskDefinitions(pluginSettings, toTerminate.values().stream()
+                .filter(task -> !notStopped.containsKey(task))
+                .map(ECSTask::taskDefinitionArn)
+                .toList());
+
+        final Set<String> vacatedInstances = new LinkedHashSet<>();
+        // waiting jobs are only retried once a task has actually gone, or their failed placements would be spent on nothing
+        if (notStopped.size() < toTerminate.size()) {
+            pendingDemand.capacityFreed(clock.now());
+        }
+        toTerminate.forEach((agentId, task) -> {
+            tasks.remove(agentId);
+            final EventFingerprint eventFingerprint = EventFingerprint.forTerminateAgent(agentId);
+            final String error = notStopped.containsKey(task) ? notStopped.get(task).getMessage() : notCleanedUp.get(task.taskDefinitionArn());
+            if (error == null) {
+                vacatedInstances.add(task.getEC2InstanceId());
+                eventStream.remove(eventFingerprint);
+                LOG.info(format("Task {0} is terminated.", task.name()));
+            } else {
+                eventStream.update(Event.errorEvent(eventFingerprint, format("Error terminating container with id: {0}", agentId), error));
+                LOG.warn(format("Could not terminate task {0}: {1}", task.taskDefinitionArn(), error));
+            }
+        });
+
+        vacatedInstances.forEach(ec2InstanceId -> {
+            try {
+                markInstanceIdleIfUnoccupied(pluginSettings, ec2InstanceId);
+            } catch (ClientException | ServerException e) {
+                LOG.warn(format("Could not check whether instance {0} is idle: {1}", ec2InstanceId, e.getMessage()));
+            }
+        });
     }
 
     @Override
     public void terminateUnregisteredInstances(PluginSettings settings, Agents agents) {
+        tasks.all().stream()
+                .filter(task -> agents.containsAgentWithId(task.name()))
+                .forEach(task -> instanceHealth.recordRegisteredAgent(task.getEC2InstanceId(), task.elasticProfile()));
+
         ECSTasks toTerminate = unregisteredAfterTimeout(settings, agents);
 
         if (toTerminate.tasks.isEmpty()) {
             return;
         }
 
-        for (ECSTask task : toTerminate.tasks.values()) {
-            terminate(task.name(), settings);
-        }
+        toTerminate.tasks.all().forEach(task -> instanceHealth.recordUnregisteredAgent(task.getEC2InstanceId(), task.elasticProfile()));
+        terminateAll(toTerminate.tasks.all().stream().map(ECSTask::name).toList(), settings);
     }
 
     private ECSTasks unregisteredAfterTimeout(PluginSettings settings, Agents knownAgents) {
-        ECSTasks unregisteredContainers = new ECSTasks(taskHelper, containerInstanceHelper, eventStream);
+        ECSTasks unregisteredContainers = new ECSTasks(taskHelper, containerInstanceHelper, eventStream, TaskJournal.NONE, instanceHealth, metrics, pendingDemand, clock);
 
         if (tasks.isEmpty()) {
             return unregisteredContainers;
         }
 
-        for (ECSTask task : tasks.values()) {
+        for (ECSTask task : tasks.all()) {
             if (knownAgents.containsAgentWithId(task.name())) {
                 continue;
             }
@@ -132,7 +269,7 @@ public class ECSTasks implements AgentInstances<ECSTask> {
     public Agents instancesCreatedAfterTimeout(PluginSettings settings, Agents agents) {
         ArrayList<Agent> oldAgents = new ArrayList<>();
         for (Agent agent : agents.agents()) {
-            ECSTask task = tasks.get(agent.elasticAgentId());
+            ECSTask task = tasks.byAgentId(agent.elasticAgentId());
             if (task == null) {
                 continue;
             }
@@ -154,6 +291,7 @@ public class ECSTasks implements AgentInstances<ECSTask> {
                 Map<Task, TaskDefinition> allTasks = taskHelper.listAllTasks(clusterProfileProperties);
                 allTasks.forEach((task, taskDefinition) -> register(taskHelper.fromTaskInfo(task, taskDefinition, arnToInstanceId, getServerId())));
                 refreshed = true;
+                lastReconciledAt = clock.now();
             }
             eventStream.remove(EventFingerprint.forRefreshContainers());
         } catch (Exception e) {
@@ -162,23 +300,141 @@ public class ECSTasks implements AgentInstances<ECSTask> {
         }
     }
 
+    /**
+     * Seeds the registry with tasks persisted before a restart. The full listing of {@link #refreshAll} is then
+     * skipped; the next {@link #reconcile} checks the restored tasks against ECS instead.
+     */
+    public void restore(List<ECSTask> restoredTasks) {
+        if (restoredTasks.isEmpty()) {
+            return;
+        }
+        restoredTasks.forEach(tasks::restore);
+        refreshed = true;
+        lastReconciledAt = null;
+    }
+
+    /**
+     * Brings the registry in line with ECS, at most once every {@link #RECONCILE_INTERVAL} and only after the first
+     * {@link #refreshAll}. The tasks this server started are listed; only the ones the registry has not seen, the
+     * ones still starting, and registered ones missing from the listing are described. Stopped tasks are evicted,
+     * new ones adopted and starting ones refreshed, so a cycle with nothing to change costs one ListTasks call.
+     */
+    public void reconcile(PluginSettings settings) {
+        final Instant now = clock.now();
+        if (!refreshed || (lastReconciledAt != null && now.isBefore(lastReconciledAt.plus(RECONCILE_INTERVAL)))) {
+            return;
+        }
+        lastReconciledAt = now;
+
+        try {
+            final Set<String> listed = new HashSet<>(taskHelper.listAgentTaskArns(settings));
+            final Set<String> toDescribe = new HashSet<>();
+            for (String taskArn : listed) {
+                final ECSTask known = tasks.byTaskArn(taskArn);
+                if (known == null || !"RUNNING".equals(known.task().lastStatus())) {
+                    toDescribe.add(taskArn);
+                }
+            }
+            // includes tasks that died outside the plugin and tasks started before startedBy was set
+            for (ECSTask known : tasks.all()) {
+                if (known.taskArn() != null && !listed.contains(known.taskArn())) {
+                    toDescribe.add(known.taskArn());
+                }
+            }
+
+            if (!toDescribe.isEmpty()) {
+                apply(settings, toDescribe, Util.toMap(taskHelper.describeTasks(settings, toDescribe), Task::taskArn, task -> task));
+            }
+            eventStream.remove(EventFingerprint.forRefreshContainers());
+        } catch (Exception e) {
+            eventStream.update(Event.errorEvent(EventFingerprint.forRefreshContainers(), "Error while reconciling containers", e.getMessage()));
+            LOG.warn(format("Could not reconcile tasks of cluster {0}: {1}", settings.getClusterName(), e.getMessage()));
+        }
+    }
+
+    private void apply(PluginSettings settings, Set<String> describedArns, Map<String, Task> described) {
+        final List<Task> changed = new ArrayList<>();
+        for (String taskArn : describedArns) {
+            final Task task = described.get(taskArn);
+            final ECSTask known = tasks.byTaskArn(taskArn);
+            if (task == null || "STOPPED".equals(task.lastStatus())) {
+                if (known != null && tasks.remove(known)) {
+                    LOG.info(format("Task {0} is no longer running, removing it from the registry.", known.name()));
+                    pendingDemand.capacityFreed(clock.now());
+                    // the plugin removes the tasks it stops from the registry first, so this one stopped on its own
+                    if (clock.now().isBefore(known.createdAt().plus(EARLY_STOP_WITHIN))) {
+                        instanceHealth.recordEarlyStop(known.getEC2InstanceId(), known.elasticProfile());
+                    }
+                }
+            } else {
+                changed.add(task);
+            }
+        }
+
+        final Set<String> unresolvedContainerInstances = new HashSet<>();
+        for (Task task : changed) {
+            final ECSTask known = tasks.byTaskArn(task.taskArn());
+            if ((known == null || known.getEC2InstanceId() == null) && task.containerInstanceArn() != null) {
+                unresolvedContainerInstances.add(task.containerInstanceArn());
+            }
+        }
+        final Map<String, String> arnToInstanceId = containerInstanceHelper.ec2InstanceIds(settings, unresolvedContainerInstances);
+
+        for (Task task : changed) {
+            final ECSTask known = tasks.byTaskArn(task.taskArn());
+            if (known == null) {
+                taskHelper.fromTaskInfo(task, taskHelper.describeTaskDefinition(settings, task.taskDefinitionArn()), arnToInstanceId, getServerId())
+                        .ifPresent(tasks::addIfAbsent);
+            } else {
+                final String ec2InstanceId = known.getEC2InstanceId() != null ? known.getEC2InstanceId() : arnToInstanceId.get(task.containerInstanceArn());
+                tasks.replace(known, new ECSTask(task, known.taskDefinition(), known.elasticProfile(), known.getJobIdentifier(), known.environment(), ec2InstanceId));
+            }
+        }
+    }
+
+    public Map<String, Long> countByStatus() {
+        return tasks.all().stream()
+                .collect(Collectors.groupingBy(task -> Objects.requireNonNullElse(task.task().lastStatus(), "UNKNOWN"), Collectors.counting()));
+    }
+
     public EventStream getEventStream() {
         return eventStream;
     }
 
+    /**
+     * The plan the last server ping made to scale the cluster, shown in the status report.
+     */
+    public Optional<ScalingPlan> lastScalingPlan() {
+        return Optional.ofNullable(lastScalingPlan);
+    }
+
+    public void scalingPlanned(ScalingPlan plan) {
+        lastScalingPlan = plan;
+    }
+
     @Override
     public ECSTask find(String agentId) {
-        return tasks.get(agentId);
+        return tasks.byAgentId(agentId);
     }
 
     @Override
     public ECSTask findByJobIdentifier(JobIdentifier jobIdentifier) {
-        return tasks.values().stream().filter(task -> task.getJobIdentifier().equals(jobIdentifier)).findFirst().orElse(null);
+        return tasks.byJob(jobIdentifier);
+    }
+
+    public ECSTask findByTaskArn(String taskArn) {
+        return tasks.byTaskArn(taskArn);
+    }
+
+    /**
+     * Agent tasks this plugin has scheduled on the given EC2 instance, answered from the registry without asking ECS.
+     */
+    public List<ECSTask> tasksOnInstance(String ec2InstanceId) {
+        return tasks.onInstance(ec2InstanceId);
     }
 
-    // used by tests
     public boolean hasInstance(String agentId) {
-        return tasks.containsKey(agentId);
+        return tasks.byAgentId(agentId) != null;
     }
 
     // used by tests
@@ -187,7 +443,17 @@ public class ECSTasks implements AgentInstances<ECSTask> {
     }
 
     private void register(ECSTask task) {
-        tasks.put(task.name(), task);
+        tasks.add(task);
+    }
+
+    // An instance still running other agent tasks is busy; only an apparently empty one is confirmed with ECS,
+    // as tasks started by another GoCD server sharing the cluster are not in this registry.
+    private void markInstanceIdleIfUnoccupied(PluginSettings pluginSettings, String ec2InstanceId) {
+        if (!tasksOnInstance(ec2InstanceId).isEmpty()) {
+            LOG.debug("Instance {} is still running agent tasks, not marking it idle.", ec2InstanceId);
+            return;
+        }
+        containerInstanceHelper.checkAndMarkEC2InstanceIdle(pluginSettings, ec2InstanceId);
     }
 
     private void register(Optional<ECSTask> task) {
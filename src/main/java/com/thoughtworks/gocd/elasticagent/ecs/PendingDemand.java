@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ConsoleLogAppender;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The jobs of one cluster whose create agent request could not be met because the cluster was at its maximum number
+ * of instances, oldest first.
+ *
+ * <p>GoCD keeps sending create agent requests for a job until it gets an agent. While the job is waiting and no
+ * capacity has been freed since it last tried, those requests only replace the stored request and mark the job as
+ * still wanted; the server ping places waiting jobs on the instances that have room for them. A job GoCD has not
+ * asked for again within {@link #FORGET_AFTER} (e.g. it was cancelled or got an agent from another plugin) is
+ * dropped, and so is a job that failed to be placed {@link #MAX_FAILED_PLACEMENTS} times for reasons other than
+ * capacity, so that GoCD's next request for it goes through a regular create and reports its error.
+ */
+public class PendingDemand {
+    static final Duration FORGET_AFTER = Duration.ofMinutes(15);
+    static final int MAX_FAILED_PLACEMENTS = 3;
+
+    private final Map<JobIdentifier, Waiting> waiting = new LinkedHashMap<>();
+    private Instant capacityFreedAt = Instant.MIN;
+
+    /**
+     * Adds a job the cluster had no room for. A job already waiting keeps its place and the time it started waiting.
+     */
+    public synchronized void waitFor(CreateAgentRequest request, ConsoleLogAppender consoleLogAppender, Instant now) {
+        final Waiting previous = waiting.get(request.getJobIdentifier());
+        waiting.put(request.getJobIdentifier(), previous == null
+                ? new Waiting(request, consoleLogAppender, now, now, now, 0)
+                : new Waiting(previous.request(), previous.consoleLogAppender(), previous.since(), previous.lastRequestedAt(), now, previous.failedPlacements()));
+    }
+
+    /**
+     * Notes that GoCD asked for the job again, keeping the newer request. Returns true if the job should keep waiting:
+     * it is waiting and no capacity has been freed since it last tried to get an agent.
+     */
+    public synchronized boolean requestedAgain(CreateAgentRequest request, ConsoleLogAppender consoleLogAppender, Instant now) {
+        final Waiting previous = waiting.get(request.getJobIdentifier());
+        if (previous == null) {
+            return false;
+        }
+
+        waiting.put(request.getJobIdentifier(), new Waiting(request, consoleLogAppender, previous.since(), now, previous.lastAttemptAt(), previous.failedPlacements()));
+        return !capacityFreedAt.isAfter(previous.lastAttemptAt());
+    }
+
+    /**
+     * Notes that an agent task of the cluster went away, so waiting jobs may fit now.
+     */
+    public synchronized void capacityFreed(Instant now) {
+        capacityFreedAt = now;
+    }
+
+    public synchronized void placed(JobIdentifier jobIdentifier) {
+        waiting.remove(jobIdentifier);
+    }
+
+    /**
+     * Counts a failed placement of the job, returning true if the job was dropped for failing too often.
+     */
+    public synchronized boolean placementFailed(JobIdentifier jobIdentifier, Instant now) {
+        final Waiting previous = waiting.get(jobIdentifier);
+        if (previous == null) {
+            return false;
+        }
+        if (previous.failedPlacements() + 1 >= MAX_FAILED_PLACEMENTS) {
+            waiting.remove(jobIdentifier);
+            return true;
+        }
+
+        waiting.put(jobIdentifier, new Waiting(previous.request(), previous.consoleLogAppender(), previous.since(), previous.lastRequestedAt(), now, previous.failedPlacements() + 1));
+        return false;
+    }
+
+    /**
+     * The jobs still waiting, oldest first, after dropping those GoCD stopped asking for.
+     */
+    public synchronized List<Waiting> waiting(Instant now) {
+        waiting.values().removeIf(job -> job.lastRequestedAt().plus(FORGET_AFTER).isBefore(now));
+        return List.copyOf(waiting.values());
+    }
+
+    public record Waiting(CreateAgentRequest request, ConsoleLogAppender consoleLogAppender, Instant since, Instant lastRequestedAt,
+                          Instant lastAttemptAt, int failedPlacements) {
+        public JobIdentifier jobIdentifier() {
+            return request.getJobIdentifier();
+        }
+
+        public ElasticAgentProfileProperties elasticProfile() {
+            return request.elasticProfile();
+        }
+
+        public Platform platform() {
+            return request.elasticProfile().platform();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs;
+
+import com.thoughtworks.gocd.elasticagent.ecs.aws.CapacityPools;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.CleanupExecutor;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.HedgedReads;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.LaunchTemplates;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.SpotInstanceService;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.SubnetCatalog;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.SubnetSelector;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScaleInController;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategyFactory;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.StopOperation;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.TerminateOperation;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
+import com.thoughtworks.gocd.elasticagent.ecs.state.PluginStateStore;
+
+/**
+ * The collaborators every request handled by one {@link ECSElasticPlugin} shares, built once around a single
+ * {@link Clock}. Executors take their helpers from here rather than building their own, so the idle, stop and
+ * terminate timers all read the same clock and the state the plugin keeps in memory, such as the
+ * {@link InstanceStateTable}, is the same for every request. The simulator builds these around its simulated clock.
+ *
+ * <p>Only the plugin the GoCD server loads persists its state, in the directory {@link PluginStateStore#fromSystemProperty()}
+ * names. Services built around any other clock keep their state in memory unless given a store of their own, so tests
+ * and benchmarks never restore what an earlier run left behind.
+ */
+public class PluginServices {
+    private final Clock clock;
+    private final PluginStateStore stateStore;
+    private final InstanceStateTable instanceStates;
+    private final InstanceHealth instanceHealth;
+    private final CleanupExecutor cleanupExecutor;
+    private final SubnetSelector subnetSelector;
+    private final CapacityPools capacityPools;
+    private final LaunchTemplates launchTemplates;
+    private final ScaleInController scaleInController;
+    private final PluginMetrics metrics;
+    private final HedgedReads hedgedReads;
+    private final ContainerInstanceHelper containerInstanceHelper;
+    private final InstanceSelectionStrategyFactory instanceSelectionStrategyFactory;
+    private final StopOperation stopOperation;
+    private final TerminateOperation terminateOperation;
+    private final SpotInstanceService spotInstanceService;
+    private final TaskHelper taskHelper;
+
+    public PluginServices() {
+        this(Clock.DEFAULT, PluginStateStore.fromSystemProperty());
+    }
+
+    public PluginServices(Clock clock) {
+        this(clock, PluginStateStore.disabled());
+    }
+
+    public PluginServices(Clock clock, PluginStateStore stateStore) {
+        this.clock = clock;
+        this.stateStore = stateStore;
+        this.instanceStates = new InstanceStateTable(clock);
+        this.instanceHealth = new InstanceHealth(clock);
+        this.cleanupExecutor = new CleanupExecutor();
+        this.subnetSelector = new SubnetSelector(new SubnetCatalog(clock));
+        this.capacityPools = new CapacityPools(clock);
+        this.launchTemplates = new LaunchTemplates(clock);
+        this.scaleInController = new ScaleInController(clock);
+        this.metrics = new PluginMetrics();
+        this.hedgedReads = new HedgedReads(metrics);
+        this.stopOperation = new StopOperation(instanceStates);
+        this.terminateOperation = new TerminateOperation(instanceStates, cleanupExecutor, instanceHealth);
+        this.containerInstanceHelper = new ContainerInstanceHelper(instanceStates, subnetSelector, terminateOperation, capacityPools, launchTemplates,
+                scaleInController, hedgedReads, clock);
+        this.instanceSelectionStrategyFactory = new InstanceSelectionStrategyFactory(containerInstanceHelper, instanceStates, instanceHealth, scaleInController, clock);
+        this.spotInstanceService = new SpotInstanceService(containerInstanceHelper, subnetSelector, terminateOperation, instanceStates);
+        this.taskHelper = new TaskHelper(containerInstanceHelper, instanceSelectionStrategyFactory, spotInstanceService, cleanupExecutor, instanceHealth);
+    }
+
+    public Clock clock() {
+        return clock;
+    }
+
+    public PluginStateStore stateStore() {
+        return stateStore;
+    }
+
+    public PluginMetrics metrics() {
+        return metrics;
+    }
+
+    public InstanceStateTable instanceStates() {
+        return instanceStates;
+    }
+
+    public InstanceHealth instanceHealth() {
+        return instanceHealth;
+    }
+
+    public LaunchTemplates launchTemplates() {
+        return launchTemplates;
+    }
+
+    public ScaleInController scaleInController() {
+        return scaleInController;
+    }
+
+    public ContainerInstanceHelper containerInstanceHelper() {
+        return containerInstanceHelper;
+    }
+
+    public InstanceSelectionStrategyFactory instanceSelectionStrategyFactory() {
+        return instanceSelectionStrategyFactory;
+    }
+
+    public StopOperation stopOperation() {
+        return stopOperation;
+    }
+
+    public TerminateOperation terminateOperation() {
+        return terminateOperation;
+    }
+
+    public SpotInstanceService spotInstanceService() {
+        return spotInstanceService;
+    }
+
+    public TaskHelper taskHelper() {
+        return taskHelper;
+    }
+}
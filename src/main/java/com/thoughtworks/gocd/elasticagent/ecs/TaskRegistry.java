@@ -0,0 +1,185 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.state.TaskJournal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The agent tasks of one cluster, indexed by agent id, job, task ARN and EC2 instance.
+ *
+ * <p>A task is added to or removed from every index under one lock, so writers never see the indexes disagree.
+ * Lookups read a single concurrent index without locking. Tasks without a job, ARN or instance (e.g. a task whose
+ * container instance is no longer registered) are only left out of that index. Every change is passed on to the
+ * {@link TaskJournal} under the same lock, so the journal sees changes in the order they were made, and synced once
+ * the lock is released, so that a slow disk holds up only the caller and not every other reader and writer.
+ */
+class TaskRegistry {
+    private final Map<String, ECSTask> byAgentId = new ConcurrentHashMap<>();
+    private final Map<JobIdentifier, ECSTask> byJob = new ConcurrentHashMap<>();
+    private final Map<String, ECSTask> byTaskArn = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> agentIdsByInstance = new ConcurrentHashMap<>();
+    private final TaskJournal journal;
+
+    TaskRegistry() {
+        this(TaskJournal.NONE);
+    }
+
+    TaskRegistry(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    void add(ECSTask task) {
+        synchronized (this) {
+            put(task);
+        }
+        journal.sync();
+    }
+
+    // for tasks read back from the journal, which need not be written to it again
+    synchronized void restore(ECSTask task) {
+        index(task);
+    }
+
+    ECSTask remove(String agentId) {
+        final ECSTask task;
+        synchronized (this) {
+            task = delete(agentId);
+        }
+        journal.sync();
+        return task;
+    }
+
+    // the conditional updates below let a reconcile cycle act on what it read without undoing a concurrent create or terminate
+
+    boolean addIfAbsent(ECSTask task) {
+        synchronized (this) {
+            if (byAgentId.containsKey(task.name())) {
+                return false;
+            }
+            put(task);
+        }
+        journal.sync();
+        return true;
+    }
+
+    boolean replace(ECSTask current, ECSTask replacement) {
+        synchronized (this) {
+            if (byAgentId.get(current.name()) != current) {
+                return false;
+            }
+            put(replacement);
+        }
+        journal.sync();
+        return true;
+    }
+
+    boolean remove(ECSTask task) {
+        synchronized (this) {
+            if (byAgentId.get(task.name()) != task) {
+                return false;
+            }
+            delete(task.name());
+        }
+        journal.sync();
+        return true;
+    }
+
+    ECSTask byAgentId(String agentId) {
+        return agentId == null ? null : byAgentId.get(agentId);
+    }
+
+    ECSTask byJob(JobIdentifier jobIdentifier) {
+        return jobIdentifier == null ? null : byJob.get(jobIdentifier);
+    }
+
+    ECSTask byTaskArn(String taskArn) {
+        return taskArn == null ? null : byTaskArn.get(taskArn);
+    }
+
+    List<ECSTask> onInstance(String instanceId) {
+        final Set<String> agentIds = instanceId == null ? null : agentIdsByInstance.get(instanceId);
+        if (agentIds == null) {
+            return List.of();
+        }
+        return agentIds.stream().map(byAgentId::get).filter(Objects::nonNull).toList();
+    }
+
+    Collection<ECSTask> all() {
+        return byAgentId.values();
+    }
+
+    boolean isEmpty() {
+        return byAgentId.isEmpty();
+    }
+
+    // the helpers below are called holding the lock
+    private void put(ECSTask task) {
+        index(task);
+        journal.recorded(task);
+    }
+
+    private void index(ECSTask task) {
+        final ECSTask previous = byAgentId.put(task.name(), task);
+        if (previous != null) {
+            unindex(previous);
+        }
+
+        if (task.getJobIdentifier() != null) {
+            byJob.put(task.getJobIdentifier(), task);
+        }
+        if (task.taskArn() != null) {
+            byTaskArn.put(task.taskArn(), task);
+        }
+        if (task.getEC2InstanceId() != null) {
+            agentIdsByInstance.computeIfAbsent(task.getEC2InstanceId(), instanceId -> ConcurrentHashMap.newKeySet()).add(task.name());
+        }
+    }
+
+    private ECSTask delete(String agentId) {
+        final ECSTask task = byAgentId.remove(agentId);
+        if (task != null) {
+            unindex(task);
+            journal.removed(agentId);
+        }
+        return task;
+    }
+
+    // only drops index entries still pointing at this task, in case a later task took over its job or ARN
+    private void unindex(ECSTask task) {
+        if (task.getJobIdentifier() != null && byJob.get(task.getJobIdentifier()) == task) {
+            byJob.remove(task.getJobIdentifier());
+        }
+        if (task.taskArn() != null && byTaskArn.get(task.taskArn()) == task) {
+            byTaskArn.remove(task.taskArn());
+        }
+        if (task.getEC2InstanceId() != null) {
+            agentIdsByInstance.computeIfPresent(task.getEC2InstanceId(), (instanceId, agentIds) -> {
+                agentIds.remove(task.name());
+                return agentIds.isEmpty() ? null : agentIds;
+            });
+        }
+    }
+}
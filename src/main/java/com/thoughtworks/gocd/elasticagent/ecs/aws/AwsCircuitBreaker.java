@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Stops a cluster's AWS calls for a while once most of its recent calls failed or were slow, so a degraded region
+ * fails fast instead of tying up GoCD request threads (and the create locks) in SDK timeouts and retries.
+ *
+ * <p>Over the last {@link #WINDOW_SIZE} calls, once at least {@link #MINIMUM_CALLS} were made, the breaker opens
+ * when half of them failed or half took longer than {@link #SLOW_CALL_THRESHOLD}. It stays open for
+ * {@link #OPEN_DURATION}, then lets a single probe call through: the breaker closes if the probe succeeds in time
+ * and opens again if not. Only failures that point at AWS itself count: server errors, throttling and timeouts.
+ */
+public class AwsCircuitBreaker {
+    private static final Logger LOG = Logger.getLoggerFor(AwsCircuitBreaker.class);
+    static final int WINDOW_SIZE = 20;
+    static final int MINIMUM_CALLS = 10;
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+    static final double SLOW_CALL_RATE_THRESHOLD = 0.5;
+    static final Duration SLOW_CALL_THRESHOLD = Duration.ofSeconds(10);
+    static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    private final String name;
+    private final Clock clock;
+    private final Outcome[] window = new Outcome[WINDOW_SIZE];
+    private int calls;
+    private State state = State.CLOSED;
+    private Instant openedAt;
+    private boolean probeInFlight;
+    private String lastFailure;
+
+    AwsCircuitBreaker(String name, Clock clock) {
+        this.name = name;
+        this.clock = clock;
+    }
+
+    /**
+     * Whether a call may go ahead now. While half-open only one call at a time is let through, as a probe.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN && !clock.now().isBefore(openedAt.plus(OPEN_DURATION))) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (probeInFlight) {
+                    yield false;
+                }
+                probeInFlight = true;
+                yield true;
+            }
+        };
+    }
+
+    /**
+     * Whether calls are being made or probed; false only while the breaker is open and not yet due for a probe.
+     */
+    public synchronized boolean allowsCalls() {
+        return state != State.OPEN || !clock.now().isBefore(openedAt.plus(OPEN_DURATION));
+    }
+
+    public synchronized void onSuccess(Duration duration) {
+        record(duration.compareTo(SLOW_CALL_THRESHOLD) > 0 ? Outcome.SLOW : Outcome.SUCCEEDED, null);
+    }
+
+    public synchronized void onFailure(String reason) {
+        record(Outcome.FAILED, reason);
+    }
+
+    /**
+     * Releases the permission of a call that ended in neither success nor an AWS failure, e.g. a validation error.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized String lastFailure() {
+        return lastFailure;
+    }
+
+    private void record(Outcome outcome, String reason) {
+        if (reason != null) {
+            lastFailure = reason;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (outcome == Outcome.SUCCEEDED) {
+                LOG.info(format("AWS calls for {0} are succeeding again, closing the circuit breaker.", name));
+                reset(State.CLOSED);
+            } else {
+                open();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+
+        window[calls++ % WINDOW_SIZE] = outcome;
+        final int size = Math.min(calls, WINDOW_SIZE);
+        if (size < MINIMUM_CALLS) {
+            return;
+        }
+        int failed = 0;
+        int slow = 0;
+        for (int i = 0; i < size; i++) {
+            failed += window[i] == Outcome.FAILED ? 1 : 0;
+            slow += window[i] == Outcome.SLOW ? 1 : 0;
+        }
+        if (failed >= size * FAILURE_RATE_THRESHOLD || slow >= size * SLOW_CALL_RATE_THRESHOLD) {
+            LOG.warn(format("{0} of the last {1} AWS calls for {2} failed and {3} were slow, opening the circuit breaker for {4}.",
+                    failed, size, name, slow, OPEN_DURATION));
+            open();
+        }
+    }
+
+    private void open() {
+        reset(State.OPEN);
+        openedAt = clock.now();
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        probeInFlight = false;
+        calls = 0;
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private enum Outcome {
+        SUCCEEDED, SLOW, FAILED
+    }
+}
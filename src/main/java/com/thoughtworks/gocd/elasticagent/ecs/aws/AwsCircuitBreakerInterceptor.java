@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.*;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Guards every AWS call of a cluster with its {@link AwsCircuitBreaker}: a call is rejected straight away while the
+ * breaker is open, and the outcome of every call that goes ahead is fed back to it along with the duration of its
+ * last attempt. An attempt is timed from when it is sent, after the {@link AwsRateLimitInterceptor} let it through,
+ * so waiting for the rate limiter is not taken for AWS being slow; the rate limit interceptor has to come first in
+ * the client's interceptors for that. Calls the rate limiter rejects are not counted as AWS failures.
+ */
+public class AwsCircuitBreakerInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Boolean> PERMITTED = new ExecutionAttribute<>("GoCDEcsPluginCircuitBreakerPermitted");
+    private static final ExecutionAttribute<Long> ATTEMPT_STARTED_AT = new ExecutionAttribute<>("GoCDEcsPluginCircuitBreakerAttemptStartedAt");
+    private static final ExecutionAttribute<Duration> LAST_ATTEMPT = new ExecutionAttribute<>("GoCDEcsPluginCircuitBreakerLastAttempt");
+
+    private final String region;
+    private final String clusterName;
+    private final Supplier<AwsCircuitBreakers> breakers;
+
+    public AwsCircuitBreakerInterceptor(String region, String clusterName) {
+        this(region, clusterName, AwsCircuitBreakers::instance);
+    }
+
+    AwsCircuitBreakerInterceptor(String region, String clusterName, Supplier<AwsCircuitBreakers> breakers) {
+        this.region = region;
+        this.clusterName = clusterName;
+        this.breakers = breakers;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        final AwsCircuitBreaker breaker = breaker();
+        if (!breaker.tryAcquirePermission()) {
+            throw SdkClientException.create(format("Not calling {0}: AWS calls for cluster {1} in {2} are failing ({3}), retrying in a while.",
+                    executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME), clusterName, region, breaker.lastFailure()));
+        }
+        executionAttributes.putAttribute(PERMITTED, true);
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(ATTEMPT_STARTED_AT, System.nanoTime());
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        final Long attemptStartedAt = executionAttributes.getAttribute(ATTEMPT_STARTED_AT);
+        if (attemptStartedAt != null) {
+            executionAttributes.putAttribute(LAST_ATTEMPT, Duration.ofNanos(System.nanoTime() - attemptStartedAt));
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        if (executionAttributes.getAttribute(PERMITTED) != null) {
+            final Duration lastAttempt = executionAttributes.getAttribute(LAST_ATTEMPT);
+            breaker().onSuccess(lastAttempt == null ? Duration.ZERO : lastAttempt);
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        if (executionAttributes.getAttribute(PERMITTED) == null) {
+            // rejected by the breaker itself
+            return;
+        }
+        if (Boolean.TRUE.equals(executionAttributes.getAttribute(AwsRateLimitInterceptor.REJECTED))) {
+            breaker().onIgnored();
+        } else if (isAwsFailure(context.exception())) {
+            breaker().onFailure(context.exception().getMessage());
+        } else {
+            breaker().onIgnored();
+        }
+    }
+
+    // client errors such as validation failures or missing resources mean AWS is answering normally
+    static boolean isAwsFailure(Throwable exception) {
+        if (exception instanceof AwsServiceException e) {
+            return e.statusCode() >= 500 || e.isThrottlingException();
+        }
+        return exception instanceof SdkClientException && !(exception instanceof AbortedException);
+    }
+
+    private AwsCircuitBreaker breaker() {
+        return breakers.get().forCluster(region, clusterName);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link AwsCircuitBreaker} of each cluster, keyed by region and cluster name, shared by the AWS clients of
+ * the cluster and the server ping that decides whether to sweep it.
+ */
+public class AwsCircuitBreakers {
+    private static volatile AwsCircuitBreakers instance = new AwsCircuitBreakers(Clock.DEFAULT);
+
+    private final ConcurrentMap<String, AwsCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public AwsCircuitBreakers() {
+        this(Clock.DEFAULT);
+    }
+
+    AwsCircuitBreakers(Clock clock) {
+        this.clock = clock;
+    }
+
+    public static AwsCircuitBreakers instance() {
+        return instance;
+    }
+
+    static AwsCircuitBreakers useInstance(AwsCircuitBreakers replacement) {
+        final AwsCircuitBreakers previous = instance;
+        instance = replacement;
+        return previous;
+    }
+
+    public AwsCircuitBreaker forCluster(PluginSettings settings) {
+        return forCluster(settings.getRegion(), settings.getClusterName());
+    }
+
+    public AwsCircuitBreaker forCluster(String region, String clusterName) {
+        final String name = region + "/" + clusterName;
+        return breakers.computeIfAbsent(name, k -> new AwsCircuitBreaker(k, clock));
+    }
+}
@@ -18,7 +18,11 @@ package com.thoughtworks.gocd.elasticagent.ecs.aws;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.jfr.AwsCallEventInterceptor;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.AwsCallMetricsInterceptor;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
 import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.apache5.Apache5HttpClient;
 import software.amazon.awssdk.regions.Region;
@@ -28,6 +32,7 @@ import software.amazon.awssdk.utils.SdkAutoCloseable;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -49,7 +54,7 @@ import java.util.function.Function;
 public class AwsClientCache {
     private static final Logger LOG = Logger.getLoggerFor(AwsClientCache.class);
     private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
-    private static final AwsClientCache INSTANCE = new AwsClientCache(Duration.ofMinutes(30), Clock.DEFAULT, AwsClientCache::createClients);
+    private static volatile AwsClientCache instance = new AwsClientCache(Duration.ofMinutes(30), Clock.DEFAULT, AwsClientCache::createClients);
 
     private final ConcurrentMap<ClientKey, CachedClients> cache = new ConcurrentHashMap<>();
     private final Duration idleTimeout;
@@ -64,7 +69,17 @@ public class AwsClientCache {
     }
 
     public static AwsClientCache instance() {
-        return INSTANCE;
+        return instance;
+    }
+
+    /**
+     * Replaces the process-wide cache, returning the previous one so it can be restored. Used to point the
+     * whole plugin at in-memory AWS clients; the replaced cache is not closed.
+     */
+    static AwsClientCache useInstance(AwsClientCache replacement) {
+        final AwsClientCache previous = instance;
+        instance = replacement;
+        return previous;
     }
 
     /**
@@ -77,6 +92,10 @@ public class AwsClientCache {
         // compute (not computeIfAbsent) so the last-access stamp is updated under the map's own lock,
         // preventing a concurrent sweep from seeing a just-created or just-fetched entry as idle
         final CachedClients clients = cache.compute(key, (k, existing) -> {
+            final PluginMetrics metrics = PluginMetrics.forAwsCalls();
+            if (metrics != null) {
+                metrics.clientCacheLookup(existing != null);
+            }
             final CachedClients cached = existing != null ? existing : factory.apply(k);
             cached.lastAccessAt = clock.now();
             return cached;
@@ -106,9 +125,12 @@ public class AwsClientCache {
             credentials = new AWSCredentialsProviderChain()
                     .getAwsCredentialsProvider(key.accessKeyId(), key.secretAccessKey(), key.assumeRoleArn(), key.clusterName());
             httpClient = Apache5HttpClient.builder().build();
+            final List<ExecutionInterceptor> interceptors = interceptors(key);
             return new CachedClients(
-                    EcsClient.builder().httpClient(httpClient).credentialsProvider(credentials).region(region).build(),
-                    Ec2Client.builder().httpClient(httpClient).credentialsProvider(credentials).region(region).build(),
+                    EcsClient.builder().httpClient(httpClient).credentialsProvider(credentials).region(region)
+                            .overrideConfiguration(c -> c.executionInterceptors(interceptors)).build(),
+                    Ec2Client.builder().httpClient(httpClient).credentialsProvider(credentials).region(region)
+                            .overrideConfiguration(c -> c.executionInterceptors(interceptors)).build(),
                     credentials,
                     httpClient);
         } catch (RuntimeException e) {
@@ -120,6 +142,36 @@ public class AwsClientCache {
         }
     }
 
+    /**
+     * The interceptors every call made through the clients of {@code key} goes through, in the order they run. The
+     * rate limiter comes before the circuit breaker so that waiting for a token is not timed as the call.
+     */
+    static List<ExecutionInterceptor> interceptors(ClientKey key) {
+        return List.of(
+                new AwsTimeoutInterceptor(key.timeouts()),
+                new AwsRateLimitInterceptor(account(key), key.region()),
+                new AwsCircuitBreakerInterceptor(key.region(), key.clusterName()),
+                new AwsCallMetricsInterceptor(key.clusterName()),
+                new AwsCallEventInterceptor(key.clusterName(), key.region()));
+    }
+
+    /**
+     * Who AWS rate-limits the clients of {@code key} as, without an STS round-trip: the account of the assumed
+     * role, else the access key. Clients using the default credential chain share one limit per region.
+     */
+    static String account(ClientKey key) {
+        if (key.assumeRoleArn() != null) {
+            final String[] arn = key.assumeRoleArn().split(":");
+            if (arn.length > 4 && !arn[4].isBlank()) {
+                return arn[4];
+            }
+        }
+        if (key.accessKeyId() != null && !key.accessKeyId().isBlank()) {
+            return key.accessKeyId();
+        }
+        return "default";
+    }
+
     private void sweepIfDue() {
         final Instant now = clock.now();
         final Instant sweepDueAt = nextSweepAt.get();
@@ -154,7 +206,15 @@ public class AwsClientCache {
     }
 
     /** The plugin settings that determine client identity; anything else can change without a client rebuild. */
-    public record ClientKey(String region, String accessKeyId, String secretAccessKey, String assumeRoleArn, String clusterName) {
+    public record ClientKey(String region, String accessKeyId, String secretAccessKey, String assumeRoleArn, String clusterName, ApiTimeouts timeouts) {
+    }
+
+    /**
+     * Per-call and per-attempt timeouts for read (Describe/List/Get) and write API calls; a {@code null} timeout
+     * leaves the SDK default in place.
+     */
+    public record ApiTimeouts(Duration readCall, Duration readAttempt, Duration writeCall, Duration writeAttempt) {
+        public static final ApiTimeouts NONE = new ApiTimeouts(null, null, null, null);
     }
 
     public static final class CachedClients implements AutoCloseable {
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.*;
+import software.amazon.awssdk.http.SdkHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Takes a token from the shared {@link AwsRateLimiter} bucket before every attempt of an AWS call, and feeds the
+ * outcome back so the bucket can adapt. Only attempts AWS throttled slow the bucket down: server errors, timeouts and
+ * failed connections are retried at the same rate. Every retry attempt needs a token of the bucket's retry budget;
+ * once that is spent the call fails rather than being retried again.
+ */
+public class AwsRateLimitInterceptor implements ExecutionInterceptor {
+    private static final Logger LOG = Logger.getLoggerFor(AwsRateLimitInterceptor.class);
+    private static final ExecutionAttribute<AwsRateLimiter.Bucket> BUCKET = new ExecutionAttribute<>("GoCDEcsPluginRateLimitBucket");
+    private static final ExecutionAttribute<AtomicInteger> ATTEMPTS = new ExecutionAttribute<>("GoCDEcsPluginRateLimitAttempts");
+    private static final ExecutionAttribute<Boolean> THROTTLED = new ExecutionAttribute<>("GoCDEcsPluginRateLimitThrottled");
+    // the error codes AWS throttles with, in the error type header of JSON services (ECS) or the body of EC2's errors
+    private static final Pattern THROTTLING_ERROR = Pattern.compile("(?:^|<Code>|\"__type\"\\s*:\\s*\"(?:[^\"#]*#)?)"
+            + "(?:Throttling|ThrottlingException|ThrottledException|RequestThrottledException|TooManyRequestsException"
+            + "|RequestLimitExceeded|RequestThrottled|EC2ThrottledException|SlowDown)\\b");
+    private static final int TOO_MANY_REQUESTS = 429;
+    // set when the call is failed here rather than by AWS
+    static final ExecutionAttribute<Boolean> REJECTED = new ExecutionAttribute<>("GoCDEcsPluginRateLimitRejected");
+
+    private final String account;
+    private final String region;
+    private final Supplier<AwsRateLimiter> limiter;
+
+    public AwsRateLimitInterceptor(String account, String region) {
+        this(account, region, AwsRateLimiter::instance);
+    }
+
+    AwsRateLimitInterceptor(String account, String region, Supplier<AwsRateLimiter> limiter) {
+        this.account = account;
+        this.region = region;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(BUCKET, limiter.get().bucketFor(account, region,
+                executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME),
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME)));
+        executionAttributes.putAttribute(ATTEMPTS, new AtomicInteger());
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        final AwsRateLimiter.Bucket bucket = executionAttributes.getAttribute(BUCKET);
+        if (executionAttributes.getAttribute(ATTEMPTS).incrementAndGet() > 1) {
+            if (Boolean.TRUE.equals(executionAttributes.getAttribute(THROTTLED))) {
+                bucket.onThrottle();
+            }
+            executionAttributes.putAttribute(THROTTLED, false);
+            if (!bucket.tryRetry()) {
+                final String operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+                LOG.warn(format("Retry budget for {0} calls in {1} is exhausted, not retrying {0}.", operation, region));
+                executionAttributes.putAttribute(REJECTED, true);
+                throw SdkClientException.create(format("Not retrying {0}: the retry budget for AWS calls in {1} is exhausted.", operation, region));
+            }
+        }
+
+        try {
+            limiter.get().acquire(bucket, AwsRateLimiter.currentPriority());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executionAttributes.putAttribute(REJECTED, true);
+            throw AbortedException.create("Interrupted while waiting to call AWS", e);
+        }
+    }
+
+    // runs for every attempt that got a response, before the SDK decides whether to retry it
+    @Override
+    public Optional<InputStream> modifyHttpResponseContent(Context.ModifyHttpResponse context, ExecutionAttributes executionAttributes) {
+        final SdkHttpResponse response = context.httpResponse();
+        if (response.isSuccessful()) {
+            return context.responseBody();
+        }
+
+        // error documents are small, so the body is read here and handed on to the SDK to unmarshal
+        final byte[] body;
+        try (InputStream content = context.responseBody().orElseGet(InputStream::nullInputStream)) {
+            body = content.readAllBytes();
+        } catch (IOException e) {
+            throw SdkClientException.create("Could not read the error response of an AWS call", e);
+        }
+
+        final boolean throttled = response.statusCode() == TOO_MANY_REQUESTS
+                || response.firstMatchingHeader("x-amzn-ErrorType").filter(type -> THROTTLING_ERROR.matcher(type).lookingAt()).isPresent()
+                || THROTTLING_ERROR.matcher(new String(body, StandardCharsets.UTF_8)).find();
+        executionAttributes.putAttribute(THROTTLED, throttled);
+        return context.responseBody().isPresent() ? Optional.of(new ByteArrayInputStream(body)) : Optional.empty();
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.getAttribute(BUCKET).onSuccess();
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        final AwsRateLimiter.Bucket bucket = executionAttributes.getAttribute(BUCKET);
+        // the attempts before the last one slowed the bucket down as they were retried; this is the last one
+        if (bucket != null && context.exception() instanceof AwsServiceException e && e.isThrottlingException()) {
+            bucket.onThrottle();
+        }
+    }
+}
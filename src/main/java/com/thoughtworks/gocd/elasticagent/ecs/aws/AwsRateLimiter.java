@@ -0,0 +1,192 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.wait.Sleeper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Paces AWS API calls with a token bucket per account, region, service and API family (reads and writes are
+ * throttled separately by AWS), shared by every cluster profile using the same account and region.
+ *
+ * <p>Each bucket adapts its refill rate: it is halved whenever AWS throttles an attempt of a call, and climbs back
+ * by {@link #ADDITIVE_INCREASE} per successful call up to the family's nominal rate. Server errors, timeouts and
+ * failed connections leave the rate alone, so a flaky network does not slow down every cluster of the account. Any
+ * retry draws on a per-bucket budget which successful calls slowly refill, so a throttling storm is not amplified by
+ * every caller retrying at once.
+ *
+ * <p>Calls made while serving create-agent and should-assign-work are {@link Priority#INTERACTIVE}. Background
+ * work (server pings, status reports) leaves {@link #BACKGROUND_RESERVE} of each bucket to them and waits while
+ * an interactive call is waiting, so throttling slows down scale-in before it slows down job starts.
+ */
+public class AwsRateLimiter {
+    static final double READ_RATE = 20;
+    static final double READ_BURST = 50;
+    static final double WRITE_RATE = 5;
+    static final double WRITE_BURST = 20;
+    static final double MIN_RATE = 0.5;
+    static final double ADDITIVE_INCREASE = 0.5;
+    static final double BACKGROUND_RESERVE = 0.2;
+    static final double MAX_RETRY_TOKENS = 10;
+    static final double RETRY_TOKENS_PER_SUCCESS = 0.1;
+
+    private static final ThreadLocal<Priority> priority = ThreadLocal.withInitial(() -> Priority.BACKGROUND);
+    private static volatile AwsRateLimiter instance = new AwsRateLimiter(Clock.DEFAULT, Sleeper.SYSTEM);
+
+    private final ConcurrentMap<BucketKey, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private final Sleeper sleeper;
+
+    AwsRateLimiter(Clock clock, Sleeper sleeper) {
+        this.clock = clock;
+        this.sleeper = sleeper;
+    }
+
+    public static AwsRateLimiter instance() {
+        return instance;
+    }
+
+    static AwsRateLimiter useInstance(AwsRateLimiter replacement) {
+        final AwsRateLimiter previous = instance;
+        instance = replacement;
+        return previous;
+    }
+
+    /**
+     * Sets the priority of the AWS calls the current thread makes from now on, returning the previous one so it
+     * can be restored once the request is served.
+     */
+    public static Priority usePriority(Priority replacement) {
+        final Priority previous = priority.get();
+        priority.set(replacement);
+        return previous;
+    }
+
+    public static Priority currentPriority() {
+        return priority.get();
+    }
+
+    public Bucket bucketFor(String account, String region, String service, String operation) {
+        final BucketKey key = new BucketKey(account, region, service, isRead(operation));
+        return buckets.computeIfAbsent(key, k -> k.read() ? new Bucket(READ_RATE, READ_BURST, clock.now()) : new Bucket(WRITE_RATE, WRITE_BURST, clock.now()));
+    }
+
+    /**
+     * Blocks until the bucket has a token for a call of the given priority.
+     */
+    public void acquire(Bucket bucket, Priority priority) throws InterruptedException {
+        if (priority == Priority.INTERACTIVE) {
+            bucket.interactiveWaiting(1);
+        }
+        try {
+            Duration wait;
+            while (!(wait = bucket.tryAcquire(priority, clock.now())).isZero()) {
+                sleeper.sleep(wait);
+            }
+        } finally {
+            if (priority == Priority.INTERACTIVE) {
+                bucket.interactiveWaiting(-1);
+            }
+        }
+    }
+
+    static boolean isRead(String operation) {
+        return operation != null && (operation.startsWith("Describe") || operation.startsWith("List") || operation.startsWith("Get"));
+    }
+
+    public enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private record BucketKey(String account, String region, String service, boolean read) {
+    }
+
+    public static final class Bucket {
+        private final double nominalRate;
+        private final double burst;
+        private double rate;
+        private double tokens;
+        private double retryTokens = MAX_RETRY_TOKENS;
+        private int interactiveWaiting;
+        private Instant refilledAt;
+
+        Bucket(double nominalRate, double burst, Instant now) {
+            this.nominalRate = nominalRate;
+            this.burst = burst;
+            this.rate = nominalRate;
+            this.tokens = burst;
+            this.refilledAt = now;
+        }
+
+        /**
+         * Takes a token if one is available to a call of the given priority, returning {@link Duration#ZERO};
+         * otherwise returns roughly how long until one will be.
+         */
+        synchronized Duration tryAcquire(Priority priority, Instant now) {
+            refill(now);
+            final boolean background = priority == Priority.BACKGROUND;
+            final double floor = background ? burst * BACKGROUND_RESERVE : 0;
+            if (tokens - 1 >= floor && !(background && interactiveWaiting > 0)) {
+                tokens -= 1;
+                return Duration.ZERO;
+            }
+            final double missing = Math.max(floor + 1 - tokens, 1);
+            return Duration.ofMillis(Math.max(1, (long) Math.ceil(missing / rate * 1000)));
+        }
+
+        public synchronized void onSuccess() {
+            rate = Math.min(nominalRate, rate + ADDITIVE_INCREASE);
+            retryTokens = Math.min(MAX_RETRY_TOKENS, retryTokens + RETRY_TOKENS_PER_SUCCESS);
+        }
+
+        public synchronized void onThrottle() {
+            rate = Math.max(MIN_RATE, rate / 2);
+        }
+
+        /**
+         * Spends a token of the retry budget, returning false when the budget is exhausted and the call should
+         * fail instead of being retried.
+         */
+        public synchronized boolean tryRetry() {
+            if (retryTokens < 1) {
+                return false;
+            }
+            retryTokens -= 1;
+            return true;
+        }
+
+        synchronized double rate() {
+            return rate;
+        }
+
+        private synchronized void interactiveWaiting(int delta) {
+            interactiveWaiting += delta;
+        }
+
+        private void refill(Instant now) {
+            if (now.isAfter(refilledAt)) {
+                tokens = Math.min(burst, tokens + rate * Duration.between(refilledAt, now).toNanos() / 1e9);
+                refilledAt = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import software.amazon.awssdk.awscore.AwsRequest;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.time.Duration;
+
+/**
+ * Applies the cluster profile's API call timeouts to every request, so a slow read can be given up on (and
+ * retried) quickly while a write such as RunInstances keeps the time it needs. A timeout already set on the
+ * request itself takes precedence.
+ */
+public class AwsTimeoutInterceptor implements ExecutionInterceptor {
+    private final AwsClientCache.ApiTimeouts timeouts;
+
+    public AwsTimeoutInterceptor(AwsClientCache.ApiTimeouts timeouts) {
+        this.timeouts = timeouts == null ? AwsClientCache.ApiTimeouts.NONE : timeouts;
+    }
+
+    @Override
+    public SdkRequest modifyRequest(Context.ModifyRequest context, ExecutionAttributes executionAttributes) {
+        if (!(context.request() instanceof AwsRequest request)) {
+            return context.request();
+        }
+
+        final boolean read = AwsRateLimiter.isRead(executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+        final Duration callTimeout = read ? timeouts.readCall() : timeouts.writeCall();
+        final Duration attemptTimeout = read ? timeouts.readAttempt() : timeouts.writeAttempt();
+        if (callTimeout == null && attemptTimeout == null) {
+            return request;
+        }
+
+        final AwsRequestOverrideConfiguration.Builder configuration = request.overrideConfiguration()
+                .map(AwsRequestOverrideConfiguration::toBuilder)
+                .orElseGet(AwsRequestOverrideConfiguration::builder);
+        if (callTimeout != null && configuration.apiCallTimeout() == null) {
+            configuration.apiCallTimeout(callTimeout);
+        }
+        if (attemptTimeout != null && configuration.apiCallAttemptTimeout() == null) {
+            configuration.apiCallAttemptTimeout(attemptTimeout);
+        }
+        return request.toBuilder().overrideConfiguration(configuration.build()).build();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the EC2 capacity pools (an instance type in an availability zone) that recently had no capacity
+ * for a launch, so the launches that follow go straight to another acceptable instance type or subnet instead
+ * of failing on the same pool again. A pool is tried again after {@link #UNAVAILABLE_FOR}.
+ */
+public class CapacityPools {
+    static final Duration UNAVAILABLE_FOR = Duration.ofMinutes(15);
+    private static final Set<String> CAPACITY_ERRORS = Set.of("InsufficientInstanceCapacity", "Unsupported");
+
+    private final Map<Pool, Instant> unavailableUntil = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public CapacityPools(Clock clock) {
+        this.clock = clock;
+    }
+
+    public boolean isAvailable(Pool pool) {
+        final Instant until = unavailableUntil.get(pool);
+        if (until == null) {
+            return true;
+        }
+        if (clock.now().isBefore(until)) {
+            return false;
+        }
+        unavailableUntil.remove(pool, until);
+        return true;
+    }
+
+    public void markUnavailable(Pool pool) {
+        unavailableUntil.put(pool, clock.now().plus(UNAVAILABLE_FOR));
+    }
+
+    /**
+     * Whether the launch failed because the pool has no capacity for the instance type, or does not offer it
+     * at all, rather than because of the request or the account.
+     */
+    public static boolean isCapacityError(AwsServiceException e) {
+        return e.awsErrorDetails() != null && CAPACITY_ERRORS.contains(e.awsErrorDetails().errorCode());
+    }
+
+    /**
+     * An instance type in an availability zone of a region; a {@code null} zone stands for whichever zone EC2
+     * picks when no subnet is configured.
+     */
+    public record Pool(String region, String instanceType, String availabilityZone) {
+    }
+}
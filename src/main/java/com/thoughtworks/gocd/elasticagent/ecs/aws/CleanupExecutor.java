@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Runs one AWS call per item of a cleanup (stopping tasks, deregistering task definitions or container
+ * instances) concurrently. At most {@link #MAX_CALLS_IN_FLIGHT} calls run at a time across all the cleanups sharing
+ * an executor, and the plugin shares one, which keeps a large cleanup within the ECS and EC2 request rate limits
+ * instead of relying on the SDK's throttling retries.
+ *
+ * <p>A failing item does not stop the others; the failures are returned per item for the caller to report. The calls
+ * keep the {@link AwsRateLimiter.Priority} of the thread that started the cleanup.
+ */
+public class CleanupExecutor {
+    public static final int MAX_CALLS_IN_FLIGHT = 8;
+
+    private final Semaphore callsInFlight;
+
+    public CleanupExecutor() {
+        this(MAX_CALLS_IN_FLIGHT);
+    }
+
+    CleanupExecutor(int maxCallsInFlight) {
+        this.callsInFlight = new Semaphore(maxCallsInFlight);
+    }
+
+    /**
+     * Calls {@code call} once for each of the distinct {@code items} and waits for all of them, returning the
+     * exception each failed item raised, in the order of {@code items}.
+     */
+    public <T> Map<T, RuntimeException> forEach(Collection<T> items, Consumer<T> call) {
+        final Map<T, RuntimeException> failures = new ConcurrentHashMap<>();
+
+        if (items.size() == 1) {
+            items.forEach(item -> run(item, call, failures));
+        } else if (!items.isEmpty()) {
+            final AwsRateLimiter.Priority priority = AwsRateLimiter.currentPriority();
+            final PluginMetrics metrics = PluginMetrics.forAwsCalls();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                items.forEach(item -> executor.submit(() -> {
+                    AwsRateLimiter.usePriority(priority);
+                    PluginMetrics.useForAwsCalls(metrics);
+                    run(item, call, failures);
+                }));
+            }
+        }
+
+        final Map<T, RuntimeException> ordered = new LinkedHashMap<>();
+        items.stream().filter(failures::containsKey).forEach(item -> ordered.put(item, failures.get(item)));
+        return ordered;
+    }
+
+    private <T> void run(T item, Consumer<T> call, Map<T, RuntimeException> failures) {
+        callsInFlight.acquireUninterruptibly();
+        try {
+            call.accept(item);
+        } catch (RuntimeException e) {
+            failures.put(item, e);
+        } finally {
+            callsInFlight.release();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.thoughtworks.gocd.elasticagent.ecs.Constants;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.comparator.MostIdleInstanceComparator;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.InstanceMatcher;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScaleInController;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.TerminateOperation;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.wait.Poller;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.wait.Result;
@@ -31,12 +32,15 @@ import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.ContainerInstanceFailedToRegisterException;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
+import com.thoughtworks.gocd.elasticagent.ecs.jfr.CreateLockEvent;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.utils.Util;
 import lombok.NonNull;
 import software.amazon.awssdk.services.ec2.model.*;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ecs.model.*;
 
+import java.time.Instant;
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -44,13 +48,12 @@ import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LABEL_SERVER_ID;
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
 import static com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin.getServerId;
 import static com.thoughtworks.gocd.elasticagent.ecs.aws.SpotInstanceHelper.SPOT_INSTANCE_NAME_FORMAT;
 
-import static java.lang.String.valueOf;
 import static java.text.MessageFormat.format;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.stream.Collectors.*;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -63,15 +66,47 @@ public class ContainerInstanceHelper {
     private final Supplier<String> serverIdSupplier;
     private final InstanceMatcher instanceMatcher;
     private final SubnetSelector subnetSelector;
+    private final InstanceStateTable instanceStates;
+    private final TerminateOperation terminateOperation;
+    private final CapacityPools capacityPools;
+    private final HedgedReads hedgedReads;
+    private final LaunchTemplates launchTemplates;
+    private final ScaleInController scaleInController;
+    private final Clock clock;
 
-    public ContainerInstanceHelper() {
-        this(ECSElasticPlugin::getServerId, new InstanceMatcher(), new SubnetSelector());
+    public ContainerInstanceHelper(InstanceStateTable instanceStates, SubnetSelector subnetSelector, TerminateOperation terminateOperation, CapacityPools capacityPools,
+                                   LaunchTemplates launchTemplates, ScaleInController scaleInController, HedgedReads hedgedReads, Clock clock) {
+        this(ECSElasticPlugin::getServerId, new InstanceMatcher(), subnetSelector, instanceStates, terminateOperation, capacityPools, launchTemplates, scaleInController,
+                hedgedReads, clock);
     }
 
-    ContainerInstanceHelper(Supplier<String> serverIdSupplier, InstanceMatcher instanceMatcher, SubnetSelector subnetSelector) {
+    ContainerInstanceHelper(Supplier<String> serverIdSupplier, InstanceMatcher instanceMatcher, SubnetSelector subnetSelector, InstanceStateTable instanceStates) {
+        this(serverIdSupplier, instanceMatcher, subnetSelector, instanceStates, new CapacityPools(Clock.DEFAULT));
+    }
+
+    ContainerInstanceHelper(Supplier<String> serverIdSupplier, InstanceMatcher instanceMatcher, SubnetSelector subnetSelector, InstanceStateTable instanceStates, CapacityPools capacityPools) {
+        this(serverIdSupplier, instanceMatcher, subnetSelector, instanceStates, capacityPools, new LaunchTemplates(Clock.DEFAULT));
+    }
+
+    ContainerInstanceHelper(Supplier<String> serverIdSupplier, InstanceMatcher instanceMatcher, SubnetSelector subnetSelector, InstanceStateTable instanceStates,
+                            CapacityPools capacityPools, LaunchTemplates launchTemplates) {
+        this(serverIdSupplier, instanceMatcher, subnetSelector, instanceStates, new TerminateOperation(instanceStates, new CleanupExecutor(), new InstanceHealth(Clock.DEFAULT)), capacityPools, launchTemplates,
+                new ScaleInController(Clock.DEFAULT), new HedgedReads(new PluginMetrics()), Clock.DEFAULT);
+    }
+
+    ContainerInstanceHelper(Supplier<String> serverIdSupplier, InstanceMatcher instanceMatcher, SubnetSelector subnetSelector, InstanceStateTable instanceStates,
+                            TerminateOperation terminateOperation, CapacityPools capacityPools, LaunchTemplates launchTemplates, ScaleInController scaleInController,
+                            HedgedReads hedgedReads, Clock clock) {
         this.serverIdSupplier = serverIdSupplier;
         this.instanceMatcher = instanceMatcher;
         this.subnetSelector = subnetSelector;
+        this.instanceStates = instanceStates;
+        this.terminateOperation = terminateOperation;
+        this.capacityPools = capacityPools;
+        this.launchTemplates = launchTemplates;
+        this.scaleInController = scaleInController;
+        this.hedgedReads = hedgedReads;
+        this.clock = clock;
     }
 
     public List<ContainerInstance> getContainerInstances(PluginSettings settings) {
@@ -86,12 +121,65 @@ public class ContainerInstanceHelper {
                 .cluster(settings.getClusterName())
                 .build();
 
-        DescribeContainerInstancesResponse describeContainerInstancesResponse = settings.ecsClient()
-                .describeContainerInstances(describeContainerInstancesRequest);
+        DescribeContainerInstancesResponse describeContainerInstancesResponse = hedgedReads.read(settings, "DescribeContainerInstances",
+                () -> settings.ecsClient().describeContainerInstances(describeContainerInstancesRequest));
 
+        instanceStates.recordContainerInstances(describeContainerInstancesResponse.containerInstances());
         return describeContainerInstancesResponse.containerInstances();
     }
 
+    /**
+     * Finds the container instance running on an EC2 instance by describing only its ARN, when known from an
+     * earlier lookup. Falls back to listing the cluster when the ARN is not known yet, or no longer belongs to a
+     * registered container instance on that EC2 instance.
+     */
+    public Optional<ContainerInstance> containerInstanceFor(PluginSettings settings, String ec2InstanceId) {
+        if (ec2InstanceId == null) {
+            return Optional.empty();
+        }
+
+        final Optional<String> knownArn = instanceStates.containerInstanceArn(ec2InstanceId);
+
+        if (knownArn.isPresent()) {
+            final DescribeContainerInstancesRequest describeContainerInstancesRequest = DescribeContainerInstancesRequest.builder()
+                    .containerInstances(knownArn.get())
+                    .cluster(settings.getClusterName())
+                    .build();
+
+            final Optional<ContainerInstance> containerInstance = settings.ecsClient().describeContainerInstances(describeContainerInstancesRequest)
+                    .containerInstances().stream()
+                    .filter(ci -> ec2InstanceId.equals(ci.ec2InstanceId()) && !"INACTIVE".equals(ci.status()))
+                    .findFirst();
+
+            if (containerInstance.isPresent()) {
+                return containerInstance;
+            }
+
+            LOG.debug("Container instance {} is no longer registered for EC2 instance {}, looking it up in the cluster.", knownArn.get(), ec2InstanceId);
+            instanceStates.forgetContainerInstanceArn(ec2InstanceId, knownArn.get());
+        }
+
+        return getContainerInstances(settings).stream()
+                .filter(ci -> ec2InstanceId.equals(ci.ec2InstanceId()))
+                .findFirst();
+    }
+
+    public Map<String, String> ec2InstanceIds(PluginSettings settings, Collection<String> containerInstanceArns) {
+        if (containerInstanceArns.isEmpty()) {
+            return emptyMap();
+        }
+
+        final DescribeContainerInstancesRequest describeContainerInstancesRequest = DescribeContainerInstancesRequest.builder()
+                .containerInstances(containerInstanceArns)
+                .cluster(settings.getClusterName())
+                .build();
+
+        final List<ContainerInstance> containerInstances = settings.ecsClient().describeContainerInstances(describeContainerInstancesRequest).containerInstances();
+        instanceStates.recordContainerInstances(containerInstances);
+
+        return Util.toMap(containerInstances, ContainerInstance::containerInstanceArn, ContainerInstance::ec2InstanceId);
+    }
+
     public List<ContainerInstance> onDemandContainerInstances(PluginSettings pluginSettings) {
         List<ContainerInstance> containerInstances = getContainerInstances(pluginSettings);
         List<Instance> onDemandInstances = getOnDemandInstances(pluginSettings, containerInstances);
@@ -148,7 +236,8 @@ public class ContainerInstanceHelper {
 
         final List<String> instanceIds = containerInstanceList.stream().map(ContainerInstance::ec2InstanceId).collect(toList());
         DescribeInstancesRequest describeInstancesRequest = DescribeInstancesRequest.builder().instanceIds(instanceIds).build();
-        final DescribeInstancesResponse describeInstancesResponse = settings.ec2Client().describeInstances(describeInstancesRequest);
+        final DescribeInstancesResponse describeInstancesResponse = hedgedReads.read(settings, "DescribeInstances",
+                () -> settings.ec2Client().describeInstances(describeInstancesRequest));
 
         List<Reservation> reservations = describeInstancesResponse.reservations();
         List<Instance> instances = new ArrayList<>();
@@ -160,6 +249,14 @@ public class ContainerInstanceHelper {
     }
 
     public List<Instance> getAllInstances(PluginSettings pluginSettings) {
+        return getAllInstances(pluginSettings, getContainerInstances(pluginSettings));
+    }
+
+    /**
+     * The instances the plugin launched, using a listing of the cluster's container instances the caller already has
+     * to include the instances registered with the cluster.
+     */
+    public List<Instance> getAllInstances(PluginSettings pluginSettings, List<ContainerInstance> containerInstances) {
         final DescribeInstancesRequest describeInstancesRequest = DescribeInstancesRequest.builder()
                 .filters(
                         Filter.builder().name("tag:Creator").values(Constants.PLUGIN_ID).build(),
@@ -167,7 +264,7 @@ public class ContainerInstanceHelper {
                 )
                 .build();
 
-        final Set<String> registeredInstanceIds = getContainerInstances(pluginSettings).stream()
+        final Set<String> registeredInstanceIds = containerInstances.stream()
                 .map(ContainerInstance::ec2InstanceId)
                 .collect(toSet());
 
@@ -186,36 +283,22 @@ public class ContainerInstanceHelper {
     }
 
     public void checkAndMarkEC2InstanceIdle(PluginSettings pluginSettings, String ec2InstanceId) {
-        final List<ContainerInstance> containerInstances = getContainerInstances(pluginSettings);
-
-        if (containerInstances.isEmpty()) {
-            return;
-        }
-
-        final Boolean isIdle = containerInstances.stream()
-                .filter(containerInstance -> containerInstance.ec2InstanceId().equals(ec2InstanceId))
+        final Boolean isIdle = containerInstanceFor(pluginSettings, ec2InstanceId)
                 .map(CONTAINER_INSTANCE_IDLE_FUNCTION)
-                .findFirst().orElse(false);
+                .orElse(false);
 
         if (isIdle) {
-            final CreateTagsRequest tag = CreateTagsRequest.builder()
-                    .tags(Tag.builder().key(LAST_SEEN_IDLE).value(valueOf(System.currentTimeMillis())).build())
-                    .resources(ec2InstanceId)
-                    .build();
-
-            pluginSettings.ec2Client().createTags(tag);
+            instanceStates.markIdle(pluginSettings, List.of(ec2InstanceId));
         }
     }
 
+    /**
+     * Clears the idle time of the instances; the LAST_SEEN_IDLE tag itself is removed on the next flush of the
+     * {@link InstanceStateTable}.
+     */
     public void removeLastSeenIdleTag(PluginSettings pluginSettings, Collection<String> instanceIds) {
         LOG.info("Removing LAST_SEEN_IDLE tag from instances " + instanceIds);
-
-        final DeleteTagsRequest deleteTagsRequest = DeleteTagsRequest.builder()
-                .tags(Tag.builder().key(LAST_SEEN_IDLE).build())
-                .resources(instanceIds)
-                .build();
-
-        pluginSettings.ec2Client().deleteTags(deleteTagsRequest);
+        instanceStates.clearIdle(pluginSettings, instanceIds);
     }
 
     public @NonNull ContainerInstance startOrCreateOneInstance(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
@@ -223,63 +306,144 @@ public class ContainerInstanceHelper {
                 .getFirst();
     }
 
+    /**
+     * Starts stopped instances matching the profile and launches new ones for the shortfall, then waits for all of
+     * them to register at once, so the launched instances boot while the stopped ones start. When the launch fails,
+     * the instances being started are still waited for before the failure is thrown.
+     */
     public List<ContainerInstance> startOrCreateInstance(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, int numberOfInstanceToStartOrCreate, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
-        final Optional<List<ContainerInstance>> optionalStartedInstances = startInstances(pluginSettings, elasticAgentProfileProperties, numberOfInstanceToStartOrCreate, consoleLogAppender);
-        final List<ContainerInstance> startedContainerInstances = optionalStartedInstances.orElse(new ArrayList<>());
+        final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("start-or-create-instances", elasticAgentProfileProperties.platform(), pluginSettings);
+        synchronized (elasticAgentProfileProperties.platform()) {
+            lockEvent.acquired();
 
-        final int instancesToCreate = numberOfInstanceToStartOrCreate - startedContainerInstances.size();
-        if (instancesToCreate > 0) {
-            final Optional<List<ContainerInstance>> createdInstances = createInstances(pluginSettings, elasticAgentProfileProperties, instancesToCreate, consoleLogAppender);
-            createdInstances.ifPresent(startedContainerInstances::addAll);
-        }
+            final EC2Config ec2Config = new EC2Config.Builder()
+                    .settings(pluginSettings).profile(elasticAgentProfileProperties)
+                    .build();
 
-        return startedContainerInstances;
+            final List<String> instanceIds = new ArrayList<>(startStoppedInstances(pluginSettings, elasticAgentProfileProperties, ec2Config, numberOfInstanceToStartOrCreate, consoleLogAppender));
+            final int instancesToCreate = numberOfInstanceToStartOrCreate - instanceIds.size();
+            if (instancesToCreate > 0) {
+                try {
+                    instanceIds.addAll(launchInstances(pluginSettings, elasticAgentProfileProperties, ec2Config, instancesToCreate, instanceIds, consoleLogAppender));
+                } catch (LimitExceededException | RuntimeException e) {
+                    awaitStartedBeforeFailing(pluginSettings, ec2Config, instanceIds, consoleLogAppender, e);
+                    throw e;
+                }
+            }
+
+            if (instanceIds.isEmpty()) {
+                return new ArrayList<>();
+            }
+            return waitInstanceToStart(pluginSettings, ec2Config, instanceIds, consoleLogAppender)
+                    .<List<ContainerInstance>>map(ArrayList::new)
+                    .orElseGet(ArrayList::new);
+        }
     }
 
-    public Optional<List<ContainerInstance>> startInstances(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, int numberOfInstanceToStartOrCreate, ConsoleLogAppender consoleLogAppender) {
+    /**
+     * Starts stopped instances matching the profile and launches new ones for the shortfall like
+     * {@link #startOrCreateInstance}, but returns the ids of the instances as soon as they are asked for, without
+     * waiting for them to register. When the limit is reached after some instances were started, those are returned.
+     */
+    public List<String> startOrLaunchInstances(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, int numberOfInstanceToStartOrCreate, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
+        final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("start-or-launch-instances", elasticAgentProfileProperties.platform(), pluginSettings);
         synchronized (elasticAgentProfileProperties.platform()) {
+            lockEvent.acquired();
 
-            String instanceName = String.format("%s_%s_INSTANCE", pluginSettings.getClusterName(), elasticAgentProfileProperties.platform());
-            final List<Instance> allStoppedInstances = filterBy(filterByState(getAllOnDemandInstances(pluginSettings), STOPPED), hasTag("Name", instanceName))
-                    .stream()
-                    .filter(platformPredicate(elasticAgentProfileProperties.platform()))
-                    .toList();
+            final EC2Config ec2Config = new EC2Config.Builder()
+                    .settings(pluginSettings).profile(elasticAgentProfileProperties)
+                    .build();
 
-            if (allStoppedInstances.isEmpty()) {
-                LOG.info("No stopped instances found.");
-                return Optional.empty();
+            final List<String> instanceIds = new ArrayList<>(startStoppedInstances(pluginSettings, elasticAgentProfileProperties, ec2Config, numberOfInstanceToStartOrCreate, consoleLogAppender));
+            final int instancesToCreate = numberOfInstanceToStartOrCreate - instanceIds.size();
+            if (instancesToCreate > 0) {
+                try {
+                    instanceIds.addAll(launchInstances(pluginSettings, elasticAgentProfileProperties, ec2Config, instancesToCreate, instanceIds, consoleLogAppender));
+                } catch (LimitExceededException e) {
+                    if (instanceIds.isEmpty()) {
+                        throw e;
+                    }
+                    LOG.info(format("Started instances {0}, but could not launch {1} more: {2}", instanceIds, instancesToCreate, e.getMessage()));
+                }
             }
+            return instanceIds;
+        }
+    }
+
+    private void awaitStartedBeforeFailing(PluginSettings pluginSettings, EC2Config ec2Config, List<String> startedInstanceIds, ConsoleLogAppender consoleLogAppender, Exception failure) {
+        if (startedInstanceIds.isEmpty()) {
+            return;
+        }
+        try {
+            waitInstanceToStart(pluginSettings, ec2Config, startedInstanceIds, consoleLogAppender);
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
 
-            LOG.info(format("Found {0} stopped instances.", allStoppedInstances.size()));
+    public Optional<List<ContainerInstance>> startInstances(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, int numberOfInstanceToStartOrCreate, ConsoleLogAppender consoleLogAppender) {
+        final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("start-instances", elasticAgentProfileProperties.platform(), pluginSettings);
+        synchronized (elasticAgentProfileProperties.platform()) {
+            lockEvent.acquired();
 
             final EC2Config ec2Config = new EC2Config.Builder()
                     .settings(pluginSettings).profile(elasticAgentProfileProperties)
                     .build();
 
-            final List<String> instancesToStart = allStoppedInstances.stream()
-                    .filter(instance -> instanceMatcher.matches(ec2Config, instance))
-                    .map(Instance::instanceId)
-                    .limit(numberOfInstanceToStartOrCreate)
-                    .collect(toList());
-
+            final List<String> instancesToStart = startStoppedInstances(pluginSettings, elasticAgentProfileProperties, ec2Config, numberOfInstanceToStartOrCreate, consoleLogAppender);
             if (instancesToStart.isEmpty()) {
-                LOG.info(format("None of the stopped instances match the configuration {0}.", ec2Config));
                 return Optional.empty();
             }
 
-            removeLastSeenIdleTag(pluginSettings, instancesToStart);
+            return waitInstanceToStart(pluginSettings, ec2Config, instancesToStart, consoleLogAppender);
+        }
+    }
 
-            LOG.info(format("Starting {0} instances.", instancesToStart.size()));
-            consoleLogAppender.accept(String.format("Found existing stopped instance(s) matching platform configurations. Starting (%s) instances to schedule ECS Task.", instancesToStart));
+    /**
+     * Starts up to {@code numberOfInstanceToStart} stopped instances matching the profile, without waiting for
+     * them to register. Must be called holding the platform lock.
+     */
+    private List<String> startStoppedInstances(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, EC2Config ec2Config, int numberOfInstanceToStart, ConsoleLogAppender consoleLogAppender) {
+        String instanceName = String.format("%s_%s_INSTANCE", pluginSettings.getClusterName(), elasticAgentProfileProperties.platform());
+        final List<Instance> allStoppedInstances = filterBy(filterByState(getAllOnDemandInstances(pluginSettings), STOPPED), hasTag("Name", instanceName))
+                .stream()
+                .filter(platformPredicate(elasticAgentProfileProperties.platform()))
+                .toList();
 
-            pluginSettings.ec2Client().startInstances(StartInstancesRequest.builder().instanceIds(instancesToStart).build());
+        if (allStoppedInstances.isEmpty()) {
+            LOG.info("No stopped instances found.");
+            return emptyList();
+        }
 
-            return waitInstanceToStart(pluginSettings, ec2Config, instancesToStart, consoleLogAppender);
+        LOG.info(format("Found {0} stopped instances.", allStoppedInstances.size()));
+
+        final List<Instance> matchingStoppedInstances = allStoppedInstances.stream()
+                .filter(instance -> instanceMatcher.matches(ec2Config, instance))
+                .limit(numberOfInstanceToStart)
+                .toList();
+        final List<String> instancesToStart = matchingStoppedInstances.stream()
+                .map(Instance::instanceId)
+                .collect(toList());
+
+        if (instancesToStart.isEmpty()) {
+            LOG.info(format("None of the stopped instances match the configuration {0}.", ec2Config));
+            return emptyList();
         }
+
+        removeLastSeenIdleTag(pluginSettings, instancesToStart);
+
+        LOG.info(format("Starting {0} instances.", instancesToStart.size()));
+        consoleLogAppender.accept(String.format("Found existing stopped instance(s) matching platform configurations. Starting (%s) instances to schedule ECS Task.", instancesToStart));
+
+        pluginSettings.ec2Client().startInstances(StartInstancesRequest.builder().instanceIds(instancesToStart).build());
+        scaleInController.started(pluginSettings, elasticAgentProfileProperties.platform(), stoppedAt(matchingStoppedInstances));
+        return instancesToStart;
     }
 
     public Optional<List<ContainerInstance>> createInstances(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, int numberOfInstancesToCreate, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
+        final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("create-instances", elasticAgentProfileProperties.platform(), pluginSettings);
         synchronized (elasticAgentProfileProperties.platform()) {
+            lockEvent.acquired();
             if (numberOfInstancesToCreate == 0) {
                 LOG.info("Not creating new instances as number of requested ec2 instances are 0.");
                 return Optional.empty();
@@ -290,37 +454,132 @@ public class ContainerInstanceHelper {
                     .profile(elasticAgentProfileProperties)
                     .build();
 
-            final List<Instance> allInstances = allInstances(pluginSettings, elasticAgentProfileProperties.platform());
-            final List<Instance> allOnDemandInstances = filterBy(allInstances, isOnDemandInstance());
-            final List<Instance> instancesForPlatform = filterByPlatform(allOnDemandInstances, ec2Config.getPlatform());
-            final List<Instance> stoppedInstances = filterByState(instancesForPlatform, STOPPED);
+            final List<String> newlyLaunchedInstances = launchInstances(pluginSettings, elasticAgentProfileProperties, ec2Config, numberOfInstancesToCreate, emptyList(), consoleLogAppender);
+            return waitInstanceToStart(pluginSettings, ec2Config, newlyLaunchedInstances, consoleLogAppender);
+        }
+    }
 
-            LOG.info(format("Found total {0} on-demand instances for platform {1} and from that {2} instances are in stopped state.", instancesForPlatform.size(), ec2Config.getPlatform(), stoppedInstances.size()));
+    /**
+     * Launches {@code numberOfInstancesToCreate} new instances for the profile, without waiting for them to
+     * register. {@code startingInstanceIds} were just started, and count as running even when EC2 still describes
+     * them as stopped. Must be called holding the platform lock.
+     */
+    private List<String> launchInstances(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, EC2Config ec2Config, int numberOfInstancesToCreate,
+                                         Collection<String> startingInstanceIds, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
+        final List<Instance> allInstances = allInstances(pluginSettings, elasticAgentProfileProperties.platform());
+        final List<Instance> allOnDemandInstances = filterBy(allInstances, isOnDemandInstance());
+        final List<Instance> instancesForPlatform = filterByPlatform(allOnDemandInstances, ec2Config.getPlatform());
+        final List<Instance> stoppedInstances = filterByState(instancesForPlatform, STOPPED).stream()
+                .filter(instance -> !startingInstanceIds.contains(instance.instanceId()))
+                .collect(toList());
 
-            if (stoppedInstances.size() == ec2Config.getMaxInstancesAllowed()) {
-                terminateMostIdleStoppedInstance(pluginSettings, stoppedInstances);
-            } else if (ec2Config.getMaxInstancesAllowed() <= instancesForPlatform.size()) {
-                throw new LimitExceededException(ec2Config.getPlatform().name(), ec2Config.getMaxInstancesAllowed());
-            }
+        LOG.info(format("Found total {0} on-demand instances for platform {1} and from that {2} instances are in stopped state.", instancesForPlatform.size(), ec2Config.getPlatform(), stoppedInstances.size()));
 
-            final Subnet selectedSubnet = subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, ec2Config.getSubnetIds(), allInstances);
+        if (stoppedInstances.size() == ec2Config.getMaxInstancesAllowed()) {
+            terminateMostIdleStoppedInstance(pluginSettings, ec2Config.getPlatform(), stoppedInstances);
+        } else if (ec2Config.getMaxInstancesAllowed() <= instancesForPlatform.size()) {
+            throw new LimitExceededException(ec2Config.getPlatform().name(), ec2Config.getMaxInstancesAllowed());
+        }
 
-            final RunInstancesRequest runInstancesRequest = new RunInstanceRequestBuilder()
-                    .eC2Config(ec2Config)
-                    .subnet(selectedSubnet)
-                    .instanceToCreate(numberOfInstancesToCreate)
-                    .serverId(getServerId())
-                    .build();
+        final Subnet selectedSubnet = subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, ec2Config.getSubnetIds(), allInstances);
+
+        final RunInstanceRequestBuilder runInstanceRequestBuilder = new RunInstanceRequestBuilder()
+                .eC2Config(ec2Config)
+                .instanceToCreate(numberOfInstancesToCreate)
+                .serverId(getServerId());
+        final String launchTemplateId = pluginSettings.useLaunchTemplates()
+                ? launchTemplates.launchTemplateId(pluginSettings, runInstanceRequestBuilder.buildLaunchTemplateData())
+                : null;
+
+        consoleLogAppender.accept("Creating a new container instance to schedule ECS Task.");
+        RunInstancesResponse runInstancesResponse;
+        try {
+            runInstancesResponse = runInstances(pluginSettings, ec2Config, allInstances, selectedSubnet, runInstanceRequestBuilder, launchTemplateId, consoleLogAppender);
+        } catch (Ec2Exception e) {
+            if (launchTemplateId == null || !LaunchTemplates.isNotFound(e)) {
+                throw e;
+            }
+            LOG.warn(format("Launch template {0} no longer exists, creating it again.", launchTemplateId));
+            launchTemplates.evict(pluginSettings, launchTemplateId);
+            final String recreatedTemplateId = launchTemplates.launchTemplateId(pluginSettings, runInstanceRequestBuilder.buildLaunchTemplateData());
+            runInstancesResponse = runInstances(pluginSettings, ec2Config, allInstances, selectedSubnet, runInstanceRequestBuilder, recreatedTemplateId, consoleLogAppender);
+        }
+        scaleInController.launched(pluginSettings, ec2Config.getPlatform());
+
+        return runInstancesResponse.instances().stream()
+                .map(Instance::instanceId).collect(toList());
+    }
+
+    /**
+     * Launches in the preferred instance type and subnet, unless EC2 recently had no capacity for that type in that
+     * subnet's availability zone. Then, or when the launch fails for lack of capacity, tries the other acceptable
+     * instance types in order, each in every subnet, skipping the pools known to be out of capacity.
+     */
+    private RunInstancesResponse runInstances(PluginSettings pluginSettings, EC2Config ec2Config, List<Instance> allInstances, Subnet selectedSubnet,
+                                              RunInstanceRequestBuilder runInstanceRequestBuilder, String launchTemplateId, ConsoleLogAppender consoleLogAppender) {
+        final LaunchPool preferred = new LaunchPool(ec2Config.getInstanceType(), selectedSubnet);
+        final List<LaunchPool> tried = new ArrayList<>();
+        Ec2Exception capacityError = null;
+
+        List<LaunchPool> candidates = List.of(preferred);
+        for (int round = 0; round < 2; round++) {
+            for (LaunchPool candidate : candidates) {
+                if (tried.contains(candidate) || !capacityPools.isAvailable(candidate.pool(pluginSettings))) {
+                    continue;
+                }
+                tried.add(candidate);
+                try {
+                    return runInstances(pluginSettings, runInstanceRequestBuilder, launchTemplateId, candidate);
+                } catch (Ec2Exception e) {
+                    if (!CapacityPools.isCapacityError(e)) {
+                        throw e;
+                    }
+                    consoleLogAppender.accept(format("EC2 has no capacity for {0}, trying another instance type or subnet.", candidate));
+                    capacityError = e;
+                }
+            }
+            candidates = fallbackPools(pluginSettings, ec2Config, allInstances);
+        }
 
-            consoleLogAppender.accept("Creating a new container instance to schedule ECS Task.");
-            LOG.info(format("Creating container instance with configuration: {0}", runInstancesRequest.toString()));
-            RunInstancesResponse runInstancesResponse = pluginSettings.ec2Client().runInstances(runInstancesRequest);
+        if (capacityError != null) {
+            throw capacityError;
+        }
+        // every acceptable pool ran out of capacity recently, but capacity may have come back since
+        return runInstances(pluginSettings, runInstanceRequestBuilder, launchTemplateId, preferred);
+    }
+
+    private RunInstancesResponse runInstances(PluginSettings pluginSettings, RunInstanceRequestBuilder runInstanceRequestBuilder, String launchTemplateId, LaunchPool pool) {
+        runInstanceRequestBuilder.subnet(pool.subnet()).instanceType(pool.instanceType());
+        final RunInstancesRequest runInstancesRequest = launchTemplateId != null
+                ? runInstanceRequestBuilder.buildFromLaunchTemplate(launchTemplateId)
+                : runInstanceRequestBuilder.build();
+
+        LOG.info(format("Creating container instance with configuration: {0}", runInstancesRequest.toString()));
+        try {
+            final RunInstancesResponse response = pluginSettings.ec2Client().runInstances(runInstancesRequest);
+            subnetSelector.launched(pool.subnet(), response.instances().size());
+            return response;
+        } catch (Ec2Exception e) {
+            if (CapacityPools.isCapacityError(e)) {
+                capacityPools.markUnavailable(pool.pool(pluginSettings));
+            }
+            if (CapacityPools.isCapacityError(e) || isOutOfAddresses(e)) {
+                subnetSelector.launchFailed(pool.subnet(), e.awsErrorDetails().errorCode());
+            }
+            throw e;
+        }
+    }
 
-            List<String> newlyLaunchedInstances = runInstancesResponse.instances().stream()
-                    .map(Instance::instanceId).collect(toList());
+    private boolean isOutOfAddresses(Ec2Exception e) {
+        return e.awsErrorDetails() != null && SubnetCatalog.OUT_OF_ADDRESSES.equals(e.awsErrorDetails().errorCode());
+    }
 
-            return waitInstanceToStart(pluginSettings, ec2Config, newlyLaunchedInstances, consoleLogAppender);
-        }
+    private List<LaunchPool> fallbackPools(PluginSettings pluginSettings, EC2Config ec2Config, List<Instance> allInstances) {
+        final List<Subnet> subnets = subnetSelector.subnetsInPreferenceOrder(pluginSettings, ec2Config.getSubnetIds(), allInstances);
+        final List<Subnet> subnetsOrAnyZone = subnets.isEmpty() ? Collections.singletonList(null) : subnets;
+        return ec2Config.getInstanceTypes().stream()
+                .flatMap(instanceType -> subnetsOrAnyZone.stream().map(subnet -> new LaunchPool(instanceType, subnet)))
+                .toList();
     }
 
     private List<Instance> allInstances(PluginSettings pluginSettings, Platform platform) {
@@ -384,7 +643,8 @@ public class ContainerInstanceHelper {
                 .cluster(settings.getClusterName())
                 .build();
 
-        return settings.ecsClient().listContainerInstances(listContainerInstancesRequest).containerInstanceArns();
+        return hedgedReads.read(settings, "ListContainerInstances",
+                () -> settings.ecsClient().listContainerInstances(listContainerInstancesRequest)).containerInstanceArns();
     }
 
 
@@ -431,6 +691,7 @@ public class ContainerInstanceHelper {
 
         LOG.info(format("Waiting for instances({0}) to register with cluster.", instanceIds));
         final Result<List<ContainerInstance>> result = new Poller<List<ContainerInstance>>()
+                .describedAs(format("{0} {1} instance(s) registering with cluster {2}", instanceIds.size(), ec2Config.getPlatform(), pluginSettings.getClusterName()))
                 .timeout(ec2Config.getRegisterTimeOut())
                 .stopWhen(containerInstances -> containerInstances.size() == instanceIds.size())
                 .poll(waitInstanceToStartSupplier(pluginSettings, instanceIds))
@@ -448,16 +709,19 @@ public class ContainerInstanceHelper {
         return Optional.ofNullable(result.get());
     }
 
-    private void terminateMostIdleStoppedInstance(PluginSettings pluginSettings, List<Instance> stoppedInstances) {
-        stoppedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now()));
+    private Map<String, Instant> stoppedAt(List<Instance> stoppedInstances) {
+        final Map<String, Instant> stoppedAt = new HashMap<>();
+        stoppedInstances.forEach(instance -> instanceStates.stoppedAt(instance).ifPresent(at -> stoppedAt.put(instance.instanceId(), at)));
+        return stoppedAt;
+    }
+
+    private void terminateMostIdleStoppedInstance(PluginSettings pluginSettings, Platform platform, List<Instance> stoppedInstances) {
+        stoppedInstances.sort(new MostIdleInstanceComparator(clock.now(), instanceStates));
         final String instanceId = stoppedInstances.getFirst().instanceId();
 
         LOG.info(format("Terminating stopped instance as max cluster limit is reached {0}.", instanceId));
-        final Optional<ContainerInstance> containerInstance = getContainerInstances(pluginSettings)
-                .stream().filter(ci -> ci.ec2InstanceId().equals(instanceId))
-                .findFirst();
-
-        containerInstance.ifPresent(self -> new TerminateOperation().execute(pluginSettings, self));
+        containerInstanceFor(pluginSettings, instanceId).ifPresent(self -> terminateOperation.execute(pluginSettings, self));
+        scaleInController.replacedStopped(pluginSettings, platform);
     }
 
     private Collection<String> instancesFailedToRegister(Result<List<ContainerInstance>> result, Collection<String> allRequestedInstances) {
@@ -475,4 +739,19 @@ public class ContainerInstanceHelper {
                 .filter(requestInstanceId -> !instancesRegistered.contains(requestInstanceId))
                 .collect(toSet());
     }
+
+    private record LaunchPool(String instanceType, Subnet subnet) {
+        String availabilityZone() {
+            return subnet == null ? null : subnet.availabilityZone();
+        }
+
+        CapacityPools.Pool pool(PluginSettings pluginSettings) {
+            return new CapacityPools.Pool(pluginSettings.getRegion(), instanceType, availabilityZone());
+        }
+
+        @Override
+        public String toString() {
+            return instanceType + (subnet == null ? "" : " in " + subnet.subnetId() + " (" + availabilityZone() + ")");
+        }
+    }
 }
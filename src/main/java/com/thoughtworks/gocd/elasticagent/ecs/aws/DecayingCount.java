@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A count that halves every half-life, such as the recent failures of a subnet or of an instance. It is immutable:
+ * {@link #incrementedAt} returns the count decayed to that moment with one added.
+ */
+final class DecayingCount {
+    private final Duration halfLife;
+    private final double count;
+    private final Instant at;
+
+    DecayingCount(Duration halfLife) {
+        this(halfLife, 0, null);
+    }
+
+    private DecayingCount(Duration halfLife, double count, Instant at) {
+        this.halfLife = halfLife;
+        this.count = count;
+        this.at = at;
+    }
+
+    DecayingCount incrementedAt(Instant now) {
+        return new DecayingCount(halfLife, decayedTo(now) + 1, now);
+    }
+
+    double decayedTo(Instant now) {
+        if (at == null) {
+            return 0;
+        }
+        final double halfLives = (double) Duration.between(at, now).toMillis() / halfLife.toMillis();
+        return count * Math.pow(0.5, Math.max(0, halfLives));
+    }
+}
@@ -28,14 +28,16 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
+import java.util.List;
 
 import static com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin.getServerId;
 import static com.thoughtworks.gocd.elasticagent.ecs.utils.Util.getOrDefault;
+import static com.thoughtworks.gocd.elasticagent.ecs.utils.Util.listFromCommaSeparatedString;
 
 @ToString
 public class EC2Config {
     private String ami;
-    private String instanceType;
+    private List<String> instanceTypes;
     private String keyPair;
     private Collection<String> securityGroups;
     private String iamInstanceProfile;
@@ -60,8 +62,19 @@ public class EC2Config {
         return ami;
     }
 
+    /**
+     * The preferred instance type, which is the first of {@link #getInstanceTypes()}.
+     */
     public String getInstanceType() {
-        return instanceType;
+        return instanceTypes.isEmpty() ? null : instanceTypes.getFirst();
+    }
+
+    /**
+     * The acceptable instance types in order of preference, tried in turn when EC2 has no capacity for the
+     * preferred one.
+     */
+    public List<String> getInstanceTypes() {
+        return instanceTypes;
     }
 
     public String getSSHKeyName() {
@@ -168,7 +181,7 @@ public class EC2Config {
             final EC2Config ec2Config = new EC2Config();
             ec2Config.platform = elasticAgentProfileProperties.platform();
             ec2Config.ami = getOrDefault(elasticAgentProfileProperties.getAmiID(), pluginSettings.getWindowsAMI());
-            ec2Config.instanceType = getOrDefault(elasticAgentProfileProperties.getInstanceType(), pluginSettings.getWindowsInstanceType());
+            ec2Config.instanceTypes = listFromCommaSeparatedString(getOrDefault(elasticAgentProfileProperties.getInstanceType(), pluginSettings.getWindowsInstanceType()));
 
             ec2Config.operatingSystemVolumeType = pluginSettings.getWindowsOSVolumeType();
             ec2Config.operationSystemVolumeSize = pluginSettings.getWindowsOSVolumeSize();
@@ -195,7 +208,7 @@ public class EC2Config {
             final EC2Config ec2Config = new EC2Config();
             ec2Config.platform = elasticAgentProfileProperties.platform();
             ec2Config.ami = getOrDefault(elasticAgentProfileProperties.getAmiID(), pluginSettings.getLinuxAMI());
-            ec2Config.instanceType = getOrDefault(elasticAgentProfileProperties.getInstanceType(), pluginSettings.getLinuxInstanceType());
+            ec2Config.instanceTypes = listFromCommaSeparatedString(getOrDefault(elasticAgentProfileProperties.getInstanceType(), pluginSettings.getLinuxInstanceType()));
             ec2Config.operatingSystemVolumeType = pluginSettings.getLinuxOSVolumeType();
             ec2Config.operationSystemVolumeSize = pluginSettings.getLinuxOSVolumeSize();
             ec2Config.operationSystemVolumeProvisionedIOPS = pluginSettings.getLinuxOSVolumeProvisionedIOPS();
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
+import software.amazon.awssdk.core.exception.AbortedException;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Sends a read call on the job start path a second time when it has not answered within the 95th percentile
+ * of its recent latencies, and takes whichever answer comes first. The read calls describing a cluster are
+ * idempotent, so the duplicate costs one extra call in the slowest one in twenty reads, in exchange for cutting
+ * off the tail that a job would otherwise wait on.
+ *
+ * <p>Only {@link AwsRateLimiter.Priority#INTERACTIVE} reads of clusters with hedging enabled are hedged, and
+ * only once {@link #MIN_SAMPLES} latencies of the call have been seen; every other read is just timed.
+ */
+public class HedgedReads {
+    static final int WINDOW_SIZE = 100;
+    static final int MIN_SAMPLES = 20;
+    static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(50);
+
+    private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+    private final PluginMetrics metrics;
+
+    public HedgedReads(PluginMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public <T> T read(PluginSettings settings, String operation, Supplier<T> call) {
+        final String clusterName = settings.getClusterName();
+        final Latencies latencies = this.latencies.computeIfAbsent(clusterName + "/" + operation, key -> new Latencies());
+        final Duration hedgeDelay = latencies.hedgeDelay();
+        if (!settings.hedgeReads() || AwsRateLimiter.currentPriority() != AwsRateLimiter.Priority.INTERACTIVE || hedgeDelay == null) {
+            return timed(latencies, call);
+        }
+
+        metrics.hedgeableRead(clusterName, operation);
+        final AwsRateLimiter.Priority priority = AwsRateLimiter.currentPriority();
+        final PluginMetrics callerMetrics = PluginMetrics.forAwsCalls();
+        final CompletableFuture<T> original = start(latencies, call, priority, callerMetrics);
+        try {
+            return original.get(hedgeDelay.toNanos(), NANOSECONDS);
+        } catch (TimeoutException e) {
+            // slower than usual, hedge below
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AbortedException.create("Interrupted while waiting for " + operation, e);
+        }
+
+        final CompletableFuture<T> hedge = start(latencies, call, priority, callerMetrics);
+        final CompletableFuture<Boolean> hedgeWon = new CompletableFuture<>();
+        original.thenRun(() -> hedgeWon.complete(false));
+        hedge.thenRun(() -> hedgeWon.complete(true));
+        CompletableFuture.allOf(original, hedge).whenComplete((ignored, e) -> {
+            if (e != null) {
+                hedgeWon.completeExceptionally(e);
+            }
+        });
+
+        try {
+            final boolean won = hedgeWon.join();
+            metrics.hedgedRead(clusterName, operation, won);
+            return (won ? hedge : original).join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    void recordLatency(PluginSettings settings, String operation, Duration latency) {
+        latencies.computeIfAbsent(settings.getClusterName() + "/" + operation, key -> new Latencies()).record(latency.toNanos());
+    }
+
+    private static <T> T timed(Latencies latencies, Supplier<T> call) {
+        final long startedAt = System.nanoTime();
+        final T result = call.get();
+        latencies.record(System.nanoTime() - startedAt);
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> start(Latencies latencies, Supplier<T> call, AwsRateLimiter.Priority priority, PluginMetrics callerMetrics) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        Thread.ofVirtual().name("hedged-read").start(() -> {
+            AwsRateLimiter.usePriority(priority);
+            PluginMetrics.useForAwsCalls(callerMetrics);
+            try {
+                future.complete(timed(latencies, call));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        throw new RuntimeException(cause);
+    }
+
+    private static final class Latencies {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        synchronized Duration hedgeDelay() {
+            if (count < MIN_SAMPLES) {
+                return null;
+            }
+            final long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            final Duration p95 = Duration.ofNanos(sorted[(int) Math.ceil(count * 0.95) - 1]);
+            return p95.compareTo(MIN_HEDGE_DELAY) < 0 ? MIN_HEDGE_DELAY : p95;
+        }
+    }
+}
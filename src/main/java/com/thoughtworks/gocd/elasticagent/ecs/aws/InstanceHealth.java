@@ -0,0 +1,199 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * What the agent tasks placed on each EC2 instance went on to do, to find instances in a bad state, such as a full
+ * disk, a wedged Docker daemon or a flapping ECS agent, that keep being picked because they look idle.
+ *
+ * <p>Every task that fails to start on an instance, never registers its agent or stops on its own soon after
+ * starting is a failure of the instance for the image the task runs, counting for less the longer ago it was, halving
+ * every {@link #FAILURE_HALF_LIFE}. The failures for an image only count against the instance while an agent of the
+ * same image registered on another instance within {@link #SUCCESS_RELEVANT_FOR}, so a bad image or a bad profile,
+ * which fails everywhere, does not take healthy instances down with it. An instance whose recent failures reach
+ * {@link #QUARANTINE_AT} is quarantined: it is no longer picked for new tasks, and once its running tasks are gone it
+ * is terminated so the server ping replaces it. Quarantine lasts until the instance is terminated.
+ *
+ * <p>At most {@link #MAX_QUARANTINED_FRACTION} of a cluster's instances, and at least one, are treated as
+ * quarantined at a time, the ones with the most recent failures first; see {@link #quarantinedAmong}.
+ */
+public class InstanceHealth {
+    private static final Logger LOG = Logger.getLoggerFor(InstanceHealth.class);
+    static final Duration FAILURE_HALF_LIFE = Duration.ofMinutes(30);
+    static final Duration SUCCESS_RELEVANT_FOR = Duration.ofHours(2);
+    static final double QUARANTINE_AT = 3;
+    static final double MAX_QUARANTINED_FRACTION = 1.0 / 3;
+    private static final double FORGOTTEN_BELOW = 0.05;
+
+    // instance id -> image -> failures of the image's tasks on the instance
+    private final Map<String, Map<String, DecayingCount>> failures = new ConcurrentHashMap<>();
+    // image -> instance id -> when an agent of the image last registered on the instance
+    private final Map<String, Map<String, Instant>> registrations = new ConcurrentHashMap<>();
+    private final Set<String> quarantined = ConcurrentHashMap.newKeySet();
+    private final Clock clock;
+
+    public InstanceHealth(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void recordStartFailure(String instanceId, ElasticAgentProfileProperties profile) {
+        recordFailure(instanceId, imageOf(profile), "task failed to start");
+    }
+
+    public void recordUnregisteredAgent(String instanceId, ElasticAgentProfileProperties profile) {
+        recordFailure(instanceId, imageOf(profile), "agent never registered");
+    }
+
+    public void recordEarlyStop(String instanceId, ElasticAgentProfileProperties profile) {
+        recordFailure(instanceId, imageOf(profile), "task stopped soon after starting");
+    }
+
+    /**
+     * An agent of the profile registered on the instance, so the failures of the same image on other instances
+     * count against them.
+     */
+    public void recordRegisteredAgent(String instanceId, ElasticAgentProfileProperties profile) {
+        if (instanceId == null) {
+            return;
+        }
+        final String image = imageOf(profile);
+        final Instant now = clock.now();
+        registrations.computeIfAbsent(image, key -> new ConcurrentHashMap<>()).put(instanceId, now);
+        registrations.values().forEach(byInstance -> byInstance.values().removeIf(at -> at.isBefore(now.minus(SUCCESS_RELEVANT_FOR))));
+        registrations.values().removeIf(Map::isEmpty);
+
+        failures.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(instanceId) && entry.getValue().containsKey(image))
+                .forEach(entry -> checkQuarantine(entry.getKey(), "tasks of image " + image + " fail on it while running elsewhere"));
+    }
+
+    /**
+     * Whether the instance reached the quarantine threshold, regardless of how many other instances did.
+     */
+    public boolean isQuarantined(String instanceId) {
+        return instanceId != null && quarantined.contains(instanceId);
+    }
+
+    /**
+     * The quarantined instances among the given instances of a cluster, the ones with the most recent failures first,
+     * at most {@link #MAX_QUARANTINED_FRACTION} of them and at least one. Failures this widespread point at something
+     * other than the instances, so the rest of them keep running agents rather than being drained all at once.
+     */
+    public Set<String> quarantinedAmong(Collection<String> instanceIds) {
+        if (quarantined.isEmpty()) {
+            return Set.of();
+        }
+        final int cap = Math.max(1, (int) (instanceIds.size() * MAX_QUARANTINED_FRACTION));
+        return instanceIds.stream()
+                .filter(this::isQuarantined)
+                .distinct()
+                .sorted(Comparator.comparingDouble(this::recentFailures).reversed())
+                .limit(cap)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * The failures of the instance counting against it now: the ones for images that registered agents elsewhere.
+     */
+    public double recentFailures(String instanceId) {
+        final Map<String, DecayingCount> byImage = instanceId == null ? null : failures.get(instanceId);
+        if (byImage == null) {
+            return 0;
+        }
+        final Instant now = clock.now();
+        return byImage.entrySet().stream()
+                .filter(entry -> registeredElsewhere(entry.getKey(), instanceId, now))
+                .mapToDouble(entry -> entry.getValue().decayedTo(now))
+                .sum();
+    }
+
+    /**
+     * A line describing the health of each of the given instances that has failed recently, for the status report.
+     */
+    public Map<String, String> describe(Collection<String> instanceIds) {
+        final Set<String> quarantinedInstances = quarantinedAmong(instanceIds);
+        final Map<String, String> descriptions = new LinkedHashMap<>();
+        for (String instanceId : instanceIds) {
+            final double recentFailures = recentFailures(instanceId);
+            if (quarantinedInstances.contains(instanceId)) {
+                descriptions.put(instanceId, format("Quarantined, draining to be replaced ({0,number,0.#} recent failures)", recentFailures));
+            } else if (isQuarantined(instanceId)) {
+                descriptions.put(instanceId, format("Degraded ({0,number,0.#} recent failures), not quarantined while too many other instances are", recentFailures));
+            } else if (recentFailures >= FORGOTTEN_BELOW) {
+                descriptions.put(instanceId, format("Degraded ({0,number,0.#} recent failures, quarantined at {1,number,0.#})", recentFailures, QUARANTINE_AT));
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * Drops terminated instances.
+     */
+    public void forget(Collection<String> instanceIds) {
+        failures.keySet().removeAll(instanceIds);
+        quarantined.removeAll(instanceIds);
+        registrations.values().forEach(byInstance -> byInstance.keySet().removeAll(instanceIds));
+    }
+
+    private void recordFailure(String instanceId, String image, String failure) {
+        if (instanceId == null) {
+            return;
+        }
+        final Instant now = clock.now();
+        failures.computeIfAbsent(instanceId, id -> new ConcurrentHashMap<>())
+                .compute(image, (key, previous) -> (previous == null ? new DecayingCount(FAILURE_HALF_LIFE) : previous).incrementedAt(now));
+        failures.values().forEach(byImage -> byImage.values().removeIf(other -> other.decayedTo(now) < FORGOTTEN_BELOW));
+        failures.values().removeIf(Map::isEmpty);
+        checkQuarantine(instanceId, failure);
+    }
+
+    private void checkQuarantine(String instanceId, String lastFailure) {
+        final double recentFailures = recentFailures(instanceId);
+        if (recentFailures >= QUARANTINE_AT && quarantined.add(instanceId)) {
+            LOG.warn(format("Quarantining instance {0} after {1,number,0.#} recent failures, the last one: {2}.", instanceId, recentFailures, lastFailure));
+        }
+    }
+
+    private boolean registeredElsewhere(String image, String instanceId, Instant now) {
+        final Map<String, Instant> byInstance = registrations.getOrDefault(image, Map.of());
+        return byInstance.entrySet().stream()
+                .anyMatch(entry -> !entry.getKey().equals(instanceId) && !entry.getValue().isBefore(now.minus(SUCCESS_RELEVANT_FOR)));
+    }
+
+    private static String imageOf(ElasticAgentProfileProperties profile) {
+        return profile == null ? "" : Objects.requireNonNullElse(profile.getImage(), "");
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.state.InstanceStateJournal;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.STOPPED_AT;
+import static java.text.MessageFormat.format;
+import static java.util.stream.Collectors.*;
+
+/**
+ * Authoritative idle and stop timestamps of the EC2 instances, kept in memory so that marking an instance
+ * costs no AWS call and deciding what to stop or terminate reads no tags.
+ *
+ * <p>The {@code LAST_SEEN_IDLE} and {@code STOPPED_AT} tags remain the durable copy. Idle changes are queued
+ * and written by {@link #flush(PluginSettings)}, which the server ping calls once per cluster, as one
+ * CreateTags per tag value (or one DeleteTags) for all the instances changed since the last flush, so every
+ * instance keeps its own timestamp. {@code STOPPED_AT} is written straight away by
+ * {@link #markStopped(PluginSettings, Collection)}: a stopped instance without it is terminated as soon as it is
+ * seen, which must not happen to one stopped just before a restart. Instances the table has not seen are read
+ * from their tags.
+ *
+ * <p>Every change is also passed on to an {@link InstanceStateJournal}, so that idle changes not flushed yet survive
+ * a restart; the table restored from it takes precedence over the tags, as it does while running.
+ *
+ * <p>The table also remembers the container instance ARN each EC2 instance registered with, so that a single
+ * instance can be described by ARN instead of listing and describing the whole cluster.
+ */
+public class InstanceStateTable {
+    private static final Logger LOG = Logger.getLoggerFor(InstanceStateTable.class);
+
+    private final Map<String, ConcurrentMap<String, TagState>> states = Map.of(
+            LAST_SEEN_IDLE, new ConcurrentHashMap<>(),
+            STOPPED_AT, new ConcurrentHashMap<>());
+    private final Map<String, Map<TagWrite, TagState>> pendingByCluster = new HashMap<>();
+    private final ConcurrentMap<String, String> containerInstanceArns = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private volatile InstanceStateJournal journal = InstanceStateJournal.NONE;
+
+    public InstanceStateTable() {
+        this(Clock.DEFAULT);
+    }
+
+    public InstanceStateTable(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Takes the states read back from the journal, and passes every later change on to it. A state the table has
+     * already seen since the start is kept.
+     */
+    public void restore(Collection<InstanceStateJournal.Entry> entries, InstanceStateJournal journal) {
+        synchronized (this) {
+            for (InstanceStateJournal.Entry entry : entries) {
+                final ConcurrentMap<String, TagState> byInstance = states.get(entry.tagKey());
+                if (byInstance != null) {
+                    byInstance.putIfAbsent(entry.instanceId(), new TagState(entry.value()));
+                }
+            }
+            this.journal = journal;
+        }
+    }
+
+    public void markIdle(PluginSettings pluginSettings, Collection<String> instanceIds) {
+        record(pluginSettings, LAST_SEEN_IDLE, instanceIds, new TagState(clock.now()));
+        journal.sync();
+    }
+
+    public void clearIdle(PluginSettings pluginSettings, Collection<String> instanceIds) {
+        record(pluginSettings, LAST_SEEN_IDLE, instanceIds, TagState.REMOVED);
+        journal.sync();
+    }
+
+    /**
+     * Tags the instances as stopped now, before they are stopped. Throws if the tag could not be written, in which
+     * case the instances must not be stopped.
+     */
+    public void markStopped(PluginSettings pluginSettings, Collection<String> instanceIds) {
+        final TagState state = new TagState(clock.now());
+        createTags(pluginSettings, STOPPED_AT, state.value(), instanceIds);
+
+        synchronized (this) {
+            for (String instanceId : instanceIds) {
+                states.get(STOPPED_AT).put(instanceId, state);
+                journal.recorded(instanceId, STOPPED_AT, state.value());
+            }
+        }
+        journal.sync();
+    }
+
+    /**
+     * Drops terminated instances, along with any of their tag writes not flushed yet.
+     */
+    public void forget(Collection<String> instanceIds) {
+        synchronized (this) {
+            states.values().forEach(byInstance -> byInstance.keySet().removeAll(instanceIds));
+            containerInstanceArns.keySet().removeAll(instanceIds);
+            pendingByCluster.values().forEach(pending -> pending.keySet().removeIf(write -> instanceIds.contains(write.instanceId())));
+            journal.forgotten(instanceIds);
+        }
+        journal.sync();
+    }
+
+    public void recordContainerInstances(Collection<ContainerInstance> containerInstances) {
+        containerInstances.stream()
+                .filter(containerInstance -> containerInstance.ec2InstanceId() != null && containerInstance.containerInstanceArn() != null)
+                .forEach(containerInstance -> containerInstanceArns.put(containerInstance.ec2InstanceId(), containerInstance.containerInstanceArn()));
+    }
+
+    public Optional<String> containerInstanceArn(String instanceId) {
+        return instanceId == null ? Optional.empty() : Optional.ofNullable(containerInstanceArns.get(instanceId));
+    }
+
+    /**
+     * Drops the ARN recorded for the instance, unless it has been replaced by a newer registration since.
+     */
+    public void forgetContainerInstanceArn(String instanceId, String containerInstanceArn) {
+        containerInstanceArns.remove(instanceId, containerInstanceArn);
+    }
+
+    public Optional<Instant> lastSeenIdle(Instance instance) {
+        return valueOf(instance, LAST_SEEN_IDLE);
+    }
+
+    public boolean isMarkedIdle(Instance instance) {
+        final TagState state = stateOf(instance, LAST_SEEN_IDLE);
+        return state != null ? state.value() != null : tagOf(instance, LAST_SEEN_IDLE).isPresent();
+    }
+
+    public Optional<Instant> stoppedAt(Instance instance) {
+        return valueOf(instance, STOPPED_AT);
+    }
+
+    /**
+     * Writes the tag changes queued for the cluster. A batch that fails is queued again, unless a later
+     * change to the same instance has replaced it, and retried on the next flush.
+     */
+    public void flush(PluginSettings pluginSettings) {
+        final Map<TagWrite, TagState> pending;
+        synchronized (this) {
+            pending = pendingByCluster.remove(clusterKey(pluginSettings));
+        }
+
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+
+        final Map<Batch, Map<TagWrite, TagState>> batches = pending.entrySet().stream()
+                .collect(groupingBy(entry -> new Batch(entry.getKey().tagKey(), entry.getValue()), toMap(Map.Entry::getKey, Map.Entry::getValue)));
+
+        batches.forEach((batch, writes) -> write(pluginSettings, writes, batch.state() == TagState.REMOVED
+                ? () -> deleteTags(pluginSettings, batch.tagKey(), writes)
+                : () -> createTags(pluginSettings, batch.tagKey(), batch.state().value(), instanceIds(writes))));
+    }
+
+    private synchronized void record(PluginSettings pluginSettings, String tagKey, Collection<String> instanceIds, TagState state) {
+        final Map<TagWrite, TagState> pending = pendingByCluster.computeIfAbsent(clusterKey(pluginSettings), key -> new HashMap<>());
+        for (String instanceId : instanceIds) {
+            states.get(tagKey).put(instanceId, state);
+            pending.put(new TagWrite(instanceId, tagKey), state);
+            journal.recorded(instanceId, tagKey, state.value());
+        }
+    }
+
+    private void write(PluginSettings pluginSettings, Map<TagWrite, TagState> writes, Runnable call) {
+        try {
+            call.run();
+        } catch (Exception e) {
+            LOG.warn(format("Could not write tags of instances {0}, will retry on the next server ping: {1}", instanceIds(writes), e.getMessage()));
+            synchronized (this) {
+                final Map<TagWrite, TagState> pending = pendingByCluster.computeIfAbsent(clusterKey(pluginSettings), key -> new HashMap<>());
+                writes.forEach(pending::putIfAbsent);
+            }
+        }
+    }
+
+    private void createTags(PluginSettings pluginSettings, String tagKey, Instant value, Collection<String> instanceIds) {
+        LOG.debug(format("Adding {0} tag to instances {1}.", tagKey, instanceIds));
+
+        pluginSettings.ec2Client().createTags(CreateTagsRequest.builder()
+                .tags(Tag.builder().key(tagKey).value(String.valueOf(value.toEpochMilli())).build())
+                .resources(instanceIds)
+                .build());
+    }
+
+    private void deleteTags(PluginSettings pluginSettings, String tagKey, Map<TagWrite, TagState> writes) {
+        LOG.debug(format("Removing {0} tag from instances {1}.", tagKey, instanceIds(writes)));
+
+        pluginSettings.ec2Client().deleteTags(DeleteTagsRequest.builder()
+                .tags(Tag.builder().key(tagKey).build())
+                .resources(instanceIds(writes))
+                .build());
+    }
+
+    private Optional<Instant> valueOf(Instance instance, String tagKey) {
+        final TagState state = stateOf(instance, tagKey);
+        if (state != null) {
+            return Optional.ofNullable(state.value());
+        }
+
+        return tagOf(instance, tagKey).map(tag -> Instant.ofEpochMilli(Long.parseLong(tag.value())));
+    }
+
+    private TagState stateOf(Instance instance, String tagKey) {
+        return instance.instanceId() == null ? null : states.get(tagKey).get(instance.instanceId());
+    }
+
+    private static Optional<Tag> tagOf(Instance instance, String tagKey) {
+        return instance.tags().stream()
+                .filter(tag -> tagKey.equals(tag.key()))
+                .findFirst();
+    }
+
+    private static List<String> instanceIds(Map<TagWrite, TagState> writes) {
+        return writes.keySet().stream().map(TagWrite::instanceId).sorted().toList();
+    }
+
+    private static String clusterKey(PluginSettings pluginSettings) {
+        return pluginSettings.getRegion() + "/" + pluginSettings.getClusterName();
+    }
+
+    private record TagWrite(String instanceId, String tagKey) {
+    }
+
+    // the writes that can share one CreateTags or DeleteTags call
+    private record Batch(String tagKey, TagState state) {
+    }
+
+    /**
+     * The value of a tag on an instance, or {@link #REMOVED} once the plugin has removed it.
+     */
+    private record TagState(Instant value) {
+        static final TagState REMOVED = new TagState(null);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.Constants;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import software.amazon.awssdk.services.ec2.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LABEL_SERVER_ID;
+import static java.text.MessageFormat.format;
+import static java.util.stream.Collectors.*;
+
+/**
+ * EC2 launch templates for the distinct instance configurations of each cluster, so an instance launch only
+ * sends the template id and the subnet instead of the full configuration and userdata. A template is named
+ * after the hash of its configuration, which makes creating it idempotent across plugin restarts, and its id
+ * is cached in memory for the launches that follow. A launch that finds the template deleted evicts it with
+ * {@link #evict(PluginSettings, String)}, so it is created again.
+ *
+ * <p>Templates not used for {@link #UNUSED_TEMPLATE_TTL} are deleted on server ping. When a template was last used
+ * is recorded in its {@value #LAST_USED_TAG} tag on cleanup, so a template is judged by that tag, its creation time
+ * and its use since the last cleanup, whichever is latest, and not by whether this run of the plugin has cached it.
+ */
+public class LaunchTemplates {
+    private static final Logger LOG = Logger.getLoggerFor(LaunchTemplates.class);
+    static final Duration UNUSED_TEMPLATE_TTL = Duration.ofHours(24);
+    static final Duration CLEANUP_INTERVAL = Duration.ofMinutes(10);
+    static final String CLUSTER_TAG = "Cluster";
+    static final String LAST_USED_TAG = "LastUsedAt";
+    static final String NOT_FOUND = "InvalidLaunchTemplateId.NotFound";
+    private static final String CREATOR_TAG = "Creator";
+    private static final String ALREADY_EXISTS = "InvalidLaunchTemplateName.AlreadyExistsException";
+
+    private final Map<String, CachedTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<String, Instant> nextCleanupAt = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private final Supplier<String> serverIdSupplier;
+
+    public LaunchTemplates(Clock clock) {
+        this(clock, ECSElasticPlugin::getServerId);
+    }
+
+    LaunchTemplates(Clock clock, Supplier<String> serverIdSupplier) {
+        this.clock = clock;
+        this.serverIdSupplier = serverIdSupplier;
+    }
+
+    /**
+     * The id of the launch template for {@code data}, creating the template on first use.
+     */
+    public String launchTemplateId(PluginSettings settings, RequestLaunchTemplateData data) {
+        final String hash = configurationHash(data);
+        final String key = clusterKey(settings) + "/" + hash;
+        final Instant now = clock.now();
+        final CachedTemplate cached = templates.computeIfPresent(key, (k, template) -> template.usedAt(now));
+        if (cached != null) {
+            return cached.id();
+        }
+
+        // created outside the map, so a slow call holds up no other launch; a concurrent launch of the same
+        // configuration finds the template by name and both end up with the same id
+        final CachedTemplate created = create(settings, hash, data);
+        return templates.merge(key, created, (current, ignored) -> current.usedAt(now)).id();
+    }
+
+    /**
+     * Forgets a template EC2 no longer has, so the next launch of its configuration creates it again.
+     */
+    public void evict(PluginSettings settings, String launchTemplateId) {
+        final String clusterPrefix = clusterKey(settings) + "/";
+        templates.entrySet().removeIf(entry -> entry.getKey().startsWith(clusterPrefix) && entry.getValue().id().equals(launchTemplateId));
+    }
+
+    public static boolean isNotFound(Ec2Exception e) {
+        return e.awsErrorDetails() != null && NOT_FOUND.equals(e.awsErrorDetails().errorCode());
+    }
+
+    /**
+     * Deletes the templates of the cluster that are no longer used, at most once every {@link #CLEANUP_INTERVAL}.
+     * Does not call AWS for a cluster which neither uses launch templates nor has used them since the plugin started.
+     */
+    public void cleanupUnused(PluginSettings settings) {
+        final String clusterPrefix = clusterKey(settings) + "/";
+        final Instant now = clock.now();
+        final boolean hasTemplates = templates.keySet().stream().anyMatch(key -> key.startsWith(clusterPrefix));
+        if ((!settings.useLaunchTemplates() && !hasTemplates) || now.isBefore(nextCleanupAt.getOrDefault(clusterPrefix, Instant.MIN))) {
+            return;
+        }
+        nextCleanupAt.put(clusterPrefix, now.plus(CLEANUP_INTERVAL));
+
+        if (settings.useLaunchTemplates()) {
+            recordLastUse(settings, clusterPrefix);
+        } else {
+            templates.keySet().removeIf(key -> key.startsWith(clusterPrefix));
+        }
+
+        final Map<String, Instant> usedSinceLastCleanup = new HashMap<>();
+        templates.forEach((key, template) -> {
+            if (key.startsWith(clusterPrefix)) {
+                usedSinceLastCleanup.put(template.id(), template.lastUsedAt());
+            }
+        });
+
+        final DescribeLaunchTemplatesRequest request = DescribeLaunchTemplatesRequest.builder()
+                .filters(
+                        Filter.builder().name("tag:" + CREATOR_TAG).values(Constants.PLUGIN_ID).build(),
+                        Filter.builder().name("tag:" + CLUSTER_TAG).values(settings.getClusterName()).build(),
+                        Filter.builder().name("tag:" + LABEL_SERVER_ID).values(serverIdSupplier.get()).build()
+                )
+                .build();
+
+        settings.ec2Client().describeLaunchTemplates(request).launchTemplates().stream()
+                // leaves alone a template another request may have just created and not cached yet
+                .filter(template -> template.createTime() == null || template.createTime().isBefore(now.minus(CLEANUP_INTERVAL)))
+                .filter(template -> !settings.useLaunchTemplates()
+                        || lastUsedAt(template, usedSinceLastCleanup.get(template.launchTemplateId())).isBefore(now.minus(UNUSED_TEMPLATE_TTL)))
+                .forEach(template -> {
+                    evict(settings, template.launchTemplateId());
+                    delete(settings, template);
+                });
+    }
+
+    // one CreateTags per distinct time, for the templates used since their tag was last written
+    private void recordLastUse(PluginSettings settings, String clusterPrefix) {
+        final Map<Instant, List<String>> idsByLastUse = templates.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(clusterPrefix) && entry.getValue().lastUseUnrecorded())
+                .collect(groupingBy(entry -> entry.getValue().lastUsedAt(), mapping(entry -> entry.getValue().id(), toList())));
+
+        idsByLastUse.forEach((lastUsedAt, ids) -> {
+            try {
+                settings.ec2Client().createTags(CreateTagsRequest.builder()
+                        .resources(ids)
+                        .tags(Tag.builder().key(LAST_USED_TAG).value(String.valueOf(lastUsedAt.toEpochMilli())).build())
+                        .build());
+                templates.replaceAll((key, template) -> ids.contains(template.id()) ? template.recordedAt(lastUsedAt) : template);
+            } catch (Ec2Exception e) {
+                LOG.warn(format("Could not record the last use of launch templates {0} of cluster {1}, will retry on the next cleanup: {2}",
+                        ids, settings.getClusterName(), e.getMessage()));
+            }
+        });
+    }
+
+    private static Instant lastUsedAt(LaunchTemplate template, Instant usedSinceLastCleanup) {
+        Instant lastUsedAt = template.createTime() == null ? Instant.EPOCH : template.createTime();
+        final Optional<Instant> tagged = template.tags().stream()
+                .filter(tag -> LAST_USED_TAG.equals(tag.key()) && tag.value() != null && tag.value().matches("\\d+"))
+                .map(tag -> Instant.ofEpochMilli(Long.parseLong(tag.value())))
+                .findFirst();
+        if (tagged.isPresent() && tagged.get().isAfter(lastUsedAt)) {
+            lastUsedAt = tagged.get();
+        }
+        if (usedSinceLastCleanup != null && usedSinceLastCleanup.isAfter(lastUsedAt)) {
+            lastUsedAt = usedSinceLastCleanup;
+        }
+        return lastUsedAt;
+    }
+
+    private CachedTemplate create(PluginSettings settings, String hash, RequestLaunchTemplateData data) {
+        final String name = "gocd-ecs-" + hash;
+        final CreateLaunchTemplateRequest request = CreateLaunchTemplateRequest.builder()
+                .launchTemplateName(name)
+                .launchTemplateData(data)
+                .tagSpecifications(TagSpecification.builder()
+                        .resourceType(ResourceType.LAUNCH_TEMPLATE)
+                        .tags(
+                                Tag.builder().key(CREATOR_TAG).value(Constants.PLUGIN_ID).build(),
+                                Tag.builder().key(CLUSTER_TAG).value(settings.getClusterName()).build(),
+                                Tag.builder().key(LABEL_SERVER_ID).value(serverIdSupplier.get()).build()
+                        )
+                        .build())
+                .build();
+
+        final Instant now = clock.now();
+        try {
+            final String id = settings.ec2Client().createLaunchTemplate(request).launchTemplate().launchTemplateId();
+            LOG.info(format("Created launch template {0} ({1}) for cluster {2}.", name, id, settings.getClusterName()));
+            // its creation time stands for its first use
+            return new CachedTemplate(id, now, now);
+        } catch (Ec2Exception e) {
+            if (e.awsErrorDetails() == null || !ALREADY_EXISTS.equals(e.awsErrorDetails().errorCode())) {
+                throw e;
+            }
+            final String id = settings.ec2Client().describeLaunchTemplates(DescribeLaunchTemplatesRequest.builder().launchTemplateNames(name).build())
+                    .launchTemplates().getFirst().launchTemplateId();
+            return new CachedTemplate(id, now, null);
+        }
+    }
+
+    private void delete(PluginSettings settings, LaunchTemplate template) {
+        try {
+            settings.ec2Client().deleteLaunchTemplate(DeleteLaunchTemplateRequest.builder().launchTemplateId(template.launchTemplateId()).build());
+            LOG.info(format("Deleted unused launch template {0} of cluster {1}.", template.launchTemplateName(), settings.getClusterName()));
+        } catch (Ec2Exception e) {
+            LOG.warn(format("Could not delete unused launch template {0} of cluster {1}: {2}", template.launchTemplateName(), settings.getClusterName(), e.getMessage()));
+        }
+    }
+
+    private static String clusterKey(PluginSettings settings) {
+        return settings.getRegion() + "/" + settings.getClusterName();
+    }
+
+    // toString() redacts the userdata, so it is hashed separately
+    static String configurationHash(RequestLaunchTemplateData data) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(data.userData()).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A template in use, with the last use recorded in its tag, or null when not recorded yet.
+     */
+    private record CachedTemplate(String id, Instant lastUsedAt, Instant recordedLastUse) {
+        CachedTemplate usedAt(Instant now) {
+            return new CachedTemplate(id, now, recordedLastUse);
+        }
+
+        CachedTemplate recordedAt(Instant lastUse) {
+            return new CachedTemplate(id, lastUsedAt, lastUse);
+        }
+
+        boolean lastUseUnrecorded() {
+            return recordedLastUse == null || lastUsedAt.isAfter(recordedLastUse);
+        }
+    }
+}
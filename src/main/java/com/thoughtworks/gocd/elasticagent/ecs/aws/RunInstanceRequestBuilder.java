@@ -35,6 +35,7 @@ public class RunInstanceRequestBuilder {
     private static final String DEFAULT_LINUX_DOCKER_DEVICE_NAME = "/dev/xvdcz";
 
     private int instanceToCreate;
+    private String instanceType;
     private EC2Config ec2Config;
     private Subnet subnet;
     private String serverId;
@@ -42,12 +43,68 @@ public class RunInstanceRequestBuilder {
     public RunInstancesRequest build() {
         return buildWithBaseConfiguration(subnet)
                 .imageId(ec2Config.getAmi())
-                .instanceType(ec2Config.getInstanceType())
+                .instanceType(instanceType != null ? instanceType : ec2Config.getInstanceType())
                 .securityGroupIds(ec2Config.getSecurityGroups())
                 .iamInstanceProfile(ec2Config.getIamInstanceProfile())
                 .build();
     }
 
+    /**
+     * Launches from a launch template created from {@link #buildLaunchTemplateData()}, overriding only what
+     * differs between launches of the same configuration: the subnet, count and a fallback instance type.
+     */
+    public RunInstancesRequest buildFromLaunchTemplate(String launchTemplateId) {
+        return RunInstancesRequest.builder()
+                .minCount(instanceToCreate)
+                .maxCount(instanceToCreate)
+                .subnetId(subnet != null ? subnet.subnetId() : null)
+                .instanceType(instanceType)
+                .launchTemplate(LaunchTemplateSpecification.builder().launchTemplateId(launchTemplateId).version("$Latest").build())
+                .build();
+    }
+
+    public RequestLaunchTemplateData buildLaunchTemplateData() {
+        final RequestLaunchTemplateData.Builder data = RequestLaunchTemplateData.builder()
+                .imageId(ec2Config.getAmi())
+                .instanceType(ec2Config.getInstanceType())
+                .securityGroupIds(ec2Config.getSecurityGroups())
+                .keyName(ec2Config.getSSHKeyName())
+                .userData(ec2Config.getUserdata());
+
+        final String iamInstanceProfile = ec2Config.getIamInstanceProfile().name();
+        if (!isBlank(iamInstanceProfile)) {
+            data.iamInstanceProfile(LaunchTemplateIamInstanceProfileSpecificationRequest.builder().name(iamInstanceProfile).build());
+        }
+
+        final TagSpecification tagSpecification = tagSpecificationWithServerId();
+        data.tagSpecifications(LaunchTemplateTagSpecificationRequest.builder()
+                .resourceType(tagSpecification.resourceType())
+                .tags(tagSpecification.tags())
+                .build());
+
+        final List<BlockDeviceMapping> blockDeviceMappings = new ArrayList<>();
+        blockOperatingSystemVolume(blockDeviceMappings);
+        blockDockerVolume(blockDeviceMappings);
+        if (!blockDeviceMappings.isEmpty()) {
+            data.blockDeviceMappings(blockDeviceMappings.stream().map(RunInstanceRequestBuilder::launchTemplateBlockDeviceMapping).toList());
+        }
+
+        return data.build();
+    }
+
+    private static LaunchTemplateBlockDeviceMappingRequest launchTemplateBlockDeviceMapping(BlockDeviceMapping blockDeviceMapping) {
+        final EbsBlockDevice ebs = blockDeviceMapping.ebs();
+        return LaunchTemplateBlockDeviceMappingRequest.builder()
+                .deviceName(blockDeviceMapping.deviceName())
+                .ebs(LaunchTemplateEbsBlockDeviceRequest.builder()
+                        .deleteOnTermination(ebs.deleteOnTermination())
+                        .volumeType(ebs.volumeTypeAsString())
+                        .volumeSize(ebs.volumeSize())
+                        .iops(ebs.iops())
+                        .build())
+                .build();
+    }
+
     private RunInstancesRequest.Builder buildWithBaseConfiguration(Subnet subnet) {
         final String subnetId = subnet != null ? subnet.subnetId() : null;
         final RunInstancesRequest.Builder request = RunInstancesRequest.builder()
@@ -126,6 +183,14 @@ public class RunInstanceRequestBuilder {
         return this;
     }
 
+    /**
+     * Launches this instance type instead of the preferred one of the configuration.
+     */
+    public RunInstanceRequestBuilder instanceType(String instanceType) {
+        this.instanceType = instanceType;
+        return this;
+    }
+
     public RunInstanceRequestBuilder eC2Config(EC2Config ec2Config) {
         this.ec2Config = ec2Config;
         return this;
@@ -39,8 +39,6 @@ import static com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelect
 import static com.thoughtworks.gocd.elasticagent.ecs.domain.SpotRequestStatus.REQUEST_CANCELLED_INSTANCE_RUNNING;
 import static com.thoughtworks.gocd.elasticagent.ecs.utils.Util.toMap;
 import static java.lang.String.format;
-import static java.lang.String.valueOf;
-import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -55,18 +53,21 @@ public class SpotInstanceHelper {
     private final Supplier<String> serverIdSupplier;
     private final ContainerInstanceHelper containerInstanceHelper;
     private final Duration spotRequestVisibilityTimeout;
+    private final InstanceStateTable instanceStates;
 
-    public SpotInstanceHelper() {
-        this(new ContainerInstanceHelper(), new SpotInstanceRequestBuilder(), new SubnetSelector(), ECSElasticPlugin::getServerId, Duration.ofSeconds(25));
+    public SpotInstanceHelper(ContainerInstanceHelper containerInstanceHelper, SubnetSelector subnetSelector, InstanceStateTable instanceStates) {
+        this(containerInstanceHelper, new SpotInstanceRequestBuilder(), subnetSelector, ECSElasticPlugin::getServerId, Duration.ofSeconds(25), instanceStates);
     }
 
     protected SpotInstanceHelper(ContainerInstanceHelper spotInstanceRequestBuilder, SpotInstanceRequestBuilder containerInstanceHelper,
-                                 SubnetSelector subnetSelector, Supplier<String> serverIdSupplier, Duration spotRequestVisibilityTimeout) {
+                                 SubnetSelector subnetSelector, Supplier<String> serverIdSupplier, Duration spotRequestVisibilityTimeout,
+                                 InstanceStateTable instanceStates) {
         this.containerInstanceHelper = spotInstanceRequestBuilder;
         this.spotInstanceRequestBuilder = containerInstanceHelper;
         this.subnetSelector = subnetSelector;
         this.serverIdSupplier = serverIdSupplier;
         this.spotRequestVisibilityTimeout = spotRequestVisibilityTimeout;
+        this.instanceStates = instanceStates;
     }
 
     public RequestSpotInstancesResponse requestSpotInstanceRequest(PluginSettings pluginSettings, EC2Config ec2Config) {
@@ -114,7 +115,7 @@ public class SpotInstanceHelper {
         List<Instance> idleSpotInstances = getAllIdleSpotInstances(pluginSettings, clusterName);
 
         return idleSpotInstances.stream()
-                .filter(new SpotInstanceEligibleForTerminationPredicate(pluginSettings))
+                .filter(new SpotInstanceEligibleForTerminationPredicate(pluginSettings, instanceStates))
                 .collect(toList());
     }
 
@@ -176,6 +177,7 @@ public class SpotInstanceHelper {
 
     public boolean waitTillSpotRequestCanBeLookedUpById(PluginSettings pluginSettings, String spotInstanceRequestId) {
         final Result<DescribeSpotInstanceRequestsResponse> result = new Poller<DescribeSpotInstanceRequestsResponse>()
+                .describedAs(format("spot request %s becoming visible", spotInstanceRequestId))
                 .timeout(spotRequestVisibilityTimeout)
                 .stopWhen(Objects::nonNull)
                 .poll(getSpotRequest(pluginSettings, spotInstanceRequestId))
@@ -233,14 +235,7 @@ public class SpotInstanceHelper {
     }
 
     public void tagSpotInstancesAsIdle(PluginSettings pluginSettings, List<String> instanceIds) {
-        CreateTagsRequest createTagsRequest = CreateTagsRequest.builder()
-                .resources(instanceIds)
-                .tags(
-                        Tag.builder().key(LAST_SEEN_IDLE).value(valueOf(currentTimeMillis())).build()
-                )
-                .build();
-
-        pluginSettings.ec2Client().createTags(createTagsRequest);
+        instanceStates.markIdle(pluginSettings, instanceIds);
     }
 
     private boolean isIdle(ContainerInstance containerInstance) {
@@ -24,6 +24,8 @@ import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperti
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
+import com.thoughtworks.gocd.elasticagent.ecs.jfr.CreateLockEvent;
+import com.thoughtworks.gocd.elasticagent.ecs.state.SpotRequestJournal;
 import software.amazon.awssdk.services.ec2.model.*;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
@@ -31,7 +33,6 @@ import java.util.*;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
 import static java.lang.String.format;
 import static java.util.stream.Collectors.*;
 
@@ -44,29 +45,42 @@ public class SpotInstanceService {
     private final ContainerInstanceHelper containerInstanceHelper;
     private final TerminateOperation terminateOperation;
     private final SpotRequestMatcher spotRequestMatcher;
+    private final InstanceStateTable instanceStates;
     private final Set<SpotInstanceRequest> untaggedSpotRequests = Collections.synchronizedSet(new HashSet<>());
-    private static final SpotInstanceService spotInstanceService = new SpotInstanceService();
+    private volatile SpotRequestJournal journal = SpotRequestJournal.NONE;
 
-    private SpotInstanceService() {
-        this(new SpotInstanceHelper(), new EC2Config.Builder(), new ContainerInstanceHelper(), new TerminateOperation(), new SpotRequestMatcher());
+    public SpotInstanceService(ContainerInstanceHelper containerInstanceHelper, SubnetSelector subnetSelector, TerminateOperation terminateOperation,
+                               InstanceStateTable instanceStates) {
+        this(new SpotInstanceHelper(containerInstanceHelper, subnetSelector, instanceStates), new EC2Config.Builder(), containerInstanceHelper, terminateOperation, new SpotRequestMatcher(), instanceStates);
     }
 
     protected SpotInstanceService(SpotInstanceHelper spotInstanceHelper, EC2Config.Builder ec2ConfigBuilder,
-                                  ContainerInstanceHelper containerInstanceHelper, TerminateOperation terminateOperation, SpotRequestMatcher spotRequestMatcher) {
+                                  ContainerInstanceHelper containerInstanceHelper, TerminateOperation terminateOperation, SpotRequestMatcher spotRequestMatcher,
+                                  InstanceStateTable instanceStates) {
         this.spotInstanceHelper = spotInstanceHelper;
         this.ec2ConfigBuilder = ec2ConfigBuilder;
         this.containerInstanceHelper = containerInstanceHelper;
         this.terminateOperation = terminateOperation;
         this.spotRequestMatcher = spotRequestMatcher;
+        this.instanceStates = instanceStates;
     }
 
-    public static SpotInstanceService instance() {
-        return spotInstanceService;
+    /**
+     * Puts back the untagged spot requests persisted before a restart and records later changes to them in
+     * {@code journal}. Restored requests are dropped as usual once AWS lists them by tag.
+     */
+    public void restore(Collection<SpotInstanceRequest> spotRequests, SpotRequestJournal journal) {
+        synchronized (untaggedSpotRequests) {
+            untaggedSpotRequests.addAll(spotRequests);
+            this.journal = journal;
+        }
     }
 
     public Optional<ContainerInstance> create(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
         Platform platform = elasticAgentProfileProperties.platform();
+        final CreateLockEvent lockEvent = CreateLockEvent.waitingFor("create-spot-instance", platform, pluginSettings);
         synchronized (platform) {
+            lockEvent.acquired();
             consoleLogAppender.accept("The elastic agent profile is configured to run on a spot instance. Initiating steps to request for a spot instance.");
             EC2Config ec2Config = ec2ConfigBuilder.settings(pluginSettings).profile(elasticAgentProfileProperties).build();
             List<Instance> allRegisteredSpotInstancesForPlatform = spotInstanceHelper.allRegisteredSpotInstancesForPlatform(pluginSettings, platform);
@@ -127,7 +141,10 @@ public class SpotInstanceService {
               a list of new spot instance requests and removes from the list in future calls or as part of server ping.
             */
             if (isSpotRequestValid(spotInstanceRequest)) {
-                untaggedSpotRequests.add(spotInstanceRequest);
+                synchronized (untaggedSpotRequests) {
+                    untaggedSpotRequests.add(spotInstanceRequest);
+                    journal.recorded(spotInstanceRequest);
+                }
             }
             return Optional.empty();
         }
@@ -155,7 +172,13 @@ public class SpotInstanceService {
             LOG.debug("[refresh-spot-requests] All SpotRequests for Cluster: '{}'", String.join(",", spotRequestIds));
             LOG.debug("[refresh-spot-requests] All Untagged spot requests: '{}'", untaggedSpotRequestIds(untaggedSpotRequests));
 
-            untaggedSpotRequests.removeIf(request -> spotRequestIds.contains(request.spotInstanceRequestId()));
+            untaggedSpotRequests.removeIf(request -> {
+                if (!spotRequestIds.contains(request.spotInstanceRequestId())) {
+                    return false;
+                }
+                journal.removed(request.spotInstanceRequestId());
+                return true;
+            });
         }
     }
 
@@ -221,7 +244,7 @@ public class SpotInstanceService {
     }
 
     private Predicate<Instance> getIdleInstancePredicate() {
-        return instance -> instance.tags().stream().noneMatch(tag -> tag.key().equals(LAST_SEEN_IDLE));
+        return instance -> !instanceStates.isMarkedIdle(instance);
     }
 
     private Map<String, List<SpotInstanceRequest>> groupSpotRequestsByPlatform(List<SpotInstanceRequest> spotInstanceRequests) {
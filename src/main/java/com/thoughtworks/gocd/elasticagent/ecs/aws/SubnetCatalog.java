@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.Subnet;
+import software.amazon.awssdk.services.ec2.model.SubnetState;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The subnets configured for the clusters, described at most once every {@link #REFRESH_INTERVAL} instead of on
+ * every launch, with what recent launches have taught us about them: the addresses taken by instances launched
+ * since the subnets were described, and a count of failed launches that halves every {@link #FAILURE_HALF_LIFE}.
+ */
+public class SubnetCatalog {
+    static final Duration REFRESH_INTERVAL = Duration.ofMinutes(5);
+    static final Duration FAILURE_HALF_LIFE = Duration.ofMinutes(10);
+    static final String OUT_OF_ADDRESSES = "InsufficientFreeAddressesInSubnet";
+
+    private final Map<String, DescribedSubnets> described = new ConcurrentHashMap<>();
+    private final Map<String, Integer> launchedSinceDescribed = new ConcurrentHashMap<>();
+    private final Map<String, DecayingCount> failures = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public SubnetCatalog(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * The subnets with the given ids, described again when last described more than {@link #REFRESH_INTERVAL}
+     * ago. Subnets none of which is available are described again on the next call, in case one has become so.
+     */
+    public List<Subnet> subnets(PluginSettings pluginSettings, Collection<String> subnetIds) {
+        final String key = pluginSettings.getRegion() + "/" + String.join(",", new TreeSet<>(subnetIds));
+        final Instant now = clock.now();
+        final DescribedSubnets cached = described.get(key);
+        if (cached != null && now.isBefore(cached.describedAt().plus(REFRESH_INTERVAL))) {
+            return cached.subnets();
+        }
+
+        final DescribeSubnetsRequest request = DescribeSubnetsRequest.builder().subnetIds(subnetIds).build();
+        final List<Subnet> subnets = pluginSettings.ec2Client().describeSubnets(request).subnets();
+        subnets.forEach(subnet -> launchedSinceDescribed.remove(subnet.subnetId()));
+        if (subnets.stream().anyMatch(subnet -> SubnetState.AVAILABLE == subnet.state())) {
+            described.put(key, new DescribedSubnets(List.copyOf(subnets), now));
+        } else {
+            described.remove(key);
+        }
+        return subnets;
+    }
+
+    /**
+     * The addresses left in the subnet, less those taken by the instances launched into it since it was
+     * described, or {@code null} when EC2 did not say.
+     */
+    public Integer freeIpAddresses(Subnet subnet) {
+        if (subnet.availableIpAddressCount() == null) {
+            return null;
+        }
+        return Math.max(0, subnet.availableIpAddressCount() - launchedSinceDescribed.getOrDefault(subnet.subnetId(), 0));
+    }
+
+    /**
+     * The failed launches into the subnet, each counting for less the longer ago it was, halving every
+     * {@link #FAILURE_HALF_LIFE}.
+     */
+    public double recentFailures(String subnetId) {
+        final DecayingCount recorded = failures.get(subnetId);
+        return recorded == null ? 0 : recorded.decayedTo(clock.now());
+    }
+
+    public void recordLaunch(String subnetId, int instances) {
+        launchedSinceDescribed.merge(subnetId, instances, (launched, more) -> (int) Math.min(Integer.MAX_VALUE, (long) launched + more));
+    }
+
+    /**
+     * Records a launch into the subnet failing with {@code errorCode}. A subnet out of addresses is taken to have
+     * none left until it is described again.
+     */
+    public void recordLaunchFailure(String subnetId, String errorCode) {
+        final Instant now = clock.now();
+        failures.compute(subnetId, (id, recorded) -> (recorded == null ? new DecayingCount(FAILURE_HALF_LIFE) : recorded).incrementedAt(now));
+        if (OUT_OF_ADDRESSES.equals(errorCode)) {
+            launchedSinceDescribed.put(subnetId, Integer.MAX_VALUE);
+        }
+    }
+
+    private record DescribedSubnets(List<Subnet> subnets, Instant describedAt) {
+    }
+}
@@ -20,23 +20,36 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.SubnetNotAvailableException;
 import org.apache.commons.lang3.RandomUtils;
-import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.Subnet;
 import software.amazon.awssdk.services.ec2.model.SubnetState;
 
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static java.text.MessageFormat.format;
-import static java.util.stream.Collectors.collectingAndThen;
-import static java.util.stream.Collectors.toList;
+import static java.util.Collections.emptyList;
 
+/**
+ * Picks the subnet to launch an instance into: the one with the fewest of the cluster's instances, to spread them
+ * across availability zones, counting every recent failed launch into a subnet as {@link #FAILURE_WEIGHT}
+ * instances more and penalising subnets running out of addresses. Subnets with no address left are only picked
+ * when every subnet is out of addresses.
+ */
 public class SubnetSelector {
     private static final Logger LOG = Logger.getLoggerFor(SubnetSelector.class);
+    static final double FAILURE_WEIGHT = 4;
+    static final int LOW_FREE_IP_ADDRESSES = 16;
+    static final double LOW_FREE_IP_ADDRESSES_WEIGHT = 4;
+
+    private final SubnetCatalog subnetCatalog;
+
+    public SubnetSelector(SubnetCatalog subnetCatalog) {
+        this.subnetCatalog = subnetCatalog;
+    }
 
     public Subnet selectSubnetWithMinimumEC2Instances(PluginSettings pluginSettings, Collection<String> subnetIds, List<Instance> instances) {
         if (subnetIds.isEmpty()) {
@@ -44,53 +57,83 @@ public class SubnetSelector {
             return null;
         }
 
-        final List<Subnet> subnets = availableSubnets(pluginSettings, subnetIds);
+        final List<ScoredSubnet> scored = scoredSubnets(pluginSettings, subnetIds, instances);
+        final ScoredSubnet best = scored.getFirst();
+        return randomFrom(scored.stream()
+                .filter(candidate -> candidate.exhausted() == best.exhausted() && candidate.score() == best.score())
+                .map(ScoredSubnet::subnet)
+                .toList());
+    }
 
-        if (instances.isEmpty()) {
-            return randomFrom(subnets);
+    /**
+     * All available subnets of {@code subnetIds}, best first as {@link #selectSubnetWithMinimumEC2Instances} scores
+     * them. Empty when no subnet is configured.
+     */
+    public List<Subnet> subnetsInPreferenceOrder(PluginSettings pluginSettings, Collection<String> subnetIds, List<Instance> instances) {
+        if (subnetIds.isEmpty()) {
+            return emptyList();
         }
 
-        return findSubnetWithMinimumInstances(subnets, instances);
+        return scoredSubnets(pluginSettings, subnetIds, instances).stream()
+                .map(ScoredSubnet::subnet)
+                .toList();
     }
 
-    private Subnet findSubnetWithMinimumInstances(List<Subnet> subnets, List<Instance> instances) {
-        final Map<Subnet, Long> instancePerSubnet = instancePerSubnet(subnets, instances);
+    /**
+     * Records instances launched into the subnet, which take addresses from it until it is described again.
+     */
+    public void launched(Subnet subnet, int instances) {
+        if (subnet != null) {
+            subnetCatalog.recordLaunch(subnet.subnetId(), instances);
+        }
+    }
 
-        // Can happen if all found instances happen to be from other elastic agent profiles (which may or may not
-        // be sharing a profile with our plugin configuration
-        if (instancePerSubnet.isEmpty()) {
-            return randomFrom(subnets);
+    /**
+     * Records a launch into the subnet failing with {@code errorCode}, making it less preferred for a while.
+     */
+    public void launchFailed(Subnet subnet, String errorCode) {
+        if (subnet != null) {
+            subnetCatalog.recordLaunchFailure(subnet.subnetId(), errorCode);
         }
+    }
 
-        Long minCount = instancePerSubnet.values().stream().min(Long::compareTo).orElse(0L);
+    private List<ScoredSubnet> scoredSubnets(PluginSettings pluginSettings, Collection<String> subnetIds, List<Instance> instances) {
+        final List<Subnet> subnets = availableSubnets(pluginSettings, subnetIds);
+        final Map<String, Long> instancePerSubnet = instancePerSubnet(subnets, instances);
 
         return subnets.stream()
-                .filter(subnet -> !instancePerSubnet.containsKey(subnet))
-                .collect(collectingAndThen(toList(), this::optionallyRandomFrom))
-                .orElse(instancePerSubnet.entrySet().stream()
-                        .filter(e -> minCount.equals(e.getValue()))
-                        .map(Map.Entry::getKey)
-                        .collect(collectingAndThen(toList(), this::randomFrom)));
+                .map(subnet -> score(subnet, instancePerSubnet.getOrDefault(subnet.subnetId(), 0L)))
+                .sorted(Comparator.comparing(ScoredSubnet::exhausted).thenComparingDouble(ScoredSubnet::score))
+                .toList();
     }
 
-    private Optional<Subnet> optionallyRandomFrom(List<Subnet> subnets) {
-        return subnets.isEmpty() ? Optional.empty() : Optional.of(randomFrom(subnets));
+    private ScoredSubnet score(Subnet subnet, long instances) {
+        final Integer freeIpAddresses = subnetCatalog.freeIpAddresses(subnet);
+        final double lowOnAddresses = freeIpAddresses == null || freeIpAddresses >= LOW_FREE_IP_ADDRESSES
+                ? 0 : (double) (LOW_FREE_IP_ADDRESSES - freeIpAddresses) / LOW_FREE_IP_ADDRESSES;
+        final double score = instances
+                + FAILURE_WEIGHT * subnetCatalog.recentFailures(subnet.subnetId())
+                + LOW_FREE_IP_ADDRESSES_WEIGHT * lowOnAddresses;
+        return new ScoredSubnet(subnet, freeIpAddresses != null && freeIpAddresses == 0, score);
     }
 
     private Subnet randomFrom(List<Subnet> subnets) {
         return subnets.get(RandomUtils.insecure().randomInt(0, subnets.size()));
     }
 
-    private Map<Subnet, Long> instancePerSubnet(List<Subnet> subnets, List<Instance> instances) {
-        final Map<String, Subnet> subnetMap = subnets.stream().collect(Collectors.toMap(Subnet::subnetId, subnet -> subnet));
+    private Map<String, Long> instancePerSubnet(List<Subnet> subnets, List<Instance> instances) {
+        final List<String> subnetIds = subnets.stream().map(Subnet::subnetId).toList();
+        if (instances == null) {
+            return Map.of();
+        }
 
         return instances.stream()
-                .filter(instance -> subnetMap.containsKey(instance.subnetId()))
-                .collect(Collectors.groupingBy(subnet -> subnetMap.get(subnet.subnetId()), Collectors.counting()));
+                .filter(instance -> subnetIds.contains(instance.subnetId()))
+                .collect(Collectors.groupingBy(Instance::subnetId, Collectors.counting()));
     }
 
     private List<Subnet> availableSubnets(PluginSettings pluginSettings, Collection<String> subnetIds) {
-        final List<Subnet> subnets = allSubnets(pluginSettings, subnetIds).stream()
+        final List<Subnet> subnets = subnetCatalog.subnets(pluginSettings, subnetIds).stream()
                 .filter(this::isSubnetAvailable)
                 .toList();
 
@@ -105,8 +148,6 @@ public class SubnetSelector {
         return SubnetState.AVAILABLE == subnet.state();
     }
 
-    private List<Subnet> allSubnets(PluginSettings pluginSettings, Collection<String> subnetIds) {
-        final DescribeSubnetsRequest describeSubnetsRequest = DescribeSubnetsRequest.builder().subnetIds(subnetIds).build();
-        return pluginSettings.ec2Client().describeSubnets(describeSubnetsRequest).subnets();
+    private record ScoredSubnet(Subnet subnet, boolean exhausted, double score) {
     }
 }
@@ -17,8 +17,10 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.Constants;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategy;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategyFactory;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.*;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.ContainerFailedToRegisterException;
@@ -26,9 +28,13 @@ import com.thoughtworks.gocd.elasticagent.ecs.exceptions.ContainerInstanceFailed
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
 import org.apache.commons.lang3.Strings;
+import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ecs.EcsClient;
 import software.amazon.awssdk.services.ecs.model.*;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -41,35 +47,79 @@ import static java.util.Optional.empty;
 
 public class TaskHelper {
     private static final Logger LOG = Logger.getLoggerFor(TaskHelper.class);
+    private static final String STARTED_BY_PREFIX = "gocd-ecs-";
+    static final int MAX_STARTED_BY_LENGTH = 36;
+    private static final int DESCRIBE_TASKS_BATCH_SIZE = 100;
+    private static final int DELETE_TASK_DEFINITIONS_BATCH_SIZE = 10;
+    static final int MAX_START_TASK_ATTEMPTS = 3;
 
     private final ContainerInstanceHelper containerInstanceHelper;
     private final RegisterTaskDefinitionRequestBuilder registerTaskDefinitionRequestBuilder;
     private final InstanceSelectionStrategyFactory instanceSelectionStrategyFactory;
     private final SpotInstanceService spotInstanceService;
+    private final CleanupExecutor cleanupExecutor;
+    private final InstanceHealth instanceHealth;
 
-    public TaskHelper() {
-        this(new ContainerInstanceHelper(), new RegisterTaskDefinitionRequestBuilder(), new InstanceSelectionStrategyFactory(), SpotInstanceService.instance());
+    public TaskHelper(ContainerInstanceHelper containerInstanceHelper, InstanceSelectionStrategyFactory instanceSelectionStrategyFactory, SpotInstanceService spotInstanceService,
+                      CleanupExecutor cleanupExecutor, InstanceHealth instanceHealth) {
+        this(containerInstanceHelper, new RegisterTaskDefinitionRequestBuilder(), instanceSelectionStrategyFactory, spotInstanceService, cleanupExecutor, instanceHealth);
     }
 
     TaskHelper(ContainerInstanceHelper containerInstanceHelper, RegisterTaskDefinitionRequestBuilder registerTaskDefinitionRequestBuilder,
                InstanceSelectionStrategyFactory instanceSelectionStrategyFactory, SpotInstanceService spotInstanceService) {
+        this(containerInstanceHelper, registerTaskDefinitionRequestBuilder, instanceSelectionStrategyFactory, spotInstanceService, new CleanupExecutor(),
+                new InstanceHealth(Clock.DEFAULT));
+    }
+
+    TaskHelper(ContainerInstanceHelper containerInstanceHelper, RegisterTaskDefinitionRequestBuilder registerTaskDefinitionRequestBuilder,
+               InstanceSelectionStrategyFactory instanceSelectionStrategyFactory, SpotInstanceService spotInstanceService, CleanupExecutor cleanupExecutor,
+               InstanceHealth instanceHealth) {
         this.containerInstanceHelper = containerInstanceHelper;
         this.registerTaskDefinitionRequestBuilder = registerTaskDefinitionRequestBuilder;
         this.instanceSelectionStrategyFactory = instanceSelectionStrategyFactory;
         this.spotInstanceService = spotInstanceService;
+        this.cleanupExecutor = cleanupExecutor;
+        this.instanceHealth = instanceHealth;
     }
 
     public Optional<ECSTask> create(CreateAgentRequest createAgentRequest, PluginSettings pluginSettings, ConsoleLogAppender consoleLogAppender) throws ContainerInstanceFailedToRegisterException, LimitExceededException, ContainerFailedToRegisterException {
-        final String taskName = "GoCD" + UUID.randomUUID().toString().replace("-", "");
+        final ElasticAgentProfileProperties elasticAgentProfileProperties = createAgentRequest.elasticProfile();
+        final ContainerDefinitionBuilder containerDefinitionBuilder = new ContainerDefinitionBuilder(createAgentRequest);
+        final Iterator<ContainerInstance> candidates = strategyFor(pluginSettings, elasticAgentProfileProperties)
+                .instancesForScheduling(pluginSettings, elasticAgentProfileProperties, containerDefinitionBuilder.buildPlacementRequirement());
+
+        return create(createAgentRequest, pluginSettings, consoleLogAppender, containerDefinitionBuilder, candidates, true);
+    }
 
+    /**
+     * Starts the job's task on one of the given container instances, which the caller has already read, without
+     * listing the cluster or starting and launching instances. Returns empty if none of them has room for the task.
+     */
+    public Optional<ECSTask> createOn(CreateAgentRequest createAgentRequest, PluginSettings pluginSettings, ConsoleLogAppender consoleLogAppender,
+                                      List<ContainerInstance> containerInstances, List<Instance> instances) throws ContainerInstanceFailedToRegisterException, LimitExceededException, ContainerFailedToRegisterException {
         final ElasticAgentProfileProperties elasticAgentProfileProperties = createAgentRequest.elasticProfile();
+        final ContainerDefinitionBuilder containerDefinitionBuilder = new ContainerDefinitionBuilder(createAgentRequest);
+        final Iterator<ContainerInstance> candidates = strategyFor(pluginSettings, elasticAgentProfileProperties)
+                .instancesForScheduling(pluginSettings, elasticAgentProfileProperties, containerDefinitionBuilder.buildPlacementRequirement(), containerInstances, instances);
+        if (!candidates.hasNext()) {
+            return empty();
+        }
 
-        ContainerDefinitionBuilder containerDefinitionBuilder = new ContainerDefinitionBuilder(createAgentRequest);
+        return create(createAgentRequest, pluginSettings, consoleLogAppender, containerDefinitionBuilder, candidates, false);
+    }
 
-        StopPolicy stopPolicy = elasticAgentProfileProperties.platform() == LINUX ? pluginSettings.getLinuxStopPolicy() : pluginSettings.getWindowsStopPolicy();
-        Optional<ContainerInstance> containerInstance = instanceSelectionStrategyFactory
-                .strategyFor(stopPolicy)
-                .instanceForScheduling(pluginSettings, elasticAgentProfileProperties, containerDefinitionBuilder.buildPlacementRequirement());
+    private InstanceSelectionStrategy strategyFor(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties) {
+        final StopPolicy stopPolicy = elasticAgentProfileProperties.platform() == LINUX ? pluginSettings.getLinuxStopPolicy() : pluginSettings.getWindowsStopPolicy();
+        return instanceSelectionStrategyFactory.strategyFor(stopPolicy);
+    }
+
+    private Optional<ECSTask> create(CreateAgentRequest createAgentRequest, PluginSettings pluginSettings, ConsoleLogAppender consoleLogAppender, ContainerDefinitionBuilder containerDefinitionBuilder,
+                                     Iterator<ContainerInstance> candidates, boolean mayLaunch) throws ContainerInstanceFailedToRegisterException, LimitExceededException, ContainerFailedToRegisterException {
+        final String taskName = "GoCD" + UUID.randomUUID().toString().replace("-", "");
+        final ElasticAgentProfileProperties elasticAgentProfileProperties = createAgentRequest.elasticProfile();
+
+        Optional<ContainerInstance> containerInstance = candidates.hasNext() ? Optional.of(candidates.next()) : empty();
+        boolean launched = false;
 
         if (containerInstance.isEmpty()) {
             consoleLogAppender.accept("No running instance(s) found to build the ECS Task to perform current job.");
@@ -78,6 +128,7 @@ public class TaskHelper {
                 spotInstanceService.create(pluginSettings, elasticAgentProfileProperties, consoleLogAppender);
             } else {
                 containerInstance = Optional.of(containerInstanceHelper.startOrCreateOneInstance(pluginSettings, elasticAgentProfileProperties, consoleLogAppender));
+                launched = true;
             }
         } else {
             consoleLogAppender.accept("Found existing running container instance platform matching ECS Task instance configuration. Not starting a new EC2 instance...");
@@ -99,34 +150,98 @@ public class TaskHelper {
         LOG.debug("[create-agent] Done registering task definition");
 
         TaskDefinition taskDefinitionFromNewTask = taskDefinitionResult.taskDefinition();
-        StartTaskRequest startTaskRequest = StartTaskRequest.builder()
-                .taskDefinition(taskDefinitionFromNewTask.taskDefinitionArn())
-                .containerInstances(containerInstance.get().containerInstanceArn())
-                .cluster(pluginSettings.getClusterName())
-                .build();
-
-        consoleLogAppender.accept("Starting ECS Task to perform current job...");
-        LOG.debug(format("[create-agent] Starting task : {0} ", startTaskRequest.toString()));
-        StartTaskResponse startTaskResult = pluginSettings.ecsClient().startTask(startTaskRequest);
-        LOG.debug("[create-agent] Done executing start task request.");
-
-        if (isStarted(startTaskResult)) {
-            String message = elasticAgentProfileProperties.runAsSpotInstance() ?
-                    "[WARNING] The ECS task is scheduled on a Spot Instance. A spot instance termination would re-schedule the job."
-                    : String.format("ECS Task %s scheduled on container instance %s.", taskName, containerInstance.get().ec2InstanceId());
-
-            consoleLogAppender.accept(message);
-
-            LOG.info(format("[create-agent] Task {0} scheduled on container instance {1}", taskName, containerInstance.get().ec2InstanceId()));
-            return Optional.of(new ECSTask(startTaskResult.tasks().getFirst(), taskDefinitionFromNewTask, elasticAgentProfileProperties, createAgentRequest.getJobIdentifier(), createAgentRequest.environment(), containerInstance.get().ec2InstanceId()));
-        } else {
-            cleanupTaskDefinition(pluginSettings, taskDefinitionFromNewTask.taskDefinitionArn());
-            String errors = startTaskResult.failures().stream().map(failure -> "    " + failure.arn() + " failed with reason :" + failure.reason()).collect(Collectors.joining("\n"));
-            throw new ContainerFailedToRegisterException("Fail to start task " + taskName + ":\n" + errors);
+        final List<Failure> failures = new ArrayList<>();
+        for (int attempt = 1; ; attempt++) {
+            StartTaskRequest startTaskRequest = StartTaskRequest.builder()
+                    .taskDefinition(taskDefinitionFromNewTask.taskDefinitionArn())
+                    .containerInstances(containerInstance.get().containerInstanceArn())
+                    .cluster(pluginSettings.getClusterName())
+                    .startedBy(startedBy(getServerId()))
+                    .build();
+
+            consoleLogAppender.accept("Starting ECS Task to perform current job...");
+            LOG.debug(format("[create-agent] Starting task : {0} ", startTaskRequest.toString()));
+            StartTaskResponse startTaskResult = pluginSettings.ecsClient().startTask(startTaskRequest);
+            LOG.debug("[create-agent] Done executing start task request.");
+
+            if (isStarted(startTaskResult)) {
+                String message = elasticAgentProfileProperties.runAsSpotInstance() ?
+                        "[WARNING] The ECS task is scheduled on a Spot Instance. A spot instance termination would re-schedule the job."
+                        : String.format("ECS Task %s scheduled on container instance %s.", taskName, containerInstance.get().ec2InstanceId());
+
+                consoleLogAppender.accept(message);
+
+                LOG.info(format("[create-agent] Task {0} scheduled on container instance {1}", taskName, containerInstance.get().ec2InstanceId()));
+                return Optional.of(new ECSTask(startTaskResult.tasks().getFirst(), taskDefinitionFromNewTask, elasticAgentProfileProperties, createAgentRequest.getJobIdentifier(), createAgentRequest.environment(), containerInstance.get().ec2InstanceId()));
+            }
+
+            failures.addAll(startTaskResult.failures());
+            if (!isOutOfResources(startTaskResult)) {
+                instanceHealth.recordStartFailure(containerInstance.get().ec2InstanceId(), elasticAgentProfileProperties);
+            }
+            if (attempt >= MAX_START_TASK_ATTEMPTS || !canStartElsewhere(startTaskResult)) {
+                break;
+            }
+
+            consoleLogAppender.accept(String.format("Could not start ECS Task %s: %s.", taskName, reasons(startTaskResult)));
+            if (candidates.hasNext()) {
+                containerInstance = Optional.of(candidates.next());
+            } else if (mayLaunch && !launched && !elasticAgentProfileProperties.runAsSpotInstance()) {
+                consoleLogAppender.accept("No other running instance(s) found to build the ECS Task to perform current job.");
+                containerInstance = Optional.of(launchForRetry(pluginSettings, elasticAgentProfileProperties, taskDefinitionFromNewTask, consoleLogAppender));
+                launched = true;
+            } else {
+                break;
+            }
+            LOG.info(format("[create-agent] Could not start task {0} ({1}), retrying on container instance {2}", taskName, reasons(startTaskResult), containerInstance.get().ec2InstanceId()));
+        }
+
+        cleanupTaskDefinition(pluginSettings, taskDefinitionFromNewTask.taskDefinitionArn());
+        String errors = failures.stream().map(failure -> "    " + failure.arn() + " failed with reason :" + failure.reason()).collect(Collectors.joining("\n"));
+        throw new ContainerFailedToRegisterException("Fail to start task " + taskName + ":\n" + errors);
+    }
+
+    private ContainerInstance launchForRetry(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, TaskDefinition taskDefinition,
+                                             ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
+        try {
+            return containerInstanceHelper.startOrCreateOneInstance(pluginSettings, elasticAgentProfileProperties, consoleLogAppender);
+        } catch (LimitExceededException | RuntimeException e) {
+            cleanupTaskDefinition(pluginSettings, taskDefinition.taskDefinitionArn());
+            throw e;
         }
     }
 
+    /**
+     * Whether StartTask failed only because of the container instance it was placed on: it has too little CPU,
+     * memory or ports left for the task (usually because the resources the placement was based on were stale),
+     * its agent is disconnected, or it is gone. Then another instance can run the task.
+     */
+    static boolean canStartElsewhere(StartTaskResponse startTaskResult) {
+        return !startTaskResult.failures().isEmpty() && startTaskResult.failures().stream()
+                .map(Failure::reason)
+                .allMatch(reason -> reason != null && (reason.startsWith("RESOURCE:") || "AGENT".equals(reason) || "MISSING".equals(reason)));
+    }
+
+    /**
+     * Whether StartTask failed only because the container instance had too little left for the task, which says
+     * nothing about the health of the instance.
+     */
+    private boolean isOutOfResources(StartTaskResponse startTaskResult) {
+        return startTaskResult.failures().stream()
+                .map(Failure::reason)
+                .allMatch(reason -> reason != null && reason.startsWith("RESOURCE:"));
+    }
+
+    private String reasons(StartTaskResponse startTaskResult) {
+        return startTaskResult.failures().stream().map(Failure::reason).distinct().collect(Collectors.joining(", "));
+    }
+
     public void stopAndCleanupTask(PluginSettings pluginSettings, ECSTask task) {
+        stopTask(pluginSettings, task);
+        cleanupTaskDefinition(pluginSettings, task.taskDefinitionArn());
+    }
+
+    public void stopTask(PluginSettings pluginSettings, ECSTask task) {
         pluginSettings.ecsClient().stopTask(
                 StopTaskRequest.builder()
                         .cluster(pluginSettings.getClusterName())
@@ -134,7 +249,13 @@ public class TaskHelper {
                         .reason("Stopped by GoCD server.")
                         .build()
         );
-        cleanupTaskDefinition(pluginSettings, task.taskDefinitionArn());
+    }
+
+    /**
+     * Stops the given tasks concurrently, returning the tasks that could not be stopped with the error for each.
+     */
+    public Map<ECSTask, RuntimeException> stopTasks(PluginSettings pluginSettings, Collection<ECSTask> tasks) {
+        return cleanupExecutor.forEach(tasks, task -> stopTask(pluginSettings, task));
     }
 
     public void cleanupTaskDefinition(PluginSettings settings, String taskDefinitionArn) {
@@ -142,6 +263,28 @@ public class TaskHelper {
         settings.ecsClient().deleteTaskDefinitions(DeleteTaskDefinitionsRequest.builder().taskDefinitions(taskDefinitionArn).build());
     }
 
+    /**
+     * Deregisters the given task definitions concurrently and deletes the deregistered ones in batches of the most
+     * DeleteTaskDefinitions accepts. Returns the reason for each task definition that could not be cleaned up.
+     */
+    public Map<String, String> cleanupTaskDefinitions(PluginSettings settings, Collection<String> taskDefinitionArns) {
+        final Map<String, String> failures = new LinkedHashMap<>();
+        cleanupExecutor.forEach(new LinkedHashSet<>(taskDefinitionArns), arn -> settings.ecsClient().deregisterTaskDefinition(DeregisterTaskDefinitionRequest.builder().taskDefinition(arn).build()))
+                .forEach((arn, e) -> failures.put(arn, e.getMessage()));
+
+        final List<String> deregistered = taskDefinitionArns.stream().distinct().filter(arn -> !failures.containsKey(arn)).toList();
+        for (int from = 0; from < deregistered.size(); from += DELETE_TASK_DEFINITIONS_BATCH_SIZE) {
+            final List<String> batch = deregistered.subList(from, Math.min(from + DELETE_TASK_DEFINITIONS_BATCH_SIZE, deregistered.size()));
+            try {
+                settings.ecsClient().deleteTaskDefinitions(DeleteTaskDefinitionsRequest.builder().taskDefinitions(batch).build())
+                        .failures().forEach(failure -> failures.put(failure.arn(), failure.reason()));
+            } catch (EcsException e) {
+                batch.forEach(arn -> failures.put(arn, e.getMessage()));
+            }
+        }
+        return failures;
+    }
+
     public Map<Task, TaskDefinition> listAllTasks(PluginSettings settings) {
         String clusterName = settings.getClusterName();
 
@@ -161,6 +304,45 @@ public class TaskHelper {
         ));
     }
 
+    /**
+     * ARNs of the tasks this server has started in the cluster, across all pages. Tasks started before the plugin
+     * set {@code startedBy} are not included.
+     */
+    public List<String> listAgentTaskArns(PluginSettings settings) {
+        final List<String> taskArns = new ArrayList<>();
+        String nextToken = null;
+        do {
+            final ListTasksResponse response = settings.ecsClient().listTasks(ListTasksRequest.builder()
+                    .cluster(settings.getClusterName())
+                    .startedBy(startedBy(getServerId()))
+                    .nextToken(nextToken)
+                    .build());
+            taskArns.addAll(response.taskArns());
+            nextToken = response.nextToken();
+        } while (nextToken != null);
+        return taskArns;
+    }
+
+    /**
+     * Describes the given tasks in batches of the most DescribeTasks accepts. Tasks ECS no longer knows about are
+     * left out of the result.
+     */
+    public List<Task> describeTasks(PluginSettings settings, Collection<String> taskArns) {
+        final List<String> arns = new ArrayList<>(taskArns);
+        final List<Task> tasks = new ArrayList<>();
+        for (int from = 0; from < arns.size(); from += DESCRIBE_TASKS_BATCH_SIZE) {
+            tasks.addAll(settings.ecsClient().describeTasks(DescribeTasksRequest.builder()
+                    .cluster(settings.getClusterName())
+                    .tasks(arns.subList(from, Math.min(from + DESCRIBE_TASKS_BATCH_SIZE, arns.size())))
+                    .build()).tasks());
+        }
+        return tasks;
+    }
+
+    public TaskDefinition describeTaskDefinition(PluginSettings settings, String taskDefinitionArn) {
+        return settings.ecsClient().describeTaskDefinition(DescribeTaskDefinitionRequest.builder().taskDefinition(taskDefinitionArn).build()).taskDefinition();
+    }
+
     public List<ECSContainer> allRunningContainers(PluginSettings settings) {
         String clusterName = settings.getClusterName();
 
@@ -221,6 +403,20 @@ public class TaskHelper {
         return Optional.of(new ECSTask(task, taskDefinition, elasticAgentProfileProperties, jobIdentifier, env, instanceId));
     }
 
+    /**
+     * The {@code startedBy} of the tasks started for the server. ECS takes up to {@value #MAX_STARTED_BY_LENGTH}
+     * letters, digits, hyphens and underscores, so the server id is hashed to fit.
+     */
+    static String startedBy(String serverId) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final String hash = HexFormat.of().formatHex(digest.digest(Objects.requireNonNullElse(serverId, "").getBytes(StandardCharsets.UTF_8)));
+            return STARTED_BY_PREFIX + hash.substring(0, MAX_STARTED_BY_LENGTH - STARTED_BY_PREFIX.length());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private boolean isStarted(StartTaskResponse startTaskResult) {
         return startTaskResult.failures().isEmpty() && !startTaskResult.tasks().isEmpty();
     }
@@ -16,20 +16,19 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.comparator;
 
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ec2.model.Tag;
 
 import java.time.Instant;
 import java.util.Comparator;
-import java.util.Optional;
-
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
 
 public class MostIdleInstanceComparator implements Comparator<Instance> {
     private final Instant now;
+    private final InstanceStateTable instanceStates;
 
-    public MostIdleInstanceComparator(Instant now) {
+    public MostIdleInstanceComparator(Instant now, InstanceStateTable instanceStates) {
         this.now = now;
+        this.instanceStates = instanceStates;
     }
 
     @Override
@@ -41,11 +40,8 @@ public class MostIdleInstanceComparator implements Comparator<Instance> {
     }
 
     private Long getLastSeenTime(Instance instance1) {
-        final Optional<String> lastSeenIdle = instance1.tags().stream()
-                .filter(tag -> tag.key().equals(LAST_SEEN_IDLE))
-                .findFirst()
-                .map(Tag::value);
-
-        return lastSeenIdle.map(s -> now.toEpochMilli() - Long.parseLong(s)).orElse(0L);
+        return instanceStates.lastSeenIdle(instance1)
+                .map(lastSeenIdle -> now.toEpochMilli() - lastSeenIdle.toEpochMilli())
+                .orElse(0L);
     }
 }
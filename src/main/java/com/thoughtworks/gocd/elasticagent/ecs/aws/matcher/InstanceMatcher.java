@@ -51,8 +51,8 @@ public class InstanceMatcher {
             return false;
         }
 
-        if (!Objects.equals(ec2Config.getInstanceType(), instance.instanceTypeAsString())) {
-            LOG.debug(ERROR_MESSAGE_FOR_OBJECT, "InstanceType", instance.instanceTypeAsString(), instance.instanceId(), ec2Config.getInstanceType());
+        if (!ec2Config.getInstanceTypes().contains(instance.instanceTypeAsString())) {
+            LOG.debug(ERROR_MESSAGE_FOR_LIST, "InstanceType", instance.instanceTypeAsString(), instance.instanceId(), ec2Config.getInstanceTypes());
             return false;
         }
 
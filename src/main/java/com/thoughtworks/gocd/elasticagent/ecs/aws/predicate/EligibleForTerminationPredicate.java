@@ -18,18 +18,17 @@ package com.thoughtworks.gocd.elasticagent.ecs.aws.predicate;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.InstanceStateName;
-import software.amazon.awssdk.services.ec2.model.Tag;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.function.Predicate;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.STOPPED_AT;
 import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
 import static java.text.MessageFormat.format;
 
@@ -37,14 +36,16 @@ public class EligibleForTerminationPredicate implements Predicate<Instance> {
     private static final Logger LOG = Logger.getLoggerFor(EligibleForTerminationPredicate.class);
     private final PluginSettings pluginSettings;
     private final Clock clock;
+    private final InstanceStateTable instanceStates;
 
-    public EligibleForTerminationPredicate(PluginSettings pluginSettings) {
-        this(pluginSettings, Clock.DEFAULT);
+    public EligibleForTerminationPredicate(PluginSettings pluginSettings, InstanceStateTable instanceStates) {
+        this(pluginSettings, Clock.DEFAULT, instanceStates);
     }
 
-    EligibleForTerminationPredicate(PluginSettings pluginSettings, Clock clock) {
+    public EligibleForTerminationPredicate(PluginSettings pluginSettings, Clock clock, InstanceStateTable instanceStates) {
         this.pluginSettings = pluginSettings;
         this.clock = clock;
+        this.instanceStates = instanceStates;
     }
 
     @Override
@@ -53,10 +54,7 @@ public class EligibleForTerminationPredicate implements Predicate<Instance> {
             return false;
         }
 
-        final Optional<String> stoppedAt = instance.tags().stream()
-                .filter(tag -> tag.key().equals(STOPPED_AT))
-                .findFirst()
-                .map(Tag::value);
+        final Optional<Instant> stoppedAt = instanceStates.stoppedAt(instance);
 
         if (stoppedAt.isEmpty()) {
             LOG.info(format("Instance {0} does not have STOPPED_AT tag. Instance without tag is eligible for termination.", instance.instanceId()));
@@ -65,7 +63,7 @@ public class EligibleForTerminationPredicate implements Predicate<Instance> {
 
         Duration timeInstanceCanStayStopped = getTimeInstanceCanStayStopped(instance);
 
-        return clock.now().isAfter(Instant.ofEpochMilli(Long.parseLong(stoppedAt.get())).plus(timeInstanceCanStayStopped));
+        return clock.now().isAfter(stoppedAt.get().plus(timeInstanceCanStayStopped));
     }
 
     private boolean isNotInStoppedState(Instance instance) {
@@ -18,17 +18,16 @@ package com.thoughtworks.gocd.elasticagent.ecs.aws.predicate;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ec2.model.Tag;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.function.Predicate;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
 import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
 import static java.text.MessageFormat.format;
 
@@ -37,22 +36,21 @@ public class SpotInstanceEligibleForTerminationPredicate implements Predicate<In
 
     private final PluginSettings pluginSettings;
     private final Clock clock;
+    private final InstanceStateTable instanceStates;
 
-    public SpotInstanceEligibleForTerminationPredicate(PluginSettings pluginSettings) {
-        this(pluginSettings, Clock.DEFAULT);
+    public SpotInstanceEligibleForTerminationPredicate(PluginSettings pluginSettings, InstanceStateTable instanceStates) {
+        this(pluginSettings, Clock.DEFAULT, instanceStates);
     }
 
-    SpotInstanceEligibleForTerminationPredicate(PluginSettings pluginSettings, Clock clock) {
+    public SpotInstanceEligibleForTerminationPredicate(PluginSettings pluginSettings, Clock clock, InstanceStateTable instanceStates) {
         this.pluginSettings = pluginSettings;
         this.clock = clock;
+        this.instanceStates = instanceStates;
     }
 
     @Override
     public boolean test(Instance instance) {
-        final Optional<String> idleSince = instance.tags().stream()
-                .filter(tag -> tag.key().equals(LAST_SEEN_IDLE))
-                .findFirst()
-                .map(Tag::value);
+        final Optional<Instant> idleSince = instanceStates.lastSeenIdle(instance);
 
         if (idleSince.isEmpty()) {
             LOG.info(format("Spot Instance {0} does not have LAST_SEEN_IDLE tag. Instance without this tag is not eligible for termination.", instance.instanceId()));
@@ -61,7 +59,7 @@ public class SpotInstanceEligibleForTerminationPredicate implements Predicate<In
 
         Duration timeInstanceCanStayIdle = getTimeInstanceCanStayIdle(instance);
 
-        return clock.now().isAfter(Instant.ofEpochMilli(Long.parseLong(idleSince.get())).plus(timeInstanceCanStayIdle));
+        return clock.now().isAfter(idleSince.get().plus(timeInstanceCanStayIdle));
     }
 
     private Duration getTimeInstanceCanStayIdle(Instance instance) {
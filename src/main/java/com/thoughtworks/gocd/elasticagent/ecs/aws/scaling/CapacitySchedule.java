@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static java.text.MessageFormat.format;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * The instance counts a cluster profile schedules for each platform by time of day, so capacity is up before the
+ * jobs that need it arrive rather than built one job at a time.
+ *
+ * <p>Each line of the schedule is a five field {@link CronExpression}, a platform and the counts to keep from then
+ * on, e.g. {@code 30 8 * * MON-FRI LINUX min=12}. {@code min} is the number of instances kept running, in place of
+ * the minimum instance count, and {@code warm} the number of stopped instances kept to be started rather than
+ * terminated once they have been stopped for too long. Like a scheduled action of an auto scaling group, each count
+ * is the one set by the line that fired last in the past week, so a schedule usually has a line raising a count and
+ * another lowering it again. Times are in UTC, or in the zone set by the last {@code CRON_TZ=<zone>} line above them.
+ * Blank lines and lines starting with {@code #} are ignored.
+ */
+public class CapacitySchedule {
+    private static final Logger LOG = Logger.getLoggerFor(CapacitySchedule.class);
+    static final Duration LOOKBACK = Duration.ofDays(7);
+    private static final CapacitySchedule NONE = new CapacitySchedule(List.of());
+    private static final Map<String, CapacitySchedule> PARSED = new ConcurrentHashMap<>();
+    private static final DateTimeFormatter FIRED_AT = DateTimeFormatter.ofPattern("EEE HH:mm z", Locale.ENGLISH);
+
+    private final List<Entry> entries;
+
+    private CapacitySchedule(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * The schedule of the cluster profile, or an empty one when it has none or it does not parse.
+     */
+    public static CapacitySchedule of(PluginSettings pluginSettings) {
+        final String schedule = pluginSettings.getCapacitySchedule();
+        if (isBlank(schedule)) {
+            return NONE;
+        }
+
+        if (PARSED.size() > 16) {
+            PARSED.clear();
+        }
+        return PARSED.computeIfAbsent(schedule, text -> {
+            try {
+                return parse(text);
+            } catch (IllegalArgumentException e) {
+                LOG.warn(format("Ignoring the capacity schedule of cluster {0}: {1}", pluginSettings.getClusterName(), e.getMessage()));
+                return NONE;
+            }
+        });
+    }
+
+    public static CapacitySchedule parse(String schedule) {
+        final List<Entry> entries = new ArrayList<>();
+        ZoneId zone = ZoneOffset.UTC;
+
+        final String[] lines = schedule.split("\\R");
+        for (int index = 0; index < lines.length; index++) {
+            final String line = lines[index].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                if (line.startsWith("CRON_TZ=")) {
+                    zone = ZoneId.of(line.substring("CRON_TZ=".length()).trim());
+                } else {
+                    entries.add(Entry.parse(index + 1, line, zone));
+                }
+            } catch (DateTimeException | IllegalArgumentException e) {
+                throw new IllegalArgumentException(format("Line {0}: {1}", index + 1, e.getMessage()), e);
+            }
+        }
+        return new CapacitySchedule(entries);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public Optional<Scheduled> minInstances(Platform platform, Instant now) {
+        return latest(platform, now, Entry::min);
+    }
+
+    /**
+     * The number of instances of the platform the cluster profile keeps running: the scheduled minimum, capped at the
+     * maximum instances allowed, or the minimum instance count when none is scheduled.
+     */
+    public static int minInstanceCount(PluginSettings pluginSettings, Platform platform, Instant now) {
+        final boolean windows = platform == Platform.WINDOWS;
+        final int max = windows ? pluginSettings.getMaxWindowsInstancesAllowed() : pluginSettings.getMaxLinuxInstancesAllowed();
+        return of(pluginSettings).minInstances(platform, now)
+                .map(scheduled -> Math.min(max, scheduled.count()))
+                .orElseGet(() -> windows ? pluginSettings.getMinWindowsInstanceCount() : pluginSettings.getMinLinuxInstanceCount());
+    }
+
+    public Optional<Scheduled> warmInstances(Platform platform, Instant now) {
+        return latest(platform, now, Entry::warm);
+    }
+
+    // the line that fired last wins, and of lines firing in the same minute the one further down
+    private Optional<Scheduled> latest(Platform platform, Instant now, Function<Entry, Integer> count) {
+        final Instant since = now.minus(LOOKBACK);
+        Scheduled latest = null;
+        for (Entry entry : entries) {
+            if (entry.platform() != platform || count.apply(entry) == null) {
+                continue;
+            }
+
+            final Optional<ZonedDateTime> firedAt = entry.cron().previous(now, since, entry.zone());
+            if (firedAt.isPresent() && (latest == null || !firedAt.get().toInstant().isBefore(latest.firedAt().toInstant()))) {
+                latest = new Scheduled(count.apply(entry), firedAt.get(), entry);
+            }
+        }
+        return Optional.ofNullable(latest);
+    }
+
+    /**
+     * A count in force, and the line of the schedule that set it.
+     */
+    public record Scheduled(int count, ZonedDateTime firedAt, Entry entry) {
+        public String describe() {
+            return format("since {0} by line {1} of the schedule ({2})", FIRED_AT.format(firedAt), entry.line(), entry.text());
+        }
+    }
+
+    record Entry(int line, String text, ZoneId zone, CronExpression cron, Platform platform, Integer min, Integer warm) {
+        static Entry parse(int line, String text, ZoneId zone) {
+            final String[] tokens = text.split("\\s+");
+            if (tokens.length < 7) {
+                throw new IllegalArgumentException(format("''{0}'' must be a cron expression, a platform and at least one of min=<count> and warm=<count>.", text));
+            }
+
+            final CronExpression cron = CronExpression.parse(String.join(" ", Arrays.copyOfRange(tokens, 0, 5)));
+            final Platform platform = Arrays.stream(Platform.values())
+                    .filter(value -> value.name().equalsIgnoreCase(tokens[5]))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException(format("''{0}'' is not a platform, expected one of {1}.", tokens[5], Arrays.toString(Platform.values()))));
+
+            Integer min = null;
+            Integer warm = null;
+            for (int index = 6; index < tokens.length; index++) {
+                final String[] keyAndValue = tokens[index].split("=", 2);
+                switch (keyAndValue[0].toLowerCase()) {
+                    case "min" -> min = count(keyAndValue, tokens[index]);
+                    case "warm" -> warm = count(keyAndValue, tokens[index]);
+                    default -> throw new IllegalArgumentException(format("''{0}'' is not min=<count> or warm=<count>.", tokens[index]));
+                }
+            }
+            return new Entry(line, text, zone, cron, platform, min, warm);
+        }
+
+        private static int count(String[] keyAndValue, String token) {
+            try {
+                final int count = keyAndValue.length == 2 ? Integer.parseInt(keyAndValue[1]) : -1;
+                if (count >= 0) {
+                    return count;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            throw new IllegalArgumentException(format("''{0}'' must set a count of zero or more.", token));
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.PendingDemand.Waiting;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.EC2Config;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.StopPolicy;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.comparator.MostIdleInstanceComparator;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.predicate.EligibleForTerminationPredicate;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.predicate.SpotInstanceEligibleForTerminationPredicate;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.CapacitySchedule.Scheduled;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScalingPlan.Action;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategyFactory;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.StopOperation;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.TerminateOperation;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ConsoleLogAppender;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
+import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
+import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
+import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScalingPlan.Kind.*;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategy.ACCEPTABLE_STATES;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static java.text.MessageFormat.format;
+import static java.util.Collections.emptyList;
+
+/**
+ * Brings a cluster to its desired size on every server ping. The cluster is read once into a {@link ClusterState},
+ * a {@link ScalingPlan} is derived from it and the configured minimum and maximum instance counts, and the plan is
+ * executed in batches: all terminations together, then all stops, then the starts and launches.
+ * <p>
+ * Deciding everything from one read keeps the steps from contradicting each other: an instance is never stopped
+ * below the minimum, stopped instances are kept rather than terminated while the minimum is short of running
+ * instances, and each instance gets at most one action per ping. How long an idle instance is kept running before it
+ * is stopped is left to the {@link ScaleInController}, which is told the number of busy instances on every ping.
+ * <p>
+ * Jobs waiting because the cluster was at its maximum are placed by {@link #placeWaiting} once the plan is executed.
+ */
+public class ClusterReconciler {
+    private static final Logger LOG = Logger.getLoggerFor(ClusterReconciler.class);
+
+    private final ContainerInstanceHelper containerInstanceHelper;
+    private final InstanceSelectionStrategyFactory instanceSelectionStrategyFactory;
+    private final StopOperation stopOperation;
+    private final TerminateOperation terminateOperation;
+    private final InstanceStateTable instanceStates;
+    private final InstanceHealth instanceHealth;
+    private final ScaleInController scaleInController;
+    private final Clock clock;
+
+    public ClusterReconciler(ContainerInstanceHelper containerInstanceHelper, InstanceSelectionStrategyFactory instanceSelectionStrategyFactory,
+                             StopOperation stopOperation, TerminateOperation terminateOperation, InstanceStateTable instanceStates, InstanceHealth instanceHealth,
+                             ScaleInController scaleInController, Clock clock) {
+        this.containerInstanceHelper = containerInstanceHelper;
+        this.instanceSelectionStrategyFactory = instanceSelectionStrategyFactory;
+        this.stopOperation = stopOperation;
+        this.terminateOperation = terminateOperation;
+        this.instanceStates = instanceStates;
+        this.instanceHealth = instanceHealth;
+        this.scaleInController = scaleInController;
+        this.clock = clock;
+    }
+
+    public ScalingPlan reconcile(PluginSettings pluginSettings, ECSTasks agentInstances, ConsoleLogAppender consoleLogAppender) {
+        return reconcile(pluginSettings, ClusterState.read(pluginSettings, containerInstanceHelper, agentInstances), agentInstances, consoleLogAppender);
+    }
+
+    public ScalingPlan reconcile(PluginSettings pluginSettings, ClusterState state, ECSTasks agentInstances, ConsoleLogAppender consoleLogAppender) {
+        final ScalingPlan plan = plan(pluginSettings, state);
+        LOG.info(format("[server-ping] Scaling plan for cluster {0}: {1}", pluginSettings.getClusterName(), plan));
+
+        execute(pluginSettings, state, plan, agentInstances.getEventStream(), consoleLogAppender);
+        agentInstances.scalingPlanned(plan);
+        return plan;
+    }
+
+    ScalingPlan plan(PluginSettings pluginSettings, ClusterState state) {
+        final ScalingPlan plan = new ScalingPlan(clock.now());
+        final Set<String> planned = new HashSet<>();
+        final Set<String> quarantined = instanceHealth.quarantinedAmong(state.instances().stream().map(Instance::instanceId).toList());
+
+        planQuarantined(state, quarantined, plan, planned);
+        for (Platform platform : Platform.values()) {
+            planOnDemand(pluginSettings, state, quarantined, platform, plan, planned);
+        }
+        planSpot(pluginSettings, state, plan, planned);
+
+        return plan;
+    }
+
+    private void planQuarantined(ClusterState state, Set<String> quarantined, ScalingPlan plan, Set<String> planned) {
+        if (quarantined.isEmpty()) {
+            return;
+        }
+
+        for (Platform platform : Platform.values()) {
+            final List<String> drained = state.instances().stream()
+                    .filter(instance -> Platform.from(instance.platformAsString()) == platform)
+                    .filter(instance -> quarantined.contains(instance.instanceId()))
+                    .filter(state::isIdle)
+                    .map(Instance::instanceId)
+                    .toList();
+
+            add(plan, planned, TERMINATE, platform, drained, "quarantined after repeated failures, and no agent is running on it");
+        }
+    }
+
+    private void planOnDemand(PluginSettings pluginSettings, ClusterState state, Set<String> quarantined, Platform platform, ScalingPlan plan, Set<String> planned) {
+        final EC2Config ec2Config = new EC2Config.Builder().profile(ElasticAgentProfileProperties.empty(platform)).settings(pluginSettings).build();
+        final Instant now = clock.now();
+        final CapacitySchedule schedule = CapacitySchedule.of(pluginSettings);
+        final Optional<Scheduled> scheduledMin = schedule.minInstances(platform, now);
+        final int max = ec2Config.getMaxInstancesAllowed();
+        final int min = CapacitySchedule.minInstanceCount(pluginSettings, platform, now);
+
+        final List<Instance> instances = state.onDemandInstances(platform).stream()
+                .filter(instance -> !planned.contains(instance.instanceId()))
+                .toList();
+        final List<Instance> running = instances.stream()
+                .filter(instance -> ACCEPTABLE_STATES.contains(instance.state().name()))
+                .filter(instance -> !quarantined.contains(instance.instanceId()))
+                .toList();
+
+        plan.note(format("{0}: {1} on-demand instance(s), {2} of them running and healthy (minimum {3}, maximum {4}).", platform, instances.size(), running.size(), min, max));
+        scheduledMin.ifPresent(scheduled -> plan.note(format("{0}: minimum of {1} scheduled {2}.", platform, scheduled.count(), scheduled.describe())));
+        plan.busy(platform, (int) running.stream().filter(instance -> !state.isIdle(instance)).count());
+
+        final boolean belowMin = running.size() < min;
+        if (belowMin) {
+            plan.add(Action.startOrLaunch(platform, min - running.size(), format("{0} running, below the minimum of {1}", running.size(), min)));
+        }
+
+        final List<String> expired = instances.stream()
+                .filter(state::isRegistered)
+                .filter(new EligibleForTerminationPredicate(pluginSettings, clock, instanceStates))
+                .map(Instance::instanceId)
+                .toList();
+        if (!expired.isEmpty()) {
+            if (belowMin) {
+                plan.note(format("{0}: keeping stopped instance(s) {1} to be started for the minimum.", platform, expired));
+            } else {
+                add(plan, planned, TERMINATE, platform, exceptWarm(schedule, platform, instances, expired, plan),
+                        format("stopped for more than {0} minute(s)", terminateStoppedAfter(pluginSettings, platform).toMinutes()));
+            }
+        }
+
+        final List<Instance> remaining = instances.stream().filter(instance -> !planned.contains(instance.instanceId())).toList();
+        if (remaining.size() > max) {
+            final Comparator<Instance> leastNeededFirst = Comparator.<Instance, Boolean>comparing(instance -> ACCEPTABLE_STATES.contains(instance.state().name()))
+                    .thenComparing(instance -> !state.isIdle(instance))
+                    .thenComparing(new MostIdleInstanceComparator(clock.now(), instanceStates));
+
+            final List<String> excess = remaining.stream()
+                    .filter(state::isRegistered)
+                    .sorted(leastNeededFirst)
+                    .limit(remaining.size() - max)
+                    .map(Instance::instanceId)
+                    .toList();
+            add(plan, planned, TERMINATE, platform, excess, format("{0} instances, above the maximum of {1}", remaining.size(), max));
+        }
+
+        if (running.size() > min) {
+            final StopPolicy stopPolicy = platform == LINUX ? pluginSettings.getLinuxStopPolicy() : pluginSettings.getWindowsStopPolicy();
+            if (stopPolicy == StopPolicy.StopIdleInstance) {
+                final ScaleInController.StopAfter stopAfter = scaleInController.stopAfter(pluginSettings, platform);
+                if (stopAfter.isRaised()) {
+                    plan.note(format("{0}: stopping instances idle for {1}.", platform, stopAfter.describe()));
+                }
+            }
+            final List<Instance> stoppable = running.stream()
+                    .filter(state::isRegistered)
+                    .filter(instance -> !planned.contains(instance.instanceId()))
+                    .toList();
+
+            final List<String> idle = instanceSelectionStrategyFactory.strategyFor(stopPolicy)
+                    .instancesToStop(pluginSettings, platform, state.containerInstances(), stoppable)
+                    .orElse(emptyList())
+                    .stream()
+                    .map(ContainerInstance::ec2InstanceId)
+                    .filter(instanceId -> state.containerInstance(instanceId).isPresent() && !planned.contains(instanceId))
+                    .limit(running.size() - min)
+                    .toList();
+            add(plan, planned, STOP, platform, idle, format("idle under the {0} policy, with {1} running above the minimum of {2}", stopPolicy, running.size(), min));
+        }
+    }
+
+    /**
+     * The expired stopped instances to terminate, leaving as many stopped instances as the schedule keeps warm. The
+     * ones stopped the longest go first.
+     */
+    private List<String> exceptWarm(CapacitySchedule schedule, Platform platform, List<Instance> instances, List<String> expired, ScalingPlan plan) {
+        final Optional<Scheduled> warm = schedule.warmInstances(platform, clock.now());
+        if (warm.isEmpty()) {
+            return expired;
+        }
+
+        final long stopped = instances.stream().filter(instance -> instance.state().name() == InstanceStateName.STOPPED).count();
+        final int toTerminate = (int) Math.max(0, Math.min(expired.size(), stopped - warm.get().count()));
+        final List<String> terminated = instances.stream()
+                .filter(instance -> expired.contains(instance.instanceId()))
+                .sorted(Comparator.comparing(instance -> instanceStates.stoppedAt(instance).orElse(Instant.MIN)))
+                .limit(toTerminate)
+                .map(Instance::instanceId)
+                .toList();
+
+        if (terminated.size() < expired.size()) {
+            plan.note(format("{0}: keeping {1} stopped instance(s) warm, {2} warm instance(s) scheduled {3}.", platform,
+                    expired.size() - terminated.size(), warm.get().count(), warm.get().describe()));
+        }
+        return terminated;
+    }
+
+    private void planSpot(PluginSettings pluginSettings, ClusterState state, ScalingPlan plan, Set<String> planned) {
+        final SpotInstanceEligibleForTerminationPredicate eligibleForTermination = new SpotInstanceEligibleForTerminationPredicate(pluginSettings, clock, instanceStates);
+
+        for (Platform platform : Platform.values()) {
+            final List<Instance> idle = state.spotInstances().stream()
+                    .filter(instance -> Platform.from(instance.platformAsString()) == platform)
+                    .filter(instance -> !planned.contains(instance.instanceId()))
+                    .filter(state::isIdle)
+                    .toList();
+
+            add(plan, planned, MARK_IDLE, platform, idle.stream().filter(instance -> !instanceStates.isMarkedIdle(instance)).map(Instance::instanceId).toList(),
+                    "no agent is running on it");
+
+            final List<String> expired = idle.stream().filter(eligibleForTermination).map(Instance::instanceId).toList();
+            if (!expired.isEmpty()) {
+                add(plan, planned, TERMINATE, platform, expired, format("spot instance idle for more than {0} minute(s)", terminateIdleSpotAfter(pluginSettings, platform).toMinutes()));
+            }
+        }
+    }
+
+    private void add(ScalingPlan plan, Set<String> planned, ScalingPlan.Kind kind, Platform platform, List<String> instanceIds, String reason) {
+        if (!instanceIds.isEmpty()) {
+            plan.add(Action.onInstances(kind, platform, instanceIds, reason));
+            planned.addAll(instanceIds);
+        }
+    }
+
+    void execute(PluginSettings pluginSettings, ClusterState state, ScalingPlan plan, EventStream eventStream, ConsoleLogAppender consoleLogAppender) {
+        plan.busyInstances().forEach((platform, busy) -> scaleInController.demandObserved(pluginSettings, platform, busy));
+        terminate(pluginSettings, state, plan);
+        stop(pluginSettings, state, plan, eventStream);
+        plan.actions(MARK_IDLE).forEach(action -> instanceStates.markIdle(pluginSettings, action.instanceIds()));
+        startOrLaunch(pluginSettings, plan, eventStream, consoleLogAppender);
+    }
+
+    private void terminate(PluginSettings pluginSettings, ClusterState state, ScalingPlan plan) {
+        final List<Action> terminations = plan.actions(TERMINATE);
+        if (terminations.isEmpty()) {
+            return;
+        }
+
+        try {
+            terminateOperation.execute(pluginSettings, containerInstances(state, terminations));
+        } catch (Exception e) {
+            plan.failed(terminations, e);
+            LOG.error("[server-ping] There were errors while terminating instances.", e);
+        }
+    }
+
+    private void stop(PluginSettings pluginSettings, ClusterState state, ScalingPlan plan, EventStream eventStream) {
+        final List<Action> stops = plan.actions(STOP);
+        if (stops.isEmpty()) {
+            eventStream.remove(EventFingerprint.forTerminatingIdleEC2Instances());
+            return;
+        }
+
+        try {
+            stopOperation.execute(pluginSettings, containerInstances(state, stops));
+            eventStream.remove(EventFingerprint.forTerminatingIdleEC2Instances());
+        } catch (Exception e) {
+            plan.failed(stops, e);
+            LOG.error("[server-ping] Error while stopping idle instances.", e);
+            eventStream.update(Event.errorEvent(EventFingerprint.forTerminatingIdleEC2Instances(), "Error while stopping idle instances.", e.getMessage()));
+        }
+    }
+
+    private void startOrLaunch(PluginSettings pluginSettings, ScalingPlan plan, EventStream eventStream, ConsoleLogAppender consoleLogAppender) {
+        boolean failed = false;
+        for (Action action : plan.actions(START_OR_LAUNCH)) {
+            try {
+                LOG.info(format("[server-ping] Ensuring cluster min size, cluster {0} requires {1} more {2} instances.", pluginSettings.getClusterName(), action.count(), action.platform()));
+                containerInstanceHelper.startOrCreateInstance(pluginSettings, ElasticAgentProfileProperties.empty(action.platform()), action.count(), consoleLogAppender);
+            } catch (Exception e) {
+                failed = true;
+                plan.failed(List.of(action), e);
+                eventStream.update(Event.errorEvent(EventFingerprint.forEnsureClusterMinSize(), "Error creating EC2 Instance(s).", e.getMessage()));
+                LOG.error("[server-ping] Error while creating EC2 Instance to ensure cluster min size", e);
+            }
+        }
+
+        if (!failed) {
+            eventStream.remove(EventFingerprint.forEnsureClusterMinSize());
+        }
+    }
+
+    /**
+     * Places the jobs waiting because the cluster was at its maximum on the instances of the cluster state the plan
+     * was made from, leaving out the instances the plan stopped or terminated, so that placing them lists nothing
+     * and waits for nothing. Each profile's jobs are placed oldest first until none of the instances has room for
+     * the next one; a job that fails for another reason is skipped, so it holds up neither the jobs behind it nor
+     * other profiles. Instances started or launched for the jobs take them on a later ping, once registered.
+     * <p>
+     * Called after {@link #reconcile}, without holding the cluster's lock, as placing jobs takes an AWS call each.
+     */
+    public void placeWaiting(PluginSettings pluginSettings, ClusterState state, ScalingPlan plan, ECSTasks agentInstances, ConsoleLogAppender consoleLogAppender) {
+        final List<Waiting> waiting = agentInstances.waitingForCapacity();
+        if (waiting.isEmpty()) {
+            return;
+        }
+
+        final Set<String> actedOn = actedOn(plan);
+        final List<ContainerInstance> containerInstances = state.containerInstances().stream()
+                .filter(containerInstance -> !actedOn.contains(containerInstance.ec2InstanceId()))
+                .toList();
+        final List<Instance> instances = state.instances().stream()
+                .filter(instance -> !actedOn.contains(instance.instanceId()))
+                .toList();
+
+        for (Platform platform : Platform.values()) {
+            final List<Waiting> jobs = waiting.stream().filter(job -> job.platform() == platform).toList();
+            if (jobs.isEmpty()) {
+                continue;
+            }
+
+            int placed = 0;
+            final List<Waiting> unplaced = new ArrayList<>();
+            for (List<Waiting> jobsOfProfile : byProfile(jobs).values()) {
+                final Iterator<Waiting> remaining = jobsOfProfile.iterator();
+                while (remaining.hasNext()) {
+                    final Waiting job = remaining.next();
+                    try {
+                        if (agentInstances.placeWaiting(job, pluginSettings, containerInstances, instances).isEmpty()) {
+                            unplaced.add(job);
+                            remaining.forEachRemaining(unplaced::add);
+                        } else {
+                            placed++;
+                        }
+                    } catch (Exception e) {
+                        LOG.warn(format("[server-ping] Could not place job {0} waiting for capacity: {1}", job.jobIdentifier().getRepresentation(), e.getMessage()));
+                    }
+                }
+            }
+
+            plan.note(format("{0}: placed {1} of {2} job(s) waiting for capacity, the oldest waiting since {3}.", platform, placed, jobs.size(), jobs.getFirst().since()));
+            startOrLaunchForWaiting(pluginSettings, state, actedOn, plan, platform, unplaced, consoleLogAppender);
+        }
+    }
+
+    /**
+     * Starts or launches the instances the on-demand jobs that could not be placed need, in one batch per profile
+     * rather than one at a time as each job is created, without waiting for them to register. Instances that are
+     * idle or still starting are expected to take jobs first, and no more instances are asked for than there are
+     * stopped instances to start and room under the maximum to launch.
+     */
+    private void startOrLaunchForWaiting(PluginSettings pluginSettings, ClusterState state, Set<String> actedOn, ScalingPlan plan, Platform platform,
+                                         List<Waiting> unplaced, ConsoleLogAppender consoleLogAppender) {
+        final List<Waiting> onDemand = unplaced.stream().filter(job -> !job.elasticProfile().runAsSpotInstance()).toList();
+        if (onDemand.isEmpty()) {
+            return;
+        }
+
+        final EC2Config ec2Config = new EC2Config.Builder().profile(ElasticAgentProfileProperties.empty(platform)).settings(pluginSettings).build();
+        final List<Instance> instances = state.onDemandInstances(platform).stream()
+                .filter(instance -> !actedOn.contains(instance.instanceId()))
+                .toList();
+        final long stopped = instances.stream().filter(instance -> instance.state().name() == InstanceStateName.STOPPED).count();
+        final long upcoming = instances.stream()
+                .filter(instance -> ACCEPTABLE_STATES.contains(instance.state().name()))
+                .filter(instance -> !state.isRegistered(instance) || state.isIdle(instance))
+                .count();
+
+        long remaining = Math.min(onDemand.size() - upcoming, Math.max(0, ec2Config.getMaxInstancesAllowed() - instances.size()) + stopped);
+        for (Map.Entry<ElasticAgentProfileProperties, List<Waiting>> entry : byProfile(onDemand).entrySet()) {
+            if (remaining <= 0) {
+                return;
+            }
+
+            final int count = (int) Math.min(entry.getValue().size(), remaining);
+            remaining -= count;
+            try {
+                LOG.info(format("[server-ping] Starting or launching {0} {1} instance(s) for jobs waiting for capacity in cluster {2}.", count, platform, pluginSettings.getClusterName()));
+                final List<String> instanceIds = containerInstanceHelper.startOrLaunchInstances(pluginSettings, entry.getKey(), count, consoleLogAppender);
+                plan.note(format("{0}: started or launched {1} for {2} job(s) waiting for capacity.", platform, instanceIds, entry.getValue().size()));
+            } catch (LimitExceededException e) {
+                plan.note(format("{0}: could not start or launch instances for jobs waiting for capacity: {1}", platform, e.getMessage()));
+                return;
+            } catch (Exception e) {
+                plan.note(format("{0}: could not start or launch instances for jobs waiting for capacity: {1}", platform, e.getMessage()));
+                LOG.warn(format("[server-ping] Could not start or launch {0} {1} instance(s) for jobs waiting for capacity.", count, platform), e);
+            }
+        }
+    }
+
+    private static Map<ElasticAgentProfileProperties, List<Waiting>> byProfile(List<Waiting> jobs) {
+        return jobs.stream().collect(Collectors.groupingBy(Waiting::elasticProfile, LinkedHashMap::new, Collectors.toList()));
+    }
+
+    // the instances a plan stopped or terminated, which can no longer take jobs
+    private static Set<String> actedOn(ScalingPlan plan) {
+        final Set<String> actedOn = new HashSet<>();
+        plan.actions().stream()
+                .filter(action -> action.kind() == TERMINATE || action.kind() == STOP)
+                .filter(action -> plan.failure(action).isEmpty())
+                .forEach(action -> actedOn.addAll(action.instanceIds()));
+        return actedOn;
+    }
+
+    private List<ContainerInstance> containerInstances(ClusterState state, List<Action> actions) {
+        return actions.stream()
+                .flatMap(action -> action.instanceIds().stream())
+                .map(state::containerInstance)
+                .flatMap(Optional::stream)
+                .toList();
+    }
+
+    private Duration terminateStoppedAfter(PluginSettings pluginSettings, Platform platform) {
+        return platform == LINUX ? pluginSettings.terminateStoppedLinuxInstanceAfter() : pluginSettings.terminateStoppedWindowsInstanceAfter();
+    }
+
+    private Duration terminateIdleSpotAfter(PluginSettings pluginSettings, Platform platform) {
+        return platform == LINUX ? pluginSettings.terminateIdleLinuxSpotInstanceAfter() : pluginSettings.terminateIdleWindowsSpotInstanceAfter();
+    }
+}
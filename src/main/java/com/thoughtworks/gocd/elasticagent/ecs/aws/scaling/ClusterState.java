@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.utils.Util;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper.hasTag;
+import static java.util.stream.Collectors.toSet;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * What a cluster looks like at the start of a server ping: its container instances and the EC2 instances the plugin
+ * launched for it, each read once, and the instances still hosting an agent the plugin knows of. Everything the
+ * {@link ClusterReconciler} decides is derived from this one read.
+ */
+public class ClusterState {
+    private final String clusterName;
+    private final List<ContainerInstance> containerInstances;
+    private final List<Instance> instances;
+    private final Map<String, ContainerInstance> containerInstancesByInstanceId;
+    private final Set<String> instancesWithAgents;
+
+    ClusterState(String clusterName, List<ContainerInstance> containerInstances, List<Instance> instances, Set<String> instancesWithAgents) {
+        this.clusterName = clusterName;
+        this.containerInstances = containerInstances;
+        this.containerInstancesByInstanceId = Util.toMap(containerInstances, ContainerInstance::ec2InstanceId, containerInstance -> containerInstance);
+        this.instances = instances.stream().filter(this::belongsToCluster).toList();
+        this.instancesWithAgents = instancesWithAgents;
+    }
+
+    public static ClusterState read(PluginSettings pluginSettings, ContainerInstanceHelper containerInstanceHelper, ECSTasks agentInstances) {
+        final List<ContainerInstance> containerInstances = containerInstanceHelper.getContainerInstances(pluginSettings);
+        final List<Instance> instances = containerInstanceHelper.getAllInstances(pluginSettings, containerInstances);
+        final Set<String> instancesWithAgents = containerInstances.stream()
+                .map(ContainerInstance::ec2InstanceId)
+                .filter(instanceId -> !agentInstances.tasksOnInstance(instanceId).isEmpty())
+                .collect(toSet());
+
+        return new ClusterState(pluginSettings.getClusterName(), containerInstances, instances, instancesWithAgents);
+    }
+
+    public List<ContainerInstance> containerInstances() {
+        return containerInstances;
+    }
+
+    public List<Instance> instances() {
+        return instances;
+    }
+
+    public Optional<ContainerInstance> containerInstance(String instanceId) {
+        return Optional.ofNullable(containerInstancesByInstanceId.get(instanceId));
+    }
+
+    public boolean isRegistered(Instance instance) {
+        return containerInstancesByInstanceId.containsKey(instance.instanceId());
+    }
+
+    /**
+     * Whether a registered instance has no task running or pending on it, and no agent the plugin is still tracking.
+     */
+    public boolean isIdle(Instance instance) {
+        return containerInstance(instance.instanceId())
+                .filter(containerInstance -> containerInstance.runningTasksCount() == 0 && containerInstance.pendingTasksCount() == 0)
+                .isPresent() && !instancesWithAgents.contains(instance.instanceId());
+    }
+
+    public List<Instance> onDemandInstances(Platform platform) {
+        return instances.stream()
+                .filter(instance -> isBlank(instance.spotInstanceRequestId()))
+                .filter(instance -> Platform.from(instance.platformAsString()) == platform)
+                .toList();
+    }
+
+    public List<Instance> spotInstances() {
+        return instances.stream().filter(instance -> !isBlank(instance.spotInstanceRequestId())).toList();
+    }
+
+    // instances tagged with the server id can belong to any cluster of this server, so only those registered with
+    // this cluster or named after it are kept
+    private boolean belongsToCluster(Instance instance) {
+        if (containerInstancesByInstanceId.containsKey(instance.instanceId())) {
+            return true;
+        }
+        final Platform platform = Platform.from(instance.platformAsString());
+        return hasTag("Name", String.format("%s_%s_INSTANCE", clusterName, platform)).test(instance)
+                || hasTag("cluster-name", clusterName).test(instance);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * A standard five field cron expression: minute, hour, day of month, month and day of week. Each field is {@code *},
+ * a value, a range {@code a-b}, either with an optional step {@code /n}, or a comma separated list of those. Days of
+ * the week are {@code 0}-{@code 7}, both {@code 0} and {@code 7} being Sunday, or {@code SUN}-{@code SAT}; months are
+ * {@code 1}-{@code 12} or {@code JAN}-{@code DEC}. As in cron, when both the day of month and the day of week are
+ * restricted, a time matches if either of them does.
+ */
+class CronExpression {
+    private static final List<String> MONTHS = List.of("JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC");
+    private static final List<String> DAYS_OF_WEEK = List.of("SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT");
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    private CronExpression(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59, List.of(), 0);
+        this.hours = parseField(fields[1], 0, 23, List.of(), 0);
+        this.daysOfMonth = parseField(fields[2], 1, 31, List.of(), 0);
+        this.months = parseField(fields[3], 1, 12, MONTHS, 1);
+        this.daysOfWeek = parseField(fields[4], 0, 7, DAYS_OF_WEEK, 0);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        this.anyDayOfMonth = fields[2].startsWith("*");
+        this.anyDayOfWeek = fields[4].startsWith("*");
+    }
+
+    static CronExpression parse(String expression) {
+        final String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException(format("''{0}'' must have five fields: minute, hour, day of month, month and day of week.", expression));
+        }
+        return new CronExpression(expression.trim(), fields);
+    }
+
+    boolean matches(ZonedDateTime time) {
+        return minutes.get(time.getMinute()) && hours.get(time.getHour()) && months.get(time.getMonthValue()) && matchesDay(time.toLocalDate());
+    }
+
+    /**
+     * The last minute in {@code zone} the expression matches, from {@code notBefore} up to and including the minute of
+     * {@code notAfter}. Walks back over the matching days, hours and minutes only, so it costs a handful of steps per
+     * day searched rather than one per minute. A local time skipped by a daylight saving change never matches, and one
+     * repeated by it matches at both offsets.
+     */
+    Optional<ZonedDateTime> previous(Instant notAfter, Instant notBefore, ZoneId zone) {
+        final ZonedDateTime upTo = notAfter.truncatedTo(ChronoUnit.MINUTES).atZone(zone);
+        final LocalDate firstDay = notBefore.atZone(zone).toLocalDate();
+
+        for (LocalDate day = upTo.toLocalDate(); !day.isBefore(firstDay); day = day.minusDays(1)) {
+            if (!months.get(day.getMonthValue()) || !matchesDay(day)) {
+                continue;
+            }
+
+            final boolean today = day.equals(upTo.toLocalDate());
+            for (int hour = hours.previousSetBit(today ? upTo.getHour() : 23); hour >= 0; hour = hours.previousSetBit(hour - 1)) {
+                final boolean thisHour = today && hour == upTo.getHour();
+                for (int minute = minutes.previousSetBit(thisHour ? upTo.getMinute() : 59); minute >= 0; minute = minutes.previousSetBit(minute - 1)) {
+                    final LocalDateTime local = LocalDateTime.of(day, LocalTime.of(hour, minute));
+                    final List<ZoneOffset> offsets = zone.getRules().getValidOffsets(local);
+                    for (int index = offsets.size() - 1; index >= 0; index--) {
+                        final ZonedDateTime time = ZonedDateTime.ofStrict(local, offsets.get(index), zone);
+                        if (!time.toInstant().isAfter(notAfter) && !time.toInstant().isBefore(notBefore)) {
+                            return Optional.of(time);
+                        }
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean matchesDay(LocalDate day) {
+        final boolean dayOfMonth = daysOfMonth.get(day.getDayOfMonth());
+        final boolean dayOfWeek = daysOfWeek.get(day.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private static BitSet parseField(String field, int min, int max, List<String> names, int firstName) {
+        final BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            final String[] rangeAndStep = part.split("/", -1);
+            if (rangeAndStep.length > 2) {
+                throw new IllegalArgumentException(format("''{0}'' is not a valid cron field.", part));
+            }
+
+            final int from;
+            final int to;
+            if ("*".equals(rangeAndStep[0])) {
+                from = min;
+                to = max;
+            } else {
+                final String[] range = rangeAndStep[0].split("-", -1);
+                if (range.length > 2) {
+                    throw new IllegalArgumentException(format("''{0}'' is not a valid cron field.", part));
+                }
+                from = value(range[0], min, max, names, firstName);
+                to = range.length == 2 ? value(range[1], min, max, names, firstName) : rangeAndStep.length == 2 ? max : from;
+            }
+
+            final int step = rangeAndStep.length == 2 ? value(rangeAndStep[1], 1, max, List.of(), 0) : 1;
+            if (from > to) {
+                throw new IllegalArgumentException(format("''{0}'' is not a valid cron range.", part));
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int value(String value, int min, int max, List<String> names, int firstName) {
+        final int named = names.indexOf(value.toUpperCase());
+        if (named >= 0) {
+            return named + firstName;
+        }
+
+        try {
+            final int parsed = Integer.parseInt(value);
+            if (parsed < min || parsed > max) {
+                throw new IllegalArgumentException(format("{0} is not between {1} and {2}.", value, min, max));
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("''{0}'' is not a number.", value));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static java.text.MessageFormat.format;
+
+/**
+ * Decides how long an idle on-demand instance is kept running before it is stopped, so that instances are not
+ * stopped only to be started again minutes later.
+ *
+ * <p>The idle timeout of a platform starts at its configured stop-after, and is raised towards the configured
+ * longest stop-after by whichever is higher of:
+ * <ul>
+ *     <li>how uneven demand has been: the deviation of the number of busy instances seen on each server ping,
+ *     relative to its mean, both averaged exponentially over the last {@link #DEMAND_SAMPLES} or so pings;</li>
+ *     <li>recent churn: stopped instances started again before the longest stop-after had passed, and stopped
+ *     instances terminated to make room for a launch, each counting for less the longer ago it was, halving every
+ *     {@link #CHURN_HALF_LIFE}. {@link #CHURN_FOR_LONGEST} of them raise it all the way.</li>
+ * </ul>
+ * For one configured stop-after after instances are started or launched, it is the longest stop-after. When the
+ * longest stop-after is not configured above the stop-after, instances are stopped after the stop-after as before.
+ */
+public class ScaleInController {
+    private static final Logger LOG = Logger.getLoggerFor(ScaleInController.class);
+    static final int DEMAND_SAMPLES = 10;
+    static final Duration CHURN_HALF_LIFE = Duration.ofMinutes(30);
+    static final double CHURN_FOR_LONGEST = 2;
+
+    private final Map<String, Demand> demand = new ConcurrentHashMap<>();
+    private final Clock clock;
+
+    public ScaleInController(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void demandObserved(PluginSettings pluginSettings, Platform platform, int busyInstances) {
+        demandFor(pluginSettings, platform).sample(busyInstances);
+    }
+
+    /**
+     * Records stopped instances being started again, given when each of them was stopped, which counts as churn for
+     * those stopped more recently than the longest stop-after.
+     */
+    public void started(PluginSettings pluginSettings, Platform platform, Map<String, Instant> stoppedAt) {
+        final Instant now = clock.now();
+        final Duration longest = longestStopAfter(pluginSettings, platform);
+        final Demand platformDemand = demandFor(pluginSettings, platform);
+
+        stoppedAt.forEach((instanceId, at) -> {
+            final Duration stoppedFor = Duration.between(at, now);
+            if (stoppedFor.compareTo(longest) < 0) {
+                LOG.info(format("[scale-in] Starting instance {0} {1} minute(s) after it was stopped.", instanceId, stoppedFor.toMinutes()));
+                platformDemand.churned(now);
+            }
+        });
+        platformDemand.scaledOut(now);
+    }
+
+    public void launched(PluginSettings pluginSettings, Platform platform) {
+        demandFor(pluginSettings, platform).scaledOut(clock.now());
+    }
+
+    /**
+     * Records a stopped instance being terminated to make room for launching a new one, which counts as churn.
+     */
+    public void replacedStopped(PluginSettings pluginSettings, Platform platform) {
+        demandFor(pluginSettings, platform).churned(clock.now());
+    }
+
+    public StopAfter stopAfter(PluginSettings pluginSettings, Platform platform) {
+        final Duration configured = platform == LINUX ? pluginSettings.stopLinuxInstanceAfter() : pluginSettings.stopWindowsInstanceAfter();
+        final Duration longest = longestStopAfter(pluginSettings, platform);
+        if (longest.compareTo(configured) <= 0) {
+            return new StopAfter(configured, configured, null);
+        }
+
+        final Demand platformDemand = demand.get(key(pluginSettings, platform));
+        if (platformDemand == null) {
+            return new StopAfter(configured, configured, null);
+        }
+
+        final Instant now = clock.now();
+        if (platformDemand.scaledOutWithin(configured, now)) {
+            return new StopAfter(longest, configured, "instances were started or launched in the last " + configured.toMinutes() + " minute(s)");
+        }
+
+        final double volatility = platformDemand.volatility();
+        final double churn = Math.min(1, platformDemand.churn(now) / CHURN_FOR_LONGEST);
+        final long extraMinutes = Math.round((longest.toMinutes() - configured.toMinutes()) * Math.max(volatility, churn));
+        if (extraMinutes <= 0) {
+            return new StopAfter(configured, configured, null);
+        }
+
+        final String reason = volatility >= churn
+                ? format("demand is uneven, {0,number,0.#} busy instance(s) on average varying by {1,number,0.#}", platformDemand.mean(), platformDemand.deviation())
+                : format("{0,number,0.#} recent restart(s) of stopped instances", platformDemand.churn(now));
+        return new StopAfter(configured.plusMinutes(extraMinutes), configured, reason);
+    }
+
+    private Duration longestStopAfter(PluginSettings pluginSettings, Platform platform) {
+        final Duration longest = platform == LINUX ? pluginSettings.maxStopLinuxInstanceAfter() : pluginSettings.maxStopWindowsInstanceAfter();
+        return longest == null ? Duration.ZERO : longest;
+    }
+
+    private Demand demandFor(PluginSettings pluginSettings, Platform platform) {
+        return demand.computeIfAbsent(key(pluginSettings, platform), key -> new Demand());
+    }
+
+    private static String key(PluginSettings pluginSettings, Platform platform) {
+        return pluginSettings.getClusterName() + "/" + platform;
+    }
+
+    /**
+     * How long an idle instance is kept running, and why when it is longer than configured.
+     */
+    public record StopAfter(Duration duration, Duration configured, String reason) {
+        public boolean isRaised() {
+            return duration.compareTo(configured) > 0;
+        }
+
+        public String describe() {
+            return isRaised()
+                    ? format("{0} minute(s) instead of {1}, as {2}", duration.toMinutes(), configured.toMinutes(), reason)
+                    : format("{0} minute(s)", duration.toMinutes());
+        }
+    }
+
+    private static class Demand {
+        private static final double WEIGHT = 2.0 / (DEMAND_SAMPLES + 1);
+
+        private boolean sampled;
+        private double mean;
+        private double variance;
+        private double churn;
+        private Instant churnAt = Instant.EPOCH;
+        private Instant lastScaleOut;
+
+        synchronized void sample(int busyInstances) {
+            if (!sampled) {
+                sampled = true;
+                mean = busyInstances;
+                return;
+            }
+            final double difference = busyInstances - mean;
+            mean += WEIGHT * difference;
+            variance = (1 - WEIGHT) * (variance + WEIGHT * difference * difference);
+        }
+
+        synchronized double mean() {
+            return mean;
+        }
+
+        synchronized double deviation() {
+            return Math.sqrt(variance);
+        }
+
+        synchronized double volatility() {
+            return Math.min(1, Math.sqrt(variance) / Math.max(1, mean));
+        }
+
+        synchronized void churned(Instant now) {
+            churn = churn(now) + 1;
+            churnAt = now;
+        }
+
+        synchronized double churn(Instant now) {
+            final double halfLives = (double) Duration.between(churnAt, now).toMillis() / CHURN_HALF_LIFE.toMillis();
+            return churn * Math.pow(0.5, Math.max(0, halfLives));
+        }
+
+        synchronized void scaledOut(Instant now) {
+            lastScaleOut = now;
+        }
+
+        synchronized boolean scaledOutWithin(Duration period, Instant now) {
+            return lastScaleOut != null && now.isBefore(lastScaleOut.plus(period));
+        }
+    }
+}
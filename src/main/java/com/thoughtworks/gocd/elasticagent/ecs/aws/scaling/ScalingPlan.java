@@ -0,0 +1,131 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * The actions one server ping takes to bring a cluster to its desired size, each with the reason it was taken, and
+ * the notes on what was deliberately left alone. Failures of the actions are recorded on the plan as it is executed.
+ */
+public class ScalingPlan {
+    public enum Kind {TERMINATE, STOP, MARK_IDLE, START_OR_LAUNCH}
+
+    public record Action(Kind kind, Platform platform, List<String> instanceIds, int count, String reason) {
+        static Action onInstances(Kind kind, Platform platform, List<String> instanceIds, String reason) {
+            return new Action(kind, platform, List.copyOf(instanceIds), instanceIds.size(), reason);
+        }
+
+        static Action startOrLaunch(Platform platform, int count, String reason) {
+            return new Action(Kind.START_OR_LAUNCH, platform, List.of(), count, reason);
+        }
+
+        public String describe() {
+            return switch (kind) {
+                case TERMINATE -> format("Terminate {0} {1}: {2}", platform, instanceIds, reason);
+                case STOP -> format("Stop {0} {1}: {2}", platform, instanceIds, reason);
+                case MARK_IDLE -> format("Mark {0} {1} idle: {2}", platform, instanceIds, reason);
+                case START_OR_LAUNCH -> format("Start or launch {0} {1} instance(s): {2}", count, platform, reason);
+            };
+        }
+    }
+
+    private final Instant plannedAt;
+    private final List<Action> actions = new ArrayList<>();
+    // notes are still added while placing waiting jobs, after the plan is shown in the status report
+    private final List<String> notes = new CopyOnWriteArrayList<>();
+    private final Map<Action, String> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<Platform, Integer> busyInstances = new EnumMap<>(Platform.class);
+
+    ScalingPlan(Instant plannedAt) {
+        this.plannedAt = plannedAt;
+    }
+
+    void add(Action action) {
+        actions.add(action);
+    }
+
+    void note(String note) {
+        notes.add(note);
+    }
+
+    void busy(Platform platform, int instances) {
+        busyInstances.put(platform, instances);
+    }
+
+    void failed(Collection<Action> failedActions, Exception e) {
+        failedActions.forEach(action -> failures.put(action, e.getMessage()));
+    }
+
+    public Instant plannedAt() {
+        return plannedAt;
+    }
+
+    public List<Action> actions() {
+        return Collections.unmodifiableList(actions);
+    }
+
+    public List<Action> actions(Kind kind) {
+        return actions.stream().filter(action -> action.kind() == kind).toList();
+    }
+
+    public List<String> notes() {
+        return Collections.unmodifiableList(notes);
+    }
+
+    /**
+     * The running, healthy on-demand instances of each platform with an agent on them when the plan was made.
+     */
+    public Map<Platform, Integer> busyInstances() {
+        return Collections.unmodifiableMap(busyInstances);
+    }
+
+    public Optional<String> failure(Action action) {
+        return Optional.ofNullable(failures.get(action));
+    }
+
+    public boolean isEmpty() {
+        return actions.isEmpty();
+    }
+
+    /**
+     * One line per action, with its outcome, followed by the notes.
+     */
+    public List<String> summary() {
+        final List<String> summary = new ArrayList<>();
+        for (Action action : actions) {
+            summary.add(failure(action).map(failure -> action.describe() + format(" (failed: {0})", failure)).orElse(action.describe()));
+        }
+        if (actions.isEmpty()) {
+            summary.add("Nothing to do.");
+        }
+        summary.addAll(notes);
+        return summary;
+    }
+
+    @Override
+    public String toString() {
+        return String.join("; ", summary());
+    }
+}
@@ -17,11 +17,14 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerDefinitionBuilder;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.EC2Config;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.ContainerInstanceMatcher;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.InstanceMatcher;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.CapacitySchedule;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
@@ -33,7 +36,6 @@ import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.WINDOWS;
 import static com.thoughtworks.gocd.elasticagent.ecs.utils.Util.toMap;
 import static java.text.MessageFormat.format;
 import static java.util.stream.Collectors.toList;
@@ -48,15 +50,33 @@ public abstract class InstanceSelectionStrategy {
     protected final ContainerInstanceHelper containerInstanceHelper;
     final InstanceMatcher instanceMatcher;
     final ContainerInstanceMatcher containerInstanceMatcher;
+    private final InstanceHealth instanceHealth;
+    private final Clock clock;
 
     public InstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper) {
-        this(containerInstanceHelper, new InstanceMatcher(), new ContainerInstanceMatcher());
+        this(containerInstanceHelper, new InstanceHealth(Clock.DEFAULT), Clock.DEFAULT);
+    }
+
+    InstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceHealth instanceHealth, Clock clock) {
+        this(containerInstanceHelper, new InstanceMatcher(), new ContainerInstanceMatcher(), instanceHealth, clock);
     }
 
     InstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceMatcher instanceMatcher, ContainerInstanceMatcher containerInstanceMatcher) {
+        this(containerInstanceHelper, instanceMatcher, containerInstanceMatcher, new InstanceHealth(Clock.DEFAULT));
+    }
+
+    InstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceMatcher instanceMatcher, ContainerInstanceMatcher containerInstanceMatcher,
+                              InstanceHealth instanceHealth) {
+        this(containerInstanceHelper, instanceMatcher, containerInstanceMatcher, instanceHealth, Clock.DEFAULT);
+    }
+
+    InstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceMatcher instanceMatcher, ContainerInstanceMatcher containerInstanceMatcher,
+                              InstanceHealth instanceHealth, Clock clock) {
         this.containerInstanceHelper = containerInstanceHelper;
         this.instanceMatcher = instanceMatcher;
         this.containerInstanceMatcher = containerInstanceMatcher;
+        this.instanceHealth = instanceHealth;
+        this.clock = clock;
     }
 
     protected abstract List<ContainerInstance> findInstancesToStop(PluginSettings pluginSettings, Platform platform, Map<String, ContainerInstance> instanceIdToContainerInstance, List<Instance> idleInstances);
@@ -64,38 +84,65 @@ public abstract class InstanceSelectionStrategy {
     protected abstract void sortInstancesForScheduling(List<Instance> ec2Instances);
 
     public Optional<ContainerInstance> instanceForScheduling(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, ContainerDefinitionBuilder.PlacementRequirement placementRequirement) {
+        final Iterator<ContainerInstance> candidates = instancesForScheduling(pluginSettings, elasticAgentProfileProperties, placementRequirement);
+        return candidates.hasNext() ? Optional.of(candidates.next()) : Optional.empty();
+    }
+
+    /**
+     * The container instances a task for the profile can be scheduled on, best first, from a single listing of the
+     * cluster. The candidates are matched as they are taken, so taking only the first one does no more work than
+     * needed to find it.
+     */
+    public Iterator<ContainerInstance> instancesForScheduling(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, ContainerDefinitionBuilder.PlacementRequirement placementRequirement) {
         List<ContainerInstance> containerInstanceList = containerInstanceHelper.getContainerInstances(pluginSettings);
+        if (containerInstanceList.isEmpty()) {
+            return Collections.emptyIterator();
+        }
 
+        return instancesForScheduling(pluginSettings, elasticAgentProfileProperties, placementRequirement, containerInstanceList,
+                containerInstanceHelper.ec2InstancesFromContainerInstances(pluginSettings, containerInstanceList));
+    }
+
+    /**
+     * The container instances a task for the profile can be scheduled on, best first, among container instances and
+     * their EC2 instances that were already read. EC2 instances not registered with the cluster are left out.
+     */
+    public Iterator<ContainerInstance> instancesForScheduling(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, ContainerDefinitionBuilder.PlacementRequirement placementRequirement,
+                                                              List<ContainerInstance> containerInstanceList, List<Instance> instances) {
         final EC2Config ec2Config = new EC2Config.Builder()
                 .profile(elasticAgentProfileProperties)
                 .settings(pluginSettings)
                 .build();
 
-        if (containerInstanceList.isEmpty()) {
-            return Optional.empty();
-        }
+        final Map<String, ContainerInstance> instanceMap = toMap(containerInstanceList, ContainerInstance::ec2InstanceId, containerInstance -> containerInstance);
 
-        final List<Instance> ec2Instances = containerInstanceHelper.ec2InstancesFromContainerInstances(pluginSettings, containerInstanceList)
-                .stream().filter(instance -> ACCEPTABLE_STATES.contains(instance.state().name()))
+        final List<Instance> ec2Instances = instances.stream()
+                .filter(instance -> ACCEPTABLE_STATES.contains(instance.state().name()))
+                .filter(instance -> instanceMap.containsKey(instance.instanceId()))
                 .collect(toList());
 
-        final Map<String, ContainerInstance> instanceMap = toMap(containerInstanceList, ContainerInstance::ec2InstanceId, containerInstance -> containerInstance);
-
         sortInstancesForScheduling(ec2Instances);
 
-        for (Instance instance : ec2Instances) {
-            final ContainerInstance containerInstance = instanceMap.get(instance.instanceId());
-            if (instanceMatcher.matches(ec2Config, instance) && containerInstanceMatcher.matches(containerInstance, placementRequirement)) {
-                if (isSpotInstance(instance)) {
-                    containerInstanceHelper.removeLastSeenIdleTag(pluginSettings, Collections.singletonList(instance.instanceId()));
-                }
-                return Optional.of(containerInstance);
-            } else {
-                LOG.info(format("Skipped container creation on container instance {0}: required resources are not available.", instance.instanceId()));
-            }
-        }
-
-        return Optional.empty();
+        final Set<String> quarantined = instanceHealth.quarantinedAmong(instances.stream().map(Instance::instanceId).toList());
+        return ec2Instances.stream()
+                .filter(instance -> {
+                    if (quarantined.contains(instance.instanceId())) {
+                        LOG.info(format("Skipped container creation on container instance {0}: it is quarantined after repeated failures.", instance.instanceId()));
+                        return false;
+                    }
+                    if (instanceMatcher.matches(ec2Config, instance) && containerInstanceMatcher.matches(instanceMap.get(instance.instanceId()), placementRequirement)) {
+                        return true;
+                    }
+                    LOG.info(format("Skipped container creation on container instance {0}: required resources are not available.", instance.instanceId()));
+                    return false;
+                })
+                .map(instance -> {
+                    if (isSpotInstance(instance)) {
+                        containerInstanceHelper.removeLastSeenIdleTag(pluginSettings, Collections.singletonList(instance.instanceId()));
+                    }
+                    return instanceMap.get(instance.instanceId());
+                })
+                .iterator();
     }
 
     private boolean isSpotInstance(Instance instance) {
@@ -110,13 +157,21 @@ public abstract class InstanceSelectionStrategy {
             return Optional.empty();
         }
 
-        final List<Instance> instancesWithPlatform = containerInstanceHelper.ec2InstancesFromContainerInstances(pluginSettings, allContainerInstances)
+        return instancesToStop(pluginSettings, platform, allContainerInstances, containerInstanceHelper.ec2InstancesFromContainerInstances(pluginSettings, allContainerInstances));
+    }
+
+    /**
+     * The idle instances to stop among on-demand container instances and their EC2 instances that were already read,
+     * in the order they should be stopped.
+     */
+    public Optional<List<ContainerInstance>> instancesToStop(PluginSettings pluginSettings, Platform platform, List<ContainerInstance> allContainerInstances, List<Instance> ec2Instances) {
+        final List<Instance> instancesWithPlatform = ec2Instances
                 .stream()
                 .filter(instance -> ACCEPTABLE_STATES.contains(instance.state().name()))
                 .filter(instance -> Platform.from(instance.platformAsString()) == platform)
                 .collect(toList());
 
-        if (instancesWithPlatform.size() <= minInstanceCount(platform, pluginSettings)) {
+        if (instancesWithPlatform.size() <= CapacitySchedule.minInstanceCount(pluginSettings, platform, clock.now())) {
             LOG.debug(format("Skipping scaling in of {0} instance as cluster is already scaled in.", platform.name().toLowerCase()));
             return Optional.empty();
         }
@@ -142,8 +197,4 @@ public abstract class InstanceSelectionStrategy {
     private boolean isIdle(ContainerInstance containerInstance) {
         return containerInstance.pendingTasksCount() == 0 && containerInstance.runningTasksCount() == 0;
     }
-
-    private int minInstanceCount(Platform platform, PluginSettings pluginSettings) {
-        return platform == WINDOWS ? pluginSettings.getMinWindowsInstanceCount() : pluginSettings.getMinLinuxInstanceCount();
-    }
 }
@@ -16,14 +16,33 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.StopPolicy;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScaleInController;
 
 public class InstanceSelectionStrategyFactory {
+    private final ContainerInstanceHelper containerInstanceHelper;
+    private final InstanceStateTable instanceStates;
+    private final InstanceHealth instanceHealth;
+    private final ScaleInController scaleInController;
+    private final Clock clock;
+
+    public InstanceSelectionStrategyFactory(ContainerInstanceHelper containerInstanceHelper, InstanceStateTable instanceStates, InstanceHealth instanceHealth,
+                                            ScaleInController scaleInController, Clock clock) {
+        this.containerInstanceHelper = containerInstanceHelper;
+        this.instanceStates = instanceStates;
+        this.instanceHealth = instanceHealth;
+        this.scaleInController = scaleInController;
+        this.clock = clock;
+    }
 
     public InstanceSelectionStrategy strategyFor(StopPolicy stopPolicy) {
         return switch (stopPolicy) {
-            case StopOldestInstance -> new OldestInstanceSelectionStrategy();
-            case StopIdleInstance -> new StopIdleInstanceSelectionStrategy();
+            case StopOldestInstance -> new OldestInstanceSelectionStrategy(containerInstanceHelper, instanceHealth, clock);
+            case StopIdleInstance -> new StopIdleInstanceSelectionStrategy(containerInstanceHelper, instanceHealth, clock, instanceStates, scaleInController);
         };
 
     }
@@ -16,7 +16,9 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.ContainerInstanceMatcher;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.InstanceMatcher;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
@@ -32,8 +34,8 @@ import static java.util.Collections.singletonList;
 
 public class OldestInstanceSelectionStrategy extends InstanceSelectionStrategy {
 
-    public OldestInstanceSelectionStrategy() {
-        super(new ContainerInstanceHelper());
+    OldestInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceHealth instanceHealth, Clock clock) {
+        super(containerInstanceHelper, instanceHealth, clock);
     }
 
     OldestInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceMatcher instanceMatcher, ContainerInstanceMatcher containerInstanceMatcher) {
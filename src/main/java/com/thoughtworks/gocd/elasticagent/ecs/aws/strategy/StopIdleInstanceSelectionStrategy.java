@@ -18,44 +18,48 @@ package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.comparator.MostIdleInstanceComparator;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScaleInController;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
 import java.time.Duration;
-import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
-
 public class StopIdleInstanceSelectionStrategy extends InstanceSelectionStrategy {
     private final Clock clock;
+    private final InstanceStateTable instanceStates;
+    private final ScaleInController scaleInController;
 
-    public StopIdleInstanceSelectionStrategy() {
-        super(new ContainerInstanceHelper());
-        this.clock = Clock.DEFAULT;
+    StopIdleInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, Clock clock, InstanceStateTable instanceStates) {
+        this(containerInstanceHelper, new InstanceHealth(clock), clock, instanceStates, new ScaleInController(clock));
     }
 
-    StopIdleInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, Clock clock) {
-        super(containerInstanceHelper);
+    StopIdleInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceHealth instanceHealth, Clock clock, InstanceStateTable instanceStates,
+                                      ScaleInController scaleInController) {
+        super(containerInstanceHelper, instanceHealth, clock);
         this.clock = clock;
+        this.instanceStates = instanceStates;
+        this.scaleInController = scaleInController;
     }
 
     @Override
     protected void sortInstancesForScheduling(List<Instance> ec2Instances) {
-        ec2Instances.sort(new MostIdleInstanceComparator(clock.now()).reversed());
+        ec2Instances.sort(new MostIdleInstanceComparator(clock.now(), instanceStates).reversed());
     }
 
     @Override
     protected List<ContainerInstance> findInstancesToStop(PluginSettings pluginSettings, Platform platform, Map<String, ContainerInstance> instanceIdToContainerInstance, List<Instance> idleInstances) {
-        final Duration timeInstanceCanStayIdle = platform == Platform.LINUX ? pluginSettings.stopLinuxInstanceAfter() : pluginSettings.stopWindowsInstanceAfter();
+        final Duration timeInstanceCanStayIdle = scaleInController.stopAfter(pluginSettings, platform).duration();
 
-        idleInstances.sort(new MostIdleInstanceComparator(clock.now()));
+        idleInstances.sort(new MostIdleInstanceComparator(clock.now(), instanceStates));
 
         return idleInstances.stream()
                 .filter(isIdlePeriodIsMoreThan(timeInstanceCanStayIdle))
@@ -64,10 +68,7 @@ public class StopIdleInstanceSelectionStrategy extends InstanceSelectionStrategy
     }
 
     private Predicate<Instance> isIdlePeriodIsMoreThan(Duration timeInstanceCanStayIdle) {
-        return instance -> instance.tags().stream()
-                .filter(tag -> tag.key().equals(LAST_SEEN_IDLE))
-                .findFirst()
-                .map(tag -> Instant.ofEpochMilli(Long.parseLong(tag.value())))
+        return instance -> instanceStates.lastSeenIdle(instance)
                 .map(lastSeenIdle -> clock.now().isAfter(lastSeenIdle.plus(timeInstanceCanStayIdle)))
                 .orElse(false);
     }
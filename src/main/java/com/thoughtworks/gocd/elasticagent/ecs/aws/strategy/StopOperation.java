@@ -17,22 +17,24 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
-import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
-import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
 import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
-import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
 import java.util.Collection;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.Constants.STOPPED_AT;
 import static java.text.MessageFormat.format;
 
 public class StopOperation implements Operation<ContainerInstance> {
     private static final Logger LOG = Logger.getLoggerFor(StopOperation.class);
+    private final InstanceStateTable instanceStates;
+
+    public StopOperation(InstanceStateTable instanceStates) {
+        this.instanceStates = instanceStates;
+    }
 
     @Override
     public void execute(PluginSettings pluginSettings, Collection<ContainerInstance> containerInstanceToStop) {
@@ -44,14 +46,8 @@ public class StopOperation implements Operation<ContainerInstance> {
         final Set<String> instanceIds = containerInstanceToStop.stream()
                 .map(ContainerInstance::ec2InstanceId).collect(Collectors.toSet());
 
-
         LOG.info(format("Adding STOPPED_AT tag to container instances {0}.", instanceIds));
-        pluginSettings.ec2Client().createTags(
-                CreateTagsRequest.builder()
-                        .tags(Tag.builder().key(STOPPED_AT).value(String.valueOf(Clock.DEFAULT.now().toEpochMilli())).build())
-                        .resources(instanceIds)
-                        .build()
-        );
+        instanceStates.markStopped(pluginSettings, instanceIds);
 
         LOG.info(format("Stopping idle container instances {0}.", instanceIds));
         final StopInstancesRequest stopInstancesRequest = StopInstancesRequest.builder()
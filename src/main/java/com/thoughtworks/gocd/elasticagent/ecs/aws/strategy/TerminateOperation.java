@@ -17,12 +17,17 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.CleanupExecutor;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 import software.amazon.awssdk.services.ecs.model.DeregisterContainerInstanceRequest;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -30,6 +35,15 @@ import static java.text.MessageFormat.format;
 
 public class TerminateOperation implements Operation<ContainerInstance> {
     private static final Logger LOG = Logger.getLoggerFor(TerminateOperation.class);
+    private final InstanceStateTable instanceStates;
+    private final CleanupExecutor cleanupExecutor;
+    private final InstanceHealth instanceHealth;
+
+    public TerminateOperation(InstanceStateTable instanceStates, CleanupExecutor cleanupExecutor, InstanceHealth instanceHealth) {
+        this.instanceStates = instanceStates;
+        this.cleanupExecutor = cleanupExecutor;
+        this.instanceHealth = instanceHealth;
+    }
 
     @Override
     public void execute(PluginSettings pluginSettings, Collection<ContainerInstance> containerInstanceToTerminate) {
@@ -38,16 +52,31 @@ public class TerminateOperation implements Operation<ContainerInstance> {
             return;
         }
 
-        final Set<String> instancesToTerminate = containerInstanceToTerminate.stream()
-                .map(ContainerInstance::ec2InstanceId)
-                .collect(Collectors.toSet());
+        LOG.info(format("Terminating idle container instances {0}.", ec2InstanceIds(containerInstanceToTerminate)));
+
+        final Map<ContainerInstance, RuntimeException> notDeregistered = cleanupExecutor.forEach(containerInstanceToTerminate,
+                containerInstance -> deregisterContainerInstance(pluginSettings, containerInstance));
+        notDeregistered.forEach((containerInstance, e) -> LOG.warn(format("Could not deregister container instance {0}: {1}", containerInstance.ec2InstanceId(), e.getMessage())));
 
-        LOG.info(format("Terminating idle container instances {0}.", instancesToTerminate));
+        // instances that are still registered are left running, so ECS does not keep scheduling tasks onto them
+        final Set<String> instancesToTerminate = ec2InstanceIds(containerInstanceToTerminate.stream().filter(containerInstance -> !notDeregistered.containsKey(containerInstance)).toList());
+        if (!instancesToTerminate.isEmpty()) {
+            pluginSettings.ec2Client().terminateInstances(TerminateInstancesRequest.builder().instanceIds(instancesToTerminate).build());
+            instanceStates.forget(instancesToTerminate);
+            instanceHealth.forget(instancesToTerminate);
+            LOG.info(format("Container instances {0} terminated.", instancesToTerminate));
+        }
 
-        containerInstanceToTerminate.forEach(containerInstance -> deregisterContainerInstance(pluginSettings, containerInstance));
+        if (!notDeregistered.isEmpty()) {
+            final Iterator<RuntimeException> failures = notDeregistered.values().iterator();
+            final RuntimeException failure = failures.next();
+            failures.forEachRemaining(failure::addSuppressed);
+            throw failure;
+        }
+    }
 
-        pluginSettings.ec2Client().terminateInstances(TerminateInstancesRequest.builder().instanceIds(instancesToTerminate).build());
-        LOG.info(format("Container instances {0} terminated.", instancesToTerminate));
+    private Set<String> ec2InstanceIds(Collection<ContainerInstance> containerInstances) {
+        return containerInstances.stream().map(ContainerInstance::ec2InstanceId).collect(Collectors.toSet());
     }
 
     private void deregisterContainerInstance(PluginSettings pluginSettings, ContainerInstance containerInstanceToDeregister) {
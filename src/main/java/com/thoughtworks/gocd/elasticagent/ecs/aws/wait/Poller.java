@@ -17,36 +17,62 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.wait;
 
 
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter;
+import com.thoughtworks.gocd.elasticagent.ecs.jfr.PollerWaitEvent;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
+
 import java.time.Duration;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 public class Poller<T> {
     private static final AtomicLong POLLER_THREAD_COUNTER = new AtomicLong();
+    private static volatile Sleeper sleeper = Sleeper.SYSTEM;
 
     private Predicate<T> stopWhen;
     private Supplier<T> poller;
     private Duration timeout;
     private Duration retryInterval = Duration.ofSeconds(5);
+    private String description = "poll";
 
     public Result<T> await() {
         validateConfiguration();
         final Result<T> result = new Result<>();
+        final AtomicInteger polls = new AtomicInteger();
+        final Sleeper sleeper = Poller.sleeper;
+        final PollerWaitEvent event = new PollerWaitEvent(description, timeout.toMillis());
+        final AwsRateLimiter.Priority priority = AwsRateLimiter.currentPriority();
+        final PluginMetrics metrics = PluginMetrics.forAwsCalls();
+        event.begin();
 
         final Thread worker = Thread.ofVirtual()
                 .name("ecs-plugin-poller-" + POLLER_THREAD_COUNTER.incrementAndGet())
                 .start(() -> {
+                    // the worker polls on behalf of the caller, so its AWS calls keep the caller's priority and metrics
+                    AwsRateLimiter.usePriority(priority);
+                    PluginMetrics.useForAwsCalls(metrics);
                     try {
+                        Duration slept = Duration.ZERO;
                         do {
+                            polls.incrementAndGet();
                             result.set(poller.get());
 
                             if (stopWhen.test(result.get())) {
                                 break;
                             }
 
-                            Thread.sleep(retryInterval);
+                            // With the system sleeper the join below always times out first; this bounds
+                            // polling when the sleeper does not take real time.
+                            if (slept.compareTo(timeout) >= 0) {
+                                result.failed(new TimeoutException("Polling did not complete within " + timeout));
+                                break;
+                            }
+
+                            sleeper.sleep(retryInterval);
+                            slept = slept.plus(retryInterval);
                         } while (stopWhen.negate().test(result.get()));
                     } catch (InterruptedException e) {
                         // Only await() interrupts this thread, and it records the failure itself;
@@ -68,9 +94,19 @@ public class Poller<T> {
             result.failed(e);
         }
 
+        event.finish(polls.get(), !result.isFailed());
         return result;
     }
 
+    /**
+     * Replaces how all pollers wait between polls, returning the previous sleeper so it can be restored.
+     */
+    static Sleeper useSleeper(Sleeper replacement) {
+        final Sleeper previous = sleeper;
+        sleeper = replacement;
+        return previous;
+    }
+
     private void validateConfiguration() {
         bombIf(stopWhen == null, "Must provide stopWhen predicate.");
         bombIf(poller == null, "Must provide poller supplier.");
@@ -96,6 +132,11 @@ public class Poller<T> {
         return this;
     }
 
+    public Poller<T> describedAs(String description) {
+        this.description = description;
+        return this;
+    }
+
     public Poller<T> retryAfter(Duration retryInterval) {
         this.retryInterval = retryInterval;
         return this;
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.wait;
+
+import java.time.Duration;
+
+/**
+ * How a {@link Poller} waits between polls. Replaced only by the in-memory AWS simulator, which advances its
+ * simulated clock instead of sleeping.
+ */
+@FunctionalInterface
+public interface Sleeper {
+    Sleeper SYSTEM = Thread::sleep;
+
+    void sleep(Duration duration) throws InterruptedException;
+}
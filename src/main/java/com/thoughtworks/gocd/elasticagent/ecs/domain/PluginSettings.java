@@ -195,6 +195,11 @@ public class PluginSettings {
     @Metadata(key = "StopLinuxInstanceAfter", required = false, secure = false)
     private String stopLinuxInstanceAfter;
 
+    @Expose
+    @SerializedName("MaxStopLinuxInstanceAfter")
+    @Metadata(key = "MaxStopLinuxInstanceAfter", required = false, secure = false)
+    private String maxStopLinuxInstanceAfter;
+
     @Expose
     @SerializedName("TerminateStoppedLinuxInstanceAfter")
     @Metadata(key = "TerminateStoppedLinuxInstanceAfter", required = false, secure = false)
@@ -265,6 +270,11 @@ public class PluginSettings {
     @Metadata(key = "StopWindowsInstanceAfter", required = false, secure = false)
     private String stopWindowsInstanceAfter;
 
+    @Expose
+    @SerializedName("MaxStopWindowsInstanceAfter")
+    @Metadata(key = "MaxStopWindowsInstanceAfter", required = false, secure = false)
+    private String maxStopWindowsInstanceAfter;
+
     @Expose
     @SerializedName("TerminateStoppedWindowsInstanceAfter")
     @Metadata(key = "TerminateStoppedWindowsInstanceAfter", required = false, secure = false)
@@ -310,6 +320,46 @@ public class PluginSettings {
     @Metadata(key = "EfsDnsOrIP", required = false, secure = false)
     private String efsDnsOrIP;
 
+    @Expose
+    @SerializedName("MetricsFile")
+    @Metadata(key = "MetricsFile", required = false, secure = false)
+    private String metricsFile;
+
+    @Expose
+    @SerializedName("ReadApiCallTimeout")
+    @Metadata(key = "ReadApiCallTimeout", required = false, secure = false)
+    private String readApiCallTimeout;
+
+    @Expose
+    @SerializedName("ReadApiCallAttemptTimeout")
+    @Metadata(key = "ReadApiCallAttemptTimeout", required = false, secure = false)
+    private String readApiCallAttemptTimeout;
+
+    @Expose
+    @SerializedName("WriteApiCallTimeout")
+    @Metadata(key = "WriteApiCallTimeout", required = false, secure = false)
+    private String writeApiCallTimeout;
+
+    @Expose
+    @SerializedName("WriteApiCallAttemptTimeout")
+    @Metadata(key = "WriteApiCallAttemptTimeout", required = false, secure = false)
+    private String writeApiCallAttemptTimeout;
+
+    @Expose
+    @SerializedName("HedgeReads")
+    @Metadata(key = "HedgeReads", required = false, secure = false)
+    private String hedgeReads;
+
+    @Expose
+    @SerializedName("UseLaunchTemplates")
+    @Metadata(key = "UseLaunchTemplates", required = false, secure = false)
+    private String useLaunchTemplates;
+
+    @Expose
+    @SerializedName("CapacitySchedule")
+    @Metadata(key = "CapacitySchedule", required = false, secure = false)
+    private String capacitySchedule;
+
     public String getAccessKeyId() {
         return accessKeyId;
     }
@@ -452,6 +502,27 @@ public class PluginSettings {
         return "/efs";
     }
 
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public String getCapacitySchedule() {
+        return capacitySchedule;
+    }
+
+    public AwsClientCache.ApiTimeouts getApiTimeouts() {
+        return new AwsClientCache.ApiTimeouts(seconds(readApiCallTimeout), seconds(readApiCallAttemptTimeout),
+                seconds(writeApiCallTimeout), seconds(writeApiCallAttemptTimeout));
+    }
+
+    public boolean hedgeReads() {
+        return Boolean.parseBoolean(hedgeReads);
+    }
+
+    public boolean useLaunchTemplates() {
+        return Boolean.parseBoolean(useLaunchTemplates);
+    }
+
     public DockerRegistryAuthType getPrivateDockerRegistryAuthType() {
         return DockerRegistryAuthType.from(privateDockerRegistryAuthType);
     }
@@ -490,10 +561,20 @@ public class PluginSettings {
         return Duration.ofMinutes(getIntOrDefault(stopLinuxInstanceAfter, 5));
     }
 
+    public Duration maxStopLinuxInstanceAfter() {
+        final long stopAfter = stopLinuxInstanceAfter().toMinutes();
+        return Duration.ofMinutes(Math.max(stopAfter, getIntOrDefault(maxStopLinuxInstanceAfter, (int) stopAfter)));
+    }
+
     public Duration stopWindowsInstanceAfter() {
         return Duration.ofMinutes(getIntOrDefault(stopWindowsInstanceAfter, 5));
     }
 
+    public Duration maxStopWindowsInstanceAfter() {
+        final long stopAfter = stopWindowsInstanceAfter().toMinutes();
+        return Duration.ofMinutes(Math.max(stopAfter, getIntOrDefault(maxStopWindowsInstanceAfter, (int) stopAfter)));
+    }
+
     public Duration terminateStoppedLinuxInstanceAfter() {
         return Duration.ofMinutes(getIntOrDefault(terminateStoppedLinuxInstanceAfter, 5));
     }
@@ -524,7 +605,13 @@ public class PluginSettings {
         // PluginSettings is deserialized fresh per request, so clients are cached process-wide, keyed
         // by exactly the settings that determine client identity. Reusing the clients also reuses the
         // credential providers, whose session/IMDS caching only works across calls when reused.
-        return AwsClientCache.instance().get(new AwsClientCache.ClientKey(getRegion(), accessKeyId, secretAccessKey, assumeRoleArn, clusterName));
+        return AwsClientCache.instance().get(new AwsClientCache.ClientKey(getRegion(), accessKeyId, secretAccessKey, assumeRoleArn, clusterName, getApiTimeouts()));
+    }
+
+    // blank leaves the SDK default in place
+    private static Duration seconds(String value) {
+        final Integer seconds = getIntOrDefault(value, null);
+        return seconds == null ? null : Duration.ofSeconds(seconds);
     }
 
     public static PluginSettings fromJSON(String json) {
@@ -584,6 +671,7 @@ public class PluginSettings {
                 Objects.equals(linuxUserdataScript, that.linuxUserdataScript) &&
                 linuxStopPolicy == that.linuxStopPolicy &&
                 Objects.equals(stopLinuxInstanceAfter, that.stopLinuxInstanceAfter) &&
+                Objects.equals(maxStopLinuxInstanceAfter, that.maxStopLinuxInstanceAfter) &&
                 Objects.equals(terminateStoppedLinuxInstanceAfter, that.terminateStoppedLinuxInstanceAfter) &&
                 Objects.equals(terminateIdleLinuxSpotInstanceAfter, that.terminateIdleLinuxSpotInstanceAfter) &&
                 Objects.equals(windowsAMI, that.windowsAMI) &&
@@ -598,6 +686,7 @@ public class PluginSettings {
                 Objects.equals(windowsUserdataScript, that.windowsUserdataScript) &&
                 windowsStopPolicy == that.windowsStopPolicy &&
                 Objects.equals(stopWindowsInstanceAfter, that.stopWindowsInstanceAfter) &&
+                Objects.equals(maxStopWindowsInstanceAfter, that.maxStopWindowsInstanceAfter) &&
                 Objects.equals(terminateStoppedWindowsInstanceAfter, that.terminateStoppedWindowsInstanceAfter) &&
                 Objects.equals(terminateIdleWindowsSpotInstanceAfter, that.terminateIdleWindowsSpotInstanceAfter) &&
                 Objects.equals(privateDockerRegistryAuthType, that.privateDockerRegistryAuthType) &&
@@ -606,12 +695,20 @@ public class PluginSettings {
                 Objects.equals(privateDockerRegistryEmail, that.privateDockerRegistryEmail) &&
                 Objects.equals(privateDockerRegistryUsername, that.privateDockerRegistryUsername) &&
                 Objects.equals(privateDockerRegistryPassword, that.privateDockerRegistryPassword) &&
-                Objects.equals(efsDnsOrIP, that.efsDnsOrIP);
+                Objects.equals(efsDnsOrIP, that.efsDnsOrIP) &&
+                Objects.equals(metricsFile, that.metricsFile) &&
+                Objects.equals(readApiCallTimeout, that.readApiCallTimeout) &&
+                Objects.equals(readApiCallAttemptTimeout, that.readApiCallAttemptTimeout) &&
+                Objects.equals(writeApiCallTimeout, that.writeApiCallTimeout) &&
+                Objects.equals(writeApiCallAttemptTimeout, that.writeApiCallAttemptTimeout) &&
+                Objects.equals(hedgeReads, that.hedgeReads) &&
+                Objects.equals(useLaunchTemplates, that.useLaunchTemplates) &&
+                Objects.equals(capacitySchedule, that.capacitySchedule);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(goServerUrl, clusterName, region, accessKeyId, secretAccessKey, environmentVariables, containerAutoregisterTimeout, keyPairName, iamInstanceProfile, subnetIds, securityGroupIds, logDriverName, logOptions, linuxAMI, linuxInstanceType, linuxRegisterTimeout, minLinuxInstanceCount, maxLinuxInstancesAllowed, maxLinuxSpotInstanceAllowed, linuxVolumeType, linuxVolumeSize, linuxVolumeProvisionedIOPS, linuxOSVolumeType, linuxOSVolumeSize, linuxOSVolumeProvisionedIOPS, linuxUserdataScript, linuxStopPolicy, stopLinuxInstanceAfter, terminateStoppedLinuxInstanceAfter, terminateIdleLinuxSpotInstanceAfter, windowsAMI, windowsInstanceType, windowsVolumeType, windowsVolumeSize, windowsOSVolumeProvisionedIOPS, windowsRegisterTimeout, minWindowsInstanceCount, maxWindowsInstancesAllowed, maxWindowsSpotInstanceAllowed, windowsUserdataScript, windowsStopPolicy, stopWindowsInstanceAfter, terminateStoppedWindowsInstanceAfter, terminateIdleWindowsSpotInstanceAfter, privateDockerRegistryAuthType, privateDockerRegistryAuthToken, privateDockerRegistryUrl, privateDockerRegistryEmail, privateDockerRegistryUsername, privateDockerRegistryPassword, efsDnsOrIP);
+        return Objects.hash(goServerUrl, clusterName, region, accessKeyId, secretAccessKey, environmentVariables, containerAutoregisterTimeout, keyPairName, iamInstanceProfile, subnetIds, securityGroupIds, logDriverName, logOptions, linuxAMI, linuxInstanceType, linuxRegisterTimeout, minLinuxInstanceCount, maxLinuxInstancesAllowed, maxLinuxSpotInstanceAllowed, linuxVolumeType, linuxVolumeSize, linuxVolumeProvisionedIOPS, linuxOSVolumeType, linuxOSVolumeSize, linuxOSVolumeProvisionedIOPS, linuxUserdataScript, linuxStopPolicy, stopLinuxInstanceAfter, maxStopLinuxInstanceAfter, terminateStoppedLinuxInstanceAfter, terminateIdleLinuxSpotInstanceAfter, windowsAMI, windowsInstanceType, windowsVolumeType, windowsVolumeSize, windowsOSVolumeProvisionedIOPS, windowsRegisterTimeout, minWindowsInstanceCount, maxWindowsInstancesAllowed, maxWindowsSpotInstanceAllowed, windowsUserdataScript, windowsStopPolicy, stopWindowsInstanceAfter, maxStopWindowsInstanceAfter, terminateStoppedWindowsInstanceAfter, terminateIdleWindowsSpotInstanceAfter, privateDockerRegistryAuthType, privateDockerRegistryAuthToken, privateDockerRegistryUrl, privateDockerRegistryEmail, privateDockerRegistryUsername, privateDockerRegistryPassword, efsDnsOrIP, metricsFile, readApiCallTimeout, readApiCallAttemptTimeout, writeApiCallTimeout, writeApiCallAttemptTimeout, hedgeReads, useLaunchTemplates, capacitySchedule);
     }
 
     public String uuid() {
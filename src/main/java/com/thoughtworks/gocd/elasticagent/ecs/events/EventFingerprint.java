@@ -56,4 +56,8 @@ public class EventFingerprint {
     public static EventFingerprint forCreateEC2Instance() {
         return new EventFingerprint("create_ec2_instance");
     }
+
+    public static EventFingerprint forAwsCircuitBreaker() {
+        return new EventFingerprint("aws_circuit_breaker");
+    }
 }
@@ -22,6 +22,7 @@ import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.thoughtworks.gocd.elasticagent.ecs.AgentInstances;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
 import com.thoughtworks.gocd.elasticagent.ecs.builders.PluginStatusReportViewBuilder;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSContainer;
@@ -32,6 +33,7 @@ import com.thoughtworks.gocd.elasticagent.ecs.reports.StatusReportGenerationExce
 import com.thoughtworks.gocd.elasticagent.ecs.requests.AgentStatusReportRequest;
 import freemarker.template.Template;
 import software.amazon.awssdk.services.ecs.model.Task;
+import software.amazon.awssdk.services.ecs.model.TaskDefinition;
 
 import java.util.Optional;
 
@@ -45,8 +47,8 @@ public class AgentStatusReportExecutor {
     private final TaskHelper taskHelper;
     private final AgentInstances<ECSTask> agentInstances;
 
-    public AgentStatusReportExecutor(AgentStatusReportRequest request, AgentInstances<ECSTask> agentInstances) {
-        this(request, agentInstances, PluginStatusReportViewBuilder.instance(), new TaskHelper());
+    public AgentStatusReportExecutor(AgentStatusReportRequest request, AgentInstances<ECSTask> agentInstances, PluginServices services) {
+        this(request, agentInstances, PluginStatusReportViewBuilder.instance(), services.taskHelper());
     }
 
     public AgentStatusReportExecutor(AgentStatusReportRequest request,
@@ -87,7 +89,7 @@ public class AgentStatusReportExecutor {
 
         if (ecsTask != null) {
             final Optional<Task> task = taskHelper.refreshTask(request.clusterProfileProperties(), ecsTask.taskArn());
-            return new ECSContainer(task.orElseGet(ecsTask::task), ecsTask.taskDefinition());
+            return new ECSContainer(task.orElseGet(ecsTask::task), taskDefinitionOf(ecsTask));
         }
 
         throw StatusReportGenerationException.noRunningTask(elasticAgentId);
@@ -98,9 +100,17 @@ public class AgentStatusReportExecutor {
 
         if (ecsTask != null) {
             final Optional<Task> task = taskHelper.refreshTask(request.clusterProfileProperties(), ecsTask.taskArn());
-            return new ECSContainer(task.orElseGet(ecsTask::task), ecsTask.taskDefinition());
+            return new ECSContainer(task.orElseGet(ecsTask::task), taskDefinitionOf(ecsTask));
         }
 
         throw StatusReportGenerationException.noRunningTask(jobIdentifier);
     }
+
+    // tasks restored after a restart only carry the family and ARN of their task definition
+    private TaskDefinition taskDefinitionOf(ECSTask ecsTask) {
+        if (!ecsTask.taskDefinition().containerDefinitions().isEmpty()) {
+            return ecsTask.taskDefinition();
+        }
+        return taskHelper.describeTaskDefinition(request.clusterProfileProperties(), ecsTask.taskDefinitionArn());
+    }
 }
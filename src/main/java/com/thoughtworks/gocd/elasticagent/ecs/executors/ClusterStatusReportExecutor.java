@@ -21,8 +21,10 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
 import com.thoughtworks.gocd.elasticagent.ecs.RequestExecutor;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
 import com.thoughtworks.gocd.elasticagent.ecs.builders.PluginStatusReportViewBuilder;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
@@ -32,6 +34,7 @@ import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
 import com.thoughtworks.gocd.elasticagent.ecs.info.PluginProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.ClusterStatusReportRequest;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
@@ -54,18 +57,24 @@ public class ClusterStatusReportExecutor implements RequestExecutor {
     private final TaskHelper taskHelper;
     private final PluginStatusReportViewBuilder pluginStatusReportViewBuilder;
     private final EventStream eventStream;
+    private final InstanceHealth instanceHealth;
+    private final PluginMetrics metrics;
 
-    public ClusterStatusReportExecutor(ClusterStatusReportRequest request, EventStream eventStream, ECSTasks agentInstances) {
-        this(request, agentInstances, new ContainerInstanceHelper(), new TaskHelper(), PluginStatusReportViewBuilder.instance(), eventStream);
+    public ClusterStatusReportExecutor(ClusterStatusReportRequest request, EventStream eventStream, ECSTasks agentInstances, PluginServices services) {
+        this(request, agentInstances, services.containerInstanceHelper(), services.taskHelper(), PluginStatusReportViewBuilder.instance(), eventStream,
+                services.instanceHealth(), services.metrics());
     }
 
-    ClusterStatusReportExecutor(ClusterStatusReportRequest request, ECSTasks agentInstances, ContainerInstanceHelper helper, TaskHelper taskHelper, PluginStatusReportViewBuilder pluginStatusReportViewBuilder, EventStream eventStream) {
+    ClusterStatusReportExecutor(ClusterStatusReportRequest request, ECSTasks agentInstances, ContainerInstanceHelper helper, TaskHelper taskHelper, PluginStatusReportViewBuilder pluginStatusReportViewBuilder, EventStream eventStream,
+                                InstanceHealth instanceHealth, PluginMetrics metrics) {
         this.request = request;
         this.agentInstances = agentInstances;
         this.helper = helper;
         this.taskHelper = taskHelper;
         this.pluginStatusReportViewBuilder = pluginStatusReportViewBuilder;
         this.eventStream = eventStream;
+        this.instanceHealth = instanceHealth;
+        this.metrics = metrics;
     }
 
     @Override
@@ -95,6 +104,12 @@ public class ClusterStatusReportExecutor implements RequestExecutor {
                     clusterProfileProperties.getMaxLinuxInstancesAllowed(), clusterProfileProperties.getMaxWindowsInstancesAllowed(),
                     clusterProfileProperties.getMaxLinuxSpotInstanceAllowed(), clusterProfileProperties.getMaxWindowsSpotInstanceAllowed());
             dataModel.put("cluster", ecsCluster);
+            dataModel.put("instanceHealth", instanceHealth.describe(containerInstances.stream().map(ContainerInstance::ec2InstanceId).toList()));
+            dataModel.put("metrics", metrics.scrape(ecsCluster, agentInstances));
+            agentInstances.lastScalingPlan().ifPresent(plan -> {
+                dataModel.put("scalingPlan", plan.summary());
+                dataModel.put("scalingPlannedAt", plan.plannedAt().toString());
+            });
             eventStream.remove(EventFingerprint.forStatusReport());
         } catch (Exception e) {
             LOG.error("[status report] Error accessing ECS cluster details", e);
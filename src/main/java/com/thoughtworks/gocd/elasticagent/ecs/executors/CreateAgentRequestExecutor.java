@@ -58,6 +58,11 @@ public class CreateAgentRequestExecutor implements RequestExecutor {
             pluginRequest.appendToConsoleLog(request.getJobIdentifier(), message);
         };
 
+        if (agentInstances.stillWaitingForCapacity(request, consoleLogAppender)) {
+            LOG.debug(format("[create-agent] Job {0} is already waiting for capacity in the cluster.", request.getJobIdentifier().getRepresentation()));
+            return new DefaultGoPluginApiResponse(200);
+        }
+
         try {
             consoleLogAppender.accept(String.format("Received a request to create an agent for the job: [%s]", request.getJobIdentifier().getRepresentation()));
             LOG.info(format("[create-agent] Creating agent with profile {0}", request.elasticProfile().toJson()));
@@ -69,6 +74,7 @@ public class CreateAgentRequestExecutor implements RequestExecutor {
             eventStream.remove(EventFingerprint.forCreateEC2Instance());
         } catch (LimitExceededException e) {
             eventStream.update(Event.warningEvent(EventFingerprint.forCreateEC2Instance(), e.getMessage(), null));
+            consoleLogAppender.accept(String.format("%s The job is waiting for capacity and will get an agent as soon as the cluster has room for it.", e.getMessage()));
             LOG.warn(e.getMessage(), e);
         } catch (Exception e) {
             eventStream.update(Event.errorEvent(EventFingerprint.forElasticProfile(request.elasticProfile()), format("Error creating agent for profile: {0}", request.elasticProfile().toJson()), e.getMessage()));
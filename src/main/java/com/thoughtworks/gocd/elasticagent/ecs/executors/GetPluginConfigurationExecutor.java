@@ -99,6 +99,7 @@ public class GetPluginConfigurationExecutor implements RequestExecutor {
             new IntegerRangeField(LINUX_DOCKER_VOLUME_PROVISIONED_IOPS, "Provisioned IOPS", "400", false, 100, next()),
             new Field("LinuxStopPolicy", "Stop instance policy", "StopIdleInstance", false, false, next()),
             new IntegerRangeField("StopLinuxInstanceAfter", "Stop instance after (in minutes)", "10", false, next()),
+            new IntegerRangeField("MaxStopLinuxInstanceAfter", "Stop instance after at most (in minutes)", null, false, next()),
             new IntegerRangeField("TerminateStoppedLinuxInstanceAfter", "Terminate stopped instance after (in minutes)", "5", false, next()),
             new Field("LinuxUserdataScript", "Userdata script", null, false, false, next()),
 
@@ -113,6 +114,7 @@ public class GetPluginConfigurationExecutor implements RequestExecutor {
             new IntegerRangeField(MAX_WINDOWS_INSTANCES_ALLOWED, "Maximum instances allowed", "5", false, next()),
             new Field("WindowsStopPolicy", "Stop instance policy", "StopIdleInstance", false, false, next()),
             new IntegerRangeField("StopWindowsInstanceAfter", "Stop instance after (in minutes)", "10", false, next()),
+            new IntegerRangeField("MaxStopWindowsInstanceAfter", "Stop instance after at most (in minutes)", null, false, next()),
             new IntegerRangeField("TerminateStoppedWindowsInstanceAfter", "Terminate stopped instance after (in minutes)", "5", false, next()),
             new Field("WindowsUserdataScript", "Userdata script", null, false, false, next()),
 
@@ -125,7 +127,15 @@ public class GetPluginConfigurationExecutor implements RequestExecutor {
 
             new LogDriverNameField(next()),
             new Field("LogOptions", "Log options", null, false, false, next()),
-            new Field("EfsDnsOrIP", "Additional volume", "none", false, false, next())
+            new Field("EfsDnsOrIP", "Additional volume", "none", false, false, next()),
+
+            new PositiveNumberField("ReadApiCallTimeout", "Read API call timeout (in seconds)", null, false, next()),
+            new PositiveNumberField("ReadApiCallAttemptTimeout", "Read API call attempt timeout (in seconds)", null, false, next()),
+            new PositiveNumberField("WriteApiCallTimeout", "Write API call timeout (in seconds)", null, false, next()),
+            new PositiveNumberField("WriteApiCallAttemptTimeout", "Write API call attempt timeout (in seconds)", null, false, next()),
+            new Field("HedgeReads", "Hedge slow reads when starting jobs", "false", false, false, next()),
+            new Field("UseLaunchTemplates", "Launch instances from launch templates", "false", false, false, next()),
+            new CapacityScheduleField(next())
     );
 
     public static final Map<String, Field> FIELDS_MAP = toMap(FIELD_LIST, Field::key, self -> self);
@@ -20,33 +20,33 @@ import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.thoughtworks.gocd.elasticagent.ecs.*;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsCircuitBreaker;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsCircuitBreakers;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
-import com.thoughtworks.gocd.elasticagent.ecs.aws.EC2Config;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.LaunchTemplates;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.SpotInstanceService;
-import com.thoughtworks.gocd.elasticagent.ecs.aws.StopPolicy;
-import com.thoughtworks.gocd.elasticagent.ecs.aws.comparator.MostIdleInstanceComparator;
-import com.thoughtworks.gocd.elasticagent.ecs.aws.predicate.EligibleForTerminationPredicate;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ClusterReconciler;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ClusterState;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScaleInController;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScalingPlan;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategyFactory;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.StopOperation;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.TerminateOperation;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.*;
 import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
-import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
-import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.ServerRequestFailedException;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.MetricsFileExporter;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.ServerPingRequest;
-import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 
-import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper.*;
-import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
-import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.values;
 import static java.text.MessageFormat.format;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
 public class ServerPingRequestExecutor implements RequestExecutor {
@@ -56,32 +56,50 @@ public class ServerPingRequestExecutor implements RequestExecutor {
     private final Map<String, ECSTasks> allAgentInstances;
     private final PluginRequest pluginRequest;
     private final ContainerInstanceHelper containerInstanceHelper;
-    private final InstanceSelectionStrategyFactory instanceSelectionStrategyFactory;
-    private final StopOperation stopOperation;
-    private final TerminateOperation terminateOperation;
     private final SpotInstanceService spotInstanceService;
-
-    public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, ECSTasks> allAgentInstances, PluginRequest pluginRequest) {
+    private final PluginMetrics metrics;
+    private final MetricsFileExporter metricsFileExporter;
+    private final InstanceStateTable instanceStates;
+    private final AwsCircuitBreakers circuitBreakers;
+    private final ClusterReconciler clusterReconciler;
+    private final LaunchTemplates launchTemplates;
+
+    public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, ECSTasks> allAgentInstances, PluginRequest pluginRequest, PluginServices services) {
         this(serverPingRequest,
                 allAgentInstances,
                 pluginRequest,
-                new ContainerInstanceHelper(),
-                new InstanceSelectionStrategyFactory(),
-                new StopOperation(),
-                new TerminateOperation(), SpotInstanceService.instance());
+                services.containerInstanceHelper(),
+                services.instanceSelectionStrategyFactory(),
+                services.stopOperation(),
+                services.terminateOperation(), services.spotInstanceService(), services.instanceStates(), services.instanceHealth(), services.scaleInController(),
+                AwsCircuitBreakers.instance(), services.launchTemplates(), services.metrics(), services.clock());
     }
 
     ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, ECSTasks> allAgentInstances, PluginRequest pluginRequest,
                               ContainerInstanceHelper containerInstanceHelper, InstanceSelectionStrategyFactory instanceSelectionStrategyFactory,
-                              StopOperation stopOperation, TerminateOperation terminateOperation, SpotInstanceService spotInstanceService) {
+                              StopOperation stopOperation, TerminateOperation terminateOperation, SpotInstanceService spotInstanceService,
+                              InstanceStateTable instanceStates, AwsCircuitBreakers circuitBreakers) {
+        this(serverPingRequest, allAgentInstances, pluginRequest, containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminateOperation,
+                spotInstanceService, instanceStates, new InstanceHealth(Clock.DEFAULT), new ScaleInController(Clock.DEFAULT), circuitBreakers, new LaunchTemplates(Clock.DEFAULT), new PluginMetrics(), Clock.DEFAULT);
+    }
+
+    ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, ECSTasks> allAgentInstances, PluginRequest pluginRequest,
+                              ContainerInstanceHelper containerInstanceHelper, InstanceSelectionStrategyFactory instanceSelectionStrategyFactory,
+                              StopOperation stopOperation, TerminateOperation terminateOperation, SpotInstanceService spotInstanceService,
+                              InstanceStateTable instanceStates, InstanceHealth instanceHealth, ScaleInController scaleInController,
+                              AwsCircuitBreakers circuitBreakers, LaunchTemplates launchTemplates,
+                              PluginMetrics metrics, Clock clock) {
         this.serverPingRequest = serverPingRequest;
         this.allAgentInstances = allAgentInstances;
         this.pluginRequest = pluginRequest;
         this.containerInstanceHelper = containerInstanceHelper;
-        this.instanceSelectionStrategyFactory = instanceSelectionStrategyFactory;
-        this.stopOperation = stopOperation;
-        this.terminateOperation = terminateOperation;
         this.spotInstanceService = spotInstanceService;
+        this.metrics = metrics;
+        this.metricsFileExporter = new MetricsFileExporter(metrics);
+        this.instanceStates = instanceStates;
+        this.circuitBreakers = circuitBreakers;
+        this.launchTemplates = launchTemplates;
+        this.clusterReconciler = new ClusterReconciler(containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminateOperation, instanceStates, instanceHealth, scaleInController, clock);
     }
 
     @Override
@@ -90,6 +108,7 @@ public class ServerPingRequestExecutor implements RequestExecutor {
             //do nothing console log appender in case of ping request..
         };
 
+        final long startedAt = System.nanoTime();
         LOG.info("[server-ping] Starting execute server ping request.");
         List<ClusterProfileProperties> allClusterProfileProperties = serverPingRequest.allClusterProfileProperties();
 
@@ -102,6 +121,7 @@ public class ServerPingRequestExecutor implements RequestExecutor {
         }
 
         checkForPossiblyMissingAgents();
+        metrics.serverPingCompleted(Duration.ofNanos(System.nanoTime() - startedAt));
         return DefaultGoPluginApiResponse.success("");
     }
 
@@ -120,6 +140,25 @@ public class ServerPingRequestExecutor implements RequestExecutor {
     }
 
     private void performCleanupForCluster(ClusterProfileProperties clusterProfileProperties, ECSTasks agentInstances, ConsoleLogAppender doNothingConsoleLogAppender) {
+        final AwsCircuitBreaker circuitBreaker = circuitBreakers.forCluster(clusterProfileProperties);
+        if (!circuitBreaker.allowsCalls()) {
+            LOG.warn(format("[server-ping] Skipping cleanup of cluster {0} while its AWS calls are failing: {1}", clusterProfileProperties.getClusterName(), circuitBreaker.lastFailure()));
+            agentInstances.getEventStream().update(Event.errorEvent(EventFingerprint.forAwsCircuitBreaker(),
+                    format("AWS calls for cluster {0} are failing, pausing its cleanup and agent creation", clusterProfileProperties.getClusterName()), circuitBreaker.lastFailure()));
+            return;
+        }
+        agentInstances.getEventStream().remove(EventFingerprint.forAwsCircuitBreaker());
+
+        try {
+            cleanupCluster(clusterProfileProperties, agentInstances, doNothingConsoleLogAppender);
+        } finally {
+            // idle and stop times are only tagged on the instances here, batched across everything that
+            // marked them since the last ping
+            instanceStates.flush(clusterProfileProperties);
+        }
+    }
+
+    private void cleanupCluster(ClusterProfileProperties clusterProfileProperties, ECSTasks agentInstances, ConsoleLogAppender doNothingConsoleLogAppender) {
         Agents allAgents = pluginRequest.listAgents();
 
         Agents agentsToDisable = agentInstances.instancesCreatedAfterTimeout(clusterProfileProperties, allAgents);
@@ -132,75 +171,48 @@ public class ServerPingRequestExecutor implements RequestExecutor {
 
         agentInstances.terminateUnregisteredInstances(clusterProfileProperties, allAgents);
 
+        ClusterState clusterState = null;
+        ScalingPlan plan = null;
         synchronized (agentInstances) {
             tagSpotInstances(clusterProfileProperties);
-            terminateIdleSpotInstances(clusterProfileProperties);
-            ensureClusterSize(clusterProfileProperties, agentInstances.getEventStream(), doNothingConsoleLogAppender);
-            stopIdleEC2Instance(clusterProfileProperties, agentInstances.getEventStream());
-            terminateStoppedInstances(clusterProfileProperties);
+            try {
+                clusterState = ClusterState.read(clusterProfileProperties, containerInstanceHelper, agentInstances);
+                plan = clusterReconciler.reconcile(clusterProfileProperties, clusterState, agentInstances, doNothingConsoleLogAppender);
+            } catch (Exception e) {
+                LOG.error(format("[server-ping] Error while scaling cluster {0}.", clusterProfileProperties.getClusterName()), e);
+            }
+            cleanupLaunchTemplates(clusterProfileProperties);
         }
-    }
 
-    private void terminateIdleSpotInstances(ClusterProfileProperties clusterProfileProperties) {
-        try {
-            spotInstanceService.terminateIdleSpotInstances(clusterProfileProperties);
-        } catch (Exception e) {
-            LOG.error("[server-ping] There were errors while terminating idle spot instances.", e);
+        if (plan != null) {
+            placeWaitingJobs(clusterProfileProperties, clusterState, plan, agentInstances, doNothingConsoleLogAppender);
         }
+
+        metricsFileExporter.export(clusterProfileProperties, clusterState, agentInstances);
     }
 
-    private void tagSpotInstances(ClusterProfileProperties clusterProfileProperties) {
+    private void cleanupLaunchTemplates(ClusterProfileProperties clusterProfileProperties) {
         try {
-            spotInstanceService.tagSpotInstances(clusterProfileProperties);
-            spotInstanceService.tagIdleSpotInstances(clusterProfileProperties);
-            spotInstanceService.refreshUnTaggedSpotRequests(clusterProfileProperties);
+            launchTemplates.cleanupUnused(clusterProfileProperties);
         } catch (Exception e) {
-            LOG.error("[server-ping] There were errors while tagging a spot instance.", e);
+            LOG.error("[server-ping] There were errors while deleting unused launch templates.", e);
         }
     }
 
-    private void terminateStoppedInstances(PluginSettings pluginSettings) {
+    private void placeWaitingJobs(ClusterProfileProperties clusterProfileProperties, ClusterState clusterState, ScalingPlan plan, ECSTasks agentInstances, ConsoleLogAppender consoleLogAppender) {
         try {
-            final List<Instance> allInstances = containerInstanceHelper.getAllOnDemandInstances(pluginSettings);
-
-            final EligibleForTerminationPredicate predicate = new EligibleForTerminationPredicate(pluginSettings);
-            final Set<String> instancesToTerminate = allInstances.stream()
-                    .filter(predicate)
-                .map(Instance::instanceId)
-                    .collect(Collectors.toSet());
-
-            if (instancesToTerminate.isEmpty()) {
-                LOG.debug("[server-ping] None of the instance is eligible for termination.");
-            }
-
-            final List<ContainerInstance> containerInstances = containerInstanceHelper.onDemandContainerInstances(pluginSettings);
-            final List<ContainerInstance> containerInstanceList = containerInstances.stream()
-                .filter(containerInstance -> instancesToTerminate.contains(containerInstance.ec2InstanceId()))
-                    .collect(toList());
-
-            terminateOperation.execute(pluginSettings, containerInstanceList);
+            clusterReconciler.placeWaiting(clusterProfileProperties, clusterState, plan, agentInstances, consoleLogAppender);
         } catch (Exception e) {
-            LOG.error("[server-ping] There were errors while terminating stopped instances.", e);
+            LOG.error(format("[server-ping] Error while placing jobs waiting for capacity in cluster {0}.", clusterProfileProperties.getClusterName()), e);
         }
     }
 
-    private void stopIdleEC2Instance(PluginSettings pluginSettings, EventStream eventStream) {
-        Arrays.stream(values()).forEach(platform -> stopInstances(pluginSettings, platform, eventStream));
-        eventStream.remove(EventFingerprint.forTerminatingIdleEC2Instances());
-    }
-
-    private void stopInstances(PluginSettings pluginSettings, Platform platform, EventStream eventStream) {
+    private void tagSpotInstances(ClusterProfileProperties clusterProfileProperties) {
         try {
-            final StopPolicy stopPolicy = platform == LINUX ? pluginSettings.getLinuxStopPolicy() : pluginSettings.getWindowsStopPolicy();
-            final Optional<List<ContainerInstance>> instanceToStop = instanceSelectionStrategyFactory
-                    .strategyFor(stopPolicy)
-                    .instancesToStop(pluginSettings, platform);
-
-            instanceToStop.ifPresent(instancesToStop -> stopOperation.execute(pluginSettings, instancesToStop));
-
+            spotInstanceService.tagSpotInstances(clusterProfileProperties);
+            spotInstanceService.refreshUnTaggedSpotRequests(clusterProfileProperties);
         } catch (Exception e) {
-            LOG.error(format("[server-ping] Error while stopping idle {0} instance.", platform.name()), e);
-            eventStream.update(Event.errorEvent(EventFingerprint.forTerminatingIdleEC2Instances(), format("Error while stopping idle {0} instance.", platform.name()), e.getMessage()));
+            LOG.error("[server-ping] There were errors while tagging a spot instance.", e);
         }
     }
 
@@ -213,52 +225,9 @@ public class ServerPingRequestExecutor implements RequestExecutor {
         final Set<String> elasticAgentIds = toBeDeleted.stream().map(Agent::elasticAgentId).collect(toSet());
 
         LOG.debug("[server-ping] Terminating '{}' disabled agents from the cluster '{}'.", elasticAgentIds, pluginSettings.getClusterName());
-        for (Agent agent : toBeDeleted) {
-            agentInstances.terminate(agent.elasticAgentId(), pluginSettings);
-        }
+        agentInstances.terminateAll(elasticAgentIds, pluginSettings);
 
         LOG.debug("[server-ping] Deleting disabled agents from server '{}'.", elasticAgentIds);
         pluginRequest.deleteAgents(toBeDeleted);
     }
-
-    private void ensureClusterSize(PluginSettings settings, EventStream eventStream, ConsoleLogAppender consoleLogAppender) {
-        try {
-            for (Platform platform : values()) {
-                ensureClusterSizeBasedOnPlatform(settings, ElasticAgentProfileProperties.empty(platform), eventStream, consoleLogAppender);
-            }
-        } catch (Exception e) {
-            eventStream.update(Event.errorEvent(EventFingerprint.forEnsureClusterMinSize(), "Error creating EC2 Instance(s).", e.getMessage()));
-            LOG.error("[server-ping] Error while creating EC2 Instance to ensure cluster min size", e);
-        }
-    }
-
-    private void ensureClusterSizeBasedOnPlatform(PluginSettings pluginSettings, ElasticAgentProfileProperties elasticAgentProfileProperties, EventStream eventStream, ConsoleLogAppender consoleLogAppender) throws LimitExceededException {
-        LOG.info(format("[server-ping] Checking running {0} instances in the cluster.", elasticAgentProfileProperties.platform()));
-
-        final EC2Config ec2Config = new EC2Config.Builder().profile(elasticAgentProfileProperties).settings(pluginSettings).build();
-
-        String instanceName = String.format("%s_%s_INSTANCE", pluginSettings.getClusterName(), elasticAgentProfileProperties.platform());
-        final List<Instance> allInstances = containerInstanceHelper.getAllOnDemandInstances(pluginSettings);
-        final List<Instance> instancesForPlatform = filterBy(filterByPlatform(allInstances, ec2Config.getPlatform()), hasTag("Name", instanceName));
-
-        int currentClusterSize = instancesForPlatform.size();
-        if (currentClusterSize < ec2Config.getMinInstanceCount()) {
-            int instancesToCreate = ec2Config.getMinInstanceCount() - currentClusterSize;
-            LOG.info(format("[server-ping] Ensuring cluster min size, cluster {0} requires {1} more ec2 instances.", pluginSettings.getClusterName(), instancesToCreate));
-            containerInstanceHelper.startOrCreateInstance(pluginSettings, elasticAgentProfileProperties, instancesToCreate, consoleLogAppender);
-        } else if (currentClusterSize > ec2Config.getMaxInstancesAllowed()) {
-            LOG.info(format("[server-ping] Cluster has total {0} {1} instances which is beyond permissible limit({2}). Terminating idle instances.", currentClusterSize, ec2Config.getPlatform(), ec2Config.getMaxInstancesAllowed()));
-            terminateIdleContainerInstance(pluginSettings, instancesForPlatform);
-        }
-
-        eventStream.remove(EventFingerprint.forEnsureClusterMinSize());
-    }
-
-    private void terminateIdleContainerInstance(PluginSettings pluginSettings, List<Instance> instancesForPlatform) {
-        final Instance instance = instancesForPlatform.stream().sorted(new MostIdleInstanceComparator(Clock.DEFAULT.now())).toList().getFirst();
-        final Optional<ContainerInstance> containerInstance = containerInstanceHelper.onDemandContainerInstances(pluginSettings).stream()
-                .filter(ci -> ci.ec2InstanceId().equals(instance.instanceId()))
-                .findFirst();
-        containerInstance.ifPresent(self -> terminateOperation.execute(pluginSettings, self));
-    }
 }
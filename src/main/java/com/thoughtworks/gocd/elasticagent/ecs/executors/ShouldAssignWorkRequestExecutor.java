@@ -22,37 +22,41 @@ import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.thoughtworks.gocd.elasticagent.ecs.AgentInstances;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
 import com.thoughtworks.gocd.elasticagent.ecs.RequestExecutor;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.ShouldAssignWorkRequest;
 
-import static java.text.MessageFormat.format;
-
 public class ShouldAssignWorkRequestExecutor implements RequestExecutor {
     private static final Logger LOG = Logger.getLoggerFor(ShouldAssignWorkRequestExecutor.class);
 
     private final AgentInstances<ECSTask> agentInstances;
-    private final ShouldAssignWorkRequest request;
+    private final String elasticAgentId;
+    private final JobIdentifier jobIdentifier;
 
     public ShouldAssignWorkRequestExecutor(ShouldAssignWorkRequest request, AgentInstances<ECSTask> agentInstances) {
-        this.request = request;
+        this(request.agent().elasticAgentId(), request.jobIdentifier(), agentInstances);
+    }
+
+    public ShouldAssignWorkRequestExecutor(String elasticAgentId, JobIdentifier jobIdentifier, AgentInstances<ECSTask> agentInstances) {
+        this.elasticAgentId = elasticAgentId;
+        this.jobIdentifier = jobIdentifier;
         this.agentInstances = agentInstances;
     }
 
     @Override
     public GoPluginApiResponse execute() {
-        ECSTask instance = agentInstances.find(request.agent().elasticAgentId());
+        ECSTask instance = agentInstances.find(elasticAgentId);
 
         if (instance == null) {
             return DefaultGoPluginApiResponse.success("false");
         }
 
-        boolean sameJobIdentifiers = request.jobIdentifier().equals(instance.getJobIdentifier());
-
-        if (sameJobIdentifiers) {
-            LOG.info(format("[should-assign-work] Job[{0}] can be assigned to an agent {1}.", request.jobIdentifier().getRepresentation(), instance.name()));
+        // the most frequent request the server sends: log with placeholders so nothing is formatted unless logged
+        if (jobIdentifier.equals(instance.getJobIdentifier())) {
+            LOG.debug("[should-assign-work] Job[{}] can be assigned to an agent {}.", jobIdentifier, elasticAgentId);
             return DefaultGoPluginApiResponse.success("true");
         }
 
-        LOG.info(format("[should-assign-work] Job[{0}] can not be assigned to an agent {1}.", request.jobIdentifier().getRepresentation(), instance.name()));
+        LOG.debug("[should-assign-work] Job[{}] can not be assigned to an agent {}.", jobIdentifier, elasticAgentId);
         return DefaultGoPluginApiResponse.success("false");
     }
 }
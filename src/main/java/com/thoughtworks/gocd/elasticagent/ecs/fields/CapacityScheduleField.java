@@ -0,0 +1,43 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.fields;
+
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.CapacitySchedule;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+public class CapacityScheduleField extends Field {
+
+    public CapacityScheduleField(String displayOrder) {
+        super("CapacitySchedule", "Capacity schedule", null, false, false, displayOrder);
+    }
+
+    @Override
+    public String doValidate(String schedule) {
+        if (isBlank(schedule)) {
+            return null;
+        }
+
+        try {
+            CapacitySchedule.parse(schedule);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return "Capacity schedule is invalid. " + e.getMessage();
+        }
+    }
+}
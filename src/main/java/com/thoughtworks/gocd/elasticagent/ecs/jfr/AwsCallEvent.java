@@ -0,0 +1,42 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.jfr;
+
+import jdk.jfr.*;
+
+@Name("gocd.ecs.AwsCall")
+@Label("AWS Call")
+@Category({"GoCD", "ECS Elastic Agent"})
+@Description("An AWS API call made by the plugin, including the SDK's own retries")
+@Threshold("50 ms")
+@StackTrace(false)
+public class AwsCallEvent extends Event {
+    @Label("Service")
+    String service;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Cluster")
+    String clusterName;
+
+    @Label("Region")
+    String region;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
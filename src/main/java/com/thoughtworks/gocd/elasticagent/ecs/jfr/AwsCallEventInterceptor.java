@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.jfr;
+
+import software.amazon.awssdk.core.interceptor.*;
+
+/**
+ * Records an {@link AwsCallEvent} for every AWS API call made through a client. Nothing is allocated per call
+ * unless the event is enabled in the running recording.
+ */
+public class AwsCallEventInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<AwsCallEvent> EVENT = new ExecutionAttribute<>("GoCDEcsPluginAwsCallEvent");
+
+    private final String clusterName;
+    private final String region;
+
+    public AwsCallEventInterceptor(String clusterName, String region) {
+        this.clusterName = clusterName;
+        this.region = region;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        final AwsCallEvent event = new AwsCallEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            executionAttributes.putAttribute(EVENT, event);
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        finish(executionAttributes, true);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        finish(executionAttributes, false);
+    }
+
+    private void finish(ExecutionAttributes executionAttributes, boolean succeeded) {
+        final AwsCallEvent event = executionAttributes.getAttribute(EVENT);
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.service = executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME);
+            event.operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+            event.clusterName = clusterName;
+            event.region = region;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+}
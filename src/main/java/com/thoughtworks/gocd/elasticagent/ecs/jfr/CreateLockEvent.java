@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.jfr;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import jdk.jfr.*;
+
+/**
+ * Time spent waiting to enter one of the per-platform locks that serialize agent and instance creation. Begin
+ * it immediately before the {@code synchronized} block and call {@link #acquired()} as its first statement.
+ */
+@Name("gocd.ecs.CreateLock")
+@Label("Create Path Lock Wait")
+@Category({"GoCD", "ECS Elastic Agent"})
+@Description("Time spent waiting for a per-platform lock in the agent or instance create path")
+@Threshold("10 ms")
+@StackTrace(false)
+public class CreateLockEvent extends Event {
+    @Label("Lock")
+    private final String lock;
+
+    @Label("Platform")
+    private final String platform;
+
+    @Label("Cluster")
+    private String clusterName;
+
+    @Label("Cluster Profile Hash")
+    private String profileHash;
+
+    private final transient PluginSettings settings;
+
+    private CreateLockEvent(String lock, Platform platform, PluginSettings settings) {
+        this.lock = lock;
+        this.platform = platform.name();
+        this.settings = settings;
+    }
+
+    public static CreateLockEvent waitingFor(String lock, Platform platform, PluginSettings settings) {
+        final CreateLockEvent event = new CreateLockEvent(lock, platform, settings);
+        event.begin();
+        return event;
+    }
+
+    public void acquired() {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+
+        if (settings != null) {
+            clusterName = settings.getClusterName();
+            profileHash = settings.uuid();
+        }
+        commit();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.jfr;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import jdk.jfr.*;
+
+@Name("gocd.ecs.PluginRequest")
+@Label("Plugin Request")
+@Category({"GoCD", "ECS Elastic Agent"})
+@Description("A request from the GoCD server handled by the plugin")
+@Threshold("100 ms")
+@StackTrace(false)
+public class PluginRequestEvent extends Event {
+    @Label("Request")
+    private final String request;
+
+    @Label("Cluster")
+    private String clusterName;
+
+    @Label("Cluster Profile Hash")
+    private String profileHash;
+
+    public PluginRequestEvent(String request) {
+        this.request = request;
+    }
+
+    /**
+     * Commits the event if it passed the threshold, naming the cluster the request was for. The cluster profile
+     * hash is only computed for events that are actually recorded.
+     */
+    public void finish(PluginSettings settings) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+
+        if (settings != null) {
+            clusterName = settings.getClusterName();
+            profileHash = settings.uuid();
+        }
+        commit();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.jfr;
+
+import jdk.jfr.*;
+
+@Name("gocd.ecs.PollerWait")
+@Label("Poller Wait")
+@Category({"GoCD", "ECS Elastic Agent"})
+@Description("Time a request thread spent waiting on a Poller, e.g. for instances to register with the cluster")
+@Threshold("1 s")
+@StackTrace(false)
+public class PollerWaitEvent extends Event {
+    @Label("Description")
+    private final String description;
+
+    @Label("Timeout")
+    @Timespan(Timespan.MILLISECONDS)
+    private final long timeout;
+
+    @Label("Polls")
+    private int polls;
+
+    @Label("Succeeded")
+    private boolean succeeded;
+
+    public PollerWaitEvent(String description, long timeoutMillis) {
+        this.description = description;
+        this.timeout = timeoutMillis;
+    }
+
+    public void finish(int polls, boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            this.polls = polls;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.util.function.Supplier;
+
+/**
+ * Counts every AWS API call made through a client, once per logical call (after the SDK's own retries), in the
+ * metrics of the plugin that made it.
+ */
+public class AwsCallMetricsInterceptor implements ExecutionInterceptor {
+    private final String clusterName;
+    private final Supplier<PluginMetrics> metrics;
+
+    public AwsCallMetricsInterceptor(String clusterName) {
+        this(clusterName, PluginMetrics::forAwsCalls);
+    }
+
+    AwsCallMetricsInterceptor(String clusterName, PluginMetrics metrics) {
+        this(clusterName, () -> metrics);
+    }
+
+    private AwsCallMetricsInterceptor(String clusterName, Supplier<PluginMetrics> metrics) {
+        this.clusterName = clusterName;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes, true);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes, false);
+    }
+
+    private void record(ExecutionAttributes executionAttributes, boolean succeeded) {
+        final PluginMetrics metrics = this.metrics.get();
+        if (metrics == null) {
+            return;
+        }
+
+        metrics.awsCall(clusterName,
+                executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME),
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME),
+                succeeded);
+    }
+}
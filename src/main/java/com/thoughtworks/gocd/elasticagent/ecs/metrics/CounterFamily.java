@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CounterFamily {
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, LongAdder> series = new ConcurrentHashMap<>();
+
+    public CounterFamily(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+    }
+
+    public void increment(String... labelValues) {
+        series.computeIfAbsent(OpenMetricsWriter.labelKey(labelNames, labelValues), key -> new LongAdder()).increment();
+    }
+
+    public long get(String... labelValues) {
+        final LongAdder counter = series.get(OpenMetricsWriter.labelKey(labelNames, labelValues));
+        return counter == null ? 0 : counter.sum();
+    }
+
+    void writeTo(OpenMetricsWriter writer) {
+        writer.family(name, "counter", help);
+        series.forEach((labelValues, counter) -> writer.sample(name + "_total", labelNames, labelValues, counter.sum()));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed bucket upper bounds (in seconds). Buckets are stored non-cumulatively so an
+ * observation touches a single adder; they are summed into cumulative counts only when rendered.
+ */
+public class HistogramFamily {
+    private final String name;
+    private final String help;
+    private final double[] upperBounds;
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, Series> series = new ConcurrentHashMap<>();
+
+    public HistogramFamily(String name, String help, double[] upperBounds, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.upperBounds = upperBounds;
+        this.labelNames = labelNames;
+    }
+
+    public void observe(Duration duration, String... labelValues) {
+        observe(duration.toNanos() / 1_000_000_000.0, labelValues);
+    }
+
+    public void observe(double seconds, String... labelValues) {
+        final Series s = series.computeIfAbsent(OpenMetricsWriter.labelKey(labelNames, labelValues), key -> new Series(upperBounds.length + 1));
+        int bucket = 0;
+        while (bucket < upperBounds.length && seconds > upperBounds[bucket]) {
+            bucket++;
+        }
+        s.buckets[bucket].increment();
+        s.sum.add(seconds);
+    }
+
+    public long count(String... labelValues) {
+        final Series s = series.get(OpenMetricsWriter.labelKey(labelNames, labelValues));
+        if (s == null) {
+            return 0;
+        }
+        long count = 0;
+        for (LongAdder bucket : s.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    void writeTo(OpenMetricsWriter writer) {
+        writer.family(name, "histogram", help);
+        series.forEach((labelValues, s) -> {
+            long cumulative = 0;
+            for (int i = 0; i < s.buckets.length; i++) {
+                cumulative += s.buckets[i].sum();
+                writer.bucket(name, labelNames, labelValues, i < upperBounds.length ? upperBounds[i] : Double.POSITIVE_INFINITY, cumulative);
+            }
+            writer.sample(name + "_count", labelNames, labelValues, cumulative);
+            writer.sample(name + "_sum", labelNames, labelValues, s.sum.sum());
+        });
+    }
+
+    private static final class Series {
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Series(int bucketCount) {
+            buckets = new LongAdder[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+    }
+}
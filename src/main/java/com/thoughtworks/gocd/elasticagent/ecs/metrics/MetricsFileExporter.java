@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ClusterState;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSCluster;
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.awssdk.services.ecs.model.Cluster;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.text.MessageFormat.format;
+import static java.util.Collections.emptyList;
+
+/**
+ * Writes the plugin metrics for a cluster to the file configured in its cluster profile, for scraping by a
+ * node exporter textfile collector or similar. The file is replaced atomically so a reader never sees a
+ * partially written exposition.
+ *
+ * <p>The state of the cluster is taken from the {@link ClusterState} the server ping has already read, so exporting
+ * makes no AWS calls. When the ping could not read it, only the metrics the plugin records itself are written.
+ */
+public class MetricsFileExporter {
+    private static final Logger LOG = Logger.getLoggerFor(MetricsFileExporter.class);
+
+    private final PluginMetrics metrics;
+
+    public MetricsFileExporter(PluginMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void export(ClusterProfileProperties clusterProfileProperties, ClusterState clusterState, ECSTasks agentInstances) {
+        final String metricsFile = clusterProfileProperties.getMetricsFile();
+        if (StringUtils.isBlank(metricsFile)) {
+            return;
+        }
+
+        try {
+            final ECSCluster ecsCluster = clusterState == null ? null : ecsCluster(clusterProfileProperties, clusterState);
+            write(Path.of(metricsFile), metrics.scrape(ecsCluster, agentInstances));
+        } catch (Exception e) {
+            LOG.warn(format("[metrics] Could not write metrics for cluster {0} to {1}: {2}", clusterProfileProperties.getClusterName(), metricsFile, e.getMessage()));
+        }
+    }
+
+    // the task counts ECS reports for the cluster are the sums over its container instances
+    private static ECSCluster ecsCluster(ClusterProfileProperties clusterProfileProperties, ClusterState clusterState) {
+        final List<ContainerInstance> containerInstances = clusterState.containerInstances();
+        final Cluster cluster = Cluster.builder()
+                .clusterName(clusterProfileProperties.getClusterName())
+                .registeredContainerInstancesCount(containerInstances.size())
+                .runningTasksCount(containerInstances.stream().mapToInt(containerInstance -> countOf(containerInstance.runningTasksCount())).sum())
+                .pendingTasksCount(containerInstances.stream().mapToInt(containerInstance -> countOf(containerInstance.pendingTasksCount())).sum())
+                .build();
+
+        return new ECSCluster(cluster, containerInstances, clusterState.instances(), emptyList(),
+                clusterProfileProperties.getMaxLinuxInstancesAllowed(), clusterProfileProperties.getMaxWindowsInstancesAllowed(),
+                clusterProfileProperties.getMaxLinuxSpotInstanceAllowed(), clusterProfileProperties.getMaxWindowsSpotInstanceAllowed());
+    }
+
+    private static int countOf(Integer count) {
+        return count == null ? 0 : count;
+    }
+
+    static void write(Path path, String content) throws IOException {
+        final Path temporaryFile = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temporaryFile, content);
+        Files.move(temporaryFile, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
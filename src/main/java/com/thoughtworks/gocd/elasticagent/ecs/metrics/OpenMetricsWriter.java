@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Renders metric families in the OpenMetrics text exposition format into a single buffer, so a scrape costs
+ * one StringBuilder rather than an object per sample.
+ */
+class OpenMetricsWriter {
+    private final StringBuilder out = new StringBuilder(4096);
+
+    /**
+     * Turns label values into a series key. Null values become empty strings, since a missing cluster name or
+     * platform should still be counted rather than fail the caller.
+     */
+    static List<String> labelKey(String[] labelNames, String... labelValues) {
+        if (labelNames.length != labelValues.length) {
+            throw new IllegalArgumentException("Expected values for labels " + Arrays.toString(labelNames) + " but got " + Arrays.toString(labelValues));
+        }
+        return Arrays.stream(labelValues).map(value -> Objects.requireNonNullElse(value, "")).toList();
+    }
+
+    OpenMetricsWriter family(String name, String type, String help) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        return this;
+    }
+
+    OpenMetricsWriter sample(String name, String[] labelNames, List<String> labelValues, long value) {
+        labels(name, labelNames, labelValues, null, null);
+        out.append(' ').append(value).append('\n');
+        return this;
+    }
+
+    OpenMetricsWriter sample(String name, String[] labelNames, List<String> labelValues, double value) {
+        labels(name, labelNames, labelValues, null, null);
+        out.append(' ').append(value).append('\n');
+        return this;
+    }
+
+    OpenMetricsWriter bucket(String name, String[] labelNames, List<String> labelValues, double upperBound, long cumulativeCount) {
+        labels(name + "_bucket", labelNames, labelValues, "le", Double.isInfinite(upperBound) ? "+Inf" : Double.toString(upperBound));
+        out.append(' ').append(cumulativeCount).append('\n');
+        return this;
+    }
+
+    OpenMetricsWriter gauge(String name, String help, String[] labelNames, Map<List<String>, Long> values) {
+        family(name, "gauge", help);
+        values.forEach((labelValues, value) -> sample(name, labelNames, labelValues, value));
+        return this;
+    }
+
+    String finish() {
+        return out.append("# EOF\n").toString();
+    }
+
+    private void labels(String name, String[] labelNames, List<String> labelValues, String extraName, String extraValue) {
+        out.append(name);
+        if (labelNames.length == 0 && extraName == null) {
+            return;
+        }
+
+        out.append('{');
+        for (int i = 0; i < labelNames.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            label(labelNames[i], labelValues.get(i));
+        }
+        if (extraName != null) {
+            if (labelNames.length > 0) {
+                out.append(',');
+            }
+            label(extraName, extraValue);
+        }
+        out.append('}');
+    }
+
+    private void label(String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
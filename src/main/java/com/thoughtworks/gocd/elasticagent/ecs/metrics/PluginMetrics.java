@@ -0,0 +1,179 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSCluster;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSContainerInstance;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Registry of the metrics of one plugin, rendered as OpenMetrics text.
+ *
+ * <p>Counters and histograms are recorded as requests are handled. Cluster state (tasks, instances) is not
+ * tracked separately; it is derived at scrape time from the {@link ECSCluster} and {@link ECSTasks} the
+ * plugin already holds, so it can never drift from what the status report shows.
+ */
+public class PluginMetrics {
+    // the AWS clients are shared by every plugin in the process, so their calls are counted in the registry of the
+    // plugin whose request the calling thread is serving
+    private static final ThreadLocal<PluginMetrics> awsCallMetrics = new ThreadLocal<>();
+    private static final double[] PING_BUCKETS = {0.5, 1, 2.5, 5, 10, 30, 60, 120};
+    private static final double[] PROVISIONING_BUCKETS = {1, 5, 15, 30, 60, 120, 300, 600, 900};
+
+    private final CounterFamily awsCalls = new CounterFamily("ecs_plugin_aws_calls",
+            "AWS API calls made by the plugin.", "cluster", "service", "operation", "outcome");
+    private final CounterFamily hedgeableReads = new CounterFamily("ecs_plugin_aws_hedgeable_reads",
+            "AWS read calls on the job start path that would have been hedged had they been slow.", "cluster", "operation");
+    private final CounterFamily hedgedReads = new CounterFamily("ecs_plugin_aws_hedged_reads",
+            "AWS read calls which were slow enough to be sent a second time, by which of the two answered first.", "cluster", "operation", "winner");
+    private final CounterFamily clientCacheLookups = new CounterFamily("ecs_plugin_aws_client_cache_lookups",
+            "Lookups of the process-wide AWS client cache.", "result");
+    private final GaugeFamily pendingCreates = new GaugeFamily("ecs_plugin_pending_creates",
+            "Create agent requests currently being handled.", "cluster", "platform");
+    private final HistogramFamily provisioningDuration = new HistogramFamily("ecs_plugin_agent_provisioning_seconds",
+            "Time taken to schedule an agent task, including waiting for an instance to start or launch.", PROVISIONING_BUCKETS, "cluster", "platform", "outcome");
+    private final HistogramFamily serverPingDuration = new HistogramFamily("ecs_plugin_server_ping_duration_seconds",
+            "Time taken to handle a server ping across all clusters.", PING_BUCKETS);
+
+    public PluginMetrics() {
+    }
+
+    /**
+     * Counts the AWS calls the current thread makes from now on in {@code replacement}, returning the registry they
+     * were counted in before so it can be restored once the request is served.
+     */
+    public static PluginMetrics useForAwsCalls(PluginMetrics replacement) {
+        final PluginMetrics previous = awsCallMetrics.get();
+        awsCallMetrics.set(replacement);
+        return previous;
+    }
+
+    /**
+     * The registry the AWS calls of the current thread are counted in, or null when it is not serving a request.
+     */
+    public static PluginMetrics forAwsCalls() {
+        return awsCallMetrics.get();
+    }
+
+    public void awsCall(String clusterName, String service, String operation, boolean succeeded) {
+        awsCalls.increment(clusterName, service, operation, outcome(succeeded));
+    }
+
+    public void hedgeableRead(String clusterName, String operation) {
+        hedgeableReads.increment(clusterName, operation);
+    }
+
+    public void hedgedRead(String clusterName, String operation, boolean hedgeWon) {
+        hedgedReads.increment(clusterName, operation, hedgeWon ? "hedge" : "original");
+    }
+
+    public void clientCacheLookup(boolean hit) {
+        clientCacheLookups.increment(hit ? "hit" : "miss");
+    }
+
+    public void createStarted(String clusterName, Platform platform) {
+        pendingCreates.increment(clusterName, platform.name());
+    }
+
+    public void createFinished(String clusterName, Platform platform, Duration elapsed, boolean succeeded) {
+        pendingCreates.decrement(clusterName, platform.name());
+        provisioningDuration.observe(elapsed, clusterName, platform.name(), outcome(succeeded));
+    }
+
+    public void serverPingCompleted(Duration elapsed) {
+        serverPingDuration.observe(elapsed);
+    }
+
+    CounterFamily awsCalls() {
+        return awsCalls;
+    }
+
+    CounterFamily clientCacheLookups() {
+        return clientCacheLookups;
+    }
+
+    GaugeFamily pendingCreates() {
+        return pendingCreates;
+    }
+
+    HistogramFamily provisioningDuration() {
+        return provisioningDuration;
+    }
+
+    /**
+     * Renders all recorded metrics, plus the state of {@code cluster} and {@code tasks} when given, as an
+     * OpenMetrics text exposition.
+     */
+    public String scrape(ECSCluster cluster, ECSTasks tasks) {
+        final OpenMetricsWriter writer = new OpenMetricsWriter();
+
+        if (cluster != null) {
+            writeClusterState(writer, cluster, tasks);
+        }
+
+        awsCalls.writeTo(writer);
+        hedgeableReads.writeTo(writer);
+        hedgedReads.writeTo(writer);
+        clientCacheLookups.writeTo(writer);
+        pendingCreates.writeTo(writer);
+        provisioningDuration.writeTo(writer);
+        serverPingDuration.writeTo(writer);
+
+        return writer.finish();
+    }
+
+    private void writeClusterState(OpenMetricsWriter writer, ECSCluster cluster, ECSTasks tasks) {
+        final String clusterName = Objects.requireNonNullElse(cluster.getName(), "");
+
+        final Map<List<String>, Long> clusterTasks = new HashMap<>();
+        clusterTasks.put(List.of(clusterName, "running"), longValue(cluster.getRunningTasksCount()));
+        clusterTasks.put(List.of(clusterName, "pending"), longValue(cluster.getPendingTasksCount()));
+        writer.gauge("ecs_plugin_cluster_tasks", "Tasks in the ECS cluster as reported by ECS, including those not started by this plugin.",
+                new String[]{"cluster", "state"}, clusterTasks);
+
+        if (tasks != null) {
+            final Map<List<String>, Long> agentTasks = new HashMap<>();
+            tasks.countByStatus().forEach((status, count) -> agentTasks.put(List.of(clusterName, status), count));
+            writer.gauge("ecs_plugin_agent_tasks", "Agent tasks known to the plugin, by last reported status.",
+                    new String[]{"cluster", "status"}, agentTasks);
+        }
+
+        final Map<List<String>, Long> instances = new HashMap<>();
+        for (ECSContainerInstance containerInstance : cluster.getContainerInstances()) {
+            final String lifecycle = "Spot".equals(cluster.getEc2InstanceType().get(containerInstance.getEc2InstanceId())) ? "spot" : "on-demand";
+            final String state = containerInstance.getInstanceState() == null ? "unknown" : containerInstance.getInstanceState();
+            instances.merge(List.of(clusterName, containerInstance.getPlatform(), lifecycle, state), 1L, Long::sum);
+        }
+        writer.gauge("ecs_plugin_container_instances", "Container instances registered with the cluster.",
+                new String[]{"cluster", "platform", "lifecycle", "state"}, instances);
+    }
+
+    private static long longValue(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static String outcome(boolean succeeded) {
+        return succeeded ? "success" : "failure";
+    }
+}
@@ -19,6 +19,7 @@ package com.thoughtworks.gocd.elasticagent.ecs.requests;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
 import com.thoughtworks.gocd.elasticagent.ecs.executors.AgentStatusReportExecutor;
@@ -64,7 +65,7 @@ public class AgentStatusReportRequest {
         return clusterProfileProperties;
     }
 
-    public AgentStatusReportExecutor executor(ECSTasks agentInstances) {
-        return new AgentStatusReportExecutor(this, agentInstances);
+    public AgentStatusReportExecutor executor(ECSTasks agentInstances, PluginServices services) {
+        return new AgentStatusReportExecutor(this, agentInstances, services);
     }
 }
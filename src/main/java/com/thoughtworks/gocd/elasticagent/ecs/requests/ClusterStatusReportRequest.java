@@ -19,6 +19,7 @@ package com.thoughtworks.gocd.elasticagent.ecs.requests;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
 import com.thoughtworks.gocd.elasticagent.ecs.RequestExecutor;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
@@ -49,8 +50,8 @@ public class ClusterStatusReportRequest {
         return GSON.fromJson(json, ClusterStatusReportRequest.class);
     }
 
-    public RequestExecutor executor(ECSTasks agentInstances, EventStream eventStream) {
-        return new ClusterStatusReportExecutor(this, eventStream, agentInstances);
+    public RequestExecutor executor(ECSTasks agentInstances, EventStream eventStream, PluginServices services) {
+        return new ClusterStatusReportExecutor(this, eventStream, agentInstances, services);
     }
 
     @Override
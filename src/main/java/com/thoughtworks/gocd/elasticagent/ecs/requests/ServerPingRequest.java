@@ -20,6 +20,7 @@ import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
 import com.thoughtworks.gocd.elasticagent.ecs.PluginRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
 import com.thoughtworks.gocd.elasticagent.ecs.executors.ServerPingRequestExecutor;
 
@@ -60,8 +61,8 @@ public class ServerPingRequest {
                 '}';
     }
 
-    public ServerPingRequestExecutor executor(Map<String, ECSTasks> clusterSpecificAgentInstances, PluginRequest pluginRequest) {
-        return new ServerPingRequestExecutor(this, clusterSpecificAgentInstances, pluginRequest);
+    public ServerPingRequestExecutor executor(Map<String, ECSTasks> clusterSpecificAgentInstances, PluginRequest pluginRequest, PluginServices services) {
+        return new ServerPingRequestExecutor(this, clusterSpecificAgentInstances, pluginRequest, services);
     }
 
     @Override
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.requests;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * The two fields of a should-assign-work request needed to answer it: the agent's id and the job identifier.
+ *
+ * <p>The server sends this request for every idle agent and pending job, so the body is read with a streaming
+ * parser that skips everything else, notably the cluster profile, without materializing it.
+ */
+public record ShouldAssignWorkQuery(String elasticAgentId, JobIdentifier jobIdentifier) {
+
+    public static ShouldAssignWorkQuery fromJSON(String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            String elasticAgentId = null;
+            JobIdentifier jobIdentifier = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "agent" -> elasticAgentId = readAgentId(reader);
+                    case "job_identifier" -> jobIdentifier = readJobIdentifier(reader);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            return new ShouldAssignWorkQuery(elasticAgentId, jobIdentifier);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static String readAgentId(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+
+        String agentId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("agent_id".equals(reader.nextName())) {
+                agentId = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return agentId;
+    }
+
+    private static JobIdentifier readJobIdentifier(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+
+        String pipelineName = null;
+        Long pipelineCounter = null;
+        String pipelineLabel = null;
+        String stageName = null;
+        String stageCounter = null;
+        String jobName = null;
+        Long jobId = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "pipeline_name" -> pipelineName = readString(reader);
+                case "pipeline_counter" -> pipelineCounter = readLong(reader);
+                case "pipeline_label" -> pipelineLabel = readString(reader);
+                case "stage_name" -> stageName = readString(reader);
+                case "stage_counter" -> stageCounter = readString(reader);
+                case "job_name" -> jobName = readString(reader);
+                case "job_id" -> jobId = readLong(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new JobIdentifier(pipelineName, pipelineCounter, pipelineLabel, stageName, stageCounter, jobName, jobId);
+    }
+
+    // As with Gson's own binding, numbers are accepted for string fields and numeric strings for number fields.
+    private static String readString(JsonReader reader) throws IOException {
+        return skipNull(reader) ? null : reader.nextString();
+    }
+
+    private static Long readLong(JsonReader reader) throws IOException {
+        return skipNull(reader) ? null : reader.nextLong();
+    }
+
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
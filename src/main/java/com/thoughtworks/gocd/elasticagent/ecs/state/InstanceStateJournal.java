@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import java.time.Instant;
+import java.util.Collection;
+
+/**
+ * Receives every change to the idle and stop timestamps of the EC2 instances, so they can be restored after a
+ * restart.
+ */
+public interface InstanceStateJournal {
+    InstanceStateJournal NONE = new InstanceStateJournal() {
+        @Override
+        public void recorded(String instanceId, String tagKey, Instant value) {
+        }
+
+        @Override
+        public void forgotten(Collection<String> instanceIds) {
+        }
+    };
+
+    /**
+     * The instance's tag now has the given value, or is removed when the value is null.
+     */
+    void recorded(String instanceId, String tagKey, Instant value);
+
+    void forgotten(Collection<String> instanceIds);
+
+    /**
+     * Makes the changes passed on so far durable. Called once the caller no longer holds its own lock, so that
+     * callers changing state at the same time share one sync.
+     */
+    default void sync() {
+    }
+
+    record Entry(String instanceId, String tagKey, Instant value) {
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.state.StateRecord.InstanceStatePut;
+import com.thoughtworks.gocd.elasticagent.ecs.state.StateRecord.InstanceStateRemove;
+import com.thoughtworks.gocd.elasticagent.ecs.state.StateRecord.SpotRequestPut;
+import com.thoughtworks.gocd.elasticagent.ecs.state.StateRecord.SpotRequestRemove;
+import com.thoughtworks.gocd.elasticagent.ecs.state.StateRecord.TaskPut;
+import com.thoughtworks.gocd.elasticagent.ecs.state.StateRecord.TaskRemove;
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.awssdk.services.ec2.model.GroupIdentifier;
+import software.amazon.awssdk.services.ec2.model.LaunchSpecification;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ecs.model.Task;
+import software.amazon.awssdk.services.ecs.model.TaskDefinition;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Persists the task registry of every cluster, the spot request ledger and the idle and stop timestamps of the
+ * instances to a directory, so a restarted GoCD server can schedule and scale in from the last known state straight
+ * away and leave it to reconciliation to catch up with AWS.
+ *
+ * <p>Every change is appended to a journal under the store's lock and synced by {@link #sync()} outside of it: a
+ * sync covers every change appended before it, so callers changing state at the same time share one fsync. Once the
+ * journal holds {@link #COMPACT_AFTER} records, the current state is written as a snapshot and the journal is started
+ * afresh. Loading reads the snapshot and replays the journal over it, dropping a record torn by a crash.
+ *
+ * <p>The state is kept in {@value #DEFAULT_DIRECTORY} under the GoCD server's working directory, or in the directory
+ * the {@value #STATE_DIRECTORY_PROPERTY} system property names; setting the property to {@value #DISABLED} turns
+ * persistence off. A store that cannot read or write its directory logs why and carries on as if it were off.
+ */
+public class PluginStateStore implements SpotRequestJournal, InstanceStateJournal {
+    private static final Logger LOG = Logger.getLoggerFor(PluginStateStore.class);
+    public static final String STATE_DIRECTORY_PROPERTY = "gocd.ecs.elastic.agent.state.dir";
+    static final String DEFAULT_DIRECTORY = "plugin-state/ecs-elastic-agent";
+    static final String DISABLED = "off";
+    static final int COMPACT_AFTER = 1000;
+
+    private final Path directory;
+    private final Map<String, Map<String, TaskPut>> tasks = new HashMap<>();
+    private final Map<String, SpotRequestPut> spotRequests = new LinkedHashMap<>();
+    private final Map<String, Map<String, InstanceStatePut>> instanceStates = new LinkedHashMap<>();
+    private final Object syncLock = new Object();
+    private FileChannel journal;
+    private int journalRecords;
+    private long appended;
+    private long synced; // guarded by syncLock
+
+    private PluginStateStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public static PluginStateStore fromSystemProperty() {
+        final String directory = System.getProperty(STATE_DIRECTORY_PROPERTY);
+        if (DISABLED.equalsIgnoreCase(StringUtils.trim(directory))) {
+            return disabled();
+        }
+        return open(StringUtils.isBlank(directory) ? Path.of(DEFAULT_DIRECTORY).toAbsolutePath() : Path.of(directory));
+    }
+
+    public static PluginStateStore disabled() {
+        return new PluginStateStore(null);
+    }
+
+    public static PluginStateStore open(Path directory) {
+        final PluginStateStore store = new PluginStateStore(directory);
+        try {
+            store.load();
+            LOG.info(format("[state] Restored {0} task(s), {1} spot request(s) and the state of {2} instance(s) from {3}",
+                    store.tasks.values().stream().mapToInt(Map::size).sum(), store.spotRequests.size(), store.instanceStates.size(), directory));
+            return store;
+        } catch (IOException e) {
+            LOG.warn(format("[state] Could not load plugin state from {0}, continuing without it: {1}", directory, e.getMessage()));
+            store.close();
+            return disabled();
+        }
+    }
+
+    public boolean enabled() {
+        return directory != null;
+    }
+
+    public TaskJournal taskJournal(String clusterKey) {
+        if (!enabled()) {
+            return TaskJournal.NONE;
+        }
+
+        return new TaskJournal() {
+            @Override
+            public void recorded(ECSTask task) {
+                append(taskPut(clusterKey, task));
+            }
+
+            @Override
+            public void removed(String agentId) {
+                append(new TaskRemove(clusterKey, agentId));
+            }
+
+            @Override
+            public void sync() {
+                PluginStateStore.this.sync();
+            }
+        };
+    }
+
+    public synchronized List<ECSTask> restoredTasks(String clusterKey) {
+        return tasks.getOrDefault(clusterKey, Map.of()).values().stream().map(PluginStateStore::toECSTask).toList();
+    }
+
+    public synchronized List<SpotInstanceRequest> restoredSpotRequests() {
+        return spotRequests.values().stream().map(PluginStateStore::toSpotInstanceRequest).toList();
+    }
+
+    public synchronized List<InstanceStateJournal.Entry> restoredInstanceStates() {
+        return instanceStates.values().stream()
+                .flatMap(byTag -> byTag.values().stream())
+                .map(put -> new InstanceStateJournal.Entry(put.instanceId(), put.tagKey(), put.value()))
+                .toList();
+    }
+
+    // spot requests change rarely, so each change is synced straight away
+    @Override
+    public void recorded(SpotInstanceRequest spotInstanceRequest) {
+        if (enabled()) {
+            append(spotRequestPut(spotInstanceRequest));
+            sync();
+        }
+    }
+
+    @Override
+    public void removed(String spotInstanceRequestId) {
+        if (enabled()) {
+            append(new SpotRequestRemove(spotInstanceRequestId));
+            sync();
+        }
+    }
+
+    @Override
+    public void recorded(String instanceId, String tagKey, Instant value) {
+        if (enabled()) {
+            append(new InstanceStatePut(instanceId, tagKey, value));
+        }
+    }
+
+    @Override
+    public void forgotten(Collection<String> instanceIds) {
+        if (enabled()) {
+            instanceIds.forEach(instanceId -> append(new InstanceStateRemove(instanceId)));
+        }
+    }
+
+    /**
+     * Syncs the journal up to the last change appended, unless a sync that started after it has done so already.
+     */
+    @Override
+    public void sync() {
+        synchronized (syncLock) {
+            final long upTo;
+            final FileChannel channel;
+            synchronized (this) {
+                upTo = appended;
+                channel = journal;
+            }
+            if (channel == null || synced >= upTo) {
+                return;
+            }
+
+            try {
+                channel.force(false);
+                synced = upTo;
+            } catch (IOException e) {
+                synchronized (this) {
+                    // a compaction replaced the journal, and its snapshot holds every change appended before
+                    if (channel != journal) {
+                        synced = upTo;
+                        return;
+                    }
+                }
+                LOG.warn(format("[state] Could not sync plugin state to {0}: {1}", directory, e.getMessage()));
+            }
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            LOG.warn(format("[state] Could not close the journal in {0}: {1}", directory, e.getMessage()));
+        }
+        journal = null;
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        StateFile.read(snapshotFile()).records().forEach(this::apply);
+
+        final StateFile.Contents journalContents = StateFile.read(journalFile());
+        journalContents.records().forEach(this::apply);
+        journalRecords = journalContents.records().size();
+        journal = StateFile.openForAppend(journalFile(), journalContents.validLength());
+
+        if (journalRecords >= COMPACT_AFTER) {
+            compact();
+        }
+    }
+
+    private synchronized void append(StateRecord record) {
+        apply(record);
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            StateFile.append(journal, record);
+            appended++;
+            if (++journalRecords >= COMPACT_AFTER) {
+                compact();
+            }
+        } catch (IOException e) {
+            LOG.warn(format("[state] Could not write plugin state to {0}: {1}", directory, e.getMessage()));
+        }
+    }
+
+    // the snapshot is in place before the journal is cut, so a crash in between only replays records already in it;
+    // the old journal is only closed once the new one is open, so a failure here leaves appends going to a journal
+    private void compact() throws IOException {
+        final List<StateRecord> records = new ArrayList<>();
+        tasks.values().forEach(clusterTasks -> records.addAll(clusterTasks.values()));
+        records.addAll(spotRequests.values());
+        instanceStates.values().forEach(byTag -> records.addAll(byTag.values()));
+
+        try {
+            StateFile.writeAtomically(snapshotFile(), records);
+        } catch (IOException e) {
+            // keep appending to the journal and try again once it has grown by as much again
+            journalRecords = 0;
+            throw e;
+        }
+
+        final FileChannel replaced = journal;
+        journal = StateFile.openForAppend(journalFile(), 0);
+        journalRecords = 0;
+        try {
+            replaced.close();
+        } catch (IOException e) {
+            LOG.warn(format("[state] Could not close the compacted journal in {0}: {1}", directory, e.getMessage()));
+        }
+    }
+
+    private void apply(StateRecord record) {
+        if (record instanceof TaskPut put) {
+            tasks.computeIfAbsent(put.clusterKey(), clusterKey -> new LinkedHashMap<>()).put(put.agentId(), put);
+        } else if (record instanceof TaskRemove remove) {
+            final Map<String, TaskPut> clusterTasks = tasks.get(remove.clusterKey());
+            if (clusterTasks != null) {
+                clusterTasks.remove(remove.agentId());
+                if (clusterTasks.isEmpty()) {
+                    tasks.remove(remove.clusterKey());
+                }
+            }
+        } else if (record instanceof SpotRequestPut put) {
+            spotRequests.put(put.spotInstanceRequestId(), put);
+        } else if (record instanceof SpotRequestRemove remove) {
+            spotRequests.remove(remove.spotInstanceRequestId());
+        } else if (record instanceof InstanceStatePut put) {
+            instanceStates.computeIfAbsent(put.instanceId(), instanceId -> new LinkedHashMap<>()).put(put.tagKey(), put);
+        } else if (record instanceof InstanceStateRemove remove) {
+            instanceStates.remove(remove.instanceId());
+        }
+    }
+
+    private Path snapshotFile() {
+        return directory.resolve("state.snapshot");
+    }
+
+    private Path journalFile() {
+        return directory.resolve("state.journal");
+    }
+
+    static TaskPut taskPut(String clusterKey, ECSTask task) {
+        final Task ecsTask = task.task();
+        return new TaskPut(clusterKey, task.name(), ecsTask.taskArn(), ecsTask.taskDefinitionArn(), ecsTask.containerInstanceArn(),
+                ecsTask.lastStatus(), ecsTask.startedAt(), task.getEC2InstanceId(),
+                task.getJobIdentifier() == null ? null : task.getJobIdentifier().toJson(),
+                task.elasticProfile() == null ? null : task.elasticProfile().toJson(),
+                task.environment());
+    }
+
+    // the task definition keeps only its family and ARN; the agent status report describes it again when needed
+    static ECSTask toECSTask(TaskPut put) {
+        final Task task = Task.builder()
+                .taskArn(put.taskArn())
+                .taskDefinitionArn(put.taskDefinitionArn())
+                .containerInstanceArn(put.containerInstanceArn())
+                .lastStatus(put.lastStatus())
+                .startedAt(put.startedAt())
+                .build();
+        final TaskDefinition taskDefinition = TaskDefinition.builder()
+                .family(put.agentId())
+                .taskDefinitionArn(put.taskDefinitionArn())
+                .build();
+        return new ECSTask(task, taskDefinition,
+                put.elasticProfile() == null ? null : ElasticAgentProfileProperties.fromJson(put.elasticProfile()),
+                put.jobIdentifier() == null ? null : JobIdentifier.fromJson(put.jobIdentifier()),
+                put.environment(), put.ec2InstanceId());
+    }
+
+    static SpotRequestPut spotRequestPut(SpotInstanceRequest request) {
+        final LaunchSpecification launchSpecification = request.launchSpecification();
+        final Map<String, String> tags = new LinkedHashMap<>();
+        request.tags().forEach(tag -> tags.put(tag.key(), tag.value()));
+        return new SpotRequestPut(request.spotInstanceRequestId(), request.stateAsString(),
+                launchSpecification == null ? null : launchSpecification.imageId(),
+                launchSpecification == null ? null : launchSpecification.instanceTypeAsString(),
+                launchSpecification == null ? null : launchSpecification.subnetId(),
+                launchSpecification == null ? List.of() : launchSpecification.securityGroups().stream().map(GroupIdentifier::groupId).toList(),
+                tags);
+    }
+
+    static SpotInstanceRequest toSpotInstanceRequest(SpotRequestPut put) {
+        return SpotInstanceRequest.builder()
+                .spotInstanceRequestId(put.spotInstanceRequestId())
+                .state(put.state())
+                .launchSpecification(LaunchSpecification.builder()
+                        .imageId(put.imageId())
+                        .instanceType(put.instanceType())
+                        .subnetId(put.subnetId())
+                        .securityGroups(put.securityGroupIds().stream().map(groupId -> GroupIdentifier.builder().groupId(groupId).build()).toList())
+                        .build())
+                .tags(put.tags().entrySet().stream().map(tag -> Tag.builder().key(tag.getKey()).value(tag.getValue()).build()).toList())
+                .build();
+    }
+}
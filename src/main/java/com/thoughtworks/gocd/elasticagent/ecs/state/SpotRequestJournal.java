@@ -0,0 +1,40 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+
+/**
+ * Receives every change to the spot requests the plugin is waiting for AWS to tag, so they can be restored after a
+ * restart.
+ */
+public interface SpotRequestJournal {
+    SpotRequestJournal NONE = new SpotRequestJournal() {
+        @Override
+        public void recorded(SpotInstanceRequest spotInstanceRequest) {
+        }
+
+        @Override
+        public void removed(String spotInstanceRequestId) {
+        }
+    };
+
+    void recorded(SpotInstanceRequest spotInstanceRequest);
+
+    void removed(String spotInstanceRequestId);
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Reads and writes files of {@link StateRecord}s. A file starts with a magic number and format version, followed by
+ * frames of {@code [payload length][CRC32 of payload][payload]}. Reading stops at the first incomplete or corrupt
+ * frame, which is where a crash mid-append leaves the journal.
+ */
+class StateFile {
+    private static final int MAGIC = 0x47454353; // "GECS"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    record Contents(List<StateRecord> records, long validLength) {
+    }
+
+    private StateFile() {
+    }
+
+    static Contents read(Path path) throws IOException {
+        final List<StateRecord> records = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return new Contents(records, 0);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognised state file " + path);
+            }
+            long validLength = HEADER_LENGTH;
+            while (true) {
+                final int length;
+                final int checksum;
+                final byte[] payload;
+                try {
+                    length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    checksum = in.readInt();
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum != checksum(payload)) {
+                    break;
+                }
+                records.add(StateRecord.readFrom(new DataInputStream(new ByteArrayInputStream(payload))));
+                validLength += 8 + length;
+            }
+            return new Contents(records, validLength);
+        } catch (EOFException e) {
+            // shorter than the header, e.g. a crash right after the journal was created
+            return new Contents(records, 0);
+        }
+    }
+
+    /**
+     * Opens {@code path} for appending, first cutting off anything after {@code validLength} and writing the header
+     * if the file has none.
+     */
+    static FileChannel openForAppend(Path path, long validLength) throws IOException {
+        final FileChannel channel = FileChannel.open(path, CREATE, WRITE);
+        if (validLength < HEADER_LENGTH) {
+            channel.truncate(0);
+            channel.write(header());
+        } else {
+            channel.truncate(validLength);
+        }
+        channel.position(channel.size());
+        channel.force(false);
+        return channel;
+    }
+
+    /**
+     * Appends the record without syncing it; the caller syncs the channel once for any number of appends.
+     */
+    static void append(FileChannel channel, StateRecord record) throws IOException {
+        channel.write(frame(record));
+    }
+
+    /**
+     * Replaces {@code path} with the given records. The file is written and synced under a temporary name and then
+     * moved into place, so a crash leaves either the old or the new file.
+     */
+    static void writeAtomically(Path path, Collection<? extends StateRecord> records) throws IOException {
+        final Path temporaryFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            channel.write(header());
+            for (StateRecord record : records) {
+                channel.write(frame(record));
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryFile, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).flip();
+    }
+
+    private static ByteBuffer frame(StateRecord record) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        record.writeTo(new DataOutputStream(bytes));
+        final byte[] payload = bytes.toByteArray();
+        return ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+    }
+
+    private static int checksum(byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One change to the persisted plugin state. Snapshots hold only {@code *Put} records; the journal holds both kinds.
+ * Applying a record twice has the same effect as applying it once, so replaying a journal over a snapshot that
+ * already includes part of it is safe.
+ */
+sealed interface StateRecord {
+    byte TASK_PUT = 1;
+    byte TASK_REMOVE = 2;
+    byte SPOT_REQUEST_PUT = 3;
+    byte SPOT_REQUEST_REMOVE = 4;
+    byte INSTANCE_STATE_PUT = 5;
+    byte INSTANCE_STATE_REMOVE = 6;
+
+    void writeTo(DataOutput out) throws IOException;
+
+    record TaskPut(String clusterKey, String agentId, String taskArn, String taskDefinitionArn, String containerInstanceArn,
+                   String lastStatus, Instant startedAt, String ec2InstanceId, String jobIdentifier, String elasticProfile,
+                   String environment) implements StateRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(TASK_PUT);
+            writeString(out, clusterKey);
+            writeString(out, agentId);
+            writeString(out, taskArn);
+            writeString(out, taskDefinitionArn);
+            writeString(out, containerInstanceArn);
+            writeString(out, lastStatus);
+            writeInstant(out, startedAt);
+            writeString(out, ec2InstanceId);
+            writeString(out, jobIdentifier);
+            writeString(out, elasticProfile);
+            writeString(out, environment);
+        }
+    }
+
+    record TaskRemove(String clusterKey, String agentId) implements StateRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(TASK_REMOVE);
+            writeString(out, clusterKey);
+            writeString(out, agentId);
+        }
+    }
+
+    record SpotRequestPut(String spotInstanceRequestId, String state, String imageId, String instanceType, String subnetId,
+                          List<String> securityGroupIds, Map<String, String> tags) implements StateRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(SPOT_REQUEST_PUT);
+            writeString(out, spotInstanceRequestId);
+            writeString(out, state);
+            writeString(out, imageId);
+            writeString(out, instanceType);
+            writeString(out, subnetId);
+            out.writeInt(securityGroupIds.size());
+            for (String securityGroupId : securityGroupIds) {
+                writeString(out, securityGroupId);
+            }
+            out.writeInt(tags.size());
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                writeString(out, tag.getKey());
+                writeString(out, tag.getValue());
+            }
+        }
+    }
+
+    record SpotRequestRemove(String spotInstanceRequestId) implements StateRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(SPOT_REQUEST_REMOVE);
+            writeString(out, spotInstanceRequestId);
+        }
+    }
+
+    // a null value is a tag the plugin has removed
+    record InstanceStatePut(String instanceId, String tagKey, Instant value) implements StateRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(INSTANCE_STATE_PUT);
+            writeString(out, instanceId);
+            writeString(out, tagKey);
+            writeInstant(out, value);
+        }
+    }
+
+    record InstanceStateRemove(String instanceId) implements StateRecord {
+        @Override
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeByte(INSTANCE_STATE_REMOVE);
+            writeString(out, instanceId);
+        }
+    }
+
+    static StateRecord readFrom(DataInput in) throws IOException {
+        final byte type = in.readByte();
+        return switch (type) {
+            case TASK_PUT -> new TaskPut(readString(in), readString(in), readString(in), readString(in), readString(in),
+                    readString(in), readInstant(in), readString(in), readString(in), readString(in), readString(in));
+            case TASK_REMOVE -> new TaskRemove(readString(in), readString(in));
+            case SPOT_REQUEST_PUT -> {
+                final String spotInstanceRequestId = readString(in);
+                final String state = readString(in);
+                final String imageId = readString(in);
+                final String instanceType = readString(in);
+                final String subnetId = readString(in);
+                final int securityGroupCount = in.readInt();
+                final List<String> securityGroupIds = new ArrayList<>(securityGroupCount);
+                for (int i = 0; i < securityGroupCount; i++) {
+                    securityGroupIds.add(readString(in));
+                }
+                final int tagCount = in.readInt();
+                final Map<String, String> tags = new LinkedHashMap<>();
+                for (int i = 0; i < tagCount; i++) {
+                    tags.put(readString(in), readString(in));
+                }
+                yield new SpotRequestPut(spotInstanceRequestId, state, imageId, instanceType, subnetId, securityGroupIds, tags);
+            }
+            case SPOT_REQUEST_REMOVE -> new SpotRequestRemove(readString(in));
+            case INSTANCE_STATE_PUT -> new InstanceStatePut(readString(in), readString(in), readInstant(in));
+            case INSTANCE_STATE_REMOVE -> new InstanceStateRemove(readString(in));
+            default -> throw new IOException("Unknown state record type " + type);
+        };
+    }
+
+    // strings are length-prefixed UTF-8 with -1 for null, as profile JSON can exceed writeUTF's 64KB limit
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInstant(DataOutput out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochMilli());
+        }
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochMilli(in.readLong()) : null;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
+
+/**
+ * Receives every change to a cluster's task registry, so it can be restored after a restart.
+ */
+public interface TaskJournal {
+    TaskJournal NONE = new TaskJournal() {
+        @Override
+        public void recorded(ECSTask task) {
+        }
+
+        @Override
+        public void removed(String agentId) {
+        }
+    };
+
+    void recorded(ECSTask task);
+
+    void removed(String agentId);
+
+    /**
+     * Makes the changes passed on so far durable. The registry calls it once it has released its lock, so that
+     * changes made at the same time share one sync.
+     */
+    default void sync() {
+    }
+}
@@ -17,10 +17,16 @@
 package com.thoughtworks.gocd.elasticagent.ecs;
 
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.*;
+import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
+import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
+import com.thoughtworks.gocd.elasticagent.ecs.exceptions.LimitExceededException;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.state.TaskJournal;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.services.ecs.model.Task;
@@ -30,10 +36,14 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static java.time.temporal.ChronoUnit.MINUTES;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.*;
 
 class ECSTasksTest {
@@ -105,6 +115,63 @@ class ECSTasksTest {
         verify(taskHelper, times(1)).create(createAgentRequest, pluginSettings, consoleLogAppender);
     }
 
+    @Test
+    void shouldKeepJobsThatHitTheInstanceLimitWaitingUntilTheyArePlaced() throws Exception {
+        final JobIdentifier jobIdentifier = new JobIdentifier("up42", 1L, "1", "stage", "1", "job", 1L);
+        final ECSTask task = mock(ECSTask.class);
+        when(task.name()).thenReturn("agent-id");
+        when(createAgentRequest.getJobIdentifier()).thenReturn(jobIdentifier);
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender))
+                .thenThrow(new LimitExceededException("LINUX", 2))
+                .thenReturn(Optional.of(task));
+
+        assertThatThrownBy(() -> ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender)).isInstanceOf(LimitExceededException.class);
+
+        assertThat(ecsTasks.waitingForCapacity()).extracting(PendingDemand.Waiting::jobIdentifier).containsExactly(jobIdentifier);
+        assertThat(ecsTasks.stillWaitingForCapacity(createAgentRequest, consoleLogAppender)).isTrue();
+
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        assertThat(ecsTasks.waitingForCapacity()).isEmpty();
+        assertThat(ecsTasks.stillWaitingForCapacity(createAgentRequest, consoleLogAppender)).isFalse();
+    }
+
+    @Test
+    void shouldPlaceAWaitingJobOnTheGivenInstancesOnly() throws Exception {
+        final JobIdentifier jobIdentifier = new JobIdentifier("up42", 1L, "1", "stage", "1", "job", 1L);
+        final ECSTask task = mock(ECSTask.class);
+        when(task.name()).thenReturn("agent-id");
+        when(task.getJobIdentifier()).thenReturn(jobIdentifier);
+        when(createAgentRequest.getJobIdentifier()).thenReturn(jobIdentifier);
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenThrow(new LimitExceededException("LINUX", 2));
+        when(taskHelper.createOn(createAgentRequest, pluginSettings, consoleLogAppender, List.of(), List.of())).thenReturn(Optional.of(task));
+        assertThatThrownBy(() -> ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender)).isInstanceOf(LimitExceededException.class);
+
+        final Optional<ECSTask> placed = ecsTasks.placeWaiting(ecsTasks.waitingForCapacity().getFirst(), pluginSettings, List.of(), List.of());
+
+        assertThat(placed).contains(task);
+        assertThat(ecsTasks.hasInstance("agent-id")).isTrue();
+        assertThat(ecsTasks.waitingForCapacity()).isEmpty();
+        verify(taskHelper, times(1)).create(createAgentRequest, pluginSettings, consoleLogAppender);
+    }
+
+    @Test
+    void shouldStopWaitingForAJobThatKeepsFailingToBePlaced() throws Exception {
+        final JobIdentifier jobIdentifier = new JobIdentifier("up42", 1L, "1", "stage", "1", "job", 1L);
+        when(createAgentRequest.getJobIdentifier()).thenReturn(jobIdentifier);
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenThrow(new LimitExceededException("LINUX", 2));
+        when(taskHelper.createOn(createAgentRequest, pluginSettings, consoleLogAppender, List.of(), List.of())).thenThrow(new IllegalStateException("bad image"));
+        assertThatThrownBy(() -> ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender)).isInstanceOf(LimitExceededException.class);
+
+        for (int attempt = 0; attempt < PendingDemand.MAX_FAILED_PLACEMENTS; attempt++) {
+            final PendingDemand.Waiting job = ecsTasks.waitingForCapacity().getFirst();
+            assertThatThrownBy(() -> ecsTasks.placeWaiting(job, pluginSettings, List.of(), List.of())).hasMessage("bad image");
+        }
+
+        assertThat(ecsTasks.waitingForCapacity()).isEmpty();
+        verify(consoleLogAppender).accept(contains("No longer waiting for capacity"));
+    }
+
     @Test
     void shouldTerminateAnExistingAgent() throws Exception {
         final ECSTask task = mock(ECSTask.class);
@@ -119,6 +186,88 @@ class ECSTasksTest {
         assertThat(ecsTasks.hasInstance(task.name())).isFalse();
     }
 
+    @Test
+    void shouldFindTasksByJobTaskArnAndInstance() throws Exception {
+        final JobIdentifier jobIdentifier = mock(JobIdentifier.class);
+        final ECSTask task = task("agent-id", jobIdentifier, "task-arn", "i-1");
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenReturn(Optional.of(task));
+
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        assertThat(ecsTasks.findByJobIdentifier(jobIdentifier)).isSameAs(task);
+        assertThat(ecsTasks.findByTaskArn("task-arn")).isSameAs(task);
+        assertThat(ecsTasks.tasksOnInstance("i-1")).containsExactly(task);
+        assertThat(ecsTasks.tasksOnInstance("i-2")).isEmpty();
+    }
+
+    @Test
+    void shouldNotCheckIfInstanceIsIdleWhenItIsStillRunningOtherAgents() throws Exception {
+        final ECSTask task = task("agent-1", mock(JobIdentifier.class), "task-arn-1", "i-1");
+        final ECSTask otherTask = task("agent-2", mock(JobIdentifier.class), "task-arn-2", "i-1");
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenReturn(Optional.of(task), Optional.of(otherTask));
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        ecsTasks.terminate("agent-1", pluginSettings);
+
+        verify(containerInstanceHelper, never()).checkAndMarkEC2InstanceIdle(any(), any());
+        assertThat(ecsTasks.findByTaskArn("task-arn-1")).isNull();
+        assertThat(ecsTasks.tasksOnInstance("i-1")).containsExactly(otherTask);
+
+        ecsTasks.terminate("agent-2", pluginSettings);
+
+        verify(containerInstanceHelper).checkAndMarkEC2InstanceIdle(pluginSettings, "i-1");
+        assertThat(ecsTasks.tasksOnInstance("i-1")).isEmpty();
+    }
+
+    @Test
+    void shouldTerminateAgentsTogetherAndReportEachFailureSeparately() throws Exception {
+        final ECSTask stopped = task("agent-1", mock(JobIdentifier.class), "task-arn-1", "i-1");
+        final ECSTask notStopped = task("agent-2", mock(JobIdentifier.class), "task-arn-2", "i-2");
+        final ECSTask notCleanedUp = task("agent-3", mock(JobIdentifier.class), "task-arn-3", "i-3");
+        when(stopped.taskDefinitionArn()).thenReturn("task-definition-1");
+        when(notStopped.taskDefinitionArn()).thenReturn("task-definition-2");
+        when(notCleanedUp.taskDefinitionArn()).thenReturn("task-definition-3");
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenReturn(Optional.of(stopped), Optional.of(notStopped), Optional.of(notCleanedUp));
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        when(taskHelper.stopTasks(pluginSettings, List.of(stopped, notStopped, notCleanedUp))).thenReturn(Map.of(notStopped, new RuntimeException("Throttled")));
+        when(taskHelper.cleanupTaskDefinitions(pluginSettings, List.of("task-definition-1", "task-definition-3"))).thenReturn(Map.of("task-definition-3", "In use"));
+
+        ecsTasks.terminateAll(List.of("agent-1", "agent-2", "agent-3", "unknown"), pluginSettings);
+
+        assertThat(ecsTasks.hasAnyTasks()).isFalse();
+        verify(eventStream).remove(EventFingerprint.forTerminateAgent("agent-1"));
+        verify(eventStream).remove(EventFingerprint.forTerminateAgent("unknown"));
+        verify(eventStream).update(Event.errorEvent(EventFingerprint.forTerminateAgent("agent-2"), "Error terminating container with id: agent-2", "Throttled"));
+        verify(eventStream).update(Event.errorEvent(EventFingerprint.forTerminateAgent("agent-3"), "Error terminating container with id: agent-3", "In use"));
+        verify(containerInstanceHelper).checkAndMarkEC2InstanceIdle(pluginSettings, "i-1");
+        verifyNoMoreInteractions(containerInstanceHelper);
+    }
+
+    @Test
+    void shouldOnlyFreeCapacityForWaitingJobsWhenATaskWasStopped() throws Exception {
+        final PendingDemand pendingDemand = mock(PendingDemand.class);
+        ecsTasks = new ECSTasks(taskHelper, containerInstanceHelper, eventStream, TaskJournal.NONE, new InstanceHealth(Clock.DEFAULT), new PluginMetrics(),
+                pendingDemand, Clock.DEFAULT);
+        final ECSTask first = task("agent-1", mock(JobIdentifier.class), "task-arn-1", "i-1");
+        final ECSTask second = task("agent-2", mock(JobIdentifier.class), "task-arn-2", "i-1");
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenReturn(Optional.of(first), Optional.of(second));
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        when(taskHelper.stopTasks(pluginSettings, List.of(first))).thenReturn(Map.of(first, new RuntimeException("Throttled")));
+        ecsTasks.terminate("agent-1", pluginSettings);
+
+        verify(pendingDemand, never()).capacityFreed(any());
+
+        ecsTasks.terminate("agent-2", pluginSettings);
+
+        verify(pendingDemand).capacityFreed(any());
+    }
+
     @Test
     void shouldTerminateAnUnregisteredAgentAfterTimeout() throws Exception {
         final ECSTask task = mock(ECSTask.class);
@@ -167,6 +316,76 @@ class ECSTasksTest {
         assertThat(ecsTasks.hasInstance(ecsTask.name())).isTrue();
     }
 
+    @Test
+    void shouldSkipTheFullRefreshForRestoredTasksAndReconcileThemOnTheNextCycle() {
+        final ECSTask restored = task("agent-id", mock(JobIdentifier.class), "task-arn", "i-1");
+        when(restored.task()).thenReturn(Task.builder().taskArn("task-arn").lastStatus("RUNNING").build());
+        when(taskHelper.listAgentTaskArns(pluginSettings)).thenReturn(List.of("task-arn"));
+
+        ecsTasks.restore(List.of(restored));
+        ecsTasks.refreshAll(pluginSettings);
+        ecsTasks.reconcile(pluginSettings);
+
+        verify(taskHelper, never()).listAllTasks(any());
+        verify(taskHelper).listAgentTaskArns(pluginSettings);
+        assertThat(ecsTasks.findByTaskArn("task-arn")).isSameAs(restored);
+    }
+
+    @Test
+    void shouldNotReconcileWithinTheIntervalAfterRefresh() {
+        ecsTasks.refreshAll(pluginSettings);
+
+        ecsTasks.reconcile(pluginSettings);
+
+        verify(taskHelper, never()).listAgentTaskArns(any());
+    }
+
+    @Test
+    void shouldEvictTasksThatStoppedOutsideThePluginAndOnlyDescribeThem() throws Exception {
+        final Clock.TestClock clock = new Clock.TestClock();
+        ecsTasks.clock = clock;
+        ecsTasks.refreshAll(pluginSettings);
+        final ECSTask running = task("agent-1", mock(JobIdentifier.class), "task-arn-1", "i-1");
+        final ECSTask stopped = task("agent-2", mock(JobIdentifier.class), "task-arn-2", "i-1");
+        when(running.task()).thenReturn(Task.builder().taskArn("task-arn-1").lastStatus("RUNNING").build());
+        when(taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender)).thenReturn(Optional.of(running), Optional.of(stopped));
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+        ecsTasks.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        clock.forward(ECSTasks.RECONCILE_INTERVAL);
+        when(taskHelper.listAgentTaskArns(pluginSettings)).thenReturn(List.of("task-arn-1"));
+        when(taskHelper.describeTasks(pluginSettings, Set.of("task-arn-2"))).thenReturn(List.of(Task.builder().taskArn("task-arn-2").lastStatus("STOPPED").build()));
+
+        ecsTasks.reconcile(pluginSettings);
+
+        verify(taskHelper).describeTasks(pluginSettings, Set.of("task-arn-2"));
+        assertThat(ecsTasks.hasInstance("agent-1")).isTrue();
+        assertThat(ecsTasks.hasInstance("agent-2")).isFalse();
+        assertThat(ecsTasks.tasksOnInstance("i-1")).containsExactly(running);
+    }
+
+    @Test
+    void shouldAdoptTasksTheRegistryHasNotSeen() {
+        final Clock.TestClock clock = new Clock.TestClock();
+        ecsTasks.clock = clock;
+        ecsTasks.refreshAll(pluginSettings);
+        final Task task = Task.builder().taskArn("task-arn").taskDefinitionArn("task-definition-arn").containerInstanceArn("container-instance-arn").lastStatus("RUNNING").build();
+        final TaskDefinition taskDefinition = mock(TaskDefinition.class);
+        final ECSTask ecsTask = task("agent-id", mock(JobIdentifier.class), "task-arn", "i-1");
+
+        clock.forward(ECSTasks.RECONCILE_INTERVAL);
+        when(taskHelper.listAgentTaskArns(pluginSettings)).thenReturn(List.of("task-arn"));
+        when(taskHelper.describeTasks(pluginSettings, Set.of("task-arn"))).thenReturn(List.of(task));
+        when(containerInstanceHelper.ec2InstanceIds(pluginSettings, Set.of("container-instance-arn"))).thenReturn(Map.of("container-instance-arn", "i-1"));
+        when(taskHelper.describeTaskDefinition(pluginSettings, "task-definition-arn")).thenReturn(taskDefinition);
+        when(taskHelper.fromTaskInfo(eq(task), eq(taskDefinition), eq(Map.of("container-instance-arn", "i-1")), any())).thenReturn(Optional.of(ecsTask));
+
+        ecsTasks.reconcile(pluginSettings);
+
+        assertThat(ecsTasks.findByTaskArn("task-arn")).isSameAs(ecsTask);
+        assertThat(ecsTasks.tasksOnInstance("i-1")).containsExactly(ecsTask);
+    }
+
     @Test
     void shouldNotRefreshAllAgentInstancesAfterTheStartup() {
         ecsTasks.refreshAll(pluginSettings);
@@ -176,4 +395,13 @@ class ECSTasksTest {
 
         verifyNoMoreInteractions(taskHelper);
     }
+
+    private ECSTask task(String agentId, JobIdentifier jobIdentifier, String taskArn, String ec2InstanceId) {
+        final ECSTask task = mock(ECSTask.class);
+        when(task.name()).thenReturn(agentId);
+        when(task.getJobIdentifier()).thenReturn(jobIdentifier);
+        when(task.taskArn()).thenReturn(taskArn);
+        when(task.getEC2InstanceId()).thenReturn(ec2InstanceId);
+        return task;
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs;
+
+import com.thoughtworks.gocd.elasticagent.ecs.PendingDemand.Waiting;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ConsoleLogAppender;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PendingDemandTest {
+    private static final Instant NOW = Instant.parse("2026-03-02T10:00:00Z");
+    private static final ConsoleLogAppender CONSOLE = text -> {
+    };
+
+    private final PendingDemand pendingDemand = new PendingDemand();
+
+    @Test
+    void shouldKeepWaitingJobsOldestFirstAndEachJobOnce() {
+        pendingDemand.waitFor(request(1), CONSOLE, NOW);
+        pendingDemand.waitFor(request(2), CONSOLE, NOW.plusSeconds(10));
+        pendingDemand.waitFor(request(1), CONSOLE, NOW.plusSeconds(20));
+
+        assertThat(pendingDemand.waiting(NOW.plusSeconds(30)))
+                .extracting(waiting -> waiting.jobIdentifier().getJobId(), Waiting::since)
+                .containsExactly(tuple(1L, NOW), tuple(2L, NOW.plusSeconds(10)));
+    }
+
+    @Test
+    void shouldKeepTheNewerRequestForAJobThatIsRequestedAgain() {
+        pendingDemand.waitFor(request(1), CONSOLE, NOW);
+        final CreateAgentRequest again = request(1);
+
+        assertThat(pendingDemand.requestedAgain(again, CONSOLE, NOW.plusSeconds(60))).isTrue();
+        assertThat(pendingDemand.requestedAgain(request(2), CONSOLE, NOW.plusSeconds(60))).isFalse();
+
+        final Waiting waiting = pendingDemand.waiting(NOW.plusSeconds(60)).getFirst();
+        assertThat(waiting.request()).isSameAs(again);
+        assertThat(waiting.since()).isEqualTo(NOW);
+        assertThat(waiting.lastRequestedAt()).isEqualTo(NOW.plusSeconds(60));
+    }
+
+    @Test
+    void shouldForgetJobsNoLongerRequested() {
+        pendingDemand.waitFor(request(1), CONSOLE, NOW);
+        pendingDemand.waitFor(request(2), CONSOLE, NOW);
+        pendingDemand.requestedAgain(request(2), CONSOLE, NOW.plus(PendingDemand.FORGET_AFTER));
+
+        assertThat(pendingDemand.waiting(NOW.plus(PendingDemand.FORGET_AFTER).plusSeconds(1)))
+                .extracting(waiting -> waiting.jobIdentifier().getJobId())
+                .containsExactly(2L);
+    }
+
+    @Test
+    void shouldStopShortCuttingRequestsOnceCapacityWasFreedSinceTheJobLastTried() {
+        pendingDemand.waitFor(request(1), CONSOLE, NOW);
+        pendingDemand.capacityFreed(NOW.plusSeconds(30));
+
+        assertThat(pendingDemand.requestedAgain(request(1), CONSOLE, NOW.plusSeconds(60))).isFalse();
+
+        pendingDemand.waitFor(request(1), CONSOLE, NOW.plusSeconds(60));
+
+        assertThat(pendingDemand.requestedAgain(request(1), CONSOLE, NOW.plusSeconds(90))).isTrue();
+        assertThat(pendingDemand.waiting(NOW.plusSeconds(90)).getFirst().since()).isEqualTo(NOW);
+    }
+
+    @Test
+    void shouldDropJobsThatKeepFailingToBePlaced() {
+        pendingDemand.waitFor(request(1), CONSOLE, NOW);
+
+        for (int failure = 1; failure < PendingDemand.MAX_FAILED_PLACEMENTS; failure++) {
+            assertThat(pendingDemand.placementFailed(request(1).getJobIdentifier(), NOW)).isFalse();
+        }
+
+        assertThat(pendingDemand.placementFailed(request(1).getJobIdentifier(), NOW)).isTrue();
+        assertThat(pendingDemand.waiting(NOW)).isEmpty();
+    }
+
+    @Test
+    void shouldRemovePlacedJobs() {
+        pendingDemand.waitFor(request(1), CONSOLE, NOW);
+
+        pendingDemand.placed(request(1).getJobIdentifier());
+
+        assertThat(pendingDemand.waiting(NOW)).isEmpty();
+        assertThat(pendingDemand.requestedAgain(request(1), CONSOLE, NOW)).isFalse();
+    }
+
+    private static CreateAgentRequest request(long jobId) {
+        final CreateAgentRequest request = mock(CreateAgentRequest.class);
+        when(request.getJobIdentifier()).thenReturn(new JobIdentifier("up42", 1L, "1", "stage", "1", "job", jobId));
+        return request;
+    }
+}
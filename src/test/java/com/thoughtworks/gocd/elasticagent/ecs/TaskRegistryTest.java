@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.state.TaskJournal;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class TaskRegistryTest {
+    private final TaskRegistry registry = new TaskRegistry();
+
+    @Test
+    void shouldReindexATaskReplacedUnderTheSameAgentId() {
+        final JobIdentifier jobIdentifier = mock(JobIdentifier.class);
+        final ECSTask pending = task("agent-id", jobIdentifier, "task-arn-1", null);
+        final ECSTask running = task("agent-id", jobIdentifier, "task-arn-2", "i-1");
+
+        registry.add(pending);
+        registry.add(running);
+
+        assertThat(registry.byAgentId("agent-id")).isSameAs(running);
+        assertThat(registry.byJob(jobIdentifier)).isSameAs(running);
+        assertThat(registry.byTaskArn("task-arn-1")).isNull();
+        assertThat(registry.byTaskArn("task-arn-2")).isSameAs(running);
+        assertThat(registry.onInstance("i-1")).containsExactly(running);
+    }
+
+    @Test
+    void shouldRemoveATaskFromEveryIndex() {
+        final JobIdentifier jobIdentifier = mock(JobIdentifier.class);
+        final ECSTask task = task("agent-id", jobIdentifier, "task-arn", "i-1");
+        registry.add(task);
+
+        assertThat(registry.remove("agent-id")).isSameAs(task);
+
+        assertThat(registry.isEmpty()).isTrue();
+        assertThat(registry.byJob(jobIdentifier)).isNull();
+        assertThat(registry.byTaskArn("task-arn")).isNull();
+        assertThat(registry.onInstance("i-1")).isEmpty();
+        assertThat(registry.remove("agent-id")).isNull();
+    }
+
+    @Test
+    void shouldIgnoreMissingKeys() {
+        registry.add(task("agent-id", null, null, null));
+
+        assertThat(registry.byAgentId("agent-id")).isNotNull();
+        assertThat(registry.byJob(null)).isNull();
+        assertThat(registry.byTaskArn(null)).isNull();
+        assertThat(registry.onInstance(null)).isEmpty();
+    }
+
+    @Test
+    void shouldSyncTheJournalOnlyAfterReleasingTheLock() {
+        final TaskJournal journal = mock(TaskJournal.class);
+        final TaskRegistry journaled = new TaskRegistry(journal);
+        doAnswer(invocation -> {
+            assertThat(Thread.holdsLock(journaled)).isFalse();
+            return null;
+        }).when(journal).sync();
+        final ECSTask task = task("agent-id", null, "task-arn", "i-1");
+
+        journaled.add(task);
+        journaled.remove(task);
+
+        final InOrder inOrder = inOrder(journal);
+        inOrder.verify(journal).recorded(task);
+        inOrder.verify(journal).sync();
+        inOrder.verify(journal).removed("agent-id");
+        inOrder.verify(journal).sync();
+    }
+
+    private ECSTask task(String agentId, JobIdentifier jobIdentifier, String taskArn, String ec2InstanceId) {
+        final ECSTask task = mock(ECSTask.class);
+        when(task.name()).thenReturn(agentId);
+        when(task.getJobIdentifier()).thenReturn(jobIdentifier);
+        when(task.taskArn()).thenReturn(taskArn);
+        when(task.getEC2InstanceId()).thenReturn(ec2InstanceId);
+        return task;
+    }
+}
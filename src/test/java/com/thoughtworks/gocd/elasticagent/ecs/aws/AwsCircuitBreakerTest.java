@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.services.ecs.model.ClusterNotFoundException;
+import software.amazon.awssdk.services.ecs.model.EcsException;
+
+import java.time.Duration;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.AwsCircuitBreaker.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AwsCircuitBreakerTest {
+    private static final Duration FAST = Duration.ofMillis(100);
+
+    private Clock.TestClock clock;
+    private AwsCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        clock = new Clock.TestClock();
+        circuitBreaker = new AwsCircuitBreakers(clock).forCluster("us-east-1", "GoCD");
+    }
+
+    @Test
+    void shouldOpenOnceHalfOfTheRecentCallsFailed() {
+        for (int i = 0; i < MINIMUM_CALLS / 2; i++) {
+            circuitBreaker.onSuccess(FAST);
+        }
+        for (int i = 0; i < MINIMUM_CALLS / 2 - 1; i++) {
+            circuitBreaker.onFailure("Service Unavailable");
+        }
+        assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+
+        circuitBreaker.onFailure("Service Unavailable");
+
+        assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+        assertThat(circuitBreaker.allowsCalls()).isFalse();
+        assertThat(circuitBreaker.lastFailure()).isEqualTo("Service Unavailable");
+    }
+
+    @Test
+    void shouldOpenOnceHalfOfTheRecentCallsWereSlow() {
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            circuitBreaker.onSuccess(i % 2 == 0 ? FAST : SLOW_CALL_THRESHOLD.plusSeconds(1));
+        }
+
+        assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    void shouldLetASingleProbeThroughAfterTheOpenDurationAndCloseWhenItSucceeds() {
+        trip();
+
+        clock.forward(OPEN_DURATION);
+
+        assertThat(circuitBreaker.allowsCalls()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+
+        circuitBreaker.onSuccess(FAST);
+
+        assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void shouldOpenAgainWhenTheProbeFails() {
+        trip();
+        clock.forward(OPEN_DURATION);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+
+        circuitBreaker.onFailure("Request timed out");
+
+        assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+        assertThat(circuitBreaker.allowsCalls()).isFalse();
+    }
+
+    @Test
+    void shouldOnlyCountFailuresOfAwsItself() {
+        assertThat(AwsCircuitBreakerInterceptor.isAwsFailure(EcsException.builder().statusCode(503).build())).isTrue();
+        assertThat(AwsCircuitBreakerInterceptor.isAwsFailure(SdkClientException.create("Unable to execute HTTP request"))).isTrue();
+        assertThat(AwsCircuitBreakerInterceptor.isAwsFailure(ClusterNotFoundException.builder().statusCode(400).build())).isFalse();
+    }
+
+    @Test
+    void shouldNotCountCallsTheRateLimiterRejectedAsFailures() {
+        final AwsCircuitBreakers breakers = new AwsCircuitBreakers(clock);
+        final AwsCircuitBreakerInterceptor interceptor = new AwsCircuitBreakerInterceptor("us-east-1", "GoCD", () -> breakers);
+        final Context.FailedExecution failure = mock(Context.FailedExecution.class);
+        when(failure.exception()).thenReturn(SdkClientException.create("Not retrying DescribeInstances: the retry budget for AWS calls in us-east-1 is exhausted."));
+
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            final ExecutionAttributes attributes = new ExecutionAttributes();
+            interceptor.beforeExecution(null, attributes);
+            attributes.putAttribute(AwsRateLimitInterceptor.REJECTED, true);
+            interceptor.onExecutionFailure(failure, attributes);
+        }
+
+        assertThat(breakers.forCluster("us-east-1", "GoCD").state()).isEqualTo(State.CLOSED);
+    }
+
+    private void trip() {
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            circuitBreaker.onFailure("Service Unavailable");
+        }
+        assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+    }
+}
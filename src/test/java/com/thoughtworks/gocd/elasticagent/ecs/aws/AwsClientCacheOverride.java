@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.wait.Sleeper;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ecs.EcsClient;
+
+import java.time.Duration;
+
+/**
+ * Points {@link com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings#ecsClient()} and
+ * {@link com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings#ec2Client()} at the given clients for
+ * every cluster until closed. Calls go through the same interceptors as those of the clients built for the cluster,
+ * with a fresh rate limiter and circuit breakers on the given clock, so they are throttled and rejected as they
+ * would be in production.
+ */
+public class AwsClientCacheOverride implements AutoCloseable {
+    private final AwsClientCache previous;
+    private final AwsRateLimiter previousRateLimiter;
+    private final AwsCircuitBreakers previousCircuitBreakers;
+
+    public AwsClientCacheOverride(EcsClient ecsClient, Ec2Client ec2Client, Clock clock, Sleeper sleeper) {
+        previousRateLimiter = AwsRateLimiter.useInstance(new AwsRateLimiter(clock, sleeper));
+        previousCircuitBreakers = AwsCircuitBreakers.useInstance(new AwsCircuitBreakers(clock));
+        previous = AwsClientCache.useInstance(new AwsClientCache(Duration.ofDays(365), clock, key -> {
+            final InterceptingAwsClients intercepting = new InterceptingAwsClients(AwsClientCache.interceptors(key));
+            return new AwsClientCache.CachedClients(intercepting.wrap(ecsClient), intercepting.wrap(ec2Client), null, null);
+        }));
+    }
+
+    @Override
+    public void close() {
+        AwsClientCache.useInstance(previous);
+        AwsCircuitBreakers.useInstance(previousCircuitBreakers);
+        AwsRateLimiter.useInstance(previousRateLimiter);
+    }
+}
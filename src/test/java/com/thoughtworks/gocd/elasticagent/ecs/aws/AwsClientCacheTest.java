@@ -120,8 +120,16 @@ class AwsClientCacheTest {
         assertThat(attempts).hasValue(2);
     }
 
+    @Test
+    void shouldRateLimitClientsByTheAccountOfTheAssumedRoleElseByAccessKey() {
+        assertThat(AwsClientCache.account(new AwsClientCache.ClientKey("us-east-1", "access-key", "secret-key", "arn:aws:iam::123456789012:role/gocd", "cluster-one", AwsClientCache.ApiTimeouts.NONE)))
+                .isEqualTo("123456789012");
+        assertThat(AwsClientCache.account(key("cluster-one"))).isEqualTo("access-key");
+        assertThat(AwsClientCache.account(new AwsClientCache.ClientKey("us-east-1", null, null, null, "cluster-one", AwsClientCache.ApiTimeouts.NONE))).isEqualTo("default");
+    }
+
     private AwsClientCache.ClientKey key(String clusterName) {
-        return new AwsClientCache.ClientKey("us-east-1", "access-key", "secret-key", null, clusterName);
+        return new AwsClientCache.ClientKey("us-east-1", "access-key", "secret-key", null, clusterName, AwsClientCache.ApiTimeouts.NONE);
     }
 
     private AwsClientCache.CachedClients newCachedClients(AwsClientCache.ClientKey key) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter.Bucket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.InterceptorContext;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.ecs.model.DescribeTasksRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter.MAX_RETRY_TOKENS;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter.READ_RATE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AwsRateLimitInterceptorTest {
+    private final AwsRateLimiter limiter = new AwsRateLimiter(new Clock.TestClock(), duration -> {
+    });
+    private final AwsRateLimitInterceptor interceptor = new AwsRateLimitInterceptor("account", "us-east-1", () -> limiter);
+    private ExecutionAttributes attributes;
+    private Bucket bucket;
+
+    @BeforeEach
+    void setUp() {
+        attributes = new ExecutionAttributes();
+        attributes.putAttribute(SdkExecutionAttribute.SERVICE_NAME, "ECS");
+        attributes.putAttribute(SdkExecutionAttribute.OPERATION_NAME, "DescribeTasks");
+        bucket = limiter.bucketFor("account", "us-east-1", "ECS", "DescribeTasks");
+        interceptor.beforeExecution(context(null, null), attributes);
+    }
+
+    @Test
+    void shouldSlowDownBeforeRetryingAnAttemptEcsThrottled() throws IOException {
+        attempt(400, "{\"__type\":\"ThrottlingException\",\"message\":\"Rate exceeded\"}");
+
+        interceptor.beforeTransmission(context(null, null), attributes);
+
+        assertThat(bucket.rate()).isEqualTo(READ_RATE / 2);
+    }
+
+    @Test
+    void shouldSlowDownBeforeRetryingAnAttemptEc2Throttled() throws IOException {
+        attempt(503, "<Response><Errors><Error><Code>RequestLimitExceeded</Code><Message>Request limit exceeded.</Message></Error></Errors></Response>");
+
+        interceptor.beforeTransmission(context(null, null), attributes);
+
+        assertThat(bucket.rate()).isEqualTo(READ_RATE / 2);
+    }
+
+    @Test
+    void shouldRetryServerErrorsAndFailedConnectionsAtTheSameRate() throws IOException {
+        attempt(500, "{\"__type\":\"ServerException\",\"message\":\"Service unavailable\"}");
+        // an attempt that timed out or could not connect gets no response at all
+        interceptor.beforeTransmission(context(null, null), attributes);
+        interceptor.beforeTransmission(context(null, null), attributes);
+
+        assertThat(bucket.rate()).isEqualTo(READ_RATE);
+    }
+
+    @Test
+    void shouldSpendTheRetryBudgetOnEveryRetry() {
+        interceptor.beforeTransmission(context(null, null), attributes);
+        for (int i = 0; i < MAX_RETRY_TOKENS; i++) {
+            interceptor.beforeTransmission(context(null, null), attributes);
+        }
+
+        assertThatThrownBy(() -> interceptor.beforeTransmission(context(null, null), attributes))
+                .isInstanceOf(SdkClientException.class)
+                .hasMessageContaining("retry budget");
+        assertThat(attributes.getAttribute(AwsRateLimitInterceptor.REJECTED)).isTrue();
+        assertThat(bucket.rate()).isEqualTo(READ_RATE);
+    }
+
+    private void attempt(int statusCode, String errorDocument) throws IOException {
+        interceptor.beforeTransmission(context(null, null), attributes);
+
+        final InputStream body = interceptor.modifyHttpResponseContent(context(SdkHttpResponse.builder().statusCode(statusCode).build(), errorDocument), attributes)
+                .orElseThrow();
+
+        assertThat(new String(body.readAllBytes(), StandardCharsets.UTF_8)).as("the error document handed on to the SDK").isEqualTo(errorDocument);
+    }
+
+    private static InterceptorContext context(SdkHttpResponse response, String body) {
+        return InterceptorContext.builder()
+                .request(DescribeTasksRequest.builder().build())
+                .httpRequest(SdkHttpFullRequest.builder().method(SdkHttpMethod.POST).protocol("https").host("ecs.us-east-1.amazonaws.com").build())
+                .httpResponse(response)
+                .responseBody(body == null ? null : new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)))
+                .build();
+    }
+}
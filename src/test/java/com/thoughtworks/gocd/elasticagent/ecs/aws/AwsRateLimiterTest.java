@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter.Bucket;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter.Priority;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AwsRateLimiterTest {
+    private Clock.TestClock clock;
+    private List<Duration> sleeps;
+    private AwsRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        clock = new Clock.TestClock();
+        sleeps = new ArrayList<>();
+        limiter = new AwsRateLimiter(clock, duration -> {
+            sleeps.add(duration);
+            clock.forward(duration);
+        });
+    }
+
+    @Test
+    void shouldShareABucketPerAccountRegionServiceAndApiFamily() {
+        final Bucket describeTasks = limiter.bucketFor("123456789012", "us-east-1", "ECS", "DescribeTasks");
+
+        assertThat(limiter.bucketFor("123456789012", "us-east-1", "ECS", "ListTasks")).isSameAs(describeTasks);
+        assertThat(limiter.bucketFor("123456789012", "us-east-1", "ECS", "StopTask")).isNotSameAs(describeTasks);
+        assertThat(limiter.bucketFor("123456789012", "us-east-1", "EC2", "DescribeInstances")).isNotSameAs(describeTasks);
+        assertThat(limiter.bucketFor("123456789012", "eu-west-1", "ECS", "DescribeTasks")).isNotSameAs(describeTasks);
+        assertThat(limiter.bucketFor("210987654321", "us-east-1", "ECS", "DescribeTasks")).isNotSameAs(describeTasks);
+    }
+
+    @Test
+    void shouldKeepAReserveOfTokensForInteractiveCalls() throws InterruptedException {
+        final Bucket bucket = limiter.bucketFor("account", "us-east-1", "ECS", "StartTask");
+        final int backgroundCallsWithoutWaiting = (int) (WRITE_BURST * (1 - BACKGROUND_RESERVE));
+
+        for (int i = 0; i < backgroundCallsWithoutWaiting; i++) {
+            limiter.acquire(bucket, Priority.BACKGROUND);
+        }
+        assertThat(sleeps).isEmpty();
+
+        limiter.acquire(bucket, Priority.INTERACTIVE);
+        assertThat(sleeps).isEmpty();
+
+        limiter.acquire(bucket, Priority.BACKGROUND);
+        assertThat(sleeps).isNotEmpty();
+    }
+
+    @Test
+    void shouldHalveTheRateOnThrottlingAndRecoverItAdditively() {
+        final Bucket bucket = limiter.bucketFor("account", "us-east-1", "ECS", "DescribeTasks");
+
+        bucket.onThrottle();
+        bucket.onThrottle();
+        assertThat(bucket.rate()).isEqualTo(READ_RATE / 4);
+
+        bucket.onSuccess();
+        assertThat(bucket.rate()).isEqualTo(READ_RATE / 4 + ADDITIVE_INCREASE);
+
+        for (int i = 0; i < 100; i++) {
+            bucket.onSuccess();
+        }
+        assertThat(bucket.rate()).isEqualTo(READ_RATE);
+
+        for (int i = 0; i < 100; i++) {
+            bucket.onThrottle();
+        }
+        assertThat(bucket.rate()).isEqualTo(MIN_RATE);
+    }
+
+    @Test
+    void shouldStopRetryingOnceTheRetryBudgetIsSpentUntilCallsSucceedAgain() {
+        final Bucket bucket = limiter.bucketFor("account", "us-east-1", "EC2", "RunInstances");
+
+        for (int i = 0; i < MAX_RETRY_TOKENS; i++) {
+            assertThat(bucket.tryRetry()).isTrue();
+        }
+        assertThat(bucket.tryRetry()).isFalse();
+
+        for (int i = 0; i < 1 / RETRY_TOKENS_PER_SUCCESS + 1; i++) {
+            bucket.onSuccess();
+        }
+        assertThat(bucket.tryRetry()).isTrue();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class CleanupExecutorTest {
+
+    @Test
+    void shouldRunCallsConcurrentlyUpToTheLimit() {
+        final CleanupExecutor cleanupExecutor = new CleanupExecutor(3);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch allStarted = new CountDownLatch(3);
+
+        final Map<Integer, RuntimeException> failures = cleanupExecutor.forEach(IntStream.range(0, 10).boxed().toList(), item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            allStarted.countDown();
+            try {
+                allStarted.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+
+        assertThat(failures).isEmpty();
+        assertThat(maxInFlight.get()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldCollectFailuresWithoutStoppingTheOtherCalls() {
+        final CleanupExecutor cleanupExecutor = new CleanupExecutor(2);
+        final AtomicInteger calls = new AtomicInteger();
+        final IllegalStateException failure = new IllegalStateException("Throttled");
+
+        final Map<String, RuntimeException> failures = cleanupExecutor.forEach(List.of("a", "b", "c", "d"), item -> {
+            calls.incrementAndGet();
+            if (item.equals("b") || item.equals("d")) {
+                throw failure;
+            }
+        });
+
+        assertThat(calls.get()).isEqualTo(4);
+        assertThat(failures).containsExactly(entry("b", failure), entry("d", failure));
+    }
+
+    @Test
+    void shouldMakeTheCallsWithThePriorityOfTheCaller() {
+        final CleanupExecutor cleanupExecutor = new CleanupExecutor(2);
+        final Set<AwsRateLimiter.Priority> priorities = ConcurrentHashMap.newKeySet();
+        final AwsRateLimiter.Priority previous = AwsRateLimiter.usePriority(AwsRateLimiter.Priority.INTERACTIVE);
+        try {
+            cleanupExecutor.forEach(List.of("a", "b", "c"), item -> priorities.add(AwsRateLimiter.currentPriority()));
+        } finally {
+            AwsRateLimiter.usePriority(previous);
+        }
+
+        assertThat(priorities).containsExactly(AwsRateLimiter.Priority.INTERACTIVE);
+    }
+}
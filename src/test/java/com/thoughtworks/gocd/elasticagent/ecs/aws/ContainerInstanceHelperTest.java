@@ -16,6 +16,7 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.Constants;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.InstanceMatcher;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ConsoleLogAppender;
@@ -33,6 +34,7 @@ import org.junit.jupiter.params.provider.EnumSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InOrder;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.*;
 import software.amazon.awssdk.services.ec2.model.Tag;
@@ -69,6 +71,7 @@ class ContainerInstanceHelperTest {
     private InstanceMatcher instanceMatcher;
     private ConsoleLogAppender consoleLogAppender;
     private SubnetSelector subnetSelector;
+    private InstanceStateTable instanceStates;
     @Captor
     private ArgumentCaptor<List<Instance>> argumentCaptor;
 
@@ -91,13 +94,17 @@ class ContainerInstanceHelperTest {
         when(pluginSettings.getLinuxRegisterTimeout()).thenReturn(Duration.ofSeconds(10));
         when(pluginSettings.getWindowsRegisterTimeout()).thenReturn(Duration.ofSeconds(10));
 
-        containerInstanceHelper = new ContainerInstanceHelper(() -> serverId, instanceMatcher, subnetSelector);
+        instanceStates = new InstanceStateTable();
+        containerInstanceHelper = new ContainerInstanceHelper(() -> serverId, instanceMatcher, subnetSelector, instanceStates);
     }
 
     @Test
     void shouldRemoveLastSeenIdleTagFromGivenInstances() {
         containerInstanceHelper.removeLastSeenIdleTag(pluginSettings, Arrays.asList("i-foobar1", "i-foobar2"));
 
+        verify(ec2Client, never()).deleteTags(any(DeleteTagsRequest.class));
+        instanceStates.flush(pluginSettings);
+
         final ArgumentCaptor<DeleteTagsRequest> deleteTagsRequestArgumentCaptor = ArgumentCaptor.forClass(DeleteTagsRequest.class);
         verify(ec2Client).deleteTags(deleteTagsRequestArgumentCaptor.capture());
 
@@ -415,6 +422,11 @@ class ContainerInstanceHelperTest {
 
         containerInstanceHelper.checkAndMarkEC2InstanceIdle(pluginSettings, "i-123abcd");
 
+        assertThat(instanceStates.lastSeenIdle(Instance.builder().instanceId("i-123abcd").build())).isPresent();
+        verify(ec2Client, never()).createTags(any(CreateTagsRequest.class));
+
+        instanceStates.flush(pluginSettings);
+
         verify(ec2Client, times(1)).createTags(argumentCaptor.capture());
 
         final CreateTagsRequest createTagsRequest = argumentCaptor.getValue();
@@ -435,10 +447,42 @@ class ContainerInstanceHelperTest {
         when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class))).thenReturn(describeContainerInstancesResponse(containerInstance));
 
         containerInstanceHelper.checkAndMarkEC2InstanceIdle(pluginSettings, "i-123abcd");
+        instanceStates.flush(pluginSettings);
 
         verify(ec2Client, times(0)).createTags(argumentCaptor.capture());
     }
 
+    @Test
+    void shouldDescribeOnlyTheKnownContainerInstanceOfAnEC2Instance() {
+        final ContainerInstance containerInstance = containerInstanceBuilder("i-123abcd", "arn-1").build();
+        when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("arn-1", "arn-2"));
+        when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                .thenReturn(describeContainerInstancesResponse(containerInstance, containerInstanceBuilder("i-456efgh", "arn-2").build()))
+                .thenReturn(describeContainerInstancesResponse(containerInstance));
+        containerInstanceHelper.getContainerInstances(pluginSettings);
+        clearInvocations(ecsClient);
+
+        assertThat(containerInstanceHelper.containerInstanceFor(pluginSettings, "i-123abcd")).contains(containerInstance);
+
+        verify(ecsClient).describeContainerInstances(DescribeContainerInstancesRequest.builder().cluster("GoCD").containerInstances("arn-1").build());
+        verifyNoMoreInteractions(ecsClient);
+    }
+
+    @Test
+    void shouldLookUpTheClusterWhenTheKnownContainerInstanceIsNoLongerRegistered() {
+        final ContainerInstance reRegistered = containerInstanceBuilder("i-123abcd", "arn-2").build();
+        instanceStates.recordContainerInstances(List.of(containerInstanceBuilder("i-123abcd", "arn-1").build()));
+        when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("arn-2"));
+        when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                .thenReturn(describeContainerInstancesResponse(containerInstanceBuilder("i-123abcd", "arn-1").status("INACTIVE").build()))
+                .thenReturn(describeContainerInstancesResponse(reRegistered));
+
+        assertThat(containerInstanceHelper.containerInstanceFor(pluginSettings, "i-123abcd")).contains(reRegistered);
+
+        verify(ecsClient).listContainerInstances(any(ListContainerInstancesRequest.class));
+        assertThat(instanceStates.containerInstanceArn("i-123abcd")).contains("arn-2");
+    }
+
     @Nested
     class StartInstance {
         @Test
@@ -474,6 +518,7 @@ class ContainerInstanceHelperTest {
             verify(ecsClient, never()).deregisterContainerInstance(any(DeregisterContainerInstanceRequest.class));
             verify(ec2Client, never()).runInstances(any(RunInstancesRequest.class));
 
+            instanceStates.flush(pluginSettings);
             verify(ec2Client).deleteTags(DeleteTagsRequest.builder().tags(Tag.builder().key(LAST_SEEN_IDLE).build()).resources("i-abcd3").build());
             verify(ec2Client).startInstances(StartInstancesRequest.builder().instanceIds("i-abcd3").build());
 
@@ -627,6 +672,72 @@ class ContainerInstanceHelperTest {
             verify(ec2Client, times(1)).runInstances(any(RunInstancesRequest.class));
         }
 
+        @Test
+        void shouldFallBackToTheNextAcceptableInstanceTypeWhenEC2HasNoCapacity() throws LimitExceededException {
+            final CapacityPools capacityPools = new CapacityPools(new Clock.TestClock());
+            containerInstanceHelper = new ContainerInstanceHelper(() -> serverId, instanceMatcher, subnetSelector, instanceStates, capacityPools);
+            when(pluginSettings.getLinuxInstanceType()).thenReturn("c5.large, m5.large");
+            when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("i-newone"));
+            when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                    .thenReturn(describeContainerInstancesResponse(containerInstance("i-newone", "arn-newinstance")));
+            when(ec2Client.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeInstancesResponse());
+            when(ec2Client.runInstances(any(RunInstancesRequest.class)))
+                    .thenThrow(Ec2Exception.builder().awsErrorDetails(AwsErrorDetails.builder().errorCode("InsufficientInstanceCapacity").build()).build())
+                    .thenReturn(runInstanceResult(instance("i-newone")));
+
+            final Optional<List<ContainerInstance>> containerInstances = containerInstanceHelper.createInstances(pluginSettings, ElasticAgentProfileProperties.empty(LINUX), 1, consoleLogAppender);
+
+            assertThat(containerInstances.get()).contains(containerInstance("i-newone", "arn-newinstance"));
+            final ArgumentCaptor<RunInstancesRequest> requests = ArgumentCaptor.forClass(RunInstancesRequest.class);
+            verify(ec2Client, times(2)).runInstances(requests.capture());
+            assertThat(requests.getAllValues()).extracting(RunInstancesRequest::instanceTypeAsString).containsExactly("c5.large", "m5.large");
+            assertThat(capacityPools.isAvailable(new CapacityPools.Pool(null, "c5.large", null))).isFalse();
+            verify(consoleLogAppender).accept("EC2 has no capacity for c5.large, trying another instance type or subnet.");
+        }
+
+        @Test
+        void shouldCreateTheLaunchTemplateAgainWhenItWasDeleted() throws LimitExceededException {
+            final LaunchTemplates launchTemplates = mock(LaunchTemplates.class);
+            when(launchTemplates.launchTemplateId(eq(pluginSettings), any(RequestLaunchTemplateData.class))).thenReturn("lt-deleted", "lt-recreated");
+            containerInstanceHelper = new ContainerInstanceHelper(() -> serverId, instanceMatcher, subnetSelector, instanceStates,
+                    new CapacityPools(new Clock.TestClock()), launchTemplates);
+            when(pluginSettings.useLaunchTemplates()).thenReturn(true);
+            when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("i-newone"));
+            when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                    .thenReturn(describeContainerInstancesResponse(containerInstance("i-newone", "arn-newinstance")));
+            when(ec2Client.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeInstancesResponse());
+            when(ec2Client.runInstances(any(RunInstancesRequest.class)))
+                    .thenThrow(Ec2Exception.builder().awsErrorDetails(AwsErrorDetails.builder().errorCode(LaunchTemplates.NOT_FOUND).build()).build())
+                    .thenReturn(runInstanceResult(instance("i-newone")));
+
+            final Optional<List<ContainerInstance>> containerInstances = containerInstanceHelper.createInstances(pluginSettings, ElasticAgentProfileProperties.empty(LINUX), 1, consoleLogAppender);
+
+            assertThat(containerInstances.get()).contains(containerInstance("i-newone", "arn-newinstance"));
+            verify(launchTemplates).evict(pluginSettings, "lt-deleted");
+            final ArgumentCaptor<RunInstancesRequest> requests = ArgumentCaptor.forClass(RunInstancesRequest.class);
+            verify(ec2Client, times(2)).runInstances(requests.capture());
+            assertThat(requests.getAllValues()).extracting(request -> request.launchTemplate().launchTemplateId()).containsExactly("lt-deleted", "lt-recreated");
+        }
+
+        @Test
+        void shouldNotLaunchInAPoolThatRecentlyHadNoCapacity() throws LimitExceededException {
+            final CapacityPools capacityPools = new CapacityPools(new Clock.TestClock());
+            capacityPools.markUnavailable(new CapacityPools.Pool(null, "c5.large", null));
+            containerInstanceHelper = new ContainerInstanceHelper(() -> serverId, instanceMatcher, subnetSelector, instanceStates, capacityPools);
+            when(pluginSettings.getLinuxInstanceType()).thenReturn("c5.large, m5.large");
+            when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("i-newone"));
+            when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                    .thenReturn(describeContainerInstancesResponse(containerInstance("i-newone", "arn-newinstance")));
+            when(ec2Client.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeInstancesResponse());
+            when(ec2Client.runInstances(any(RunInstancesRequest.class))).thenReturn(runInstanceResult(instance("i-newone")));
+
+            containerInstanceHelper.createInstances(pluginSettings, ElasticAgentProfileProperties.empty(LINUX), 1, consoleLogAppender);
+
+            final ArgumentCaptor<RunInstancesRequest> requests = ArgumentCaptor.forClass(RunInstancesRequest.class);
+            verify(ec2Client).runInstances(requests.capture());
+            assertThat(requests.getValue().instanceTypeAsString()).isEqualTo("m5.large");
+        }
+
         @Test
         void shouldNotConsiderSpotInstancesForCalculatingCapacityForTheCluster() throws LimitExceededException {
             final int MAX_LINUX_INSTANCE_ALLOWED = 1;
@@ -767,6 +878,49 @@ class ContainerInstanceHelperTest {
             verify(ec2Client).startInstances(StartInstancesRequest.builder().instanceIds("i-stopped").build());
             verify(ec2Client).runInstances(any(RunInstancesRequest.class));
         }
+
+        @Test
+        void shouldLaunchTheShortfallBeforeWaitingForStartedInstancesToRegister() throws LimitExceededException {
+            final Instance stoppedInstance = instance("i-stopped", InstanceStateName.STOPPED, LINUX.name());
+
+            when(instanceMatcher.matches(any(), any())).thenReturn(true);
+            when(ec2Client.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeInstancesResponse(stoppedInstance));
+            when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("i-stopped", "i-new-instance"));
+            when(ec2Client.runInstances(any(RunInstancesRequest.class))).thenReturn(runInstanceResult(runningLinuxInstance("i-new-instance")));
+            when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                    .thenReturn(describeContainerInstancesResponse(containerInstance("i-stopped", true), containerInstance("i-new-instance", true)));
+
+            final List<ContainerInstance> containerInstances = containerInstanceHelper.startOrCreateInstance(pluginSettings, ElasticAgentProfileProperties.empty(LINUX), 2, consoleLogAppender);
+
+            assertThat(containerInstances).extracting(ContainerInstance::ec2InstanceId).containsExactlyInAnyOrder("i-stopped", "i-new-instance");
+            final InOrder inOrder = inOrder(ec2Client, ecsClient, consoleLogAppender);
+            inOrder.verify(ec2Client).startInstances(StartInstancesRequest.builder().instanceIds("i-stopped").build());
+            inOrder.verify(ec2Client).runInstances(any(RunInstancesRequest.class));
+            inOrder.verify(consoleLogAppender).accept("Waiting for instance(s) ([i-stopped, i-new-instance]) to register with cluster.");
+            inOrder.verify(ecsClient).describeContainerInstances(any(DescribeContainerInstancesRequest.class));
+            verify(consoleLogAppender, times(1)).accept(startsWith("Waiting for instance(s)"));
+        }
+
+        @Test
+        void shouldWaitForStartedInstancesWhenLaunchingTheShortfallFails() {
+            final Instance stoppedInstance = instance("i-stopped", InstanceStateName.STOPPED, LINUX.name());
+            final Instance runningInstance = runningLinuxInstance("i-running");
+
+            when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(2);
+            when(instanceMatcher.matches(any(), any())).thenReturn(true);
+            when(ec2Client.describeInstances(any(DescribeInstancesRequest.class))).thenReturn(describeInstancesResponse(stoppedInstance, runningInstance));
+            when(ecsClient.listContainerInstances(any(ListContainerInstancesRequest.class))).thenReturn(listContainerInstancesResponse("i-stopped"));
+            when(ecsClient.describeContainerInstances(any(DescribeContainerInstancesRequest.class)))
+                    .thenReturn(describeContainerInstancesResponse(containerInstance("i-stopped", true)));
+
+            assertThrows(LimitExceededException.class,
+                    () -> containerInstanceHelper.startOrCreateInstance(pluginSettings, ElasticAgentProfileProperties.empty(LINUX), 2, consoleLogAppender));
+
+            verify(ec2Client).startInstances(StartInstancesRequest.builder().instanceIds("i-stopped").build());
+            verify(ec2Client, never()).runInstances(any(RunInstancesRequest.class));
+            verify(consoleLogAppender).accept("Waiting for instance(s) ([i-stopped]) to register with cluster.");
+            verify(ec2Client, never()).terminateInstances(any(TerminateInstancesRequest.class));
+        }
     }
 
     private RunInstancesResponse runInstanceResult(Instance... instances) {
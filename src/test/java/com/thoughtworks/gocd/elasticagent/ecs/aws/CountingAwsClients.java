@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ecs.EcsClient;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Wraps ECS and EC2 clients so that every API call made through them is counted, per {@code SERVICE:Operation}
+ * (e.g. {@code ECS:ListContainerInstances}). Each call made by the plugin counts once, whichever request style it
+ * used and however many attempts the client behind it took.
+ */
+public class CountingAwsClients {
+    private final Map<String, Integer> calls = new TreeMap<>();
+
+    public EcsClient wrap(EcsClient ecsClient) {
+        return wrap(EcsClient.class, "ECS", ecsClient);
+    }
+
+    public Ec2Client wrap(Ec2Client ec2Client) {
+        return wrap(Ec2Client.class, "EC2", ec2Client);
+    }
+
+    public synchronized Map<String, Integer> calls() {
+        return new TreeMap<>(calls);
+    }
+
+    public synchronized int total() {
+        return calls.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public synchronized void reset() {
+        calls.clear();
+    }
+
+    private synchronized void count(String service, String operation) {
+        calls.merge(service + ":" + operation, 1, Integer::sum);
+    }
+
+    private <T> T wrap(Class<T> clientType, String service, T delegate) {
+        return clientType.cast(Proxy.newProxyInstance(clientType.getClassLoader(), new Class<?>[]{clientType}, (proxy, method, args) -> {
+            if (isApiCall(method)) {
+                count(service, StringUtils.capitalize(method.getName()));
+            }
+
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    // every operation takes exactly one argument, the request or a consumer of its builder
+    private static boolean isApiCall(Method method) {
+        return method.getDeclaringClass() != Object.class && method.getParameterCount() == 1;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HedgedReadsTest {
+    private final CountDownLatch slowCallReleased = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+    private PluginMetrics metrics;
+    private HedgedReads hedgedReads;
+    private PluginSettings settings;
+    private AwsRateLimiter.Priority previousPriority;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new PluginMetrics();
+        hedgedReads = new HedgedReads(metrics);
+        settings = mock(PluginSettings.class);
+        when(settings.getClusterName()).thenReturn("GoCD");
+        when(settings.hedgeReads()).thenReturn(true);
+        previousPriority = AwsRateLimiter.usePriority(AwsRateLimiter.Priority.INTERACTIVE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowCallReleased.countDown();
+        AwsRateLimiter.usePriority(previousPriority);
+    }
+
+    @Test
+    void shouldHedgeAReadSlowerThanItsRecentLatenciesAndUseTheFirstAnswer() {
+        seedLatencies(HedgedReads.MIN_SAMPLES);
+
+        final String result = hedgedReads.read(settings, "DescribeContainerInstances", this::slowThenFastCall);
+
+        assertThat(result).isEqualTo("hedge");
+        assertThat(calls).hasValue(2);
+        assertThat(metrics.scrape(null, null))
+                .contains("ecs_plugin_aws_hedgeable_reads_total{cluster=\"GoCD\",operation=\"DescribeContainerInstances\"} 1\n")
+                .contains("ecs_plugin_aws_hedged_reads_total{cluster=\"GoCD\",operation=\"DescribeContainerInstances\",winner=\"hedge\"} 1\n");
+    }
+
+    @Test
+    void shouldNotHedgeAReadThatAnswersInTime() {
+        seedLatencies(HedgedReads.MIN_SAMPLES);
+
+        assertThat(hedgedReads.read(settings, "DescribeContainerInstances", () -> "original")).isEqualTo("original");
+
+        assertThat(metrics.scrape(null, null))
+                .contains("ecs_plugin_aws_hedgeable_reads_total{cluster=\"GoCD\",operation=\"DescribeContainerInstances\"} 1\n")
+                .doesNotContain("ecs_plugin_aws_hedged_reads_total");
+    }
+
+    @Test
+    void shouldNotHedgeBackgroundReadsOrReadsOfClustersWithHedgingDisabled() {
+        seedLatencies(HedgedReads.MIN_SAMPLES);
+        AwsRateLimiter.usePriority(AwsRateLimiter.Priority.BACKGROUND);
+        slowCallReleased.countDown();
+
+        hedgedReads.read(settings, "DescribeContainerInstances", this::slowThenFastCall);
+        AwsRateLimiter.usePriority(AwsRateLimiter.Priority.INTERACTIVE);
+        when(settings.hedgeReads()).thenReturn(false);
+        hedgedReads.read(settings, "DescribeContainerInstances", () -> "original");
+
+        assertThat(calls).hasValue(1);
+        assertThat(metrics.scrape(null, null)).doesNotContain("ecs_plugin_aws_hedgeable_reads_total");
+    }
+
+    @Test
+    void shouldNotHedgeUntilEnoughLatenciesHaveBeenSeen() {
+        seedLatencies(HedgedReads.MIN_SAMPLES - 2);
+        slowCallReleased.countDown();
+
+        assertThat(hedgedReads.read(settings, "DescribeContainerInstances", this::slowThenFastCall)).isEqualTo("original");
+
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void shouldFailOnlyWhenBothTheReadAndItsHedgeFail() {
+        seedLatencies(HedgedReads.MIN_SAMPLES);
+
+        assertThatThrownBy(() -> hedgedReads.read(settings, "ListContainerInstances", () -> {
+            if (calls.incrementAndGet() == 1) {
+                awaitRelease();
+                throw new IllegalStateException("original failed");
+            }
+            slowCallReleased.countDown();
+            throw new IllegalStateException("hedge failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(calls).hasValue(2);
+    }
+
+    private String slowThenFastCall() {
+        if (calls.incrementAndGet() == 1) {
+            awaitRelease();
+            return "original";
+        }
+        return "hedge";
+    }
+
+    private void awaitRelease() {
+        try {
+            slowCallReleased.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void seedLatencies(int count) {
+        for (int i = 0; i < count; i++) {
+            hedgedReads.recordLatency(settings, "DescribeContainerInstances", Duration.ofMillis(1));
+            hedgedReads.recordLatency(settings, "ListContainerInstances", Duration.ofMillis(1));
+        }
+    }
+}
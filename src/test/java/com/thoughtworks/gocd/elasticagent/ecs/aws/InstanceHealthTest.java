@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InstanceHealthTest {
+    private static final ElasticAgentProfileProperties PROFILE = ElasticAgentProfileProperties.fromJson("{\"Image\": \"gocd-agent\"}");
+    private static final ElasticAgentProfileProperties BROKEN_PROFILE = ElasticAgentProfileProperties.fromJson("{\"Image\": \"broken\"}");
+
+    private Clock.TestClock clock;
+    private InstanceHealth instanceHealth;
+
+    @BeforeEach
+    void setUp() {
+        clock = new Clock.TestClock();
+        instanceHealth = new InstanceHealth(clock);
+        instanceHealth.recordRegisteredAgent("i-elsewhere", PROFILE);
+    }
+
+    @Test
+    void shouldQuarantineAnInstanceOnceItsRecentFailuresReachTheThreshold() {
+        instanceHealth.recordStartFailure("i-1", PROFILE);
+        instanceHealth.recordUnregisteredAgent("i-1", PROFILE);
+        assertThat(instanceHealth.isQuarantined("i-1")).isFalse();
+
+        instanceHealth.recordEarlyStop("i-1", PROFILE);
+
+        assertThat(instanceHealth.isQuarantined("i-1")).isTrue();
+        assertThat(instanceHealth.isQuarantined("i-2")).isFalse();
+    }
+
+    @Test
+    void shouldNotCountFailuresOfAnImageThatRegisteredNoAgentElsewhere() {
+        for (int failure = 0; failure < 5; failure++) {
+            instanceHealth.recordStartFailure("i-1", BROKEN_PROFILE);
+            instanceHealth.recordStartFailure("i-2", BROKEN_PROFILE);
+        }
+
+        assertThat(instanceHealth.recentFailures("i-1")).isZero();
+        assertThat(instanceHealth.isQuarantined("i-1")).isFalse();
+        assertThat(instanceHealth.isQuarantined("i-2")).isFalse();
+    }
+
+    @Test
+    void shouldQuarantineAnInstanceOnceTheImageItFailsRegistersAnAgentElsewhere() {
+        for (int failure = 0; failure < 3; failure++) {
+            instanceHealth.recordStartFailure("i-1", BROKEN_PROFILE);
+        }
+        assertThat(instanceHealth.isQuarantined("i-1")).isFalse();
+
+        instanceHealth.recordRegisteredAgent("i-2", BROKEN_PROFILE);
+
+        assertThat(instanceHealth.isQuarantined("i-1")).isTrue();
+    }
+
+    @Test
+    void shouldNotQuarantineAnInstanceWhoseFailuresAreFarApart() {
+        for (int failure = 0; failure < 5; failure++) {
+            instanceHealth.recordStartFailure("i-1", PROFILE);
+            clock.forward(InstanceHealth.FAILURE_HALF_LIFE.multipliedBy(2));
+            instanceHealth.recordRegisteredAgent("i-elsewhere", PROFILE);
+        }
+
+        assertThat(instanceHealth.isQuarantined("i-1")).isFalse();
+        assertThat(instanceHealth.recentFailures("i-1")).isLessThan(1);
+    }
+
+    @Test
+    void shouldKeepAnInstanceQuarantinedUntilItIsForgotten() {
+        for (int failure = 0; failure < 3; failure++) {
+            instanceHealth.recordUnregisteredAgent("i-1", PROFILE);
+        }
+        clock.forward(InstanceHealth.FAILURE_HALF_LIFE.multipliedBy(10));
+        assertThat(instanceHealth.isQuarantined("i-1")).isTrue();
+
+        instanceHealth.forget(List.of("i-1"));
+
+        assertThat(instanceHealth.isQuarantined("i-1")).isFalse();
+        assertThat(instanceHealth.quarantinedAmong(List.of("i-1", "i-elsewhere"))).isEmpty();
+    }
+
+    @Test
+    void shouldTreatAtMostAThirdOfTheInstancesAsQuarantinedTheWorstFirst() {
+        for (int failure = 0; failure < 3; failure++) {
+            instanceHealth.recordStartFailure("i-1", PROFILE);
+            instanceHealth.recordStartFailure("i-2", PROFILE);
+        }
+        instanceHealth.recordStartFailure("i-2", PROFILE);
+
+        assertThat(instanceHealth.quarantinedAmong(List.of("i-1", "i-2", "i-elsewhere"))).containsExactly("i-2");
+        assertThat(instanceHealth.quarantinedAmong(List.of("i-1", "i-2", "i-elsewhere", "i-3", "i-4", "i-5"))).containsExactly("i-2", "i-1");
+    }
+
+    @Test
+    void shouldDescribeOnlyInstancesThatFailedRecently() {
+        instanceHealth.recordStartFailure("i-degraded", PROFILE);
+        for (int failure = 0; failure < 3; failure++) {
+            instanceHealth.recordStartFailure("i-quarantined", PROFILE);
+        }
+
+        assertThat(instanceHealth.describe(List.of("i-healthy", "i-degraded", "i-quarantined")))
+                .containsOnlyKeys("i-degraded", "i-quarantined")
+                .containsEntry("i-degraded", "Degraded (1 recent failures, quarantined at 3)")
+                .containsEntry("i-quarantined", "Quarantined, draining to be replaced (3 recent failures)");
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.state.InstanceStateJournal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.STOPPED_AT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class InstanceStateTableTest {
+    private final Clock.TestClock clock = new Clock.TestClock(Instant.parse("2024-01-01T10:00:00Z"));
+    private PluginSettings pluginSettings;
+    private Ec2Client ec2Client;
+    private InstanceStateTable instanceStates;
+
+    @BeforeEach
+    void setUp() {
+        pluginSettings = mock(PluginSettings.class);
+        ec2Client = mock(Ec2Client.class);
+        when(pluginSettings.ec2Client()).thenReturn(ec2Client);
+        when(pluginSettings.getClusterName()).thenReturn("GoCD");
+        instanceStates = new InstanceStateTable(clock);
+    }
+
+    @Test
+    void shouldReadRecordedTimesInPreferenceToTags() {
+        final Instance tagged = instance("i-1", Tag.builder().key(LAST_SEEN_IDLE).value("1000").build());
+
+        assertThat(instanceStates.lastSeenIdle(tagged)).contains(Instant.ofEpochMilli(1000));
+        assertThat(instanceStates.stoppedAt(tagged)).isEmpty();
+
+        instanceStates.markIdle(pluginSettings, List.of("i-1"));
+
+        assertThat(instanceStates.lastSeenIdle(tagged)).contains(clock.now());
+        verifyNoInteractions(ec2Client);
+    }
+
+    @Test
+    void shouldTagStoppedInstancesStraightAway() {
+        instanceStates.markStopped(pluginSettings, List.of("i-1", "i-2"));
+
+        assertThat(instanceStates.stoppedAt(instance("i-1"))).contains(clock.now());
+        verify(ec2Client).createTags(CreateTagsRequest.builder()
+                .tags(Tag.builder().key(STOPPED_AT).value(String.valueOf(clock.now().toEpochMilli())).build())
+                .resources("i-1", "i-2")
+                .build());
+
+        instanceStates.flush(pluginSettings);
+
+        verifyNoMoreInteractions(ec2Client);
+    }
+
+    @Test
+    void shouldNotRecordTheStopTimeIfTheTagCouldNotBeWritten() {
+        when(ec2Client.createTags(any(CreateTagsRequest.class))).thenThrow(Ec2Exception.builder().message("throttled").build());
+
+        assertThatThrownBy(() -> instanceStates.markStopped(pluginSettings, List.of("i-1"))).isInstanceOf(Ec2Exception.class);
+
+        assertThat(instanceStates.stoppedAt(instance("i-1"))).isEmpty();
+    }
+
+    @Test
+    void shouldTreatAClearedIdleTimeAsNotIdleAndRemoveTheTagOnFlush() {
+        final Instance tagged = instance("i-1", Tag.builder().key(LAST_SEEN_IDLE).value("timestamp").build());
+
+        instanceStates.clearIdle(pluginSettings, List.of("i-1"));
+
+        assertThat(instanceStates.isMarkedIdle(tagged)).isFalse();
+        assertThat(instanceStates.lastSeenIdle(tagged)).isEmpty();
+
+        instanceStates.flush(pluginSettings);
+
+        verify(ec2Client).deleteTags(DeleteTagsRequest.builder().tags(Tag.builder().key(LAST_SEEN_IDLE).build()).resources("i-1").build());
+    }
+
+    @Test
+    void shouldTagAllInstancesChangedSinceTheLastFlushOncePerTimestamp() {
+        final Instant firstIdle = clock.now();
+        instanceStates.markIdle(pluginSettings, List.of("i-1"));
+        clock.forward(Duration.ofSeconds(30));
+        instanceStates.markIdle(pluginSettings, List.of("i-2", "i-3"));
+
+        instanceStates.flush(pluginSettings);
+        instanceStates.flush(pluginSettings);
+
+        final ArgumentCaptor<CreateTagsRequest> captor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        verify(ec2Client, times(2)).createTags(captor.capture());
+        assertThat(captor.getAllValues())
+                .anySatisfy(request -> {
+                    assertThat(request.resources()).containsExactly("i-1");
+                    assertThat(request.tags()).containsExactly(Tag.builder().key(LAST_SEEN_IDLE).value(String.valueOf(firstIdle.toEpochMilli())).build());
+                })
+                .anySatisfy(request -> {
+                    assertThat(request.resources()).containsExactly("i-2", "i-3");
+                    assertThat(request.tags()).containsExactly(Tag.builder().key(LAST_SEEN_IDLE).value(String.valueOf(clock.now().toEpochMilli())).build());
+                });
+        verifyNoMoreInteractions(ec2Client);
+    }
+
+    @Test
+    void shouldRetryFailedTagWritesOnTheNextFlushWithoutOverwritingLaterChanges() {
+        when(ec2Client.createTags(any(CreateTagsRequest.class))).thenThrow(Ec2Exception.builder().message("throttled").build()).thenReturn(null);
+        instanceStates.markIdle(pluginSettings, List.of("i-1", "i-2"));
+
+        instanceStates.flush(pluginSettings);
+        instanceStates.clearIdle(pluginSettings, List.of("i-2"));
+        instanceStates.flush(pluginSettings);
+
+        verify(ec2Client, times(2)).createTags(argThat((CreateTagsRequest request) -> request.resources().contains("i-1")));
+        verify(ec2Client).createTags(argThat((CreateTagsRequest request) -> request.resources().equals(List.of("i-1"))));
+        verify(ec2Client).deleteTags(argThat((DeleteTagsRequest request) -> request.resources().equals(List.of("i-2"))));
+    }
+
+    @Test
+    void shouldForgetTerminatedInstancesAndTheirPendingTags() {
+        instanceStates.markIdle(pluginSettings, List.of("i-1"));
+
+        instanceStates.forget(List.of("i-1"));
+        instanceStates.flush(pluginSettings);
+
+        assertThat(instanceStates.lastSeenIdle(instance("i-1"))).isEmpty();
+        verifyNoInteractions(ec2Client);
+    }
+
+    @Test
+    void shouldPreferRestoredTimesToTagsUnlessChangedSince() {
+        final Instance tagged = instance("i-1", Tag.builder().key(LAST_SEEN_IDLE).value("1000").build());
+        instanceStates.markIdle(pluginSettings, List.of("i-2"));
+
+        instanceStates.restore(List.of(
+                new InstanceStateJournal.Entry("i-1", LAST_SEEN_IDLE, null),
+                new InstanceStateJournal.Entry("i-2", LAST_SEEN_IDLE, Instant.ofEpochMilli(2000)),
+                new InstanceStateJournal.Entry("i-3", STOPPED_AT, Instant.ofEpochMilli(3000))), InstanceStateJournal.NONE);
+
+        assertThat(instanceStates.isMarkedIdle(tagged)).isFalse();
+        assertThat(instanceStates.lastSeenIdle(instance("i-2"))).contains(clock.now());
+        assertThat(instanceStates.stoppedAt(instance("i-3"))).contains(Instant.ofEpochMilli(3000));
+        verifyNoInteractions(ec2Client);
+    }
+
+    @Test
+    void shouldPassEveryChangeOnToTheJournalAndSyncItOutsideTheLock() {
+        final InstanceStateJournal journal = mock(InstanceStateJournal.class);
+        doAnswer(invocation -> {
+            assertThat(Thread.holdsLock(instanceStates)).isFalse();
+            return null;
+        }).when(journal).sync();
+        instanceStates.restore(List.of(), journal);
+
+        instanceStates.markIdle(pluginSettings, List.of("i-1"));
+        instanceStates.clearIdle(pluginSettings, List.of("i-1"));
+        instanceStates.markStopped(pluginSettings, List.of("i-2"));
+        instanceStates.forget(List.of("i-1", "i-2"));
+
+        final InOrder inOrder = inOrder(journal);
+        inOrder.verify(journal).recorded("i-1", LAST_SEEN_IDLE, clock.now());
+        inOrder.verify(journal).sync();
+        inOrder.verify(journal).recorded("i-1", LAST_SEEN_IDLE, null);
+        inOrder.verify(journal).sync();
+        inOrder.verify(journal).recorded("i-2", STOPPED_AT, clock.now());
+        inOrder.verify(journal).sync();
+        inOrder.verify(journal).forgotten(List.of("i-1", "i-2"));
+        inOrder.verify(journal).sync();
+        verifyNoMoreInteractions(journal);
+    }
+
+    private static Instance instance(String instanceId, Tag... tags) {
+        return Instance.builder().instanceId(instanceId).tags(tags).build();
+    }
+}
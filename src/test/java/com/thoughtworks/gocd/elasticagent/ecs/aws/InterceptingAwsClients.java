@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.interceptor.*;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ecs.EcsClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Wraps in-memory ECS and EC2 clients so that every API call made through them goes through the given execution
+ * interceptors, as it would through an SDK client built with them. Each call is a single attempt: whatever retries
+ * the client behind it simulates are not seen by the interceptors, and there is no HTTP request to modify.
+ */
+public class InterceptingAwsClients {
+    private final ExecutionInterceptorChain chain;
+
+    public InterceptingAwsClients(List<ExecutionInterceptor> interceptors) {
+        this.chain = new ExecutionInterceptorChain(interceptors);
+    }
+
+    public EcsClient wrap(EcsClient ecsClient) {
+        return wrap(EcsClient.class, "ECS", ecsClient);
+    }
+
+    public Ec2Client wrap(Ec2Client ec2Client) {
+        return wrap(Ec2Client.class, "EC2", ec2Client);
+    }
+
+    private <T> T wrap(Class<T> clientType, String service, T delegate) {
+        return clientType.cast(Proxy.newProxyInstance(clientType.getClassLoader(), new Class<?>[]{clientType}, (proxy, method, args) -> {
+            if (args != null && args.length == 1 && args[0] instanceof SdkRequest request) {
+                return call(service, StringUtils.capitalize(method.getName()), delegate, method, request);
+            }
+            // the overloads taking a consumer of the request builder build the request and call back through the proxy
+            if (method.isDefault() && args != null && args.length == 1 && args[0] instanceof Consumer) {
+                return InvocationHandler.invokeDefault(proxy, method, args);
+            }
+            return invoke(delegate, method, args);
+        }));
+    }
+
+    private Object call(String service, String operation, Object delegate, Method method, SdkRequest request) throws Throwable {
+        final ExecutionAttributes executionAttributes = new ExecutionAttributes()
+                .putAttribute(SdkExecutionAttribute.SERVICE_NAME, service)
+                .putAttribute(SdkExecutionAttribute.OPERATION_NAME, operation);
+        InterceptorContext context = InterceptorContext.builder().request(request).build();
+        try {
+            chain.beforeExecution(context, executionAttributes);
+            context = chain.modifyRequest(context, executionAttributes);
+            chain.beforeTransmission(context, executionAttributes);
+            final Object response = invoke(delegate, method, new Object[]{context.request()});
+            chain.afterTransmission(context, executionAttributes);
+            context = context.toBuilder().response((SdkResponse) response).build();
+            chain.afterExecution(context, executionAttributes);
+            return response;
+        } catch (RuntimeException e) {
+            chain.onExecutionFailure(DefaultFailedExecutionContext.builder().interceptorContext(context).exception(e).build(), executionAttributes);
+            throw e;
+        }
+    }
+
+    private static Object invoke(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.*;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class LaunchTemplatesTest {
+    private Clock.TestClock clock;
+    private Ec2Client ec2Client;
+    private PluginSettings settings;
+    private LaunchTemplates launchTemplates;
+
+    @BeforeEach
+    void setUp() {
+        clock = new Clock.TestClock(Instant.parse("2026-01-01T00:00:00Z"));
+        ec2Client = mock(Ec2Client.class);
+        settings = mock(PluginSettings.class);
+        when(settings.ec2Client()).thenReturn(ec2Client);
+        when(settings.getRegion()).thenReturn("us-east-1");
+        when(settings.getClusterName()).thenReturn("GoCD");
+        when(settings.useLaunchTemplates()).thenReturn(true);
+        launchTemplates = new LaunchTemplates(clock, () -> "gocd-server-id");
+    }
+
+    @Test
+    void shouldCreateALaunchTemplateOncePerConfiguration() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class)))
+                .thenReturn(created("lt-1"), created("lt-2"));
+
+        assertThat(launchTemplates.launchTemplateId(settings, data("ami-1"))).isEqualTo("lt-1");
+        assertThat(launchTemplates.launchTemplateId(settings, data("ami-1"))).isEqualTo("lt-1");
+        assertThat(launchTemplates.launchTemplateId(settings, data("ami-2"))).isEqualTo("lt-2");
+
+        verify(ec2Client, times(2)).createLaunchTemplate(any(CreateLaunchTemplateRequest.class));
+    }
+
+    @Test
+    void shouldNameTemplatesByConfigurationHashAndTagThemWithTheClusterAndServer() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class))).thenReturn(created("lt-1"));
+
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+
+        verify(ec2Client).createLaunchTemplate(argThat((CreateLaunchTemplateRequest request) ->
+                request.launchTemplateName().equals("gocd-ecs-" + LaunchTemplates.configurationHash(data("ami-1")))
+                        && request.tagSpecifications().getFirst().tags().contains(Tag.builder().key(LaunchTemplates.CLUSTER_TAG).value("GoCD").build())
+                        && request.launchTemplateData().equals(data("ami-1"))));
+    }
+
+    @Test
+    void shouldHashUserdataAlthoughItIsRedactedFromToString() {
+        assertThat(LaunchTemplates.configurationHash(data("ami-1")))
+                .isNotEqualTo(LaunchTemplates.configurationHash(data("ami-1").toBuilder().userData("b3RoZXI=").build()));
+    }
+
+    @Test
+    void shouldReuseTheTemplateAnEarlierRunCreatedForTheSameConfiguration() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class))).thenThrow(Ec2Exception.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("InvalidLaunchTemplateName.AlreadyExistsException").build())
+                .build());
+        when(ec2Client.describeLaunchTemplates(any(DescribeLaunchTemplatesRequest.class)))
+                .thenReturn(DescribeLaunchTemplatesResponse.builder().launchTemplates(template("lt-existing", Instant.EPOCH)).build());
+
+        assertThat(launchTemplates.launchTemplateId(settings, data("ami-1"))).isEqualTo("lt-existing");
+    }
+
+    @Test
+    void shouldDeleteTemplatesThatAreNoLongerUsed() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class)))
+                .thenReturn(created("lt-stale"), created("lt-in-use"));
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+        clock.forward(LaunchTemplates.UNUSED_TEMPLATE_TTL.plusHours(1));
+        launchTemplates.launchTemplateId(settings, data("ami-2"));
+        when(ec2Client.describeLaunchTemplates(any(DescribeLaunchTemplatesRequest.class))).thenReturn(DescribeLaunchTemplatesResponse.builder()
+                .launchTemplates(
+                        template("lt-stale", clock.now().minus(LaunchTemplates.UNUSED_TEMPLATE_TTL.plusHours(1))),
+                        template("lt-in-use", clock.now()),
+                        template("lt-left-by-an-earlier-run", clock.now().minus(Duration.ofDays(3))),
+                        template("lt-just-created", clock.now()))
+                .build());
+
+        launchTemplates.cleanupUnused(settings);
+
+        verify(ec2Client).deleteLaunchTemplate(DeleteLaunchTemplateRequest.builder().launchTemplateId("lt-stale").build());
+        verify(ec2Client).deleteLaunchTemplate(DeleteLaunchTemplateRequest.builder().launchTemplateId("lt-left-by-an-earlier-run").build());
+        verify(ec2Client, times(2)).deleteLaunchTemplate(any(DeleteLaunchTemplateRequest.class));
+    }
+
+    @Test
+    void shouldKeepTemplatesUsedRecentlyByAnEarlierRunOrBeforeTheLastCleanup() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class))).thenReturn(created("lt-cached"));
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+        clock.forward(LaunchTemplates.UNUSED_TEMPLATE_TTL.plusHours(1));
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+        final Instant usedByAnEarlierRun = clock.now().minus(Duration.ofHours(1));
+        when(ec2Client.describeLaunchTemplates(any(DescribeLaunchTemplatesRequest.class))).thenReturn(DescribeLaunchTemplatesResponse.builder()
+                .launchTemplates(
+                        template("lt-cached", clock.now().minus(LaunchTemplates.UNUSED_TEMPLATE_TTL.plusHours(1))),
+                        template("lt-not-cached", clock.now().minus(Duration.ofDays(3))).toBuilder()
+                                .tags(Tag.builder().key(LaunchTemplates.LAST_USED_TAG).value(String.valueOf(usedByAnEarlierRun.toEpochMilli())).build())
+                                .build())
+                .build());
+
+        launchTemplates.cleanupUnused(settings);
+
+        verify(ec2Client, never()).deleteLaunchTemplate(any(DeleteLaunchTemplateRequest.class));
+        verify(ec2Client).createTags(CreateTagsRequest.builder()
+                .resources("lt-cached")
+                .tags(Tag.builder().key(LaunchTemplates.LAST_USED_TAG).value(String.valueOf(clock.now().toEpochMilli())).build())
+                .build());
+    }
+
+    @Test
+    void shouldRecordTheLastUseOnlyOfTemplatesUsedSinceItWasLastRecorded() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class))).thenReturn(created("lt-1"));
+        when(ec2Client.describeLaunchTemplates(any(DescribeLaunchTemplatesRequest.class))).thenReturn(DescribeLaunchTemplatesResponse.builder().build());
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+
+        launchTemplates.cleanupUnused(settings);
+        clock.forward(LaunchTemplates.CLEANUP_INTERVAL);
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+        launchTemplates.cleanupUnused(settings);
+        clock.forward(LaunchTemplates.CLEANUP_INTERVAL);
+        launchTemplates.cleanupUnused(settings);
+
+        verify(ec2Client, times(1)).createTags(any(CreateTagsRequest.class));
+    }
+
+    @Test
+    void shouldCreateAnEvictedTemplateAgain() {
+        when(ec2Client.createLaunchTemplate(any(CreateLaunchTemplateRequest.class))).thenReturn(created("lt-deleted"), created("lt-recreated"));
+        launchTemplates.launchTemplateId(settings, data("ami-1"));
+
+        launchTemplates.evict(settings, "lt-deleted");
+
+        assertThat(launchTemplates.launchTemplateId(settings, data("ami-1"))).isEqualTo("lt-recreated");
+    }
+
+    @Test
+    void shouldCleanupAtMostOnceEveryInterval() {
+        when(ec2Client.describeLaunchTemplates(any(DescribeLaunchTemplatesRequest.class))).thenReturn(DescribeLaunchTemplatesResponse.builder().build());
+
+        launchTemplates.cleanupUnused(settings);
+        launchTemplates.cleanupUnused(settings);
+        clock.forward(LaunchTemplates.CLEANUP_INTERVAL);
+        launchTemplates.cleanupUnused(settings);
+
+        verify(ec2Client, times(2)).describeLaunchTemplates(any(DescribeLaunchTemplatesRequest.class));
+    }
+
+    @Test
+    void shouldNotCallAwsForAClusterThatHasNotUsedLaunchTemplates() {
+        when(settings.useLaunchTemplates()).thenReturn(false);
+
+        launchTemplates.cleanupUnused(settings);
+
+        verifyNoInteractions(ec2Client);
+    }
+
+    private static RequestLaunchTemplateData data(String ami) {
+        return RequestLaunchTemplateData.builder().imageId(ami).instanceType("t2.small").userData("dXNlcmRhdGE=").build();
+    }
+
+    private static CreateLaunchTemplateResponse created(String id) {
+        return CreateLaunchTemplateResponse.builder().launchTemplate(LaunchTemplate.builder().launchTemplateId(id).build()).build();
+    }
+
+    private static LaunchTemplate template(String id, Instant createdAt) {
+        return LaunchTemplate.builder().launchTemplateId(id).launchTemplateName(id).createTime(createdAt).build();
+    }
+}
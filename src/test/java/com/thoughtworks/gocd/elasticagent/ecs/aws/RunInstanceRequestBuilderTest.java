@@ -216,4 +216,47 @@ class RunInstanceRequestBuilderTest {
         assertThat(runInstancesRequest.tagSpecifications().getFirst().tags())
                 .contains(Tag.builder().key(LABEL_SERVER_ID).value("gocd-server-id").build());
     }
+
+    @Test
+    void shouldBuildLaunchTemplateDataWithTheConfigurationOfTheRunInstanceRequest() {
+        when(ec2Config.getUserdata()).thenReturn("dXNlcmRhdGE=");
+        when(ec2Config.getDockerVolumeType()).thenReturn("io1");
+        when(ec2Config.getDockerVolumeSize()).thenReturn("50");
+        when(ec2Config.getDockerVolumeProvisionedIOPS()).thenReturn(1100);
+        when(ec2Config.getPlatform()).thenReturn(Platform.LINUX);
+
+        final RequestLaunchTemplateData data = builder
+                .eC2Config(ec2Config)
+                .serverId("gocd-server-id")
+                .buildLaunchTemplateData();
+
+        assertThat(data.imageId()).isEqualTo("ami-123abcdi");
+        assertThat(data.instanceTypeAsString()).isEqualTo("t2.small");
+        assertThat(data.keyName()).isEqualTo("Shared_SSH_Key");
+        assertThat(data.securityGroupIds()).containsExactly("sg-12345", "sg-abcde");
+        assertThat(data.userData()).isEqualTo("dXNlcmRhdGE=");
+        assertThat(data.tagSpecifications().getFirst().tags())
+                .contains(Tag.builder().key("Foo").value("Bar").build(), Tag.builder().key(LABEL_SERVER_ID).value("gocd-server-id").build());
+        assertThat(data.blockDeviceMappings()).hasSize(1);
+        assertThat(data.blockDeviceMappings().getFirst().deviceName()).isEqualTo("/dev/xvdcz");
+        assertThat(data.blockDeviceMappings().getFirst().ebs().volumeType()).isEqualTo(VolumeType.IO1);
+        assertThat(data.blockDeviceMappings().getFirst().ebs().iops()).isEqualTo(1100);
+    }
+
+    @Test
+    void shouldLaunchFromALaunchTemplateOverridingOnlyTheSubnetAndCount() {
+        final RunInstancesRequest runInstancesRequest = builder
+                .subnet(subnet)
+                .eC2Config(ec2Config)
+                .instanceToCreate(2)
+                .buildFromLaunchTemplate("lt-0123");
+
+        assertThat(runInstancesRequest.launchTemplate().launchTemplateId()).isEqualTo("lt-0123");
+        assertThat(runInstancesRequest.subnetId()).isEqualTo("s-s23cdf");
+        assertThat(runInstancesRequest.minCount()).isEqualTo(2);
+        assertThat(runInstancesRequest.maxCount()).isEqualTo(2);
+        assertThat(runInstancesRequest.imageId()).isNull();
+        assertThat(runInstancesRequest.userData()).isNull();
+        assertThat(runInstancesRequest.hasBlockDeviceMappings()).isFalse();
+    }
 }
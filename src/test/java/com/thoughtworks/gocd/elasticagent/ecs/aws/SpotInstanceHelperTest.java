@@ -58,6 +58,7 @@ public class SpotInstanceHelperTest {
     private SubnetSelector subnetSelector;
     @Mock
     private Supplier<String> serverIdSupplier;
+    private InstanceStateTable instanceStates;
 
     @BeforeEach
     void setUp() {
@@ -69,7 +70,9 @@ public class SpotInstanceHelperTest {
         ec2Client = mock(Ec2Client.class);
         ec2Config = mock(EC2Config.class);
 
-        spotInstanceHelper = new SpotInstanceHelper(containerInstanceHelper, spotInstanceRequestBuilder, subnetSelector, serverIdSupplier, Duration.ofSeconds(1));
+        instanceStates = new InstanceStateTable();
+
+        spotInstanceHelper = new SpotInstanceHelper(containerInstanceHelper, spotInstanceRequestBuilder, subnetSelector, serverIdSupplier, Duration.ofSeconds(1), instanceStates);
     }
 
     @Nested
@@ -432,6 +435,9 @@ public class SpotInstanceHelperTest {
 
             spotInstanceHelper.tagSpotInstancesAsIdle(pluginSettings, asList("spot_id1", "spot_id2"));
 
+            verify(ec2Client, never()).createTags(any(CreateTagsRequest.class));
+            instanceStates.flush(pluginSettings);
+
             verify(ec2Client).createTags(argumentCaptor.capture());
 
             final CreateTagsRequest createTagsRequest = argumentCaptor.getValue();
@@ -74,7 +74,8 @@ public class SpotInstanceServiceTest {
     void setUp() {
         openMocks(this);
 
-        service = new SpotInstanceService(spotInstanceHelper, configBuilder, containerInstanceHelper, terminateOperation, spotRequestMatcher);
+        final InstanceStateTable instanceStates = new InstanceStateTable();
+        service = new SpotInstanceService(spotInstanceHelper, configBuilder, containerInstanceHelper, terminateOperation, spotRequestMatcher, instanceStates);
     }
 
     @Nested
@@ -16,6 +16,7 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import com.thoughtworks.gocd.elasticagent.ecs.exceptions.SubnetNotAvailableException;
 import org.junit.jupiter.api.BeforeEach;
@@ -37,12 +38,16 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class SubnetSelectorTest {
     private PluginSettings pluginSettings;
     private SubnetSelector subnetSelector;
     private Ec2Client ec2Client;
+    private Clock.TestClock clock;
+    private SubnetCatalog subnetCatalog;
 
     @BeforeEach
     void setUp() {
@@ -51,7 +56,9 @@ class SubnetSelectorTest {
 
         when(pluginSettings.ec2Client()).thenReturn(ec2Client);
 
-        subnetSelector = new SubnetSelector();
+        clock = new Clock.TestClock();
+        subnetCatalog = new SubnetCatalog(clock);
+        subnetSelector = new SubnetSelector(subnetCatalog);
     }
 
     @Test
@@ -138,4 +145,85 @@ class SubnetSelectorTest {
                 .collect(toSet()))
                 .containsExactly("subnet-3", "subnet-5");
     }
+
+    @Test
+    void shouldOrderAvailableSubnetsByTheNumberOfInstancesInThem() {
+        when(pluginSettings.getSubnetIds()).thenReturn(List.of("subnet-1", "subnet-2", "subnet-3", "subnet-4"));
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class))).thenReturn(DescribeSubnetsResponse.builder().subnets(
+                Subnet.builder().subnetId("subnet-1").state("available").build(),
+                Subnet.builder().subnetId("subnet-2").state("available").build(),
+                Subnet.builder().subnetId("subnet-3").state("available").build(),
+                Subnet.builder().subnetId("subnet-4").state("pending").build()
+        ).build());
+
+        final List<Instance> instances = List.of(
+                Instance.builder().subnetId("subnet-1").build(),
+                Instance.builder().subnetId("subnet-1").build(),
+                Instance.builder().subnetId("subnet-2").build()
+        );
+
+        assertThat(subnetSelector.subnetsInPreferenceOrder(pluginSettings, pluginSettings.getSubnetIds(), instances))
+                .extracting(Subnet::subnetId)
+                .containsExactly("subnet-3", "subnet-2", "subnet-1");
+    }
+
+    @Test
+    void shouldDescribeSubnetsAgainOnlyAfterTheRefreshInterval() {
+        when(pluginSettings.getSubnetIds()).thenReturn(List.of("subnet-1"));
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class))).thenReturn(DescribeSubnetsResponse.builder().subnets(
+                Subnet.builder().subnetId("subnet-1").state("available").build()
+        ).build());
+
+        subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, pluginSettings.getSubnetIds(), emptyList());
+        subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, pluginSettings.getSubnetIds(), emptyList());
+        verify(ec2Client, times(1)).describeSubnets(any(DescribeSubnetsRequest.class));
+
+        clock.forward(SubnetCatalog.REFRESH_INTERVAL);
+        subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, pluginSettings.getSubnetIds(), emptyList());
+        verify(ec2Client, times(2)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+
+    @Test
+    void shouldAvoidASubnetWhereALaunchRecentlyFailedUntilTheFailureHasDecayed() {
+        when(pluginSettings.getSubnetIds()).thenReturn(List.of("subnet-1", "subnet-2"));
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class))).thenReturn(DescribeSubnetsResponse.builder().subnets(
+                Subnet.builder().subnetId("subnet-1").state("available").build(),
+                Subnet.builder().subnetId("subnet-2").state("available").build()
+        ).build());
+        final List<Instance> instances = List.of(Instance.builder().subnetId("subnet-2").build());
+
+        subnetSelector.launchFailed(Subnet.builder().subnetId("subnet-1").build(), "InsufficientInstanceCapacity");
+
+        assertThat(subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, pluginSettings.getSubnetIds(), instances).subnetId())
+                .isEqualTo("subnet-2");
+
+        clock.forward(SubnetCatalog.FAILURE_HALF_LIFE.multipliedBy(3));
+        assertThat(subnetSelector.selectSubnetWithMinimumEC2Instances(pluginSettings, pluginSettings.getSubnetIds(), instances).subnetId())
+                .isEqualTo("subnet-1");
+    }
+
+    @Test
+    void shouldAvoidSubnetsRunningOutOfAddresses() {
+        when(pluginSettings.getSubnetIds()).thenReturn(List.of("subnet-1", "subnet-2", "subnet-3"));
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class))).thenReturn(DescribeSubnetsResponse.builder().subnets(
+                Subnet.builder().subnetId("subnet-1").state("available").availableIpAddressCount(2).build(),
+                Subnet.builder().subnetId("subnet-2").state("available").availableIpAddressCount(250).build(),
+                Subnet.builder().subnetId("subnet-3").state("available").availableIpAddressCount(250).build()
+        ).build());
+        final List<Instance> instances = List.of(
+                Instance.builder().subnetId("subnet-2").build(),
+                Instance.builder().subnetId("subnet-3").build(),
+                Instance.builder().subnetId("subnet-3").build()
+        );
+
+        assertThat(subnetSelector.subnetsInPreferenceOrder(pluginSettings, pluginSettings.getSubnetIds(), instances))
+                .extracting(Subnet::subnetId)
+                .containsExactly("subnet-2", "subnet-3", "subnet-1");
+
+        subnetSelector.launched(Subnet.builder().subnetId("subnet-2").build(), 250);
+
+        assertThat(subnetSelector.subnetsInPreferenceOrder(pluginSettings, pluginSettings.getSubnetIds(), instances))
+                .extracting(Subnet::subnetId)
+                .containsExactly("subnet-3", "subnet-1", "subnet-2");
+    }
 }
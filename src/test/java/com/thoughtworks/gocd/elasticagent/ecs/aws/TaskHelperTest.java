@@ -16,6 +16,7 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws;
 
+import com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategy;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategyFactory;
@@ -35,6 +36,7 @@ import java.util.*;
 
 import static com.thoughtworks.gocd.elasticagent.ecs.Constants.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.Assertions.fail;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.openMocks;
@@ -96,8 +98,8 @@ class TaskHelperTest {
         when(ecsClient.startTask(startTaskRequestArgumentCaptor.capture())).thenReturn(StartTaskResponse.builder().tasks(task).build());
         when(instanceSelectionStrategyFactory.strategyFor(any()))
                 .thenReturn(instanceSelectionStrategy);
-        when(instanceSelectionStrategy.instanceForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any(ContainerDefinitionBuilder.PlacementRequirement.class)))
-                .thenReturn(Optional.of(containerInstance));
+        when(instanceSelectionStrategy.instancesForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any(ContainerDefinitionBuilder.PlacementRequirement.class)))
+                .thenReturn(List.of(containerInstance).iterator());
         when(elasticAgentProfileProperties.runAsSpotInstance()).thenReturn(false);
 
         final Optional<ECSTask> ecsTask = taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender);
@@ -110,6 +112,7 @@ class TaskHelperTest {
         assertThat(startTaskRequest.cluster()).isEqualTo(pluginSettings.getClusterName());
         assertThat(startTaskRequest.taskDefinition()).isEqualTo(taskDefinition.taskDefinitionArn());
         assertThat(startTaskRequest.containerInstances()).contains(containerInstance.containerInstanceArn());
+        assertThat(startTaskRequest.startedBy()).isEqualTo(TaskHelper.startedBy(ECSElasticPlugin.getServerId()));
 
         InOrder inOrder = inOrder(consoleLogAppender);
 
@@ -141,7 +144,7 @@ class TaskHelperTest {
         when(ecsClient.startTask(any(StartTaskRequest.class))).thenReturn(StartTaskResponse.builder().tasks(task).build());
         when(instanceSelectionStrategyFactory.strategyFor(any()))
                 .thenReturn(instanceSelectionStrategy);
-        when(instanceSelectionStrategy.instanceForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any())).thenReturn(Optional.empty());
+        when(instanceSelectionStrategy.instancesForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any())).thenReturn(Collections.emptyIterator());
 
         final Optional<ECSTask> ecsTask = taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender);
 
@@ -182,7 +185,7 @@ class TaskHelperTest {
         when(ecsClient.startTask(any(StartTaskRequest.class))).thenReturn(StartTaskResponse.builder().tasks(task).build());
         when(instanceSelectionStrategyFactory.strategyFor(any()))
                 .thenReturn(instanceSelectionStrategy);
-        when(instanceSelectionStrategy.instanceForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any())).thenReturn(Optional.empty());
+        when(instanceSelectionStrategy.instancesForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any())).thenReturn(Collections.emptyIterator());
 
         final Optional<ECSTask> ecsTask = taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender);
 
@@ -209,8 +212,8 @@ class TaskHelperTest {
 
         when(registerTaskDefinitionRequestBuilder.build(eq(pluginSettings), eq(elasticAgentProfileProperties), any(ContainerDefinition.Builder.class), any())).thenReturn(RegisterTaskDefinitionRequest.builder().build());
         when(instanceSelectionStrategyFactory.strategyFor(any())).thenReturn(instanceSelectionStrategy);
-        when(instanceSelectionStrategy.instanceForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any()))
-                .thenReturn(Optional.of(ContainerInstance.builder().containerInstanceArn("container-instance-arn").build()));
+        when(instanceSelectionStrategy.instancesForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any()))
+                .thenReturn(List.of(ContainerInstance.builder().containerInstanceArn("container-instance-arn").build()).iterator());
 
         when(ecsClient.startTask(any(StartTaskRequest.class))).thenReturn(StartTaskResponse.builder()
                 .failures(Failure.builder().reason("Failed to start task.").arn("task-arn").build())
@@ -228,6 +231,79 @@ class TaskHelperTest {
         verify(ecsClient).deleteTaskDefinitions(any(DeleteTaskDefinitionsRequest.class));
     }
 
+    @Test
+    void shouldRetryOnTheNextCandidateInstanceWithTheSameTaskDefinitionWhenTheFirstHasNoResourcesLeft() throws Exception {
+        final InstanceSelectionStrategy instanceSelectionStrategy = mock(InstanceSelectionStrategy.class);
+        final TaskDefinition taskDefinition = TaskDefinition.builder().taskDefinitionArn("task-definition-arn").build();
+        final ContainerInstance full = ContainerInstance.builder().containerInstanceArn("arn-full").ec2InstanceId("i-full").build();
+        final ContainerInstance free = ContainerInstance.builder().containerInstanceArn("arn-free").ec2InstanceId("i-free").build();
+
+        when(elasticAgentProfileProperties.getImage()).thenReturn("alpine");
+        when(registerTaskDefinitionRequestBuilder.build(eq(pluginSettings), eq(elasticAgentProfileProperties), any(ContainerDefinition.Builder.class), any())).thenReturn(RegisterTaskDefinitionRequest.builder().build());
+        when(ecsClient.registerTaskDefinition(any(RegisterTaskDefinitionRequest.class))).thenReturn(RegisterTaskDefinitionResponse.builder().taskDefinition(taskDefinition).build());
+        when(instanceSelectionStrategyFactory.strategyFor(any())).thenReturn(instanceSelectionStrategy);
+        when(instanceSelectionStrategy.instancesForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any())).thenReturn(List.of(full, free).iterator());
+        when(ecsClient.startTask(any(StartTaskRequest.class)))
+                .thenReturn(StartTaskResponse.builder().failures(Failure.builder().arn("arn-full").reason("RESOURCE:MEMORY").build()).build())
+                .thenReturn(StartTaskResponse.builder().tasks(Task.builder().taskArn("task-arn").build()).build());
+
+        final Optional<ECSTask> ecsTask = taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender);
+
+        assertThat(ecsTask).isPresent();
+        assertThat(ecsTask.get().getEC2InstanceId()).isEqualTo("i-free");
+        final ArgumentCaptor<StartTaskRequest> startTaskRequests = ArgumentCaptor.forClass(StartTaskRequest.class);
+        verify(ecsClient, times(2)).startTask(startTaskRequests.capture());
+        assertThat(startTaskRequests.getAllValues()).extracting(StartTaskRequest::containerInstances)
+                .containsExactly(List.of("arn-full"), List.of("arn-free"));
+        assertThat(startTaskRequests.getAllValues()).extracting(StartTaskRequest::taskDefinition).containsOnly("task-definition-arn");
+        verify(ecsClient, times(1)).registerTaskDefinition(any(RegisterTaskDefinitionRequest.class));
+        verify(ecsClient, never()).deregisterTaskDefinition(any(DeregisterTaskDefinitionRequest.class));
+        verifyNoInteractions(containerInstanceHelper);
+    }
+
+    @Test
+    void shouldLaunchAnInstanceWhenNoOtherCandidateIsLeftAndGiveUpWhenThatFailsToo() throws Exception {
+        final InstanceSelectionStrategy instanceSelectionStrategy = mock(InstanceSelectionStrategy.class);
+        final ContainerInstance existing = ContainerInstance.builder().containerInstanceArn("arn-existing").ec2InstanceId("i-existing").build();
+        final ContainerInstance launched = ContainerInstance.builder().containerInstanceArn("arn-launched").ec2InstanceId("i-launched").build();
+
+        when(elasticAgentProfileProperties.getImage()).thenReturn("alpine");
+        when(registerTaskDefinitionRequestBuilder.build(eq(pluginSettings), eq(elasticAgentProfileProperties), any(ContainerDefinition.Builder.class), any())).thenReturn(RegisterTaskDefinitionRequest.builder().build());
+        when(ecsClient.registerTaskDefinition(any(RegisterTaskDefinitionRequest.class))).thenReturn(
+                RegisterTaskDefinitionResponse.builder().taskDefinition(TaskDefinition.builder().taskDefinitionArn("task-definition-arn").build()).build());
+        when(instanceSelectionStrategyFactory.strategyFor(any())).thenReturn(instanceSelectionStrategy);
+        when(instanceSelectionStrategy.instancesForScheduling(eq(pluginSettings), eq(elasticAgentProfileProperties), any())).thenReturn(List.of(existing).iterator());
+        when(containerInstanceHelper.startOrCreateOneInstance(pluginSettings, elasticAgentProfileProperties, consoleLogAppender)).thenReturn(launched);
+        when(ecsClient.startTask(any(StartTaskRequest.class)))
+                .thenReturn(StartTaskResponse.builder().failures(Failure.builder().arn("arn-existing").reason("AGENT").build()).build())
+                .thenReturn(StartTaskResponse.builder().failures(Failure.builder().arn("arn-launched").reason("RESOURCE:CPU").build()).build());
+
+        try {
+            taskHelper.create(createAgentRequest, pluginSettings, consoleLogAppender);
+            fail("Should fail");
+        } catch (ContainerFailedToRegisterException e) {
+            assertThat(e.getMessage()).contains("arn-existing failed with reason :AGENT", "arn-launched failed with reason :RESOURCE:CPU");
+        }
+
+        verify(containerInstanceHelper, times(1)).startOrCreateOneInstance(pluginSettings, elasticAgentProfileProperties, consoleLogAppender);
+        verify(ecsClient, times(2)).startTask(any(StartTaskRequest.class));
+        verify(ecsClient).deregisterTaskDefinition(any(DeregisterTaskDefinitionRequest.class));
+    }
+
+    @Test
+    void shouldClassifyStartTaskFailuresCausedByTheContainerInstance() {
+        assertThat(TaskHelper.canStartElsewhere(startTaskFailure("RESOURCE:MEMORY"))).isTrue();
+        assertThat(TaskHelper.canStartElsewhere(startTaskFailure("RESOURCE:PORTS"))).isTrue();
+        assertThat(TaskHelper.canStartElsewhere(startTaskFailure("AGENT"))).isTrue();
+        assertThat(TaskHelper.canStartElsewhere(startTaskFailure("ATTRIBUTE"))).isFalse();
+        assertThat(TaskHelper.canStartElsewhere(startTaskFailure("Failed to start task."))).isFalse();
+        assertThat(TaskHelper.canStartElsewhere(StartTaskResponse.builder().build())).isFalse();
+    }
+
+    private StartTaskResponse startTaskFailure(String reason) {
+        return StartTaskResponse.builder().failures(Failure.builder().arn("arn").reason(reason).build()).build();
+    }
+
     @Test
     void shouldStopAndCleanupTask() {
         final ECSTask ecsTask = mock(ECSTask.class);
@@ -280,6 +356,44 @@ class TaskHelperTest {
         assertThat(deleteTaskDefinitionRequest.taskDefinitions()).containsExactly("task-definition-arn");
     }
 
+    @Test
+    void shouldDeleteDeregisteredTaskDefinitionsInBatchesOfTen() {
+        final List<String> taskDefinitionArns = new ArrayList<>();
+        for (int i = 1; i <= 12; i++) {
+            taskDefinitionArns.add("task-definition-" + i);
+        }
+        when(ecsClient.deregisterTaskDefinition(DeregisterTaskDefinitionRequest.builder().taskDefinition("task-definition-2").build()))
+                .thenThrow(EcsException.builder().message("Throttled").build());
+        when(ecsClient.deleteTaskDefinitions(any(DeleteTaskDefinitionsRequest.class)))
+                .thenReturn(DeleteTaskDefinitionsResponse.builder().failures(Failure.builder().arn("task-definition-12").reason("In use").build()).build())
+                .thenReturn(DeleteTaskDefinitionsResponse.builder().build());
+
+        final Map<String, String> failures = taskHelper.cleanupTaskDefinitions(pluginSettings, taskDefinitionArns);
+
+        assertThat(failures).containsOnly(entry("task-definition-2", "Throttled"), entry("task-definition-12", "In use"));
+        verify(ecsClient, times(12)).deregisterTaskDefinition(any(DeregisterTaskDefinitionRequest.class));
+
+        final ArgumentCaptor<DeleteTaskDefinitionsRequest> deleteTaskDefinitionsCaptor = ArgumentCaptor.forClass(DeleteTaskDefinitionsRequest.class);
+        verify(ecsClient, times(2)).deleteTaskDefinitions(deleteTaskDefinitionsCaptor.capture());
+        assertThat(deleteTaskDefinitionsCaptor.getAllValues().get(0).taskDefinitions()).hasSize(10).doesNotContain("task-definition-2");
+        assertThat(deleteTaskDefinitionsCaptor.getAllValues().get(1).taskDefinitions()).containsExactly("task-definition-12");
+    }
+
+    @Test
+    void shouldReportTasksThatCouldNotBeStopped() {
+        final ECSTask stopped = mock(ECSTask.class);
+        final ECSTask notStopped = mock(ECSTask.class);
+        when(stopped.taskArn()).thenReturn("task-arn-1");
+        when(notStopped.taskArn()).thenReturn("task-arn-2");
+        final EcsException throttled = EcsException.builder().message("Throttled").build();
+        when(ecsClient.stopTask(StopTaskRequest.builder().cluster("Cluster-Name").task("task-arn-2").reason("Stopped by GoCD server.").build())).thenThrow(throttled);
+
+        final Map<ECSTask, RuntimeException> failures = taskHelper.stopTasks(pluginSettings, List.of(stopped, notStopped));
+
+        assertThat(failures).containsOnly(entry(notStopped, throttled));
+        verify(ecsClient, times(2)).stopTask(any(StopTaskRequest.class));
+    }
+
     @Test
     void shouldListAllTasks() {
         final Task task = Task.builder().taskArn("task-arn").taskDefinitionArn("task-definition-arn").build();
@@ -305,6 +419,36 @@ class TaskHelperTest {
         assertThat(describeTaskDefinitionRequestArgumentCaptor.getValue().taskDefinition()).contains(taskDefinition.taskDefinitionArn());
     }
 
+    @Test
+    void shouldListTasksStartedByThisServerAcrossPages() {
+        when(ecsClient.listTasks(any(ListTasksRequest.class))).thenReturn(
+                ListTasksResponse.builder().taskArns("task-arn-1").nextToken("page-2").build(),
+                ListTasksResponse.builder().taskArns("task-arn-2").build()
+        );
+
+        final List<String> taskArns = taskHelper.listAgentTaskArns(pluginSettings);
+
+        final ArgumentCaptor<ListTasksRequest> listTasksRequestArgumentCaptor = ArgumentCaptor.forClass(ListTasksRequest.class);
+        verify(ecsClient, times(2)).listTasks(listTasksRequestArgumentCaptor.capture());
+        assertThat(taskArns).containsExactly("task-arn-1", "task-arn-2");
+        assertThat(listTasksRequestArgumentCaptor.getAllValues().getFirst().nextToken()).isNull();
+        assertThat(listTasksRequestArgumentCaptor.getAllValues().get(1).nextToken()).isEqualTo("page-2");
+        assertThat(listTasksRequestArgumentCaptor.getAllValues()).allSatisfy(request -> {
+            assertThat(request.cluster()).isEqualTo("Cluster-Name");
+            assertThat(request.startedBy()).isEqualTo(TaskHelper.startedBy(ECSElasticPlugin.getServerId()));
+        });
+    }
+
+    @Test
+    void shouldStartTasksByAnIdEcsAcceptsThatIsDistinctPerServer() {
+        final String startedBy = TaskHelper.startedBy("a-gocd-server-id-that-is-rather-long-e7a1c2b8");
+
+        assertThat(startedBy).hasSizeLessThanOrEqualTo(TaskHelper.MAX_STARTED_BY_LENGTH).matches("[A-Za-z0-9_-]+");
+        assertThat(TaskHelper.startedBy(null)).hasSizeLessThanOrEqualTo(TaskHelper.MAX_STARTED_BY_LENGTH).matches("[A-Za-z0-9_-]+");
+        assertThat(startedBy).isEqualTo(TaskHelper.startedBy("a-gocd-server-id-that-is-rather-long-e7a1c2b8"))
+                .isNotEqualTo(TaskHelper.startedBy("another-gocd-server-id"));
+    }
+
     @Test
     void shouldListAllActiveTasks() {
         final Task task = Task.builder().taskArn("arn/task-arn").taskDefinitionArn("arn/task-definition-arn").build();
@@ -17,6 +17,7 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.comparator;
 
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.Tag;
@@ -35,7 +36,7 @@ class MostIdleInstanceComparatorTest {
         final Instance instance3 = Instance.builder().instanceId("3").tags(Tag.builder().key(LAST_SEEN_IDLE).value("1000").build()).build();
 
         final List<Instance> unsortedInstances = Arrays.asList(instance1, instance2, instance3);
-        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now()));
+        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now(), new InstanceStateTable()));
 
         assertThat(unsortedInstances).containsExactly(instance3, instance1, instance2);
     }
@@ -47,7 +48,7 @@ class MostIdleInstanceComparatorTest {
         final Instance instance3 = Instance.builder().instanceId("3").tags(Tag.builder().key(LAST_SEEN_IDLE).value("1000").build()).build();
 
         final List<Instance> unsortedInstances = Arrays.asList(instance1, instance2, instance3);
-        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now()));
+        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now(), new InstanceStateTable()));
 
         assertThat(unsortedInstances).containsExactly(instance3, instance2, instance1);
     }
@@ -59,11 +60,11 @@ class MostIdleInstanceComparatorTest {
         final Instance instance3 = Instance.builder().instanceId("3").tags(Tag.builder().key(LAST_SEEN_IDLE).value("1000").build()).build();
 
         final List<Instance> unsortedInstances = Arrays.asList(instance1, instance2, instance3);
-        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now()));
+        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now(), new InstanceStateTable()));
 
         assertThat(unsortedInstances).containsExactly(instance3, instance2, instance1);
 
-        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now()).reversed());
+        unsortedInstances.sort(new MostIdleInstanceComparator(Clock.DEFAULT.now(), new InstanceStateTable()).reversed());
         assertThat(unsortedInstances).containsExactly(instance1, instance2, instance3);
     }
 }
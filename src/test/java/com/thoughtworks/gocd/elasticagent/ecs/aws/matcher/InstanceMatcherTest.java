@@ -66,7 +66,7 @@ class InstanceMatcherTest {
         when(ec2Config.getPlatform()).thenReturn(Platform.LINUX);
 
         when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
-        when(ec2Config.getInstanceType()).thenReturn(T2_SMALL.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_SMALL.toString()));
 
         when(instance.subnetId()).thenReturn("s-foo-id");
         when(ec2Config.getSubnetIds()).thenReturn(List.of("s-foo-id"));
@@ -101,7 +101,7 @@ class InstanceMatcherTest {
         when(ec2Config.getAmi()).thenReturn("i-123456");
 
         when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
-        when(ec2Config.getInstanceType()).thenReturn(T2_MEDIUM.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_MEDIUM.toString()));
 
         when(instance.subnetId()).thenReturn("s-foo-id");
         when(ec2Config.getSubnetIds()).thenReturn(List.of("s-foo-id"));
@@ -114,6 +114,28 @@ class InstanceMatcherTest {
         assertThat(instanceMatcher.matches(ec2Config, instance)).isFalse();
     }
 
+    @Test
+    void shouldMatchAnInstanceOfAFallbackInstanceType() {
+        when(instance.platformAsString()).thenReturn("linux");
+        when(ec2Config.getPlatform()).thenReturn(Platform.LINUX);
+
+        when(instance.imageId()).thenReturn("i-123456");
+        when(ec2Config.getAmi()).thenReturn("i-123456");
+
+        when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_MEDIUM.toString(), T2_SMALL.toString()));
+
+        when(instance.subnetId()).thenReturn("s-foo-id");
+        when(ec2Config.getSubnetIds()).thenReturn(List.of("s-foo-id"));
+
+        when(instance.securityGroups()).thenReturn(Collections.singletonList(
+                GroupIdentifier.builder().groupId("sg-abcde").build()
+        ));
+        when(ec2Config.getSecurityGroups()).thenReturn(List.of("sg-abcde"));
+
+        assertThat(instanceMatcher.matches(ec2Config, instance)).isTrue();
+    }
+
     @Test
     void shouldReturnFalseIfSecurityGroupsAreNotMatching() {
         when(instance.state()).thenReturn(InstanceState.builder().name(RUNNING).build());
@@ -124,7 +146,7 @@ class InstanceMatcherTest {
         when(ec2Config.getAmi()).thenReturn("i-123456");
 
         when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
-        when(ec2Config.getInstanceType()).thenReturn(T2_SMALL.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_SMALL.toString()));
 
         when(instance.subnetId()).thenReturn("s-foo-id");
         when(ec2Config.getSubnetIds()).thenReturn(List.of("s-foo-id"));
@@ -148,7 +170,7 @@ class InstanceMatcherTest {
         when(ec2Config.getAmi()).thenReturn("i-123456");
 
         when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
-        when(ec2Config.getInstanceType()).thenReturn(T2_SMALL.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_SMALL.toString()));
 
         when(instance.subnetId()).thenReturn("s-foo-id");
         when(ec2Config.getSubnetIds()).thenReturn(List.of("different-subnet-id"));
@@ -171,7 +193,7 @@ class InstanceMatcherTest {
         when(ec2Config.getAmi()).thenReturn("diffrent-ami");
 
         when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
-        when(ec2Config.getInstanceType()).thenReturn(T2_SMALL.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_SMALL.toString()));
 
         when(instance.subnetId()).thenReturn("s-foo-id");
         when(ec2Config.getSubnetIds()).thenReturn(List.of("s-foo-id"));
@@ -194,7 +216,7 @@ class InstanceMatcherTest {
         when(ec2Config.getPlatform()).thenReturn(Platform.LINUX);
 
         when(instance.instanceTypeAsString()).thenReturn(T2_SMALL.toString());
-        when(ec2Config.getInstanceType()).thenReturn(T2_SMALL.toString());
+        when(ec2Config.getInstanceTypes()).thenReturn(List.of(T2_SMALL.toString()));
 
         when(instance.subnetId()).thenReturn("s-foo-id");
         when(ec2Config.getSubnetIds()).thenReturn(List.of("s-foo-id"));
@@ -17,6 +17,7 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.predicate;
 
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import org.junit.jupiter.api.BeforeEach;
@@ -49,7 +50,7 @@ class EligibleForTerminationPredicateTest {
     void shouldReturnTrueIfInstanceDoesNotHaveStoppedAtLabel() {
         final Instance instance = linuxInstanceWithTag("i-abcd123", InstanceStateName.STOPPED, Tag.builder().key("Foo").value("Bar").build());
 
-        final boolean testResult = new EligibleForTerminationPredicate(null).test(instance);
+        final boolean testResult = new EligibleForTerminationPredicate(null, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isTrue();
     }
@@ -59,7 +60,7 @@ class EligibleForTerminationPredicateTest {
     void shouldReturnFalseForInstanceWithState(InstanceStateName state) {
         final Instance instance = instance("i-abcd123", state, Platform.WINDOWS.name());
 
-        final boolean testResult = new EligibleForTerminationPredicate(null).test(instance);
+        final boolean testResult = new EligibleForTerminationPredicate(null, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isFalse();
     }
@@ -77,7 +78,7 @@ class EligibleForTerminationPredicateTest {
 
         testClock.forward(Duration.ofSeconds(21));
 
-        final boolean testResult = new EligibleForTerminationPredicate(pluginSettings, testClock).test(instance);
+        final boolean testResult = new EligibleForTerminationPredicate(pluginSettings, testClock, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isTrue();
     }
@@ -95,7 +96,7 @@ class EligibleForTerminationPredicateTest {
 
         testClock.forward(Duration.ofSeconds(19));
 
-        final boolean testResult = new EligibleForTerminationPredicate(pluginSettings, testClock).test(instance);
+        final boolean testResult = new EligibleForTerminationPredicate(pluginSettings, testClock, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isFalse();
     }
@@ -17,6 +17,7 @@
 package com.thoughtworks.gocd.elasticagent.ecs.aws.predicate;
 
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import org.junit.jupiter.api.BeforeEach;
@@ -51,7 +52,7 @@ class SpotInstanceEligibleForTerminationPredicateTest {
     void shouldReturnFalseIfInstanceDoesNotHaveLastSeenIdleLabel() {
         final Instance instance = linuxInstanceWithTag("i-abcd123", InstanceStateName.STOPPED, Tag.builder().key("Foo").value("Bar").build());
 
-        final boolean testResult = new SpotInstanceEligibleForTerminationPredicate(null).test(instance);
+        final boolean testResult = new SpotInstanceEligibleForTerminationPredicate(null, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isFalse();
     }
@@ -69,7 +70,7 @@ class SpotInstanceEligibleForTerminationPredicateTest {
 
         testClock.forward(Duration.ofSeconds(21));
 
-        final boolean testResult = new SpotInstanceEligibleForTerminationPredicate(pluginSettings, testClock).test(instance);
+        final boolean testResult = new SpotInstanceEligibleForTerminationPredicate(pluginSettings, testClock, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isTrue();
     }
@@ -87,7 +88,7 @@ class SpotInstanceEligibleForTerminationPredicateTest {
 
         testClock.forward(Duration.ofSeconds(19));
 
-        final boolean testResult = new SpotInstanceEligibleForTerminationPredicate(pluginSettings, testClock).test(instance);
+        final boolean testResult = new SpotInstanceEligibleForTerminationPredicate(pluginSettings, testClock, new InstanceStateTable()).test(instance);
 
         assertThat(testResult).isFalse();
     }
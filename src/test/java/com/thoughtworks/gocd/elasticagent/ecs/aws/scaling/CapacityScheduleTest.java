@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.CapacitySchedule.Scheduled;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.WINDOWS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CapacityScheduleTest {
+    private static final String OFFICE_HOURS = """
+            # office hours
+            30 8 * * MON-FRI LINUX min=12 warm=4
+            0 19 * * MON-FRI LINUX min=2 warm=0
+            0 1 * * * WINDOWS min=3
+            """;
+
+    @Test
+    void shouldKeepTheCountsSetByTheEntryThatFiredLast() {
+        final CapacitySchedule schedule = CapacitySchedule.parse(OFFICE_HOURS);
+
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T08:29:00"))).map(Scheduled::count).contains(2);
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T08:30:00"))).map(Scheduled::count).contains(12);
+        assertThat(schedule.warmInstances(LINUX, utc("2026-10-19T18:59:59"))).map(Scheduled::count).contains(4);
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T19:00:00"))).map(Scheduled::count).contains(2);
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-25T12:00:00"))).map(Scheduled::count).contains(2);
+        assertThat(schedule.minInstances(WINDOWS, utc("2026-10-19T12:00:00"))).map(Scheduled::count).contains(3);
+        assertThat(schedule.warmInstances(WINDOWS, utc("2026-10-19T12:00:00"))).isEmpty();
+    }
+
+    @Test
+    void shouldHaveNoCountWhenNoEntryFiredInThePastWeek() {
+        final CapacitySchedule schedule = CapacitySchedule.parse("0 0 1 JAN * LINUX min=5");
+
+        assertThat(schedule.minInstances(LINUX, utc("2026-01-07T23:59:00"))).map(Scheduled::count).contains(5);
+        assertThat(schedule.minInstances(LINUX, utc("2026-01-08T00:01:00"))).isEmpty();
+    }
+
+    @Test
+    void shouldDescribeTheEntryThatSetACount() {
+        final Scheduled scheduled = CapacitySchedule.parse(OFFICE_HOURS).minInstances(LINUX, utc("2026-10-20T10:00:00")).orElseThrow();
+
+        assertThat(scheduled.describe()).isEqualTo("since Tue 08:30 Z by line 2 of the schedule (30 8 * * MON-FRI LINUX min=12 warm=4)");
+    }
+
+    @Test
+    void shouldEvaluateEntriesInTheirZone() {
+        final CapacitySchedule schedule = CapacitySchedule.parse("""
+                CRON_TZ=Asia/Kolkata
+                0 9 * * * LINUX min=5
+                0 18 * * * LINUX min=0
+                """);
+
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T03:29:00"))).map(Scheduled::count).contains(0);
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T03:30:00"))).map(Scheduled::count).contains(5);
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T03:30:00")).orElseThrow().firedAt().getZone()).isEqualTo(ZoneId.of("Asia/Kolkata"));
+    }
+
+    @Test
+    void shouldNeverFireAtALocalTimeSkippedByADaylightSavingChange() {
+        final CapacitySchedule schedule = CapacitySchedule.parse("""
+                CRON_TZ=Europe/Berlin
+                30 2 * * * LINUX min=5
+                0 3 * * * LINUX min=1
+                """);
+
+        assertThat(schedule.minInstances(LINUX, utc("2026-03-28T10:00:00"))).map(Scheduled::count).contains(1);
+        assertThat(schedule.minInstances(LINUX, utc("2026-03-29T10:00:00"))).map(Scheduled::count).contains(1);
+        assertThat(schedule.minInstances(LINUX, utc("2026-03-30T00:45:00"))).map(Scheduled::count).contains(5);
+    }
+
+    @Test
+    void shouldKeepTheCountOfTheLineFurtherDownWhenLinesFireInTheSameMinute() {
+        final CapacitySchedule schedule = CapacitySchedule.parse("""
+                0 8 * * * LINUX min=4
+                0 8 * * MON LINUX min=7
+                """);
+
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-19T09:00:00"))).map(Scheduled::count).contains(7);
+        assertThat(schedule.minInstances(LINUX, utc("2026-10-20T09:00:00"))).map(Scheduled::count).contains(4);
+    }
+
+    @Test
+    void shouldCapTheScheduledMinimumAtTheMaximumInstancesAllowed() {
+        final PluginSettings pluginSettings = mock(PluginSettings.class);
+        when(pluginSettings.getCapacitySchedule()).thenReturn("* * * * * LINUX min=20");
+        when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(5);
+        when(pluginSettings.getMinWindowsInstanceCount()).thenReturn(2);
+
+        assertThat(CapacitySchedule.minInstanceCount(pluginSettings, LINUX, utc("2026-10-19T09:00:00"))).isEqualTo(5);
+        assertThat(CapacitySchedule.minInstanceCount(pluginSettings, WINDOWS, utc("2026-10-19T09:00:00"))).isEqualTo(2);
+    }
+
+    @Test
+    void shouldMatchEitherDayWhenBothDayOfMonthAndDayOfWeekAreRestricted() {
+        final CronExpression cron = CronExpression.parse("0 0 1 * MON");
+
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-01T00:00:00Z"))).isTrue();
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-19T00:00:00Z"))).isTrue();
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-20T00:00:00Z"))).isFalse();
+    }
+
+    @Test
+    void shouldSupportStepsListsAndSundayAsSeven() {
+        final CronExpression cron = CronExpression.parse("*/15 8-18/2,22 * JAN-MAR,OCT 7");
+
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-18T10:45:00Z"))).isTrue();
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-18T22:00:00Z"))).isTrue();
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-18T09:00:00Z"))).isFalse();
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-18T10:10:00Z"))).isFalse();
+        assertThat(cron.matches(ZonedDateTime.parse("2026-10-19T10:45:00Z"))).isFalse();
+    }
+
+    @Test
+    void shouldRejectInvalidEntriesWithTheirLineNumber() {
+        assertThatThrownBy(() -> CapacitySchedule.parse("0 8 * * * LINUX min=2\n0 8 * * * MAC min=2"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("Line 2: 'MAC' is not a platform");
+        assertThatThrownBy(() -> CapacitySchedule.parse("0 25 * * * LINUX min=2"))
+                .hasMessage("Line 1: 25 is not between 0 and 23.");
+        assertThatThrownBy(() -> CapacitySchedule.parse("0 8 * * * LINUX"))
+                .hasMessageStartingWith("Line 1: '0 8 * * * LINUX' must be a cron expression");
+        assertThatThrownBy(() -> CapacitySchedule.parse("0 8 * * * LINUX min=-1"))
+                .hasMessage("Line 1: 'min=-1' must set a count of zero or more.");
+        assertThatThrownBy(() -> CapacitySchedule.parse("CRON_TZ=Mars/Olympus"))
+                .hasMessageStartingWith("Line 1: ");
+    }
+
+    private static Instant utc(String localDateTime) {
+        return Instant.parse(localDateTime + "Z");
+    }
+}
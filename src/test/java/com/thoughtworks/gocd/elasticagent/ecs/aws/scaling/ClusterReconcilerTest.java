@@ -0,0 +1,283 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.PendingDemand.Waiting;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceMother;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScalingPlan.Action;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategy;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategyFactory;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.StopOperation;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.TerminateOperation;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
+import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.Ec2Exception;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.STOPPED_AT;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceMother.*;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScalingPlan.Kind.*;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+import static software.amazon.awssdk.services.ec2.model.InstanceStateName.RUNNING;
+import static software.amazon.awssdk.services.ec2.model.InstanceStateName.STOPPED;
+
+class ClusterReconcilerTest {
+    private PluginSettings pluginSettings;
+    private ContainerInstanceHelper containerInstanceHelper;
+    private InstanceSelectionStrategy stopStrategy;
+    private StopOperation stopOperation;
+    private TerminateOperation terminateOperation;
+    private InstanceStateTable instanceStates;
+    private InstanceHealth instanceHealth;
+    private ClusterReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        pluginSettings = mock(PluginSettings.class);
+        when(pluginSettings.getClusterName()).thenReturn("GoCD");
+        when(pluginSettings.ec2Client()).thenReturn(mock(Ec2Client.class));
+        when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(10);
+        when(pluginSettings.getMaxWindowsInstancesAllowed()).thenReturn(10);
+        when(pluginSettings.terminateStoppedLinuxInstanceAfter()).thenReturn(Duration.ofMinutes(5));
+        when(pluginSettings.terminateIdleLinuxSpotInstanceAfter()).thenReturn(Duration.ofMinutes(30));
+
+        containerInstanceHelper = mock(ContainerInstanceHelper.class);
+        stopStrategy = mock(InstanceSelectionStrategy.class);
+        final InstanceSelectionStrategyFactory instanceSelectionStrategyFactory = mock(InstanceSelectionStrategyFactory.class);
+        when(instanceSelectionStrategyFactory.strategyFor(any())).thenReturn(stopStrategy);
+        stopOperation = mock(StopOperation.class);
+        terminateOperation = mock(TerminateOperation.class);
+        instanceStates = new InstanceStateTable();
+        instanceHealth = new InstanceHealth(new Clock.TestClock());
+
+        reconciler = new ClusterReconciler(containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminateOperation, instanceStates, instanceHealth,
+                new ScaleInController(new Clock.TestClock()), new Clock.TestClock());
+    }
+
+    @Test
+    void shouldNotStopInstancesBelowTheMinimum() {
+        when(pluginSettings.getMinLinuxInstanceCount()).thenReturn(2);
+        final List<ContainerInstance> idle = List.of(containerInstance("i-1", 0, 0), containerInstance("i-2", 0, 0), containerInstance("i-3", 0, 0));
+        when(stopStrategy.instancesToStop(eq(pluginSettings), eq(LINUX), anyList(), anyList())).thenReturn(Optional.of(idle));
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(idle, List.of(runningLinuxInstance("i-1"), runningLinuxInstance("i-2"), runningLinuxInstance("i-3"))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds).containsExactly(tuple(STOP, List.of("i-1")));
+    }
+
+    @Test
+    void shouldCountTheBusyInstancesOfEachPlatformInThePlan() {
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(List.of(containerInstance("i-1", 0, 1), containerInstance("i-2", 0, 0)),
+                List.of(runningLinuxInstance("i-1"), runningLinuxInstance("i-2"))));
+
+        assertThat(plan.busyInstances()).containsEntry(LINUX, 1);
+    }
+
+    @Test
+    void shouldStartStoppedInstancesRatherThanTerminateThemWhileBelowTheMinimum() {
+        when(pluginSettings.getMinLinuxInstanceCount()).thenReturn(1);
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(List.of(containerInstance("i-stopped", 0, 0)), List.of(linuxInstance("i-stopped", STOPPED))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::count).containsExactly(tuple(START_OR_LAUNCH, 1));
+        assertThat(plan.notes()).anyMatch(note -> note.contains("keeping stopped instance(s) [i-stopped]"));
+    }
+
+    @Test
+    void shouldTerminateInstancesStoppedForTooLongOnceTheMinimumIsMet() {
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(List.of(containerInstance("i-stopped", 0, 0)), List.of(linuxInstance("i-stopped", STOPPED))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds).containsExactly(tuple(TERMINATE, List.of("i-stopped")));
+    }
+
+    @Test
+    void shouldTerminateTheLeastNeededInstancesAboveTheMaximum() {
+        when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(1);
+        instanceStates.markStopped(pluginSettings, List.of("i-stopped"));
+        final List<ContainerInstance> containerInstances = List.of(containerInstance("i-busy", 0, 1), containerInstance("i-idle", 0, 0), containerInstance("i-stopped", 0, 0));
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(containerInstances,
+                List.of(runningLinuxInstance("i-busy"), runningLinuxInstance("i-idle"), linuxInstance("i-stopped", STOPPED))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds).containsExactly(tuple(TERMINATE, List.of("i-stopped", "i-idle")));
+    }
+
+    @Test
+    void shouldMarkIdleSpotInstancesAndTerminateThoseIdleForTooLong() {
+        final String anHourAgo = String.valueOf(Instant.now().minus(Duration.ofHours(1)).toEpochMilli());
+        final Instance longIdle = spotInstanceBuilder("i-long-idle", RUNNING, LINUX.name()).tags(Tag.builder().key(LAST_SEEN_IDLE).value(anHourAgo).build()).build();
+        final List<ContainerInstance> containerInstances = List.of(containerInstance("i-idle", 0, 0), containerInstance("i-long-idle", 0, 0), containerInstance("i-busy", 0, 1));
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(containerInstances,
+                List.of(spotInstance("i-idle", RUNNING, LINUX.name()), longIdle, spotInstance("i-busy", RUNNING, LINUX.name()))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds)
+                .containsExactly(tuple(MARK_IDLE, List.of("i-idle")), tuple(TERMINATE, List.of("i-long-idle")));
+    }
+
+    @Test
+    void shouldReplaceQuarantinedInstancesAndTerminateThemOnceDrained() {
+        when(pluginSettings.getMinLinuxInstanceCount()).thenReturn(6);
+        final List<String> healthy = List.of("i-healthy-1", "i-healthy-2", "i-healthy-3", "i-healthy-4");
+        final ElasticAgentProfileProperties profile = ElasticAgentProfileProperties.empty(LINUX);
+        instanceHealth.recordRegisteredAgent("i-healthy-1", profile);
+        for (int failure = 0; failure < 3; failure++) {
+            instanceHealth.recordStartFailure("i-drained", profile);
+            instanceHealth.recordStartFailure("i-draining", profile);
+        }
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(
+                Stream.concat(Stream.of(containerInstance("i-drained", 0, 0), containerInstance("i-draining", 0, 1)), healthy.stream().map(id -> containerInstance(id, 0, 1))).toList(),
+                Stream.concat(Stream.of("i-drained", "i-draining"), healthy.stream()).map(InstanceMother::runningLinuxInstance).toList()));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds, Action::count)
+                .containsExactly(tuple(TERMINATE, List.of("i-drained"), 1), tuple(START_OR_LAUNCH, List.of(), 2));
+    }
+
+    @Test
+    void shouldQuarantineAtMostAThirdOfTheClusterTheWorstFirst() {
+        when(pluginSettings.getMinLinuxInstanceCount()).thenReturn(0);
+        final ElasticAgentProfileProperties profile = ElasticAgentProfileProperties.empty(LINUX);
+        instanceHealth.recordRegisteredAgent("i-healthy", profile);
+        for (int failure = 0; failure < 4; failure++) {
+            instanceHealth.recordStartFailure("i-worst", profile);
+        }
+        for (int failure = 0; failure < 3; failure++) {
+            instanceHealth.recordStartFailure("i-bad", profile);
+        }
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(
+                List.of(containerInstance("i-worst", 0, 0), containerInstance("i-bad", 0, 1), containerInstance("i-healthy", 0, 1)),
+                List.of(runningLinuxInstance("i-worst"), runningLinuxInstance("i-bad"), runningLinuxInstance("i-healthy"))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds).contains(tuple(TERMINATE, List.of("i-worst")));
+        assertThat(plan.notes()).contains("LINUX: 2 on-demand instance(s), 2 of them running and healthy (minimum 0, maximum 10).");
+    }
+
+    @Test
+    void shouldKeepTheScheduledMinimumInPlaceOfTheConfiguredOne() {
+        when(pluginSettings.getMinLinuxInstanceCount()).thenReturn(1);
+        when(pluginSettings.getCapacitySchedule()).thenReturn("* * * * * LINUX min=3");
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(List.of(containerInstance("i-1", 0, 1)), List.of(runningLinuxInstance("i-1"))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::count).containsExactly(tuple(START_OR_LAUNCH, 2));
+        assertThat(plan.notes()).anyMatch(note -> note.startsWith("LINUX: minimum of 3 scheduled since"));
+    }
+
+    @Test
+    void shouldKeepTheScheduledNumberOfStoppedInstancesWarm() {
+        when(pluginSettings.getCapacitySchedule()).thenReturn("* * * * * LINUX warm=1");
+        final Tag stoppedTwoHoursAgo = Tag.builder().key(STOPPED_AT).value(String.valueOf(Instant.now().minus(Duration.ofHours(2)).toEpochMilli())).build();
+        final Tag stoppedAnHourAgo = Tag.builder().key(STOPPED_AT).value(String.valueOf(Instant.now().minus(Duration.ofHours(1)).toEpochMilli())).build();
+
+        final ScalingPlan plan = reconciler.plan(pluginSettings, state(List.of(containerInstance("i-recent", 0, 0), containerInstance("i-old", 0, 0)),
+                List.of(linuxInstanceWithTag("i-recent", STOPPED, stoppedAnHourAgo), linuxInstanceWithTag("i-old", STOPPED, stoppedTwoHoursAgo))));
+
+        assertThat(plan.actions()).extracting(Action::kind, Action::instanceIds).containsExactly(tuple(TERMINATE, List.of("i-old")));
+        assertThat(plan.notes()).anyMatch(note -> note.startsWith("LINUX: keeping 1 stopped instance(s) warm"));
+    }
+
+    @Test
+    void shouldExecuteEachKindOfActionInOneBatchAndRecordFailuresOnThePlan() {
+        final List<ContainerInstance> containerInstances = List.of(containerInstance("i-1", 0, 0), containerInstance("i-2", 0, 0));
+        final ECSTasks agentInstances = mock(ECSTasks.class);
+        when(agentInstances.getEventStream()).thenReturn(mock(EventStream.class));
+        when(containerInstanceHelper.getContainerInstances(pluginSettings)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getAllInstances(pluginSettings, containerInstances)).thenReturn(List.of(linuxInstance("i-1", STOPPED), linuxInstance("i-2", STOPPED)));
+        doThrow(Ec2Exception.builder().message("instance is no longer available").build()).when(terminateOperation).execute(eq(pluginSettings), anyList());
+
+        final ScalingPlan plan = reconciler.reconcile(pluginSettings, agentInstances, text -> {
+        });
+
+        verify(terminateOperation).execute(pluginSettings, containerInstances);
+        verifyNoInteractions(stopOperation);
+        verify(agentInstances).scalingPlanned(plan);
+        assertThat(plan.summary().getFirst())
+                .startsWith("Terminate LINUX [i-1, i-2]: stopped for more than 5 minute(s)")
+                .contains("(failed: instance is no longer available");
+    }
+
+    @Test
+    void shouldPlaceWaitingJobsPerProfileAndLaunchForTheRestInOneBatch() throws Exception {
+        when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(3);
+        final List<ContainerInstance> containerInstances = List.of(containerInstance("i-1", 0, 1), containerInstance("i-2", 0, 1));
+        final ClusterState state = state(containerInstances, List.of(runningLinuxInstance("i-1"), runningLinuxInstance("i-2")));
+
+        final ElasticAgentProfileProperties small = ElasticAgentProfileProperties.empty(LINUX);
+        final ElasticAgentProfileProperties large = ElasticAgentProfileProperties.fromJson("{\"Image\": \"large\", \"Platform\": \"LINUX\"}");
+        final List<Waiting> waiting = List.of(waiting(1, small), waiting(2, small), waiting(3, large), waiting(4, large));
+        final ECSTasks agentInstances = mock(ECSTasks.class);
+        when(agentInstances.waitingForCapacity()).thenReturn(waiting);
+        when(agentInstances.placeWaiting(eq(waiting.get(0)), eq(pluginSettings), anyList(), anyList())).thenThrow(new IllegalStateException("bad image"));
+        when(agentInstances.placeWaiting(eq(waiting.get(1)), eq(pluginSettings), anyList(), anyList())).thenReturn(Optional.of(mock(ECSTask.class)));
+        when(agentInstances.placeWaiting(eq(waiting.get(2)), eq(pluginSettings), anyList(), anyList())).thenReturn(Optional.empty());
+        when(containerInstanceHelper.startOrLaunchInstances(eq(pluginSettings), eq(large), anyInt(), any())).thenReturn(List.of("i-3"));
+
+        final ScalingPlan plan = new ScalingPlan(Instant.now());
+        reconciler.placeWaiting(pluginSettings, state, plan, agentInstances, text -> {
+        });
+
+        verify(agentInstances, never()).placeWaiting(eq(waiting.get(3)), any(), anyList(), anyList());
+        verify(containerInstanceHelper).startOrLaunchInstances(eq(pluginSettings), eq(large), eq(1), any());
+        verify(containerInstanceHelper, never()).startOrCreateInstance(any(), any(), anyInt(), any());
+        assertThat(plan.notes()).anyMatch(note -> note.startsWith("LINUX: placed 1 of 4 job(s) waiting for capacity"));
+    }
+
+    private Waiting waiting(long jobId, ElasticAgentProfileProperties profile) {
+        final CreateAgentRequest request = mock(CreateAgentRequest.class);
+        when(request.getJobIdentifier()).thenReturn(new JobIdentifier("up42", 1L, "1", "stage", "1", "job", jobId));
+        when(request.elasticProfile()).thenReturn(profile);
+        final Instant since = Instant.parse("2026-03-02T10:00:00Z").plusSeconds(jobId);
+        return new Waiting(request, text -> {
+        }, since, since, since, 0);
+    }
+
+    private ClusterState state(List<ContainerInstance> containerInstances, List<Instance> instances) {
+        return new ClusterState("GoCD", containerInstances, instances, Set.of());
+    }
+}
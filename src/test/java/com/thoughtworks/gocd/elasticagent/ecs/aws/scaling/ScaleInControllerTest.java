@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.scaling;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.WINDOWS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ScaleInControllerTest {
+    private Clock.TestClock clock;
+    private PluginSettings pluginSettings;
+    private ScaleInController scaleInController;
+
+    @BeforeEach
+    void setUp() {
+        clock = new Clock.TestClock();
+        pluginSettings = mock(PluginSettings.class);
+        when(pluginSettings.getClusterName()).thenReturn("GoCD");
+        when(pluginSettings.stopLinuxInstanceAfter()).thenReturn(Duration.ofMinutes(5));
+        when(pluginSettings.maxStopLinuxInstanceAfter()).thenReturn(Duration.ofMinutes(25));
+        when(pluginSettings.stopWindowsInstanceAfter()).thenReturn(Duration.ofMinutes(5));
+        when(pluginSettings.maxStopWindowsInstanceAfter()).thenReturn(Duration.ofMinutes(5));
+
+        scaleInController = new ScaleInController(clock);
+    }
+
+    @Test
+    void shouldStopAfterTheConfiguredIdleTimeoutWhileDemandIsSteady() {
+        for (int ping = 0; ping < 20; ping++) {
+            scaleInController.demandObserved(pluginSettings, LINUX, 3);
+        }
+
+        final ScaleInController.StopAfter stopAfter = scaleInController.stopAfter(pluginSettings, LINUX);
+
+        assertThat(stopAfter.duration()).isEqualTo(Duration.ofMinutes(5));
+        assertThat(stopAfter.isRaised()).isFalse();
+    }
+
+    @Test
+    void shouldRaiseTheIdleTimeoutWithinTheLongestWhileDemandIsUneven() {
+        for (int ping = 0; ping < 20; ping++) {
+            scaleInController.demandObserved(pluginSettings, LINUX, ping % 2 == 0 ? 0 : 4);
+        }
+
+        final ScaleInController.StopAfter stopAfter = scaleInController.stopAfter(pluginSettings, LINUX);
+
+        assertThat(stopAfter.isRaised()).isTrue();
+        assertThat(stopAfter.duration()).isGreaterThan(Duration.ofMinutes(5)).isLessThanOrEqualTo(Duration.ofMinutes(25));
+        assertThat(stopAfter.describe()).contains("demand is uneven");
+    }
+
+    @Test
+    void shouldNeverRaiseTheIdleTimeoutWhenNoLongerOneIsConfigured() {
+        for (int ping = 0; ping < 20; ping++) {
+            scaleInController.demandObserved(pluginSettings, WINDOWS, ping % 2 == 0 ? 0 : 4);
+        }
+        scaleInController.launched(pluginSettings, WINDOWS);
+
+        assertThat(scaleInController.stopAfter(pluginSettings, WINDOWS).duration()).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    @Test
+    void shouldKeepIdleInstancesForTheLongestAfterAScaleOutUntilTheCooldownPasses() {
+        scaleInController.launched(pluginSettings, LINUX);
+
+        clock.forward(Duration.ofMinutes(4));
+        assertThat(scaleInController.stopAfter(pluginSettings, LINUX).duration()).isEqualTo(Duration.ofMinutes(25));
+
+        clock.forward(Duration.ofMinutes(1));
+        assertThat(scaleInController.stopAfter(pluginSettings, LINUX).duration()).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    @Test
+    void shouldRaiseTheIdleTimeoutAfterStoppedInstancesAreStartedAgainSoonAfterBeingStopped() {
+        final Instant stoppedAt = clock.now();
+        clock.forward(Duration.ofMinutes(10));
+
+        scaleInController.started(pluginSettings, LINUX, Map.of("i-1", stoppedAt, "i-2", stoppedAt));
+        clock.forward(Duration.ofMinutes(5));
+
+        final ScaleInController.StopAfter stopAfter = scaleInController.stopAfter(pluginSettings, LINUX);
+        assertThat(stopAfter.duration()).isGreaterThan(Duration.ofMinutes(5));
+        assertThat(stopAfter.describe()).contains("recent restart(s)");
+
+        clock.forward(ScaleInController.CHURN_HALF_LIFE.multipliedBy(20));
+        assertThat(scaleInController.stopAfter(pluginSettings, LINUX).duration()).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    @Test
+    void shouldNotCountInstancesStoppedForLongerThanTheLongestAsChurn() {
+        final Instant stoppedAt = clock.now();
+        clock.forward(Duration.ofMinutes(30));
+
+        scaleInController.started(pluginSettings, LINUX, Map.of("i-1", stoppedAt));
+        clock.forward(Duration.ofMinutes(5));
+
+        assertThat(scaleInController.stopAfter(pluginSettings, LINUX).duration()).isEqualTo(Duration.ofMinutes(5));
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.StopPolicy;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ScaleInController;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -24,13 +29,15 @@ import org.junit.jupiter.params.provider.MethodSource;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 
 class InstanceSelectionStrategyFactoryTest {
 
     @ParameterizedTest
     @MethodSource("inputs")
     void shouldReturnInstanceSelectionStrategy(StopPolicy stopPolicy, Class<?> instanceSelectionStrategyClass) {
-        final InstanceSelectionStrategy instanceSelectionStrategy = new InstanceSelectionStrategyFactory().strategyFor(stopPolicy);
+        final InstanceSelectionStrategy instanceSelectionStrategy = new InstanceSelectionStrategyFactory(mock(ContainerInstanceHelper.class), new InstanceStateTable(), new InstanceHealth(Clock.DEFAULT),
+                new ScaleInController(Clock.DEFAULT), new Clock.TestClock()).strategyFor(stopPolicy);
         assertThat(instanceSelectionStrategy).isInstanceOf(instanceSelectionStrategyClass);
     }
 
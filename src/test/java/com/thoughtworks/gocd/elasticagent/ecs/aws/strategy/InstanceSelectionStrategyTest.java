@@ -16,7 +16,9 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.ContainerInstanceMatcher;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.matcher.InstanceMatcher;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
@@ -31,6 +33,8 @@ import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.InstanceStateName;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 
 import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
@@ -47,6 +51,8 @@ class InstanceSelectionStrategyTest {
     private ContainerInstanceHelper containerInstanceHelper;
     private InstanceMatcher instanceMatcher;
     private ContainerInstanceMatcher containerInstanceMatcher;
+    private InstanceHealth instanceHealth;
+    private Clock.TestClock clock;
 
     @BeforeEach
     void setUp() {
@@ -54,8 +60,10 @@ class InstanceSelectionStrategyTest {
         containerInstanceHelper = mock(ContainerInstanceHelper.class);
         instanceMatcher = mock(InstanceMatcher.class);
         containerInstanceMatcher = mock(ContainerInstanceMatcher.class);
+        instanceHealth = new InstanceHealth(new Clock.TestClock());
+        clock = new Clock.TestClock(Instant.parse("2026-10-19T07:00:00Z"));
 
-        idleInstanceSelectionStrategy = new StubInstanceSelectionStrategy(containerInstanceHelper, instanceMatcher, containerInstanceMatcher);
+        idleInstanceSelectionStrategy = new StubInstanceSelectionStrategy(containerInstanceHelper, instanceMatcher, containerInstanceMatcher, instanceHealth, clock);
     }
 
     @Nested
@@ -169,6 +177,33 @@ class InstanceSelectionStrategyTest {
             assertThat(containerInstance.get().ec2InstanceId()).isEqualTo("i-linux");
             verify(containerInstanceHelper).removeLastSeenIdleTag(pluginSettings, List.of("i-linux"));
         }
+
+        @Test
+        void shouldSkipQuarantinedInstances() {
+            final List<ContainerInstance> containerInstances = asList(
+                    containerInstance("i-unhealthy", 0, 0),
+                    containerInstance("i-healthy", 0, 0)
+            );
+
+            final List<Instance> instances = asList(
+                    runningLinuxInstance("i-unhealthy"),
+                    runningLinuxInstance("i-healthy")
+            );
+
+            when(containerInstanceHelper.getContainerInstances(pluginSettings)).thenReturn(containerInstances);
+            when(containerInstanceHelper.ec2InstancesFromContainerInstances(pluginSettings, containerInstances)).thenReturn(instances);
+            when(instanceMatcher.matches(any(), any())).thenReturn(true);
+            when(containerInstanceMatcher.matches(any(), any())).thenReturn(true);
+
+            instanceHealth.recordRegisteredAgent("i-healthy", elasticAgentProfileProperties);
+            for (int failure = 0; failure < 3; failure++) {
+                instanceHealth.recordStartFailure("i-unhealthy", elasticAgentProfileProperties);
+            }
+
+            final Iterator<ContainerInstance> candidates = idleInstanceSelectionStrategy.instancesForScheduling(pluginSettings, elasticAgentProfileProperties, null);
+
+            assertThat(candidates).toIterable().extracting(ContainerInstance::ec2InstanceId).containsExactly("i-healthy");
+        }
     }
     @Nested
     class ForTermination {
@@ -225,6 +260,32 @@ class InstanceSelectionStrategyTest {
             assertThat(containerInstance.isPresent()).isFalse();
         }
 
+        @Test
+        void shouldKeepTheScheduledMinimumByTheInjectedClockCappedAtTheMaximumInstancesAllowed() {
+            final List<ContainerInstance> containerInstances = asList(
+                    containerInstance("i-linux1", 0, 0),
+                    containerInstance("i-linux2", 0, 0),
+                    containerInstance("i-linux3", 0, 0)
+            );
+            final List<Instance> instances = asList(
+                    runningLinuxInstance("i-linux1"),
+                    runningLinuxInstance("i-linux2"),
+                    runningLinuxInstance("i-linux3")
+            );
+            when(pluginSettings.getCapacitySchedule()).thenReturn("0 8 * * * LINUX min=10\n0 20 * * * LINUX min=0");
+            when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(3);
+            when(containerInstanceHelper.getContainerInstances(pluginSettings)).thenReturn(containerInstances);
+            when(containerInstanceHelper.ec2InstancesFromContainerInstances(pluginSettings, containerInstances)).thenReturn(instances);
+
+            assertThat(idleInstanceSelectionStrategy.instancesToStop(pluginSettings, Platform.LINUX)).isPresent();
+
+            clock.forward(Duration.ofHours(2));
+            assertThat(idleInstanceSelectionStrategy.instancesToStop(pluginSettings, Platform.LINUX)).isEmpty();
+
+            when(pluginSettings.getMaxLinuxInstancesAllowed()).thenReturn(2);
+            assertThat(idleInstanceSelectionStrategy.instancesToStop(pluginSettings, Platform.LINUX)).isPresent();
+        }
+
         @ParameterizedTest
         @EnumSource(value = InstanceStateName.class, names = {"PENDING", "RUNNING"})
         void shouldReturnContainerInstanceWithAcceptableStates(InstanceStateName instanceState) {
@@ -253,8 +314,9 @@ class InstanceSelectionStrategyTest {
 
     static class StubInstanceSelectionStrategy extends InstanceSelectionStrategy {
 
-        StubInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceMatcher instanceMatcher, ContainerInstanceMatcher containerInstanceMatcher) {
-            super(containerInstanceHelper, instanceMatcher, containerInstanceMatcher);
+        StubInstanceSelectionStrategy(ContainerInstanceHelper containerInstanceHelper, InstanceMatcher instanceMatcher, ContainerInstanceMatcher containerInstanceMatcher,
+                                      InstanceHealth instanceHealth, Clock clock) {
+            super(containerInstanceHelper, instanceMatcher, containerInstanceMatcher, instanceHealth, clock);
         }
 
         @Override
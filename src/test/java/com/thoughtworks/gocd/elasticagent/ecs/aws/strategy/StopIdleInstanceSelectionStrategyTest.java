@@ -19,6 +19,7 @@ package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerDefinitionBuilder.PlacementRequirement;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
@@ -58,7 +59,7 @@ class StopIdleInstanceSelectionStrategyTest {
         pluginSettings = mock(PluginSettings.class);
         containerInstanceHelper = mock(ContainerInstanceHelper.class);
 
-        stopIdleInstanceSelectionStrategy = new StopIdleInstanceSelectionStrategy(containerInstanceHelper, testClock);
+        stopIdleInstanceSelectionStrategy = new StopIdleInstanceSelectionStrategy(containerInstanceHelper, testClock, new InstanceStateTable());
     }
 
     @Nested
@@ -16,29 +16,35 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
 import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
 import software.amazon.awssdk.services.ec2.model.StopInstancesResponse;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.STOPPED_AT;
 import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 class StopOperationTest {
 
     private PluginSettings pluginSettings;
     private Ec2Client ec2Client;
+    private InstanceStateTable instanceStates;
 
     @BeforeEach
     void setUp() {
         pluginSettings = mock(PluginSettings.class);
         ec2Client = mock(Ec2Client.class);
+        instanceStates = new InstanceStateTable();
 
         when(pluginSettings.ec2Client()).thenReturn(ec2Client);
     }
@@ -52,7 +58,7 @@ class StopOperationTest {
         when(ec2Client.stopInstances(stopInstancesRequestArgumentCaptor.capture()))
                 .thenReturn(StopInstancesResponse.builder().build());
 
-        new StopOperation().execute(pluginSettings, instanceToDeregister);
+        new StopOperation(instanceStates).execute(pluginSettings, instanceToDeregister);
 
         final StopInstancesRequest stopInstancesRequest = stopInstancesRequestArgumentCaptor.getValue();
 
@@ -61,4 +67,17 @@ class StopOperationTest {
                 .contains("i-abcde12");
     }
 
+    @Test
+    void shouldTagStopTimeBeforeStoppingInstance() {
+        new StopOperation(instanceStates).execute(pluginSettings, containerInstance("i-abcde12", "container-instance-arn"));
+
+        assertThat(instanceStates.stoppedAt(Instance.builder().instanceId("i-abcde12").build())).isPresent();
+
+        final InOrder inOrder = inOrder(ec2Client);
+        final ArgumentCaptor<CreateTagsRequest> createTagsRequestArgumentCaptor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        inOrder.verify(ec2Client).createTags(createTagsRequestArgumentCaptor.capture());
+        inOrder.verify(ec2Client).stopInstances(any(StopInstancesRequest.class));
+        assertThat(createTagsRequestArgumentCaptor.getValue().resources()).containsExactly("i-abcde12");
+        assertThat(createTagsRequestArgumentCaptor.getValue().tags().getFirst().key()).isEqualTo(STOPPED_AT);
+    }
 }
@@ -16,6 +16,10 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.strategy;
 
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.CleanupExecutor;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.PluginSettings;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -28,6 +32,9 @@ import software.amazon.awssdk.services.ecs.EcsClient;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 import software.amazon.awssdk.services.ecs.model.DeregisterContainerInstanceRequest;
 import software.amazon.awssdk.services.ecs.model.DeregisterContainerInstanceResponse;
+import software.amazon.awssdk.services.ecs.model.EcsException;
+
+import java.util.List;
 
 import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -51,7 +58,7 @@ class TerminateOperationTest {
 
         when(pluginSettings.ecsClient()).thenReturn(ecsClient);
         when(pluginSettings.ec2Client()).thenReturn(ec2Client);
-        terminateOperation = new TerminateOperation();
+        terminateOperation = new TerminateOperation(new InstanceStateTable(), new CleanupExecutor(), new InstanceHealth(Clock.DEFAULT));
     }
 
     @Test
@@ -91,4 +98,21 @@ class TerminateOperationTest {
 
         assertThat(exception.getMessage()).startsWith("Request Timeout");
     }
+
+    @Test
+    void shouldTerminateDeregisteredInstancesBeforeReportingTheOnesThatFailedToDeregister() {
+        final ContainerInstance deregistered = containerInstance("i-abcde12", "container-instance-arn-1");
+        final ContainerInstance notDeregistered = containerInstance("i-abcde13", "container-instance-arn-2");
+
+        when(pluginSettings.getClusterName()).thenReturn("GoCD");
+        when(ecsClient.deregisterContainerInstance(DeregisterContainerInstanceRequest.builder().containerInstance("container-instance-arn-2").cluster("GoCD").force(true).build()))
+                .thenThrow(EcsException.builder().message("Throttled").build());
+        final ArgumentCaptor<TerminateInstancesRequest> terminateInstancesRequestArgumentCaptor = ArgumentCaptor.forClass(TerminateInstancesRequest.class);
+        when(ec2Client.terminateInstances(terminateInstancesRequestArgumentCaptor.capture())).thenReturn(TerminateInstancesResponse.builder().build());
+
+        final EcsException exception = assertThrows(EcsException.class, () -> terminateOperation.execute(pluginSettings, List.of(deregistered, notDeregistered)));
+
+        assertThat(exception.getMessage()).startsWith("Throttled");
+        assertThat(terminateInstancesRequestArgumentCaptor.getValue().instanceIds()).containsExactly("i-abcde12");
+    }
 }
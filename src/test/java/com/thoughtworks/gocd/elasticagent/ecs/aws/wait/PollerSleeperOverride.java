@@ -0,0 +1,33 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.aws.wait;
+
+/**
+ * Makes every {@link Poller} wait with the given sleeper until closed.
+ */
+public class PollerSleeperOverride implements AutoCloseable {
+    private final Sleeper previous;
+
+    public PollerSleeperOverride(Sleeper sleeper) {
+        previous = Poller.useSleeper(sleeper);
+    }
+
+    @Override
+    public void close() {
+        Poller.useSleeper(previous);
+    }
+}
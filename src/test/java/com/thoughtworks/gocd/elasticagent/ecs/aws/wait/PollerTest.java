@@ -16,16 +16,22 @@
 
 package com.thoughtworks.gocd.elasticagent.ecs.aws.wait;
 
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsRateLimiter;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 class PollerTest {
     @Test
@@ -45,6 +51,23 @@ class PollerTest {
         assertThat(result.getException()).isNull();
     }
 
+    @Test
+    void shouldPollWithThePriorityOfTheCaller() {
+        final AwsRateLimiter.Priority previous = AwsRateLimiter.usePriority(AwsRateLimiter.Priority.INTERACTIVE);
+        try {
+            final Result<AwsRateLimiter.Priority> result = new Poller<AwsRateLimiter.Priority>()
+                    .poll(AwsRateLimiter::currentPriority)
+                    .stopWhen(priority -> true)
+                    .timeout(Duration.ofSeconds(3))
+                    .retryAfter(Duration.ofMillis(100))
+                    .await();
+
+            assertThat(result.get()).isEqualTo(AwsRateLimiter.Priority.INTERACTIVE);
+        } finally {
+            AwsRateLimiter.usePriority(previous);
+        }
+    }
+
     @Test
     void shouldReturnResultWhenGivenSupplierThrowsAnException() {
         final Api api = mock(Api.class);
@@ -99,6 +122,52 @@ class PollerTest {
         assertThat(result.getException()).isInstanceOf(TimeoutException.class);
     }
 
+    @Test
+    @Timeout(value = 5, unit = TimeUnit.SECONDS)
+    void shouldBoundPollingByTheTimeSleptWhenTheSleeperTakesNoRealTime() {
+        final Api api = mock(Api.class);
+        when(api.get()).thenReturn(1);
+
+        try (PollerSleeperOverride ignored = new PollerSleeperOverride(duration -> {
+        })) {
+            final Result<Integer> result = new Poller<Integer>()
+                    .poll(api::get)
+                    .stopWhen(count -> count >= 3)
+                    .timeout(Duration.ofMinutes(5))
+                    .retryAfter(Duration.ofSeconds(30))
+                    .await();
+
+            assertThat(result.isFailed()).isTrue();
+            assertThat(result.getException()).isInstanceOf(TimeoutException.class);
+            verify(api, times(11)).get();
+        }
+    }
+
+    @Test
+    void shouldRecordAFlightRecorderEventForTheWait(@TempDir Path directory) throws Exception {
+        final Path recordingFile = directory.resolve("poller.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("gocd.ecs.PollerWait").withThreshold(Duration.ZERO);
+            recording.start();
+
+            new Poller<Integer>()
+                    .describedAs("instances registering")
+                    .poll(() -> 3)
+                    .stopWhen(count -> count >= 3)
+                    .timeout(Duration.ofSeconds(3))
+                    .await();
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        assertThat(events).hasSize(1);
+        assertThat(events.getFirst().getString("description")).isEqualTo("instances registering");
+        assertThat(events.getFirst().getInt("polls")).isEqualTo(1);
+        assertThat(events.getFirst().getBoolean("succeeded")).isTrue();
+    }
+
     static class Api {
         public int get() {
             return 0;
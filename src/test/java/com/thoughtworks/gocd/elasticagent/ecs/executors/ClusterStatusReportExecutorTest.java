@@ -17,8 +17,10 @@
 package com.thoughtworks.gocd.elasticagent.ecs.executors;
 
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
 import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceHealth;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
 import com.thoughtworks.gocd.elasticagent.ecs.builders.PluginStatusReportViewBuilder;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
@@ -26,6 +28,7 @@ import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSContainer;
 import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
+import com.thoughtworks.gocd.elasticagent.ecs.metrics.PluginMetrics;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.ClusterStatusReportRequest;
 import freemarker.template.Template;
 import org.junit.jupiter.api.BeforeEach;
@@ -63,7 +66,8 @@ class ClusterStatusReportExecutorTest {
         eventStream = mock(EventStream.class);
         ecsTasks = mock(ECSTasks.class);
 
-        clusterStatusReportExecutor = new ClusterStatusReportExecutor(request, ecsTasks, containerInstanceHelper, taskHelper, pluginStatusReportViewBuilder, eventStream);
+        clusterStatusReportExecutor = new ClusterStatusReportExecutor(request, ecsTasks, containerInstanceHelper, taskHelper, pluginStatusReportViewBuilder, eventStream, new InstanceHealth(new Clock.TestClock()),
+                new PluginMetrics());
     }
 
     @Test
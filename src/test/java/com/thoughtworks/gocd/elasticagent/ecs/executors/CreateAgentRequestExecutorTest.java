@@ -45,4 +45,18 @@ class CreateAgentRequestExecutorTest {
 
         verify(agentInstances).create(eq(request), eq(settings), any(ConsoleLogAppender.class));
     }
+
+    @Test
+    void shouldNotCreateAnotherAgentForAJobWaitingForCapacity() throws Exception {
+        CreateAgentRequest request = mock(CreateAgentRequest.class);
+        when(request.getJobIdentifier()).thenReturn(new JobIdentifier("test-pipeline", 1L, "Test Pipeline", "test-stage", "1", "test-job", 100L));
+        ECSTasks agentInstances = mock(ECSTasks.class);
+        when(agentInstances.stillWaitingForCapacity(eq(request), any(ConsoleLogAppender.class))).thenReturn(true);
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+
+        new CreateAgentRequestExecutor(request, agentInstances, pluginRequest, mock(EventStream.class)).execute();
+
+        verify(agentInstances, never()).create(any(), any(), any());
+        verifyNoInteractions(pluginRequest);
+    }
 }
@@ -249,6 +249,13 @@ class GetClusterProfileMetadataExecutorTest {
                       "secure": false
                     }
                   },
+                  {
+                    "key": "MaxStopLinuxInstanceAfter",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
                   {
                     "key": "TerminateStoppedLinuxInstanceAfter",
                     "metadata": {
@@ -347,6 +354,13 @@ class GetClusterProfileMetadataExecutorTest {
                       "secure": false
                     }
                   },
+                  {
+                    "key": "MaxStopWindowsInstanceAfter",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
                   {
                     "key": "TerminateStoppedWindowsInstanceAfter",
                     "metadata": {
@@ -409,6 +423,62 @@ class GetClusterProfileMetadataExecutorTest {
                       "required": false,
                       "secure": false
                     }
+                  },
+                  {
+                    "key": "MetricsFile",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "ReadApiCallTimeout",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "ReadApiCallAttemptTimeout",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "WriteApiCallTimeout",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "WriteApiCallAttemptTimeout",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "HedgeReads",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "UseLaunchTemplates",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "CapacitySchedule",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
                   }
                 ]
                 """;
@@ -44,7 +44,7 @@ class GetPluginConfigurationExecutorTest {
 
         assertThat(response.responseCode()).isEqualTo(200);
 
-        int expectedFieldNumber = 48;
+        int expectedFieldNumber = 57;
         String expectedJSON = """
                 {
                   "GoServerUrl": {
@@ -208,6 +208,12 @@ class GetPluginConfigurationExecutorTest {
                     "secure": false,
                     "display-order": "%d"
                   },
+                  "MaxStopLinuxInstanceAfter": {
+                    "display-name": "Stop instance after at most (in minutes)",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
                   "TerminateStoppedLinuxInstanceAfter": {
                     "display-name": "Terminate stopped instance after (in minutes)",
                     "default-value": "5",
@@ -289,6 +295,12 @@ class GetPluginConfigurationExecutorTest {
                     "secure": false,
                     "display-order": "%d"
                   },
+                  "MaxStopWindowsInstanceAfter": {
+                    "display-name": "Stop instance after at most (in minutes)",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
                   "TerminateStoppedWindowsInstanceAfter": {
                     "display-name": "Terminate stopped instance after (in minutes)",
                     "default-value": "5",
@@ -356,6 +368,50 @@ class GetPluginConfigurationExecutorTest {
                     "required": false,
                     "secure": false,
                     "display-order": "%d"
+                  },
+                  "ReadApiCallTimeout": {
+                    "display-name": "Read API call timeout (in seconds)",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
+                  "ReadApiCallAttemptTimeout": {
+                    "display-name": "Read API call attempt timeout (in seconds)",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
+                  "WriteApiCallTimeout": {
+                    "display-name": "Write API call timeout (in seconds)",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
+                  "WriteApiCallAttemptTimeout": {
+                    "display-name": "Write API call attempt timeout (in seconds)",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
+                  "HedgeReads": {
+                    "display-name": "Hedge slow reads when starting jobs",
+                    "default-value": "false",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
+                  "UseLaunchTemplates": {
+                    "display-name": "Launch instances from launch templates",
+                    "default-value": "false",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
+                  },
+                  "CapacitySchedule": {
+                    "display-name": "Capacity schedule",
+                    "required": false,
+                    "secure": false,
+                    "display-order": "%d"
                   }
                 }""".formatted(IntStream.range(0, expectedFieldNumber).boxed().toArray());
 
@@ -18,7 +18,10 @@ package com.thoughtworks.gocd.elasticagent.ecs.executors;
 
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import com.thoughtworks.gocd.elasticagent.ecs.*;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsCircuitBreaker;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsCircuitBreakers;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceHelper;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceStateTable;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.SpotInstanceService;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.TaskHelper;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStrategy;
@@ -26,6 +29,8 @@ import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.InstanceSelectionStra
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.StopOperation;
 import com.thoughtworks.gocd.elasticagent.ecs.aws.strategy.TerminateOperation;
 import com.thoughtworks.gocd.elasticagent.ecs.domain.*;
+import com.thoughtworks.gocd.elasticagent.ecs.events.Event;
+import com.thoughtworks.gocd.elasticagent.ecs.events.EventFingerprint;
 import com.thoughtworks.gocd.elasticagent.ecs.events.EventStream;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.CreateAgentRequest;
 import com.thoughtworks.gocd.elasticagent.ecs.requests.ServerPingRequest;
@@ -35,19 +40,24 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.mockito.ArgumentMatcher;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
 import software.amazon.awssdk.services.ec2.model.Ec2Exception;
 import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ecs.model.ContainerInstance;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LAST_SEEN_IDLE;
 import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
 import static com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceMother.*;
 import static com.thoughtworks.gocd.elasticagent.ecs.domain.Agent.ConfigState.Disabled;
 import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
 import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.WINDOWS;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -72,6 +82,8 @@ class ServerPingRequestExecutorTest {
     private Map<String, ECSTasks> allAgentInstances;
     private ConsoleLogAppender consoleLogAppender;
     private SpotInstanceService spotInstanceService;
+    private InstanceStateTable instanceStates;
+    private AwsCircuitBreakers circuitBreakers;
 
     @BeforeEach
     void setUp() {
@@ -90,8 +102,14 @@ class ServerPingRequestExecutorTest {
         stopOperation = mock(StopOperation.class);
         terminationOperation = mock(TerminateOperation.class);
         spotInstanceService = mock(SpotInstanceService.class);
+        instanceStates = new InstanceStateTable();
+        circuitBreakers = new AwsCircuitBreakers();
 
         when(clusterProfileProperties.getMaxLinuxInstancesAllowed()).thenReturn(5);
+        when(clusterProfileProperties.getMaxWindowsInstancesAllowed()).thenReturn(5);
+        when(clusterProfileProperties.terminateStoppedLinuxInstanceAfter()).thenReturn(Duration.ofMinutes(5));
+        when(clusterProfileProperties.terminateStoppedWindowsInstanceAfter()).thenReturn(Duration.ofMinutes(5));
+        when(clusterProfileProperties.terminateIdleLinuxSpotInstanceAfter()).thenReturn(Duration.ofMinutes(30));
         when(clusterProfileProperties.getClusterName()).thenReturn("GoCD");
         when(elasticAgentProfileProperties.getImage()).thenReturn("alpine:latest");
         when(elasticAgentProfileProperties.platform()).thenReturn(LINUX);
@@ -100,7 +118,7 @@ class ServerPingRequestExecutorTest {
         when(serverPingRequest.allClusterProfileProperties()).thenReturn(singletonList(clusterProfileProperties));
         allAgentInstances = new HashMap<>();
         allAgentInstances.put("id1", agentInstances);
-        executor = new ServerPingRequestExecutor(serverPingRequest, allAgentInstances, pluginRequest, containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminationOperation, spotInstanceService);
+        executor = new ServerPingRequestExecutor(serverPingRequest, allAgentInstances, pluginRequest, containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminationOperation, spotInstanceService, instanceStates, circuitBreakers);
     }
 
     @Test
@@ -115,6 +133,35 @@ class ServerPingRequestExecutorTest {
         verify(pluginRequest).disableAgents(argThat(collectionMatches(agents.agents())));
     }
 
+    @Test
+    void shouldSkipCleanupOfAClusterWhileItsAwsCallsAreFailing() {
+        when(pluginRequest.listAgents()).thenReturn(new Agents());
+        final AwsCircuitBreaker circuitBreaker = circuitBreakers.forCluster(clusterProfileProperties);
+        for (int i = 0; i < 20; i++) {
+            circuitBreaker.onFailure("Service Unavailable");
+        }
+
+        executor.execute();
+
+        verifyNoInteractions(containerInstanceHelper, stopOperation, terminationOperation, spotInstanceService);
+        verify(eventStream).update(argThat((Event event) -> event.fingerprint().equals(EventFingerprint.forAwsCircuitBreaker()) && "Service Unavailable".equals(event.getDescription())));
+    }
+
+    @Test
+    void shouldTagInstancesMarkedIdleSinceTheLastPingInOneCall() {
+        final Ec2Client ec2Client = mock(Ec2Client.class);
+        when(clusterProfileProperties.ec2Client()).thenReturn(ec2Client);
+        when(pluginRequest.listAgents()).thenReturn(new Agents());
+        instanceStates.markIdle(clusterProfileProperties, List.of("i-1"));
+        instanceStates.markIdle(clusterProfileProperties, List.of("i-2"));
+
+        executor.execute();
+        executor.execute();
+
+        verify(ec2Client).createTags(argThat((CreateTagsRequest request) -> request.resources().containsAll(List.of("i-1", "i-2"))));
+        verifyNoMoreInteractions(ec2Client);
+    }
+
     @Test
     void testShouldTerminateDisabledAgents() {
         final Agents agents = new Agents(List.of(new Agent("agent-id", Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled)));
@@ -157,7 +204,7 @@ class ServerPingRequestExecutorTest {
         allAgentInstances.clear();
         allAgentInstances.put("id1", spyAgentInstances);
 
-        new ServerPingRequestExecutor(serverPingRequest, allAgentInstances, pluginRequest, containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminationOperation, spotInstanceService).execute();
+        new ServerPingRequestExecutor(serverPingRequest, allAgentInstances, pluginRequest, containerInstanceHelper, instanceSelectionStrategyFactory, stopOperation, terminationOperation, spotInstanceService, instanceStates, circuitBreakers).execute();
 
         verify(spyAgentInstances).terminateUnregisteredInstances(eq(clusterProfileProperties), any(Agents.class));
     }
@@ -171,17 +218,25 @@ class ServerPingRequestExecutorTest {
                 runningWindowsInstance("i-windows1"),
                 runningWindowsInstance("i-windows2")
         );
+        final List<ContainerInstance> containerInstances = Arrays.asList(
+                containerInstance("i-linux1", 0, 1),
+                containerInstance("i-linux2", 0, 1),
+                containerInstance("i-windows1", 0, 1),
+                containerInstance("i-windows2", 0, 1)
+        );
 
-        when(containerInstanceHelper.getAllOnDemandInstances(clusterProfileProperties)).thenReturn(runningInstances);
+        when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances)).thenReturn(runningInstances);
         when(pluginRequest.listAgents()).thenReturn(agents);
         when(clusterProfileProperties.getMinLinuxInstanceCount()).thenReturn(2);
         when(clusterProfileProperties.getMinWindowsInstanceCount()).thenReturn(2);
 
         executor.execute();
 
-        verify(containerInstanceHelper, times(3)).getAllOnDemandInstances(clusterProfileProperties);
-        verify(containerInstanceHelper, times(2)).onDemandContainerInstances(clusterProfileProperties);
+        verify(containerInstanceHelper).getContainerInstances(clusterProfileProperties);
+        verify(containerInstanceHelper).getAllInstances(clusterProfileProperties, containerInstances);
         verifyNoMoreInteractions(containerInstanceHelper);
+        assertThat(agentInstances.lastScalingPlan()).hasValueSatisfying(plan -> assertThat(plan.isEmpty()).isTrue());
     }
 
     @ParameterizedTest
@@ -192,14 +247,14 @@ class ServerPingRequestExecutorTest {
                 instance("i-abcd123", STOPPED, platform.name())
         );
 
-        final ContainerInstance stoppedContainerInstance = containerInstance("i-abcd123");
+        final ContainerInstance stoppedContainerInstance = containerInstance("i-abcd123", 0, 0);
         final List<ContainerInstance> containerInstances = Arrays.asList(
-                containerInstance("i-abcdxyz"),
+                containerInstance("i-abcdxyz", 0, 1),
                 stoppedContainerInstance
         );
 
-        when(containerInstanceHelper.getAllOnDemandInstances(clusterProfileProperties)).thenReturn(allInstances);
-        when(containerInstanceHelper.onDemandContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances)).thenReturn(allInstances);
         when(pluginRequest.listAgents()).thenReturn(new Agents(new ArrayList<>()));
 
         executor.execute();
@@ -214,14 +269,14 @@ class ServerPingRequestExecutorTest {
                 instance("i-abcd123", STOPPED, LINUX.name())
         );
 
-        final ContainerInstance stoppedContainerInstance = containerInstance("i-abcd123");
+        final ContainerInstance stoppedContainerInstance = containerInstance("i-abcd123", 0, 0);
         final List<ContainerInstance> containerInstances = Arrays.asList(
-                containerInstance("i-abcdxyz"),
+                containerInstance("i-abcdxyz", 0, 1),
                 stoppedContainerInstance
         );
 
-        when(containerInstanceHelper.getAllOnDemandInstances(clusterProfileProperties)).thenReturn(allInstances);
-        when(containerInstanceHelper.onDemandContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances)).thenReturn(allInstances);
         when(pluginRequest.listAgents()).thenReturn(new Agents(new ArrayList<>()));
         doThrow(Ec2Exception.builder().message("instance is no longer available").build())
                 .when(terminationOperation).execute(eq(clusterProfileProperties), anyList());
@@ -261,21 +316,30 @@ class ServerPingRequestExecutorTest {
     }
 
     @Test
-    void shouldTagIdleSpotInstances() {
+    void shouldMarkIdleSpotInstances() {
+        final Instance spotInstance = runningLinuxSpotInstance("i-spot");
+        final List<ContainerInstance> containerInstances = singletonList(containerInstance("i-spot", 0, 0));
+        when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances)).thenReturn(singletonList(spotInstance));
         when(pluginRequest.listAgents()).thenReturn(new Agents());
 
         executor.execute();
 
-        verify(spotInstanceService).tagIdleSpotInstances(clusterProfileProperties);
+        assertThat(instanceStates.isMarkedIdle(spotInstance)).isTrue();
     }
 
     @Test
     void shouldTerminateIdleSpotInstances() {
+        final Tag idleForAnHour = Tag.builder().key(LAST_SEEN_IDLE).value(String.valueOf(Instant.now().minus(Duration.ofHours(1)).toEpochMilli())).build();
+        final List<ContainerInstance> containerInstances = singletonList(containerInstance("i-spot", 0, 0));
+        when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
+        when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances))
+                .thenReturn(singletonList(spotInstanceBuilder("i-spot", RUNNING, LINUX.name()).tags(idleForAnHour).build()));
         when(pluginRequest.listAgents()).thenReturn(new Agents());
 
         executor.execute();
 
-        verify(spotInstanceService).terminateIdleSpotInstances(clusterProfileProperties);
+        verify(terminationOperation).execute(clusterProfileProperties, containerInstances);
     }
 
     @Nested
@@ -287,13 +351,13 @@ class ServerPingRequestExecutorTest {
 
         @Test
         void shouldScaleUpIfRunningInstancesAreBelowMinimumRequiredInstanceCount() throws Exception {
-            when(containerInstanceHelper.getAllOnDemandInstances(clusterProfileProperties)).thenReturn(singletonList(runningLinuxInstance("i-abcd123")));
+            when(containerInstanceHelper.getAllInstances(clusterProfileProperties, emptyList())).thenReturn(singletonList(runningLinuxInstance("i-abcd123")));
             when(clusterProfileProperties.getMinLinuxInstanceCount()).thenReturn(5);
 
             executor.execute();
 
-            verify(containerInstanceHelper, times(3)).getAllOnDemandInstances(clusterProfileProperties);
-            verify(containerInstanceHelper).onDemandContainerInstances(clusterProfileProperties);
+            verify(containerInstanceHelper).getContainerInstances(clusterProfileProperties);
+            verify(containerInstanceHelper).getAllInstances(clusterProfileProperties, emptyList());
             verify(containerInstanceHelper).startOrCreateInstance(eq(clusterProfileProperties), any(ElasticAgentProfileProperties.class), eq(4), any(ConsoleLogAppender.class));
             verifyNoMoreInteractions(containerInstanceHelper);
         }
@@ -301,11 +365,11 @@ class ServerPingRequestExecutorTest {
         @Test
         void shouldStopIdleInstanceWhenIdleTimeOutIsReached() {
             final List<Instance> runningInstances = singletonList(runningLinuxInstance("i-abcded1"));
-            final List<ContainerInstance> containerInstances = singletonList(containerInstance("i-abcded1"));
+            final List<ContainerInstance> containerInstances = singletonList(containerInstance("i-abcded1", 0, 0));
 
-            when(containerInstanceHelper.getAllInstances(clusterProfileProperties)).thenReturn(runningInstances);
+            when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances)).thenReturn(runningInstances);
             when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
-            when(instanceSelectionStrategy.instancesToStop(clusterProfileProperties, LINUX)).thenReturn(Optional.of(containerInstances));
+            when(instanceSelectionStrategy.instancesToStop(eq(clusterProfileProperties), eq(LINUX), anyList(), anyList())).thenReturn(Optional.of(containerInstances));
 
             executor.execute();
 
@@ -325,13 +389,13 @@ class ServerPingRequestExecutorTest {
             final Agents agents = new Agents(new ArrayList<>());
 
             when(pluginRequest.listAgents()).thenReturn(agents);
-            when(containerInstanceHelper.getAllOnDemandInstances(clusterProfileProperties)).thenReturn(singletonList(runningWindowsInstance("i-abcd123")));
+            when(containerInstanceHelper.getAllInstances(clusterProfileProperties, emptyList())).thenReturn(singletonList(runningWindowsInstance("i-abcd123")));
             when(clusterProfileProperties.getMinWindowsInstanceCount()).thenReturn(5);
 
             executor.execute();
 
-            verify(containerInstanceHelper, times(3)).getAllOnDemandInstances(clusterProfileProperties);
-            verify(containerInstanceHelper).onDemandContainerInstances(clusterProfileProperties);
+            verify(containerInstanceHelper).getContainerInstances(clusterProfileProperties);
+            verify(containerInstanceHelper).getAllInstances(clusterProfileProperties, emptyList());
             verify(containerInstanceHelper).startOrCreateInstance(eq(clusterProfileProperties), any(ElasticAgentProfileProperties.class), eq(4), any(ConsoleLogAppender.class));
             verifyNoMoreInteractions(containerInstanceHelper);
         }
@@ -339,11 +403,11 @@ class ServerPingRequestExecutorTest {
         @Test
         void shouldStopIdleInstanceWhenIdleTimeOutIsReached() {
             final List<Instance> runningInstances = singletonList(runningWindowsInstance("i-abcded1"));
-            final List<ContainerInstance> containerInstances = singletonList(containerInstance("i-abcded1"));
+            final List<ContainerInstance> containerInstances = singletonList(containerInstance("i-abcded1", 0, 0));
 
-            when(containerInstanceHelper.getAllInstances(clusterProfileProperties)).thenReturn(runningInstances);
+            when(containerInstanceHelper.getAllInstances(clusterProfileProperties, containerInstances)).thenReturn(runningInstances);
             when(containerInstanceHelper.getContainerInstances(clusterProfileProperties)).thenReturn(containerInstances);
-            when(instanceSelectionStrategy.instancesToStop(clusterProfileProperties, WINDOWS)).thenReturn(Optional.of(containerInstances));
+            when(instanceSelectionStrategy.instancesToStop(eq(clusterProfileProperties), eq(WINDOWS), anyList(), anyList())).thenReturn(Optional.of(containerInstances));
 
             executor.execute();
 
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.metrics;
+
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTasks;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.scaling.ClusterState;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ClusterProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ECSCluster;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ecs.model.ContainerInstance;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.ContainerInstanceMother.containerInstance;
+import static com.thoughtworks.gocd.elasticagent.ecs.aws.InstanceMother.*;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.AWSModelMother.clusterWith;
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class PluginMetricsTest {
+    private PluginMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new PluginMetrics();
+    }
+
+    @Test
+    void shouldRenderCountersAsOpenMetricsTotals() {
+        metrics.awsCall("GoCD", "ECS", "ListTasks", true);
+        metrics.awsCall("GoCD", "ECS", "ListTasks", true);
+        metrics.awsCall("GoCD", "EC2", "RunInstances", false);
+
+        final String exposition = metrics.scrape(null, null);
+
+        assertThat(exposition)
+                .contains("# TYPE ecs_plugin_aws_calls counter\n")
+                .contains("ecs_plugin_aws_calls_total{cluster=\"GoCD\",service=\"ECS\",operation=\"ListTasks\",outcome=\"success\"} 2\n")
+                .contains("ecs_plugin_aws_calls_total{cluster=\"GoCD\",service=\"EC2\",operation=\"RunInstances\",outcome=\"failure\"} 1\n")
+                .endsWith("# EOF\n");
+    }
+
+    @Test
+    void shouldRenderCumulativeHistogramBuckets() {
+        metrics.createStarted("GoCD", LINUX);
+        metrics.createStarted("GoCD", LINUX);
+        metrics.createFinished("GoCD", LINUX, Duration.ofSeconds(3), true);
+        metrics.createFinished("GoCD", LINUX, Duration.ofSeconds(100), true);
+
+        final String exposition = metrics.scrape(null, null);
+
+        assertThat(metrics.pendingCreates().get("GoCD", "LINUX")).isZero();
+        assertThat(exposition)
+                .contains("ecs_plugin_agent_provisioning_seconds_bucket{cluster=\"GoCD\",platform=\"LINUX\",outcome=\"success\",le=\"1.0\"} 0\n")
+                .contains("ecs_plugin_agent_provisioning_seconds_bucket{cluster=\"GoCD\",platform=\"LINUX\",outcome=\"success\",le=\"5.0\"} 1\n")
+                .contains("ecs_plugin_agent_provisioning_seconds_bucket{cluster=\"GoCD\",platform=\"LINUX\",outcome=\"success\",le=\"120.0\"} 2\n")
+                .contains("ecs_plugin_agent_provisioning_seconds_bucket{cluster=\"GoCD\",platform=\"LINUX\",outcome=\"success\",le=\"+Inf\"} 2\n")
+                .contains("ecs_plugin_agent_provisioning_seconds_count{cluster=\"GoCD\",platform=\"LINUX\",outcome=\"success\"} 2\n")
+                .contains("ecs_plugin_agent_provisioning_seconds_sum{cluster=\"GoCD\",platform=\"LINUX\",outcome=\"success\"} 103.0\n");
+    }
+
+    @Test
+    void shouldEscapeLabelValues() {
+        metrics.awsCall("my \"cluster\"\\", "ECS", "ListTasks", true);
+
+        assertThat(metrics.scrape(null, null)).contains("cluster=\"my \\\"cluster\\\"\\\\\"");
+    }
+
+    @Test
+    void shouldDeriveClusterStateFromClusterAndTasks() {
+        final List<ContainerInstance> containerInstances = List.of(containerInstance("i-1"), containerInstance("i-2"), containerInstance("i-3"));
+        final List<Instance> instances = List.of(runningLinuxInstance("i-1"), runningLinuxSpotInstance("i-2"), runningWindowsInstance("i-3"));
+        final ECSCluster cluster = new ECSCluster(clusterWith("GoCD", 3, 4, 1), containerInstances, instances, emptyList(), 5, 5, 5, 5);
+        final ECSTasks tasks = mock(ECSTasks.class);
+        when(tasks.countByStatus()).thenReturn(Map.of("RUNNING", 4L));
+
+        final String exposition = metrics.scrape(cluster, tasks);
+
+        assertThat(exposition)
+                .contains("ecs_plugin_cluster_tasks{cluster=\"GoCD\",state=\"running\"} 4\n")
+                .contains("ecs_plugin_cluster_tasks{cluster=\"GoCD\",state=\"pending\"} 1\n")
+                .contains("ecs_plugin_agent_tasks{cluster=\"GoCD\",status=\"RUNNING\"} 4\n")
+                .contains("ecs_plugin_container_instances{cluster=\"GoCD\",platform=\"LINUX\",lifecycle=\"on-demand\",state=\"running\"} 1\n")
+                .contains("ecs_plugin_container_instances{cluster=\"GoCD\",platform=\"LINUX\",lifecycle=\"spot\",state=\"running\"} 1\n")
+                .contains("ecs_plugin_container_instances{cluster=\"GoCD\",platform=\"WINDOWS\",lifecycle=\"on-demand\",state=\"running\"} 1\n");
+    }
+
+    @Test
+    void shouldExportTheClusterStateTheServerPingRead(@TempDir Path directory) throws Exception {
+        final Path metricsFile = directory.resolve("gocd_ecs.prom");
+        final ClusterProfileProperties clusterProfileProperties = mock(ClusterProfileProperties.class);
+        when(clusterProfileProperties.getMetricsFile()).thenReturn(metricsFile.toString());
+        when(clusterProfileProperties.getClusterName()).thenReturn("GoCD");
+        final ClusterState clusterState = mock(ClusterState.class);
+        when(clusterState.containerInstances()).thenReturn(List.of(containerInstance("i-1", 1, 2), containerInstance("i-2", 0, 1)));
+        when(clusterState.instances()).thenReturn(List.of(runningLinuxInstance("i-1"), runningLinuxSpotInstance("i-2")));
+
+        new MetricsFileExporter(metrics).export(clusterProfileProperties, clusterState, null);
+
+        assertThat(Files.readString(metricsFile))
+                .contains("ecs_plugin_cluster_tasks{cluster=\"GoCD\",state=\"running\"} 3\n")
+                .contains("ecs_plugin_cluster_tasks{cluster=\"GoCD\",state=\"pending\"} 1\n")
+                .contains("ecs_plugin_container_instances{cluster=\"GoCD\",platform=\"LINUX\",lifecycle=\"spot\",state=\"running\"} 1\n");
+        verify(clusterProfileProperties, never()).ecsClient();
+        verify(clusterProfileProperties, never()).ec2Client();
+    }
+
+    @Test
+    void shouldExportOnlyRecordedMetricsWhenTheServerPingCouldNotReadTheCluster(@TempDir Path directory) throws Exception {
+        final Path metricsFile = directory.resolve("gocd_ecs.prom");
+        final ClusterProfileProperties clusterProfileProperties = mock(ClusterProfileProperties.class);
+        when(clusterProfileProperties.getMetricsFile()).thenReturn(metricsFile.toString());
+        metrics.awsCall("GoCD", "ECS", "ListTasks", false);
+
+        new MetricsFileExporter(metrics).export(clusterProfileProperties, null, null);
+
+        assertThat(Files.readString(metricsFile))
+                .contains("outcome=\"failure\"} 1\n")
+                .doesNotContain("ecs_plugin_cluster_tasks");
+    }
+
+    @Test
+    void shouldReplaceMetricsFileAtomically(@TempDir Path directory) throws Exception {
+        final Path metricsFile = directory.resolve("gocd_ecs.prom");
+        Files.writeString(metricsFile, "stale");
+
+        MetricsFileExporter.write(metricsFile, metrics.scrape(null, null));
+
+        assertThat(Files.readString(metricsFile)).endsWith("# EOF\n");
+        assertThat(directory.resolve("gocd_ecs.prom.tmp")).doesNotExist();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.requests;
+
+import com.google.gson.JsonSyntaxException;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShouldAssignWorkQueryTest {
+
+    @Test
+    void shouldReadAgentIdAndJobIdentifierSkippingEverythingElse() {
+        String json = """
+                {
+                  "environment": "prod",
+                  "cluster_profile_properties": {
+                    "GoServerUrl": "https://cd.server.com/go",
+                    "ClusterName": "deployment-cluster"
+                  },
+                  "agent": {
+                    "agent_state": "Idle",
+                    "agent_id": "GoCD42",
+                    "build_state": "Idle",
+                    "config_state": "Enabled"
+                  },
+                  "elastic_agent_profile_properties": {
+                    "Image": "go-agent",
+                    "Labels": ["a", {"b": null}]
+                  },
+                  "job_identifier": {
+                    "pipeline_name": "up42",
+                    "pipeline_label": "42",
+                    "pipeline_counter": 42,
+                    "stage_name": "build",
+                    "stage_counter": "1",
+                    "job_name": "unit",
+                    "job_id": 100
+                  }
+                }""";
+
+        ShouldAssignWorkQuery query = ShouldAssignWorkQuery.fromJSON(json);
+
+        assertThat(query.elasticAgentId()).isEqualTo("GoCD42");
+        assertThat(query.jobIdentifier()).isEqualTo(new JobIdentifier("up42", 42L, "42", "build", "1", "unit", 100L));
+    }
+
+    @Test
+    void shouldReadTheSameJobIdentifierAsTheFullRequest() {
+        String json = """
+                {
+                  "agent": {"agent_id": "GoCD42"},
+                  "job_identifier": {
+                    "pipeline_name": "up42",
+                    "pipeline_counter": "42",
+                    "pipeline_label": null,
+                    "stage_name": "build",
+                    "stage_counter": 1,
+                    "job_name": "unit",
+                    "job_id": 100
+                  }
+                }""";
+
+        assertThat(ShouldAssignWorkQuery.fromJSON(json).jobIdentifier()).isEqualTo(ShouldAssignWorkRequest.fromJSON(json).jobIdentifier());
+    }
+
+    @Test
+    void shouldLeaveMissingFieldsNull() {
+        ShouldAssignWorkQuery query = ShouldAssignWorkQuery.fromJSON("{\"agent\": null}");
+
+        assertThat(query.elasticAgentId()).isNull();
+        assertThat(query.jobIdentifier()).isNull();
+    }
+
+    @Test
+    void shouldRejectMalformedJSON() {
+        assertThatThrownBy(() -> ShouldAssignWorkQuery.fromJSON("{\"agent\": {\"agent_id\": "))
+                .isInstanceOf(JsonSyntaxException.class);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.CountingAwsClients;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.JobTrace.DEFAULT_PROFILE;
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.ReplayHarness.DEFAULT_CLUSTER_PROFILE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Holds each plugin operation to the number of AWS calls checked in to {@code aws-call-budgets.properties}.
+ */
+class AwsCallBudgetTest {
+    private static final Properties BUDGETS = budgets();
+
+    private final SimulatedAws aws = new SimulatedAws(new SimulatorConfig(), new SimulatedClock(Instant.now()));
+    private final CountingAwsClients counter = new CountingAwsClients();
+    private final FakeGoServer server = new FakeGoServer();
+    private final ECSElasticPlugin plugin = new ECSElasticPlugin(new PluginServices(aws.clock()));
+    private SimulatedAws.Installation installation;
+
+    @BeforeEach
+    void setUp() {
+        plugin.initializeGoApplicationAccessor(server);
+        installation = aws.install(counter);
+    }
+
+    @AfterEach
+    void tearDown() {
+        installation.close();
+    }
+
+    @Test
+    void createAgentOnARunningInstance() {
+        handle(ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(1)));
+
+        assertWithinBudget("create-agent.running-instance", ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(2)));
+
+        assertThat(aws.startedTasks()).hasSize(2);
+        assertThat(counter.calls()).doesNotContainKey("EC2:RunInstances");
+    }
+
+    @Test
+    void createAgentLaunchingAnInstance() {
+        handle(ServerRequests.serverPing(DEFAULT_CLUSTER_PROFILE));
+
+        assertWithinBudget("create-agent.launch-instance", ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(1)));
+
+        assertThat(aws.startedTasks()).hasSize(1);
+        assertThat(counter.calls()).containsEntry("EC2:RunInstances", 1);
+    }
+
+    @Test
+    void jobCompletion() {
+        handle(ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(1)));
+        final String agentId = aws.startedTasks().getFirst().family();
+        server.register(agentId);
+
+        assertWithinBudget("job-completion", ServerRequests.jobCompletion(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(1), agentId));
+
+        assertThat(aws.isTaskAlive(agentId)).isFalse();
+    }
+
+    @Test
+    void serverPingOnThreeInstances() {
+        final Map<String, String> clusterProfile = new HashMap<>(DEFAULT_CLUSTER_PROFILE);
+        clusterProfile.put("MinLinuxInstanceCount", "3");
+        handle(ServerRequests.serverPing(clusterProfile));
+
+        assertWithinBudget("server-ping.3-instances", ServerRequests.serverPing(clusterProfile));
+
+        assertThat(counter.calls()).doesNotContainKeys("EC2:RunInstances", "EC2:StopInstances");
+    }
+
+    @Test
+    void clusterStatusReport() {
+        handle(ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(1)));
+        handle(ServerRequests.createAgent(DEFAULT_CLUSTER_PROFILE, DEFAULT_PROFILE, job(2)));
+
+        assertWithinBudget("cluster-status-report", ServerRequests.clusterStatusReport(DEFAULT_CLUSTER_PROFILE));
+    }
+
+    private void assertWithinBudget(String operation, GoPluginApiRequest request) {
+        assertThat(BUDGETS).as("budget for %s", operation).containsKey(operation);
+        final int budget = Integer.parseInt(BUDGETS.getProperty(operation));
+
+        counter.reset();
+        handle(request);
+
+        assertThat(counter.total())
+                .as("AWS calls made by %s, over its budget of %d: %s", operation, budget, counter.calls())
+                .isLessThanOrEqualTo(budget);
+    }
+
+    private void handle(GoPluginApiRequest request) {
+        assertThat(plugin.handle(request).responseCode()).as(request.requestName()).isEqualTo(200);
+    }
+
+    private static JobIdentifier job(long id) {
+        return new JobIdentifier("budget", id, String.valueOf(id), "build", "1", "job-" + id, id);
+    }
+
+    private static Properties budgets() {
+        try (InputStream budgets = AwsCallBudgetTest.class.getResourceAsStream("/aws-call-budgets.properties")) {
+            final Properties properties = new Properties();
+            properties.load(budgets);
+            return properties;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.Ec2ServiceClientConfiguration;
+import software.amazon.awssdk.services.ec2.model.*;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.SimulatedAws.EC2;
+
+/**
+ * The EC2 operations the plugin uses, answered by a {@link SimulatedAws}. Spot requests are described as
+ * absent; anything else is left to the interface's default, which throws {@link UnsupportedOperationException}.
+ */
+class FakeEc2Client implements Ec2Client {
+    private final SimulatedAws aws;
+
+    FakeEc2Client(SimulatedAws aws) {
+        this.aws = aws;
+    }
+
+    @Override
+    public DescribeInstancesResponse describeInstances(DescribeInstancesRequest request) {
+        return aws.call(EC2, "DescribeInstances", () -> DescribeInstancesResponse.builder()
+                .reservations(Reservation.builder()
+                        .reservationId("r-simulated")
+                        .instances(aws.describeInstances(request.instanceIds(), request.filters()))
+                        .build())
+                .build());
+    }
+
+    @Override
+    public RunInstancesResponse runInstances(RunInstancesRequest request) {
+        return aws.call(EC2, "RunInstances", () -> RunInstancesResponse.builder()
+                .instances(aws.runInstances(request))
+                .build());
+    }
+
+    @Override
+    public StartInstancesResponse startInstances(StartInstancesRequest request) {
+        return aws.call(EC2, "StartInstances", () -> {
+            aws.startInstances(request.instanceIds());
+            return StartInstancesResponse.builder().build();
+        });
+    }
+
+    @Override
+    public StopInstancesResponse stopInstances(StopInstancesRequest request) {
+        return aws.call(EC2, "StopInstances", () -> {
+            aws.stopInstances(request.instanceIds());
+            return StopInstancesResponse.builder().build();
+        });
+    }
+
+    @Override
+    public TerminateInstancesResponse terminateInstances(TerminateInstancesRequest request) {
+        return aws.call(EC2, "TerminateInstances", () -> {
+            aws.terminateInstances(request.instanceIds());
+            return TerminateInstancesResponse.builder().build();
+        });
+    }
+
+    @Override
+    public CreateTagsResponse createTags(CreateTagsRequest request) {
+        return aws.call(EC2, "CreateTags", () -> {
+            aws.createTags(request.resources(), request.tags());
+            return CreateTagsResponse.builder().build();
+        });
+    }
+
+    @Override
+    public DeleteTagsResponse deleteTags(DeleteTagsRequest request) {
+        return aws.call(EC2, "DeleteTags", () -> {
+            aws.deleteTags(request.resources(), request.tags());
+            return DeleteTagsResponse.builder().build();
+        });
+    }
+
+    @Override
+    public DescribeSubnetsResponse describeSubnets(DescribeSubnetsRequest request) {
+        return aws.call(EC2, "DescribeSubnets", () -> DescribeSubnetsResponse.builder()
+                .subnets(aws.describeSubnets(request.subnetIds()))
+                .build());
+    }
+
+    @Override
+    public DescribeSpotInstanceRequestsResponse describeSpotInstanceRequests(DescribeSpotInstanceRequestsRequest request) {
+        return aws.call(EC2, "DescribeSpotInstanceRequests", () -> DescribeSpotInstanceRequestsResponse.builder().build());
+    }
+
+    @Override
+    public Ec2ServiceClientConfiguration serviceClientConfiguration() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import software.amazon.awssdk.services.ecs.EcsClient;
+import software.amazon.awssdk.services.ecs.EcsServiceClientConfiguration;
+import software.amazon.awssdk.services.ecs.model.*;
+
+import java.util.List;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.SimulatedAws.ECS;
+
+/**
+ * The ECS operations the plugin uses, answered by a {@link SimulatedAws}. Anything else is left to the
+ * interface's default, which throws {@link UnsupportedOperationException}.
+ */
+class FakeEcsClient implements EcsClient {
+    private final SimulatedAws aws;
+
+    FakeEcsClient(SimulatedAws aws) {
+        this.aws = aws;
+    }
+
+    @Override
+    public ListContainerInstancesResponse listContainerInstances(ListContainerInstancesRequest request) {
+        return aws.call(ECS, "ListContainerInstances", () -> ListContainerInstancesResponse.builder()
+                .containerInstanceArns(aws.listContainerInstances(request.cluster()))
+                .build());
+    }
+
+    @Override
+    public DescribeContainerInstancesResponse describeContainerInstances(DescribeContainerInstancesRequest request) {
+        return aws.call(ECS, "DescribeContainerInstances", () -> DescribeContainerInstancesResponse.builder()
+                .containerInstances(aws.describeContainerInstances(request.containerInstances()))
+                .build());
+    }
+
+    @Override
+    public DeregisterContainerInstanceResponse deregisterContainerInstance(DeregisterContainerInstanceRequest request) {
+        return aws.call(ECS, "DeregisterContainerInstance", () -> DeregisterContainerInstanceResponse.builder()
+                .containerInstance(aws.deregisterContainerInstance(request.containerInstance()))
+                .build());
+    }
+
+    @Override
+    public DescribeClustersResponse describeClusters(DescribeClustersRequest request) {
+        return aws.call(ECS, "DescribeClusters", () -> DescribeClustersResponse.builder()
+                .clusters(request.clusters().stream().map(aws::describeCluster).toList())
+                .build());
+    }
+
+    @Override
+    public RegisterTaskDefinitionResponse registerTaskDefinition(RegisterTaskDefinitionRequest request) {
+        return aws.call(ECS, "RegisterTaskDefinition", () -> RegisterTaskDefinitionResponse.builder()
+                .taskDefinition(aws.registerTaskDefinition(request))
+                .build());
+    }
+
+    @Override
+    public DescribeTaskDefinitionResponse describeTaskDefinition(DescribeTaskDefinitionRequest request) {
+        return aws.call(ECS, "DescribeTaskDefinition", () -> DescribeTaskDefinitionResponse.builder()
+                .taskDefinition(aws.describeTaskDefinition(request.taskDefinition()))
+                .build());
+    }
+
+    @Override
+    public DeregisterTaskDefinitionResponse deregisterTaskDefinition(DeregisterTaskDefinitionRequest request) {
+        return aws.call(ECS, "DeregisterTaskDefinition", () -> DeregisterTaskDefinitionResponse.builder()
+                .taskDefinition(aws.setTaskDefinitionStatus(request.taskDefinition(), TaskDefinitionStatus.INACTIVE))
+                .build());
+    }
+
+    @Override
+    public DeleteTaskDefinitionsResponse deleteTaskDefinitions(DeleteTaskDefinitionsRequest request) {
+        return aws.call(ECS, "DeleteTaskDefinitions", () -> DeleteTaskDefinitionsResponse.builder()
+                .taskDefinitions(request.taskDefinitions().stream()
+                        .map(taskDefinition -> aws.setTaskDefinitionStatus(taskDefinition, TaskDefinitionStatus.DELETE_IN_PROGRESS))
+                        .toList())
+                .build());
+    }
+
+    @Override
+    public StartTaskResponse startTask(StartTaskRequest request) {
+        return aws.call(ECS, "StartTask", () -> aws.startTask(request.cluster(), request.taskDefinition(), request.containerInstances()));
+    }
+
+    @Override
+    public StopTaskResponse stopTask(StopTaskRequest request) {
+        return aws.call(ECS, "StopTask", () -> StopTaskResponse.builder()
+                .task(aws.stopTask(request.task()))
+                .build());
+    }
+
+    @Override
+    public ListTasksResponse listTasks(ListTasksRequest request) {
+        // Stopped tasks are only listed when asked for with desiredStatus STOPPED, which the plugin never does
+        return aws.call(ECS, "ListTasks", () -> ListTasksResponse.builder()
+                .taskArns(request.desiredStatus() == DesiredStatus.STOPPED ? List.of() : aws.listTasks(request.cluster()))
+                .build());
+    }
+
+    @Override
+    public DescribeTasksResponse describeTasks(DescribeTasksRequest request) {
+        return aws.call(ECS, "DescribeTasks", () -> DescribeTasksResponse.builder()
+                .tasks(aws.describeTasks(request.tasks()))
+                .build());
+    }
+
+    @Override
+    public EcsServiceClientConfiguration serviceClientConfiguration() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
+import com.thoughtworks.go.plugin.api.request.GoApiRequest;
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoApiResponse;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Agent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.*;
+
+/**
+ * The GoCD server side of the plugin API: keeps the elastic agents that have registered, and answers the
+ * plugin's agent, server info and console log requests.
+ */
+class FakeGoServer extends GoApplicationAccessor {
+    static final String SERVER_ID = "simulated-server";
+
+    private final Map<String, Agent> agents = new LinkedHashMap<>();
+    private int consoleLogLines;
+
+    synchronized void register(String agentId) {
+        agents.put(agentId, new Agent(agentId, Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled));
+    }
+
+    synchronized void assign(String agentId) {
+        agents.put(agentId, new Agent(agentId, Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled));
+    }
+
+    synchronized boolean isRegistered(String agentId) {
+        return agents.containsKey(agentId);
+    }
+
+    synchronized int consoleLogLines() {
+        return consoleLogLines;
+    }
+
+    @Override
+    public synchronized GoApiResponse submit(GoApiRequest request) {
+        switch (request.api()) {
+            case REQUEST_SERVER_LIST_AGENTS:
+                return DefaultGoApiResponse.success(Agent.toJSONArray(agents.values()));
+            case REQUEST_SERVER_DISABLE_AGENT:
+                Agent.fromJSONArray(request.requestBody()).stream()
+                        .map(agent -> agents.get(agent.elasticAgentId()))
+                        .filter(Objects::nonNull)
+                        .forEach(agent -> agents.put(agent.elasticAgentId(), new Agent(agent.elasticAgentId(), agent.agentState(), agent.buildState(), Agent.ConfigState.Disabled)));
+                return DefaultGoApiResponse.success("");
+            case REQUEST_SERVER_DELETE_AGENT:
+                Agent.fromJSONArray(request.requestBody()).forEach(agent -> agents.remove(agent.elasticAgentId()));
+                return DefaultGoApiResponse.success("");
+            case REQUEST_SERVER_INFO:
+                return DefaultGoApiResponse.success("{\"server_id\": \"" + SERVER_ID + "\", \"site_url\": \"http://localhost:8153/go\", \"secure_site_url\": \"https://localhost:8154/go\"}");
+            case REQUEST_SERVER_APPEND_TO_CONSOLE_LOG:
+                consoleLogLines++;
+                return DefaultGoApiResponse.success("");
+            default:
+                return DefaultGoApiResponse.error("Not simulated: " + request.api());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Jobs arriving at the GoCD server, each needing an elastic agent for the given profile. Arrival times are
+ * offsets from the start of the replay.
+ */
+public class JobTrace {
+    public static final Map<String, String> DEFAULT_PROFILE = Map.of(
+            "Image", "gocd/gocd-agent-alpine-3.18:v23.3.0",
+            "MaxMemory", "1G",
+            "ReservedMemory", "512M",
+            "CPU", "512");
+
+    private final List<Job> jobs;
+
+    private JobTrace(List<Job> jobs) {
+        this.jobs = jobs.stream().sorted(Comparator.comparing(Job::arrivesAt)).toList();
+    }
+
+    public static JobTrace of(List<Job> jobs) {
+        return new JobTrace(jobs);
+    }
+
+    /**
+     * Reads {@code arrival_seconds,runtime_seconds[,name]} lines, with the default profile for every job. Blank
+     * lines, lines starting with {@code #} and a header line are skipped.
+     */
+    public static JobTrace fromCsv(Reader csv) throws IOException {
+        final List<Job> jobs = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(csv);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#") || !Character.isDigit(line.charAt(0))) {
+                continue;
+            }
+
+            final String[] columns = line.split(",");
+            final String name = columns.length > 2 ? columns[2].strip() : "job-" + (jobs.size() + 1);
+            jobs.add(new Job(name, Duration.ofSeconds(Long.parseLong(columns[0].strip())), Duration.ofSeconds(Long.parseLong(columns[1].strip())), DEFAULT_PROFILE));
+        }
+        return new JobTrace(jobs);
+    }
+
+    /**
+     * Jobs arriving as a Poisson process, running for between half and one and a half times the mean runtime.
+     * The same seed always produces the same trace.
+     */
+    public static JobTrace poisson(long seed, int numberOfJobs, Duration meanInterArrival, Duration meanRuntime) {
+        final Random random = new Random(seed);
+        final List<Job> jobs = new ArrayList<>();
+        long arrivalMillis = 0;
+        for (int i = 1; i <= numberOfJobs; i++) {
+            arrivalMillis += (long) (-Math.log(1 - random.nextDouble()) * meanInterArrival.toMillis());
+            final long runtimeMillis = (long) ((0.5 + random.nextDouble()) * meanRuntime.toMillis());
+            jobs.add(new Job("job-" + i, Duration.ofMillis(arrivalMillis), Duration.ofMillis(runtimeMillis), DEFAULT_PROFILE));
+        }
+        return new JobTrace(jobs);
+    }
+
+    public List<Job> jobs() {
+        return jobs;
+    }
+
+    public record Job(String name, Duration arrivesAt, Duration runsFor, Map<String, String> profile) {
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import com.thoughtworks.gocd.elasticagent.ecs.ECSElasticPlugin;
+import com.thoughtworks.gocd.elasticagent.ecs.PluginServices;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static java.util.Comparator.comparing;
+
+/**
+ * Replays a {@link JobTrace} through {@link ECSElasticPlugin#handle} against a {@link SimulatedAws}, playing the
+ * part of the GoCD server: it asks for an agent when each job arrives (and again if none turned up), registers
+ * agents once their task has been running for a while, offers them waiting jobs, reports jobs complete and
+ * pings the plugin periodically.
+ *
+ * <p>Requests are handled one at a time, in simulated time order. Since the plugin already serializes agent
+ * creation per platform, that only loses concurrency between requests that would not have contended in the
+ * plugin anyway. Contention for that lock is read off the lock: the simulated clock records the time that passes
+ * while it is held, and a create request that was due while it was held waited for it.
+ *
+ * <p>The plugin runs on the simulated clock throughout, so the container auto-register timeout and the idle
+ * instance stop and termination timers fire as they would. Once every job is done the server keeps pinging for
+ * {@link #drainFor}, so that instances left idle are stopped within the replay and count towards instance-hours
+ * only for as long as the plugin keeps them.
+ */
+public class ReplayHarness {
+    public static final Map<String, String> DEFAULT_CLUSTER_PROFILE = Map.ofEntries(
+            Map.entry("GoServerUrl", "https://localhost:8154/go"),
+            Map.entry("ClusterName", "simulated"),
+            Map.entry("AWSRegion", "us-east-1"),
+            Map.entry("LinuxAmi", "ami-simulated"),
+            Map.entry("LinuxInstanceType", "c5.large"),
+            Map.entry("MinLinuxInstanceCount", "0"),
+            Map.entry("MaxLinuxInstancesAllowed", "10"),
+            Map.entry("SubnetIds", "subnet-a,subnet-b,subnet-c"),
+            Map.entry("SecurityGroupIds", "sg-simulated"),
+            Map.entry("LinuxStopPolicy", "StopIdleInstance"),
+            Map.entry("WindowsStopPolicy", "StopIdleInstance"),
+            Map.entry("ContainerAutoregisterTimeout", "10"));
+
+    private final SimulatorConfig config;
+    private final Map<String, String> clusterProfile;
+    private Duration pingInterval = Duration.ofMinutes(1);
+    private Duration recreateAfter = Duration.ofMinutes(2);
+    private int maxCreateAttempts = 10;
+    private Duration drainFor = Duration.ofMinutes(15);
+
+    public ReplayHarness(SimulatorConfig config, Map<String, String> clusterProfile) {
+        this.config = config;
+        this.clusterProfile = clusterProfile;
+    }
+
+    public ReplayHarness pingInterval(Duration pingInterval) {
+        this.pingInterval = pingInterval;
+        return this;
+    }
+
+    /** How long the server waits for an agent before asking for one again, as it does for starving jobs. */
+    public ReplayHarness recreateAfter(Duration recreateAfter) {
+        this.recreateAfter = recreateAfter;
+        return this;
+    }
+
+    /** Create-agent requests per job before the job is given up on and left out of the wait percentiles. */
+    public ReplayHarness maxCreateAttempts(int maxCreateAttempts) {
+        this.maxCreateAttempts = maxCreateAttempts;
+        return this;
+    }
+
+    /** How long the server keeps pinging after the last job is done, giving the plugin time to scale in. */
+    public ReplayHarness drainFor(Duration drainFor) {
+        this.drainFor = drainFor;
+        return this;
+    }
+
+    public ReplayReport replay(JobTrace trace) {
+        return new Replay(trace).run();
+    }
+
+    private class Replay {
+        private final SimulatedClock clock = new SimulatedClock(Instant.now());
+        private final SimulatedAws aws = new SimulatedAws(config, clock);
+        private final FakeGoServer server = new FakeGoServer();
+        private final ECSElasticPlugin plugin = new ECSElasticPlugin(new PluginServices(clock));
+        private final PriorityQueue<Event> events = new PriorityQueue<>(comparing(Event::at).thenComparing(Event::sequence));
+        private final Map<Long, JobRun> runs = new LinkedHashMap<>();
+        private final List<CreateRequest> createRequests = new ArrayList<>();
+        private final Instant start = clock.now();
+        private long sequence;
+        private int startedTasksSeen;
+        private int remaining;
+        private Instant dueAt;
+        private Instant drainedAt;
+
+        Replay(JobTrace trace) {
+            long id = 1;
+            for (JobTrace.Job job : trace.jobs()) {
+                final JobRun run = new JobRun(job, new JobIdentifier("simulated", id, String.valueOf(id), "build", "1", job.name(), id));
+                runs.put(id++, run);
+            }
+            remaining = runs.size();
+            drainedAt = start.plus(drainFor);
+        }
+
+        ReplayReport run() {
+            plugin.initializeGoApplicationAccessor(server);
+
+            try (SimulatedAws.Installation ignored = aws.install()) {
+                runs.values().forEach(run -> schedule(start.plus(run.job.arrivesAt()), () -> {
+                    run.arrived = true;
+                    requestAgent(run);
+                }));
+                schedule(start.plus(pingInterval), this::ping);
+
+                while (!events.isEmpty()) {
+                    final Event event = events.poll();
+                    dueAt = event.at();
+                    clock.advanceTo(event.at());
+                    event.action().run();
+                }
+            }
+
+            final List<Duration> waits = runs.values().stream()
+                    .filter(run -> run.assignedAt != null)
+                    .map(run -> Duration.between(start.plus(run.job.arrivesAt()), run.assignedAt))
+                    .sorted()
+                    .toList();
+            final List<SimulatedClock.Held> held = clock.createLockHeld();
+            return new ReplayReport(runs.size(), waits, aws.calls(), aws.throttledAttempts(), aws.instanceHours(), peakLockContention(held), maxLockWait(held),
+                    Duration.between(start, clock.now()));
+        }
+
+        // requests waiting for the lock at the end of each stretch it was held: due before then, not yet handled
+        private int peakLockContention(List<SimulatedClock.Held> held) {
+            int peak = 0;
+            int first = 0;
+            for (SimulatedClock.Held stretch : held) {
+                while (first < createRequests.size() && createRequests.get(first).startedAt().isBefore(stretch.until())) {
+                    first++;
+                }
+                int waiting = 0;
+                for (CreateRequest request : createRequests.subList(first, createRequests.size())) {
+                    if (request.dueAt().isBefore(stretch.until())) {
+                        waiting++;
+                    }
+                }
+                peak = Math.max(peak, waiting);
+            }
+            return peak;
+        }
+
+        private Duration maxLockWait(List<SimulatedClock.Held> held) {
+            return createRequests.stream()
+                    .map(request -> held.stream()
+                            .map(stretch -> overlap(request.dueAt(), request.startedAt(), stretch))
+                            .reduce(Duration.ZERO, Duration::plus))
+                    .max(Comparator.naturalOrder())
+                    .orElse(Duration.ZERO);
+        }
+
+        private static Duration overlap(Instant from, Instant until, SimulatedClock.Held stretch) {
+            final Instant overlapFrom = from.isAfter(stretch.from()) ? from : stretch.from();
+            final Instant overlapUntil = until.isBefore(stretch.until()) ? until : stretch.until();
+            return overlapUntil.isAfter(overlapFrom) ? Duration.between(overlapFrom, overlapUntil) : Duration.ZERO;
+        }
+
+        private void requestAgent(JobRun run) {
+            if (run.assignedAt != null || run.abandoned) {
+                return;
+            }
+            if (run.createAttempts == maxCreateAttempts) {
+                run.abandoned = true;
+                jobDone();
+                return;
+            }
+
+            run.createAttempts++;
+            createRequests.add(new CreateRequest(dueAt, clock.now()));
+            plugin.handle(ServerRequests.createAgent(clusterProfile, run.job.profile(), run.identifier));
+
+            scheduleNewAgents();
+            if (run.agentId == null || !aws.isTaskAlive(run.agentId)) {
+                schedule(clock.now().plus(recreateAfter), () -> requestAgent(run));
+            }
+        }
+
+        private void scheduleNewAgents() {
+            final List<SimulatedAws.StartedTask> started = aws.startedTasks();
+            for (SimulatedAws.StartedTask task : started.subList(startedTasksSeen, started.size())) {
+                final JobRun run = runs.get(JobIdentifier.fromJson(task.jobIdentifier()).getJobId());
+                if (run == null) {
+                    continue;
+                }
+                run.agentId = task.family();
+                final Instant registersAt = task.runningAt().plus(config.agentRegistrationDelay());
+                schedule(registersAt.isAfter(clock.now()) ? registersAt : clock.now(), () -> agentRegistered(run, task.family()));
+            }
+            startedTasksSeen = started.size();
+        }
+
+        private void agentRegistered(JobRun run, String agentId) {
+            if (!aws.isTaskAlive(agentId)) {
+                schedule(clock.now(), () -> requestAgent(run));
+                return;
+            }
+
+            server.register(agentId);
+            for (JobRun candidate : runs.values()) {
+                if (!candidate.arrived || candidate.assignedAt != null || candidate.abandoned) {
+                    continue;
+                }
+
+                final GoPluginApiResponse response = plugin.handle(ServerRequests.shouldAssignWork(clusterProfile, candidate.job.profile(), candidate.identifier, agentId));
+                if ("true".equals(response.responseBody())) {
+                    candidate.assignedAt = clock.now();
+                    candidate.agentId = agentId;
+                    server.assign(agentId);
+                    schedule(clock.now().plus(candidate.job.runsFor()), () -> completed(candidate));
+                    return;
+                }
+            }
+        }
+
+        private void completed(JobRun run) {
+            plugin.handle(ServerRequests.jobCompletion(clusterProfile, run.job.profile(), run.identifier, run.agentId));
+            jobDone();
+        }
+
+        private void jobDone() {
+            if (--remaining == 0) {
+                drainedAt = clock.now().plus(drainFor);
+            }
+        }
+
+        private void ping() {
+            plugin.handle(ServerRequests.serverPing(clusterProfile));
+
+            // nothing else pending means the remaining jobs are stuck; pinging would never end
+            final boolean pingAgain = remaining > 0 ? !events.isEmpty() : clock.now().isBefore(drainedAt);
+            if (pingAgain) {
+                schedule(clock.now().plus(pingInterval), this::ping);
+            }
+        }
+
+        private void schedule(Instant at, Runnable action) {
+            events.add(new Event(at, sequence++, action));
+        }
+    }
+
+    private record Event(Instant at, long sequence, Runnable action) {
+    }
+
+    private record CreateRequest(Instant dueAt, Instant startedAt) {
+    }
+
+    private static class JobRun {
+        private final JobTrace.Job job;
+        private final JobIdentifier identifier;
+        private boolean arrived;
+        private boolean abandoned;
+        private int createAttempts;
+        private String agentId;
+        private Instant assignedAt;
+
+        JobRun(JobTrace.Job job, JobIdentifier identifier) {
+            this.job = job;
+            this.identifier = identifier;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.List;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.JobTrace.DEFAULT_PROFILE;
+import static com.thoughtworks.gocd.elasticagent.ecs.simulator.ReplayHarness.DEFAULT_CLUSTER_PROFILE;
+import static java.time.Duration.ofMinutes;
+import static java.time.Duration.ofSeconds;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplayHarnessTest {
+    private final SimulatorConfig config = new SimulatorConfig()
+            .bootDelay(ofSeconds(40))
+            .registrationDelay(ofSeconds(20));
+
+    @Test
+    void shouldGetAnAgentForEveryJobInTheTrace() throws Exception {
+        final JobTrace trace = JobTrace.fromCsv(new StringReader("""
+                arrival_seconds,runtime_seconds
+                0,300
+                10,300
+                20,300
+                """));
+
+        final ReplayReport report = new ReplayHarness(config, DEFAULT_CLUSTER_PROFILE).replay(trace);
+
+        assertThat(report.jobs()).isEqualTo(3);
+        assertThat(report.assignedJobs()).isEqualTo(3);
+        assertThat(report.maxWait()).isGreaterThanOrEqualTo(ofSeconds(60));
+        assertThat(report.peakLockContention()).isEqualTo(2);
+        assertThat(report.maxLockWait()).isPositive();
+        assertThat(report.awsCalls()).containsKeys("EC2:RunInstances", "ECS:RegisterTaskDefinition", "ECS:StartTask", "ECS:StopTask");
+        assertThat(report.instanceHours()).isPositive();
+    }
+
+    @Test
+    void shouldScheduleOnARunningInstanceWithoutWaitingForANewOne() {
+        final JobTrace trace = JobTrace.of(List.of(
+                new JobTrace.Job("cold", Duration.ZERO, ofMinutes(1), DEFAULT_PROFILE),
+                new JobTrace.Job("warm", ofMinutes(5), ofMinutes(1), DEFAULT_PROFILE)));
+
+        final ReplayReport report = new ReplayHarness(config, DEFAULT_CLUSTER_PROFILE).replay(trace);
+
+        assertThat(report.assignedJobs()).isEqualTo(2);
+        assertThat(report.awsCalls()).containsEntry("EC2:RunInstances", 1);
+        assertThat(report.waits().getFirst()).isLessThan(ofSeconds(40));
+        assertThat(report.maxWait()).isGreaterThanOrEqualTo(ofSeconds(60));
+    }
+
+    @Test
+    void shouldStopInstancesLeftIdleOnceTheJobsAreDone() {
+        final JobTrace trace = JobTrace.of(List.of(new JobTrace.Job("only", Duration.ZERO, ofMinutes(1), DEFAULT_PROFILE)));
+
+        final ReplayReport report = new ReplayHarness(config, DEFAULT_CLUSTER_PROFILE).drainFor(ofMinutes(15)).replay(trace);
+
+        assertThat(report.awsCalls()).containsKey("EC2:StopInstances");
+        assertThat(report.instanceHours()).isLessThan(report.elapsed().toMinutes() / 60.0);
+    }
+
+    @Test
+    void shouldProduceTheSameReportForTheSameTrace() {
+        final JobTrace trace = JobTrace.poisson(42, 12, ofSeconds(20), ofMinutes(3));
+
+        final ReplayReport first = new ReplayHarness(config, DEFAULT_CLUSTER_PROFILE).replay(trace);
+        final ReplayReport second = new ReplayHarness(config, DEFAULT_CLUSTER_PROFILE).replay(trace);
+
+        assertThat(first.assignedJobs()).isEqualTo(12);
+        assertThat(second.waits()).isEqualTo(first.waits());
+        assertThat(second.awsCalls()).isEqualTo(first.awsCalls());
+        assertThat(second.peakLockContention()).isEqualTo(first.peakLockContention());
+    }
+
+    @Test
+    void shouldRetryThrottledCallsAsTheSdkWould() {
+        final JobTrace trace = JobTrace.poisson(7, 4, ofSeconds(5), ofMinutes(2));
+
+        final ReplayReport report = new ReplayHarness(config.ecsThrottling(5, 1), DEFAULT_CLUSTER_PROFILE).replay(trace);
+
+        assertThat(report.throttledAttempts()).isPositive();
+        assertThat(report.assignedJobs()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * What a replay cost: how long jobs waited for an agent, what the plugin asked of AWS to get them one, and how
+ * much instance time it paid for.
+ *
+ * @param jobs               jobs in the trace
+ * @param waits              time from arrival to assignment, for every job that got an agent, in ascending order
+ * @param awsCalls           logical AWS calls per {@code SERVICE:Operation}
+ * @param throttledAttempts  AWS call attempts rejected by throttling
+ * @param instanceHours      EC2 instance time billed during the replay
+ * @param peakLockContention most create-agent requests waiting at once for the plugin's per-platform create lock
+ *                           while another request held it
+ * @param maxLockWait        longest a create-agent request waited for that lock
+ * @param elapsed            simulated time from the start of the replay until its last event
+ */
+public record ReplayReport(int jobs, List<Duration> waits, Map<String, Integer> awsCalls, int throttledAttempts,
+                           double instanceHours, int peakLockContention, Duration maxLockWait, Duration elapsed) {
+
+    public int assignedJobs() {
+        return waits.size();
+    }
+
+    /** The wait under which {@code percentile} percent of assigned jobs got their agent, by nearest rank. */
+    public Duration waitPercentile(double percentile) {
+        if (waits.isEmpty()) {
+            return Duration.ZERO;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * waits.size());
+        return waits.get(Math.max(rank, 1) - 1);
+    }
+
+    public Duration maxWait() {
+        return waitPercentile(100);
+    }
+
+    public int totalAwsCalls() {
+        return awsCalls.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public double awsCallsPerJob() {
+        return jobs == 0 ? 0 : totalAwsCalls() / (double) jobs;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder()
+                .append(format("jobs: %d (%d assigned) over %s%n", jobs, assignedJobs(), elapsed))
+                .append(format("wait p50/p90/p99/max: %ss / %ss / %ss / %ss%n", waitPercentile(50).toSeconds(), waitPercentile(90).toSeconds(), waitPercentile(99).toSeconds(), maxWait().toSeconds()))
+                .append(format("aws calls: %d (%.1f per job, %d throttled attempts)%n", totalAwsCalls(), awsCallsPerJob(), throttledAttempts))
+                .append(format("instance hours: %.2f%n", instanceHours))
+                .append(format("peak lock contention: %d (longest wait %ss)%n", peakLockContention, maxLockWait.toSeconds()));
+        awsCalls.forEach((operation, count) -> report.append(format("  %s: %d%n", operation, count)));
+        return report.toString();
+    }
+}
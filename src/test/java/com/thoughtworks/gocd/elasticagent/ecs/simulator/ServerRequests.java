@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+
+import java.util.Map;
+
+/**
+ * The requests the GoCD server sends the plugin over a job's life, with the bodies it would send.
+ */
+final class ServerRequests {
+    private static final Gson GSON = new Gson();
+
+    private ServerRequests() {
+    }
+
+    static GoPluginApiRequest createAgent(Map<String, String> clusterProfile, Map<String, String> elasticProfile, JobIdentifier jobIdentifier) {
+        final JsonObject body = jobRequest(clusterProfile, elasticProfile, jobIdentifier);
+        body.addProperty("auto_register_key", "simulated");
+        return request("create-agent", body);
+    }
+
+    static GoPluginApiRequest shouldAssignWork(Map<String, String> clusterProfile, Map<String, String> elasticProfile, JobIdentifier jobIdentifier, String agentId) {
+        final JsonObject agent = new JsonObject();
+        agent.addProperty("agent_id", agentId);
+        agent.addProperty("agent_state", "Idle");
+        agent.addProperty("build_state", "Idle");
+        agent.addProperty("config_state", "Enabled");
+
+        final JsonObject body = jobRequest(clusterProfile, elasticProfile, jobIdentifier);
+        body.add("agent", agent);
+        return request("should-assign-work", body);
+    }
+
+    static GoPluginApiRequest jobCompletion(Map<String, String> clusterProfile, Map<String, String> elasticProfile, JobIdentifier jobIdentifier, String agentId) {
+        final JsonObject body = jobRequest(clusterProfile, elasticProfile, jobIdentifier);
+        body.addProperty("elastic_agent_id", agentId);
+        return request("job-completion", body);
+    }
+
+    static GoPluginApiRequest serverPing(Map<String, String> clusterProfile) {
+        final JsonArray clusters = new JsonArray();
+        clusters.add(GSON.toJsonTree(clusterProfile));
+        final JsonObject body = new JsonObject();
+        body.add("all_cluster_profile_properties", clusters);
+        return request("server-ping", body);
+    }
+
+    static GoPluginApiRequest clusterStatusReport(Map<String, String> clusterProfile) {
+        final JsonObject body = new JsonObject();
+        body.add("cluster_profile_properties", GSON.toJsonTree(clusterProfile));
+        return request("cluster-status-report", body);
+    }
+
+    private static JsonObject jobRequest(Map<String, String> clusterProfile, Map<String, String> elasticProfile, JobIdentifier jobIdentifier) {
+        final JsonObject body = new JsonObject();
+        body.add("elastic_agent_profile_properties", GSON.toJsonTree(elasticProfile));
+        body.add("cluster_profile_properties", GSON.toJsonTree(clusterProfile));
+        body.add("job_identifier", JsonParser.parseString(jobIdentifier.toJson()));
+        return body;
+    }
+
+    private static GoPluginApiRequest request(String name, JsonObject body) {
+        final DefaultGoPluginApiRequest request = new DefaultGoPluginApiRequest("elastic-agent", "5.0", "cd.go.elastic-agent." + name);
+        request.setRequestBody(GSON.toJson(body));
+        return request;
+    }
+}
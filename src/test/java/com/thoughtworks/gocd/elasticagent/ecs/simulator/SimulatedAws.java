@@ -0,0 +1,691 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.thoughtworks.gocd.elasticagent.ecs.aws.AwsClientCacheOverride;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.CountingAwsClients;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.Userdata;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.wait.PollerSleeperOverride;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.*;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ecs.EcsClient;
+import software.amazon.awssdk.services.ecs.model.*;
+import software.amazon.awssdk.services.ecs.model.Resource;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.Constants.LABEL_JOB_IDENTIFIER;
+import static java.text.MessageFormat.format;
+
+/**
+ * An in-memory AWS account holding the EC2 instances, ECS container instances, task definitions and tasks the
+ * plugin works with. State changes that take time in AWS (booting, registering, starting a task, stopping) are
+ * recorded with the simulated time they complete and resolved when next observed, so nothing runs in the
+ * background and two runs with the same inputs see exactly the same responses.
+ *
+ * <p>Spot instance requests are not simulated: they are always reported as absent.
+ */
+public class SimulatedAws {
+    static final String ECS = "ECS";
+    static final String EC2 = "EC2";
+    private static final String ACCOUNT = "000000000000";
+    private static final int SDK_MAX_ATTEMPTS = 3;
+    private static final Duration SDK_BASE_BACKOFF = Duration.ofMillis(100);
+    private static final Pattern CLUSTER_IN_USERDATA = Pattern.compile("ECS_CLUSTER=(\\S+)|-Cluster '([^']+)'");
+
+    private final SimulatorConfig config;
+    private final SimulatedClock clock;
+    private final TokenBucket ecsBucket;
+    private final TokenBucket ec2Bucket;
+    private final Map<String, SimulatedInstance> instances = new LinkedHashMap<>();
+    private final Map<String, SimulatedContainerInstance> containerInstances = new LinkedHashMap<>();
+    private final Map<String, TaskDefinition> taskDefinitions = new LinkedHashMap<>();
+    private final Map<String, SimulatedTask> tasks = new LinkedHashMap<>();
+    private final Map<String, Integer> calls = new TreeMap<>();
+    private int throttledAttempts;
+    private int nextId = 1;
+
+    public SimulatedAws(SimulatorConfig config, SimulatedClock clock) {
+        this.config = config;
+        this.clock = clock;
+        this.ecsBucket = new TokenBucket(config.ecsRequestsPerSecond(), config.ecsBurst(), clock.now());
+        this.ec2Bucket = new TokenBucket(config.ec2RequestsPerSecond(), config.ec2Burst(), clock.now());
+    }
+
+    /**
+     * Points every cluster's AWS clients at this account, behind the production interceptors with the rate limiter
+     * and circuit breakers running on its clock, and makes pollers wait on its clock, until closed. The plugin's
+     * in-memory state, such as its instance health and scale-in controller, comes from the {@code PluginServices}
+     * it is built with, which should be given this account's clock.
+     */
+    public Installation install() {
+        return install(new FakeEcsClient(this), new FakeEc2Client(this));
+    }
+
+    /**
+     * As {@link #install()}, with every call the plugin makes counted by {@code counter}.
+     */
+    public Installation install(CountingAwsClients counter) {
+        return install(counter.wrap(new FakeEcsClient(this)), counter.wrap(new FakeEc2Client(this)));
+    }
+
+    private Installation install(EcsClient ecsClient, Ec2Client ec2Client) {
+        return new Installation(new AwsClientCacheOverride(ecsClient, ec2Client, clock, clock), new PollerSleeperOverride(clock));
+    }
+
+    public SimulatedClock clock() {
+        return clock;
+    }
+
+    /** Logical calls made per {@code SERVICE:Operation}, each counted once however many attempts it took. */
+    public synchronized Map<String, Integer> calls() {
+        return new TreeMap<>(calls);
+    }
+
+    public synchronized int totalCalls() {
+        return calls.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /** Attempts rejected by throttling, including those the simulated SDK retry went on to get through. */
+    public synchronized int throttledAttempts() {
+        return throttledAttempts;
+    }
+
+    /** Instance time billed so far: from launch or start until stopped or terminated. */
+    public synchronized double instanceHours() {
+        final Instant now = clock.now();
+        return instances.values().stream()
+                .mapToLong(instance -> instance.billed(now).toMillis())
+                .sum() / (double) Duration.ofHours(1).toMillis();
+    }
+
+    /** Every task started so far, in the order they were started. */
+    public synchronized List<StartedTask> startedTasks() {
+        return tasks.values().stream()
+                .map(task -> new StartedTask(task.family, task.jobIdentifier, task.runningAt))
+                .toList();
+    }
+
+    public synchronized boolean isTaskAlive(String family) {
+        final Instant now = clock.now();
+        return tasks.values().stream().anyMatch(task -> task.family.equals(family) && !"STOPPED".equals(task.lastStatus(now)));
+    }
+
+    public record StartedTask(String family, String jobIdentifier, Instant runningAt) {
+    }
+
+    public record Installation(AwsClientCacheOverride clients, PollerSleeperOverride sleeper) implements AutoCloseable {
+        @Override
+        public void close() {
+            sleeper.close();
+            clients.close();
+        }
+    }
+
+    /**
+     * Makes one logical AWS call: waits out its latency, and when throttled retries with exponential backoff as
+     * the SDK's standard retry mode does, before giving up with the service's throttling error.
+     */
+    synchronized <T> T call(String service, String operation, Supplier<T> action) {
+        calls.merge(service + ":" + operation, 1, Integer::sum);
+        final TokenBucket bucket = ECS.equals(service) ? ecsBucket : ec2Bucket;
+
+        for (int attempt = 1; ; attempt++) {
+            clock.advance(config.latencyOf(operation));
+            if (bucket.tryAcquire(clock.now())) {
+                return action.get();
+            }
+
+            throttledAttempts++;
+            if (attempt == SDK_MAX_ATTEMPTS) {
+                throw ECS.equals(service)
+                        ? error(service, "ThrottlingException", "Rate exceeded")
+                        : error(service, "RequestLimitExceeded", "Request limit exceeded.");
+            }
+            clock.advance(SDK_BASE_BACKOFF.multipliedBy(1L << (attempt - 1)));
+        }
+    }
+
+    static AwsServiceException error(String service, String code, String message) {
+        final AwsErrorDetails details = AwsErrorDetails.builder().serviceName(service).errorCode(code).errorMessage(message).build();
+        return ECS.equals(service)
+                ? EcsException.builder().statusCode(400).message(message).awsErrorDetails(details).build()
+                : Ec2Exception.builder().statusCode(400).message(message).awsErrorDetails(details).build();
+    }
+
+    // ---- EC2 ----
+
+    List<software.amazon.awssdk.services.ec2.model.Instance> runInstances(RunInstancesRequest request) {
+        final Instant now = clock.now();
+        final long active = instances.values().stream().filter(instance -> instance.isActive(now)).count();
+        if (active + request.minCount() > config.instanceCapacity()) {
+            throw error(EC2, "InsufficientInstanceCapacity", "We currently do not have sufficient capacity in the Availability Zone you requested.");
+        }
+
+        final Map<String, String> tags = new LinkedHashMap<>();
+        request.tagSpecifications().forEach(specification -> specification.tags().forEach(tag -> tags.put(tag.key(), tag.value())));
+        final String userdata = request.userData() == null ? "" : Userdata.decodeBase64(request.userData());
+        final String subnetId = request.subnetId() != null ? request.subnetId() : config.subnetIds().getFirst();
+        final String clusterName = clusterNameFrom(userdata);
+
+        final List<software.amazon.awssdk.services.ec2.model.Instance> launched = new ArrayList<>();
+        for (int i = 0; i < request.minCount(); i++) {
+            final SimulatedInstance instance = new SimulatedInstance(format("i-{0}", String.format("%017x", nextId++)),
+                    request.imageId(), request.instanceTypeAsString(), "WINDOWS".equalsIgnoreCase(tags.get("Platform")) ? "windows" : null,
+                    subnetId, request.securityGroupIds(), tags, now);
+            instance.start(now, config.bootDelay());
+            instances.put(instance.id, instance);
+
+            final SimulatedContainerInstance containerInstance = new SimulatedContainerInstance(
+                    format("arn:aws:ecs:{0}:{1}:container-instance/{2}/{3}", config.region(), ACCOUNT, clusterName, instance.id), clusterName, instance);
+            containerInstance.connectAt = instance.runningAt.plus(config.registrationDelay());
+            containerInstances.put(containerInstance.arn, containerInstance);
+
+            launched.add(instance.toModel(now));
+        }
+        return launched;
+    }
+
+    void startInstances(Collection<String> instanceIds) {
+        final Instant now = clock.now();
+        for (String instanceId : instanceIds) {
+            final SimulatedInstance instance = instance(instanceId);
+            if (instance.state(now) == InstanceStateName.STOPPED) {
+                instance.start(now, config.bootDelay());
+                containerInstanceOf(instanceId).ifPresent(ci -> ci.connectAt = instance.runningAt.plus(config.registrationDelay()));
+            }
+        }
+    }
+
+    void stopInstances(Collection<String> instanceIds) {
+        final Instant now = clock.now();
+        for (String instanceId : instanceIds) {
+            final SimulatedInstance instance = instance(instanceId);
+            if (instance.isActive(now)) {
+                instance.shutDown(now, config.stopDelay(), InstanceStateName.STOPPING, InstanceStateName.STOPPED);
+                stopTasksOn(instanceId, now);
+            }
+        }
+    }
+
+    void terminateInstances(Collection<String> instanceIds) {
+        final Instant now = clock.now();
+        for (String instanceId : instanceIds) {
+            final SimulatedInstance instance = instance(instanceId);
+            if (instance.state(now) != InstanceStateName.TERMINATED && instance.state(now) != InstanceStateName.SHUTTING_DOWN) {
+                instance.shutDown(now, config.stopDelay(), InstanceStateName.SHUTTING_DOWN, InstanceStateName.TERMINATED);
+                stopTasksOn(instanceId, now);
+            }
+        }
+    }
+
+    List<software.amazon.awssdk.services.ec2.model.Instance> describeInstances(Collection<String> instanceIds, Collection<Filter> filters) {
+        final Instant now = clock.now();
+        final List<SimulatedInstance> candidates = instanceIds.isEmpty()
+                ? List.copyOf(instances.values())
+                : instanceIds.stream().map(this::instance).toList();
+
+        return candidates.stream()
+                .map(instance -> instance.toModel(now))
+                .filter(instance -> filters.stream().allMatch(filter -> matches(filter, instance)))
+                .toList();
+    }
+
+    void createTags(Collection<String> resources, Collection<Tag> tags) {
+        resources.forEach(id -> tags.forEach(tag -> instance(id).tags.put(tag.key(), tag.value())));
+    }
+
+    void deleteTags(Collection<String> resources, Collection<Tag> tags) {
+        resources.forEach(id -> tags.forEach(tag -> instance(id).tags.remove(tag.key())));
+    }
+
+    List<Subnet> describeSubnets(Collection<String> subnetIds) {
+        final List<String> requested = subnetIds.isEmpty() ? config.subnetIds() : List.copyOf(subnetIds);
+        return requested.stream()
+                .map(subnetId -> {
+                    if (!config.subnetIds().contains(subnetId)) {
+                        throw error(EC2, "InvalidSubnetID.NotFound", format("The subnet ID ''{0}'' does not exist", subnetId));
+                    }
+                    return Subnet.builder().subnetId(subnetId).state(SubnetState.AVAILABLE).availabilityZone(config.region() + "a").build();
+                })
+                .toList();
+    }
+
+    // ---- ECS ----
+
+    List<String> listContainerInstances(String clusterName) {
+        final Instant now = clock.now();
+        return containerInstances.values().stream()
+                .filter(ci -> ci.clusterName.equals(clusterName) && ci.isRegistered(now))
+                .map(ci -> ci.arn)
+                .toList();
+    }
+
+    List<ContainerInstance> describeContainerInstances(Collection<String> arns) {
+        final Instant now = clock.now();
+        return arns.stream()
+                .map(containerInstances::get)
+                .filter(Objects::nonNull)
+                .map(ci -> ci.toModel(now, tasksOn(ci.arn, now)))
+                .toList();
+    }
+
+    ContainerInstance deregisterContainerInstance(String arn) {
+        final SimulatedContainerInstance containerInstance = containerInstances.get(arn);
+        if (containerInstance == null || containerInstance.deregistered) {
+            throw error(ECS, "InvalidParameterException", "The referenced container instance was not found.");
+        }
+        final Instant now = clock.now();
+        stopTasksOn(containerInstance.instance.id, now);
+        containerInstance.deregistered = true;
+        return containerInstance.toModel(now, List.of());
+    }
+
+    Cluster describeCluster(String clusterName) {
+        final Instant now = clock.now();
+        final List<String> registered = listContainerInstances(clusterName);
+        final List<SimulatedTask> clusterTasks = tasks.values().stream().filter(task -> task.clusterName.equals(clusterName)).toList();
+        return Cluster.builder()
+                .clusterName(clusterName)
+                .clusterArn(format("arn:aws:ecs:{0}:{1}:cluster/{2}", config.region(), ACCOUNT, clusterName))
+                .status("ACTIVE")
+                .registeredContainerInstancesCount(registered.size())
+                .runningTasksCount((int) clusterTasks.stream().filter(task -> "RUNNING".equals(task.lastStatus(now))).count())
+                .pendingTasksCount((int) clusterTasks.stream().filter(task -> "PENDING".equals(task.lastStatus(now))).count())
+                .activeServicesCount(0)
+                .build();
+    }
+
+    TaskDefinition registerTaskDefinition(RegisterTaskDefinitionRequest request) {
+        final TaskDefinition taskDefinition = TaskDefinition.builder()
+                .family(request.family())
+                .revision(1)
+                .taskDefinitionArn(format("arn:aws:ecs:{0}:{1}:task-definition/{2}:1", config.region(), ACCOUNT, request.family()))
+                .containerDefinitions(request.containerDefinitions())
+                .volumes(request.volumes())
+                .taskRoleArn(request.taskRoleArn())
+                .status(TaskDefinitionStatus.ACTIVE)
+                .build();
+        taskDefinitions.put(taskDefinition.taskDefinitionArn(), taskDefinition);
+        return taskDefinition;
+    }
+
+    TaskDefinition describeTaskDefinition(String taskDefinition) {
+        return taskDefinitions.values().stream()
+                .filter(definition -> definition.taskDefinitionArn().equals(taskDefinition)
+                        || definition.family().equals(taskDefinition)
+                        || (definition.family() + ":" + definition.revision()).equals(taskDefinition))
+                .findFirst()
+                .orElseThrow(() -> error(ECS, "ClientException", "Unable to describe task definition."));
+    }
+
+    TaskDefinition setTaskDefinitionStatus(String taskDefinition, TaskDefinitionStatus status) {
+        final TaskDefinition updated = describeTaskDefinition(taskDefinition).toBuilder().status(status).build();
+        taskDefinitions.put(updated.taskDefinitionArn(), updated);
+        return updated;
+    }
+
+    StartTaskResponse startTask(String clusterName, String taskDefinitionArn, Collection<String> containerInstanceArns) {
+        final Instant now = clock.now();
+        final TaskDefinition taskDefinition = describeTaskDefinition(taskDefinitionArn);
+        final StartTaskResponse.Builder response = StartTaskResponse.builder();
+        final List<Task> started = new ArrayList<>();
+        final List<Failure> failures = new ArrayList<>();
+
+        for (String arn : containerInstanceArns) {
+            final SimulatedContainerInstance containerInstance = containerInstances.get(arn);
+            final String reason = containerInstance == null ? "MISSING" : placementFailure(containerInstance, taskDefinition, now);
+            if (reason != null) {
+                failures.add(Failure.builder().arn(arn).reason(reason).build());
+                continue;
+            }
+
+            final SimulatedTask task = new SimulatedTask(
+                    format("arn:aws:ecs:{0}:{1}:task/{2}/{3}", config.region(), ACCOUNT, clusterName, String.format("%032x", nextId++)),
+                    taskDefinition, clusterName, arn, now, now.plus(config.taskStartDelay()));
+            tasks.put(task.arn, task);
+            started.add(task.toModel(now));
+        }
+        return response.tasks(started).failures(failures).build();
+    }
+
+    Task stopTask(String taskArn) {
+        final SimulatedTask task = tasks.get(taskArn);
+        if (task == null) {
+            throw error(ECS, "InvalidParameterException", "The referenced task was not found.");
+        }
+        final Instant now = clock.now();
+        task.stop(now);
+        return task.toModel(now);
+    }
+
+    List<String> listTasks(String clusterName) {
+        return tasks.values().stream()
+                .filter(task -> task.clusterName.equals(clusterName) && task.stoppedAt == null)
+                .map(task -> task.arn)
+                .toList();
+    }
+
+    List<Task> describeTasks(Collection<String> taskArns) {
+        final Instant now = clock.now();
+        return taskArns.stream().map(tasks::get).filter(Objects::nonNull).map(task -> task.toModel(now)).toList();
+    }
+
+    // ---- helpers ----
+
+    private SimulatedInstance instance(String instanceId) {
+        final SimulatedInstance instance = instances.get(instanceId);
+        if (instance == null) {
+            throw error(EC2, "InvalidInstanceID.NotFound", format("The instance ID ''{0}'' does not exist", instanceId));
+        }
+        return instance;
+    }
+
+    private Optional<SimulatedContainerInstance> containerInstanceOf(String instanceId) {
+        return containerInstances.values().stream().filter(ci -> ci.instance.id.equals(instanceId)).findFirst();
+    }
+
+    private void stopTasksOn(String instanceId, Instant now) {
+        containerInstanceOf(instanceId).ifPresent(ci -> tasksOn(ci.arn, now).forEach(task -> task.stop(now)));
+    }
+
+    private List<SimulatedTask> tasksOn(String containerInstanceArn, Instant now) {
+        return tasks.values().stream()
+                .filter(task -> task.containerInstanceArn.equals(containerInstanceArn) && !"STOPPED".equals(task.lastStatus(now)))
+                .toList();
+    }
+
+    private String placementFailure(SimulatedContainerInstance containerInstance, TaskDefinition taskDefinition, Instant now) {
+        if (!containerInstance.isConnected(now)) {
+            return "AGENT";
+        }
+        final List<SimulatedTask> placed = tasksOn(containerInstance.arn, now);
+        if (placed.stream().mapToInt(task -> task.memory).sum() + memoryOf(taskDefinition) > config.instanceMemory()) {
+            return "RESOURCE:MEMORY";
+        }
+        if (placed.stream().mapToInt(task -> task.cpu).sum() + cpuOf(taskDefinition) > config.instanceCpu()) {
+            return "RESOURCE:CPU";
+        }
+        return null;
+    }
+
+    private static int memoryOf(TaskDefinition taskDefinition) {
+        return taskDefinition.containerDefinitions().stream()
+                .mapToInt(container -> container.memoryReservation() != null ? container.memoryReservation() : Objects.requireNonNullElse(container.memory(), 0))
+                .sum();
+    }
+
+    private static int cpuOf(TaskDefinition taskDefinition) {
+        return taskDefinition.containerDefinitions().stream()
+                .mapToInt(container -> Objects.requireNonNullElse(container.cpu(), 0))
+                .sum();
+    }
+
+    private static String clusterNameFrom(String userdata) {
+        final Matcher matcher = CLUSTER_IN_USERDATA.matcher(userdata);
+        if (!matcher.find()) {
+            return "default";
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    private static boolean matches(Filter filter, software.amazon.awssdk.services.ec2.model.Instance instance) {
+        final Predicate<String> anyValue = value -> filter.values().contains(value);
+        if ("instance-state-name".equals(filter.name())) {
+            return anyValue.test(instance.state().nameAsString());
+        }
+        if ("instance-id".equals(filter.name())) {
+            return anyValue.test(instance.instanceId());
+        }
+        if (filter.name().startsWith("tag:")) {
+            final String key = filter.name().substring("tag:".length());
+            return instance.tags().stream().anyMatch(tag -> tag.key().equals(key) && anyValue.test(tag.value()));
+        }
+        throw new UnsupportedOperationException("Filter " + filter.name() + " is not simulated.");
+    }
+
+    private class SimulatedInstance {
+        private final String id;
+        private final String imageId;
+        private final String instanceType;
+        private final String platform;
+        private final String subnetId;
+        private final List<String> securityGroupIds;
+        private final Map<String, String> tags;
+        private final Instant launchedAt;
+        private InstanceStateName state;
+        private InstanceStateName settlesTo;
+        private Instant settlesAt;
+        private Instant runningAt;
+        private Instant billedSince;
+        private Duration billed = Duration.ZERO;
+
+        SimulatedInstance(String id, String imageId, String instanceType, String platform, String subnetId, List<String> securityGroupIds, Map<String, String> tags, Instant launchedAt) {
+            this.id = id;
+            this.imageId = imageId;
+            this.instanceType = instanceType;
+            this.platform = platform;
+            this.subnetId = subnetId;
+            this.securityGroupIds = List.copyOf(securityGroupIds);
+            this.tags = new LinkedHashMap<>(tags);
+            this.launchedAt = launchedAt;
+        }
+
+        void start(Instant now, Duration bootDelay) {
+            state = InstanceStateName.PENDING;
+            runningAt = now.plus(bootDelay);
+            settlesTo = InstanceStateName.RUNNING;
+            settlesAt = runningAt;
+            billedSince = now;
+        }
+
+        void shutDown(Instant now, Duration delay, InstanceStateName transitional, InstanceStateName terminal) {
+            state(now);
+            state = transitional;
+            settlesTo = terminal;
+            settlesAt = now.plus(delay);
+        }
+
+        InstanceStateName state(Instant now) {
+            if (settlesAt != null && !now.isBefore(settlesAt)) {
+                state = settlesTo;
+                if ((state == InstanceStateName.STOPPED || state == InstanceStateName.TERMINATED) && billedSince != null) {
+                    billed = billed.plus(Duration.between(billedSince, settlesAt));
+                    billedSince = null;
+                }
+                settlesTo = null;
+                settlesAt = null;
+            }
+            return state;
+        }
+
+        boolean isActive(Instant now) {
+            final InstanceStateName current = state(now);
+            return current == InstanceStateName.PENDING || current == InstanceStateName.RUNNING;
+        }
+
+        Duration billed(Instant now) {
+            state(now);
+            return billedSince == null ? billed : billed.plus(Duration.between(billedSince, now));
+        }
+
+        software.amazon.awssdk.services.ec2.model.Instance toModel(Instant now) {
+            final InstanceStateName current = state(now);
+            return software.amazon.awssdk.services.ec2.model.Instance.builder()
+                    .instanceId(id)
+                    .imageId(imageId)
+                    .instanceType(instanceType)
+                    .platform(platform)
+                    .subnetId(subnetId)
+                    .securityGroups(securityGroupIds.stream().map(groupId -> GroupIdentifier.builder().groupId(groupId).build()).toList())
+                    .state(InstanceState.builder().name(current).code(stateCode(current)).build())
+                    .tags(tags.entrySet().stream().map(tag -> Tag.builder().key(tag.getKey()).value(tag.getValue()).build()).toList())
+                    .launchTime(launchedAt)
+                    .build();
+        }
+
+        private static int stateCode(InstanceStateName state) {
+            return switch (state) {
+                case PENDING -> 0;
+                case RUNNING -> 16;
+                case SHUTTING_DOWN -> 32;
+                case TERMINATED -> 48;
+                case STOPPING -> 64;
+                case STOPPED -> 80;
+                default -> -1;
+            };
+        }
+    }
+
+    private class SimulatedContainerInstance {
+        private final String arn;
+        private final String clusterName;
+        private final SimulatedInstance instance;
+        private Instant connectAt;
+        private boolean deregistered;
+
+        SimulatedContainerInstance(String arn, String clusterName, SimulatedInstance instance) {
+            this.arn = arn;
+            this.clusterName = clusterName;
+            this.instance = instance;
+        }
+
+        boolean isRegistered(Instant now) {
+            // ECS drops a container instance once its EC2 instance is gone, and lists it from first registration
+            return !deregistered && instance.state(now) != InstanceStateName.TERMINATED
+                    && !now.isBefore(instance.launchedAt.plus(config.bootDelay()).plus(config.registrationDelay()));
+        }
+
+        boolean isConnected(Instant now) {
+            return isRegistered(now) && instance.state(now) == InstanceStateName.RUNNING && !now.isBefore(connectAt);
+        }
+
+        ContainerInstance toModel(Instant now, List<SimulatedTask> placed) {
+            final int usedCpu = placed.stream().mapToInt(task -> task.cpu).sum();
+            final int usedMemory = placed.stream().mapToInt(task -> task.memory).sum();
+            return ContainerInstance.builder()
+                    .containerInstanceArn(arn)
+                    .ec2InstanceId(instance.id)
+                    .status(deregistered ? "INACTIVE" : "ACTIVE")
+                    .agentConnected(isConnected(now))
+                    .runningTasksCount((int) placed.stream().filter(task -> "RUNNING".equals(task.lastStatus(now))).count())
+                    .pendingTasksCount((int) placed.stream().filter(task -> "PENDING".equals(task.lastStatus(now))).count())
+                    .registeredResources(resources(config.instanceCpu(), config.instanceMemory()))
+                    .remainingResources(resources(config.instanceCpu() - usedCpu, config.instanceMemory() - usedMemory))
+                    .registeredAt(instance.launchedAt.plus(config.bootDelay()).plus(config.registrationDelay()))
+                    .build();
+        }
+
+        private static List<Resource> resources(int cpu, int memory) {
+            return List.of(
+                    Resource.builder().name("CPU").type("INTEGER").integerValue(cpu).build(),
+                    Resource.builder().name("MEMORY").type("INTEGER").integerValue(memory).build());
+        }
+    }
+
+    private static class SimulatedTask {
+        private final String arn;
+        private final String taskDefinitionArn;
+        private final String family;
+        private final String jobIdentifier;
+        private final String clusterName;
+        private final String containerInstanceArn;
+        private final Instant createdAt;
+        private final Instant runningAt;
+        private final int cpu;
+        private final int memory;
+        private Instant stoppedAt;
+
+        SimulatedTask(String arn, TaskDefinition taskDefinition, String clusterName, String containerInstanceArn, Instant createdAt, Instant runningAt) {
+            this.arn = arn;
+            this.taskDefinitionArn = taskDefinition.taskDefinitionArn();
+            this.family = taskDefinition.family();
+            this.jobIdentifier = taskDefinition.containerDefinitions().getFirst().dockerLabels().get(LABEL_JOB_IDENTIFIER);
+            this.clusterName = clusterName;
+            this.containerInstanceArn = containerInstanceArn;
+            this.createdAt = createdAt;
+            this.runningAt = runningAt;
+            this.cpu = cpuOf(taskDefinition);
+            this.memory = memoryOf(taskDefinition);
+        }
+
+        void stop(Instant now) {
+            if (stoppedAt == null) {
+                stoppedAt = now;
+            }
+        }
+
+        String lastStatus(Instant now) {
+            if (stoppedAt != null && !now.isBefore(stoppedAt)) {
+                return "STOPPED";
+            }
+            return now.isBefore(runningAt) ? "PENDING" : "RUNNING";
+        }
+
+        Task toModel(Instant now) {
+            final String lastStatus = lastStatus(now);
+            return Task.builder()
+                    .taskArn(arn)
+                    .taskDefinitionArn(taskDefinitionArn)
+                    .containerInstanceArn(containerInstanceArn)
+                    .lastStatus(lastStatus)
+                    .desiredStatus(stoppedAt == null ? "RUNNING" : "STOPPED")
+                    .createdAt(createdAt)
+                    .startedAt("PENDING".equals(lastStatus) ? null : runningAt)
+                    .stoppedAt(stoppedAt)
+                    .build();
+        }
+    }
+
+    /** Requests per second refilled continuously in simulated time, up to a burst; a rate of zero never throttles. */
+    private static class TokenBucket {
+        private final int ratePerSecond;
+        private final int burst;
+        private double tokens;
+        private Instant refilledAt;
+
+        TokenBucket(int ratePerSecond, int burst, Instant now) {
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilledAt = now;
+        }
+
+        boolean tryAcquire(Instant now) {
+            if (ratePerSecond <= 0) {
+                return true;
+            }
+            tokens = Math.min(burst, tokens + Duration.between(refilledAt, now).toMillis() * ratePerSecond / 1000.0);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
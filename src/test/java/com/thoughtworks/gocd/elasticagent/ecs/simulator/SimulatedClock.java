@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import com.thoughtworks.gocd.elasticagent.ecs.Clock;
+import com.thoughtworks.gocd.elasticagent.ecs.aws.wait.Sleeper;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.Platform;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simulated time. It only moves forward when advanced: by the replay harness between events, by every AWS call
+ * (its latency) and by every poller wait (its retry interval), so a replay takes as long as the plugin's own
+ * CPU work regardless of how many simulated minutes pass.
+ *
+ * <p>Time that passes while the advancing thread holds one of the plugin's per-platform create locks (the
+ * {@link Platform} constants agent and instance creation synchronize on) is recorded, so that how long the lock
+ * was held is read off the lock itself.
+ */
+public class SimulatedClock implements Clock, Sleeper {
+    private final List<Held> createLockHeld = new ArrayList<>();
+    private Instant now;
+
+    public SimulatedClock(Instant start) {
+        this.now = start;
+    }
+
+    @Override
+    public synchronized Instant now() {
+        return now;
+    }
+
+    public synchronized void advance(Duration duration) {
+        final Instant from = now;
+        now = now.plus(duration);
+        if (holdsCreateLock() && now.isAfter(from)) {
+            createLockHeld.add(new Held(from, now));
+        }
+    }
+
+    public synchronized void advanceTo(Instant time) {
+        if (time.isAfter(now)) {
+            now = time;
+        }
+    }
+
+    @Override
+    public void sleep(Duration duration) {
+        advance(duration);
+    }
+
+    /** Every stretch of simulated time that passed while a create lock was held, in order. */
+    public synchronized List<Held> createLockHeld() {
+        return List.copyOf(createLockHeld);
+    }
+
+    private static boolean holdsCreateLock() {
+        return Arrays.stream(Platform.values()).anyMatch(Thread::holdsLock);
+    }
+
+    public record Held(Instant from, Instant until) {
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thoughtworks.gocd.elasticagent.ecs.simulator;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How the simulated AWS account behaves. The defaults are rough figures for a small cluster in a quiet region;
+ * every value can be overridden to model throttling, capacity shortages or slow boots.
+ */
+public class SimulatorConfig {
+    private Duration defaultLatency = Duration.ofMillis(60);
+    private final Map<String, Duration> latencies = new HashMap<>(Map.of(
+            "RunInstances", Duration.ofMillis(900),
+            "StartInstances", Duration.ofMillis(400),
+            "RegisterTaskDefinition", Duration.ofMillis(150),
+            "StartTask", Duration.ofMillis(250)));
+    private int ecsRequestsPerSecond = 20;
+    private int ecsBurst = 50;
+    private int ec2RequestsPerSecond = 20;
+    private int ec2Burst = 100;
+    private int instanceCapacity = Integer.MAX_VALUE;
+    private Duration bootDelay = Duration.ofSeconds(40);
+    private Duration registrationDelay = Duration.ofSeconds(20);
+    private Duration stopDelay = Duration.ofSeconds(30);
+    private Duration taskStartDelay = Duration.ofSeconds(10);
+    private Duration agentRegistrationDelay = Duration.ofSeconds(15);
+    private int instanceCpu = 2048;
+    private int instanceMemory = 3840;
+    private List<String> subnetIds = List.of("subnet-a", "subnet-b", "subnet-c");
+    private String region = "us-east-1";
+
+    public SimulatorConfig latency(Duration latency) {
+        this.defaultLatency = latency;
+        return this;
+    }
+
+    public SimulatorConfig latency(String operation, Duration latency) {
+        this.latencies.put(operation, latency);
+        return this;
+    }
+
+    /** Token bucket per service, refilled in simulated time; a rate of 0 disables throttling. */
+    public SimulatorConfig ecsThrottling(int requestsPerSecond, int burst) {
+        this.ecsRequestsPerSecond = requestsPerSecond;
+        this.ecsBurst = burst;
+        return this;
+    }
+
+    public SimulatorConfig ec2Throttling(int requestsPerSecond, int burst) {
+        this.ec2RequestsPerSecond = requestsPerSecond;
+        this.ec2Burst = burst;
+        return this;
+    }
+
+    /** The most instances that can be pending or running at once; RunInstances beyond it fails with InsufficientInstanceCapacity. */
+    public SimulatorConfig instanceCapacity(int instanceCapacity) {
+        this.instanceCapacity = instanceCapacity;
+        return this;
+    }
+
+    /** Time from RunInstances or StartInstances until the instance is running. */
+    public SimulatorConfig bootDelay(Duration bootDelay) {
+        this.bootDelay = bootDelay;
+        return this;
+    }
+
+    /** Time from an instance running until its ECS agent is connected to the cluster. */
+    public SimulatorConfig registrationDelay(Duration registrationDelay) {
+        this.registrationDelay = registrationDelay;
+        return this;
+    }
+
+    public SimulatorConfig stopDelay(Duration stopDelay) {
+        this.stopDelay = stopDelay;
+        return this;
+    }
+
+    /** Time from StartTask until the task is running. */
+    public SimulatorConfig taskStartDelay(Duration taskStartDelay) {
+        this.taskStartDelay = taskStartDelay;
+        return this;
+    }
+
+    /** Time from a task running until its GoCD agent has registered with the server. */
+    public SimulatorConfig agentRegistrationDelay(Duration agentRegistrationDelay) {
+        this.agentRegistrationDelay = agentRegistrationDelay;
+        return this;
+    }
+
+    public SimulatorConfig instanceResources(int cpu, int memory) {
+        this.instanceCpu = cpu;
+        this.instanceMemory = memory;
+        return this;
+    }
+
+    public SimulatorConfig subnets(String... subnetIds) {
+        this.subnetIds = List.of(subnetIds);
+        return this;
+    }
+
+    public SimulatorConfig region(String region) {
+        this.region = region;
+        return this;
+    }
+
+    Duration latencyOf(String operation) {
+        return latencies.getOrDefault(operation, defaultLatency);
+    }
+
+    int ecsRequestsPerSecond() {
+        return ecsRequestsPerSecond;
+    }
+
+    int ecsBurst() {
+        return ecsBurst;
+    }
+
+    int ec2RequestsPerSecond() {
+        return ec2RequestsPerSecond;
+    }
+
+    int ec2Burst() {
+        return ec2Burst;
+    }
+
+    int instanceCapacity() {
+        return instanceCapacity;
+    }
+
+    Duration bootDelay() {
+        return bootDelay;
+    }
+
+    Duration registrationDelay() {
+        return registrationDelay;
+    }
+
+    Duration stopDelay() {
+        return stopDelay;
+    }
+
+    Duration taskStartDelay() {
+        return taskStartDelay;
+    }
+
+    Duration agentRegistrationDelay() {
+        return agentRegistrationDelay;
+    }
+
+    int instanceCpu() {
+        return instanceCpu;
+    }
+
+    int instanceMemory() {
+        return instanceMemory;
+    }
+
+    List<String> subnetIds() {
+        return subnetIds;
+    }
+
+    String region() {
+        return region;
+    }
+}
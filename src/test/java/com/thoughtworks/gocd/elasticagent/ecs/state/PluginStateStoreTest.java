@@ -0,0 +1,218 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thoughtworks.gocd.elasticagent.ecs.state;
+
+import com.thoughtworks.gocd.elasticagent.ecs.ECSTask;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.ElasticAgentProfileProperties;
+import com.thoughtworks.gocd.elasticagent.ecs.domain.JobIdentifier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.ec2.model.GroupIdentifier;
+import software.amazon.awssdk.services.ec2.model.LaunchSpecification;
+import software.amazon.awssdk.services.ec2.model.SpotInstanceRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ecs.model.Task;
+import software.amazon.awssdk.services.ecs.model.TaskDefinition;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.thoughtworks.gocd.elasticagent.ecs.domain.Platform.LINUX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PluginStateStoreTest {
+    @TempDir
+    Path directory;
+
+    private final List<PluginStateStore> stores = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(PluginStateStore::close);
+    }
+
+    @Test
+    void shouldRestoreTasksAndSpotRequestsAfterARestart() {
+        final PluginStateStore store = open();
+        store.taskJournal("cluster-1").recorded(task("agent-1", "i-1"));
+        store.taskJournal("cluster-1").recorded(task("agent-2", "i-1"));
+        store.taskJournal("cluster-1").removed("agent-2");
+        store.recorded(spotRequest("sir-1"));
+
+        final PluginStateStore restarted = open();
+
+        final List<ECSTask> restored = restarted.restoredTasks("cluster-1");
+        assertThat(restored).hasSize(1);
+        final ECSTask task = restored.getFirst();
+        assertThat(task.name()).isEqualTo("agent-1");
+        assertThat(task.taskArn()).isEqualTo("arn:task/agent-1");
+        assertThat(task.taskDefinitionArn()).isEqualTo("arn:task-definition/agent-1:1");
+        assertThat(task.task().lastStatus()).isEqualTo("RUNNING");
+        assertThat(task.createdAt()).isEqualTo(Instant.ofEpochMilli(1_000_000));
+        assertThat(task.getEC2InstanceId()).isEqualTo("i-1");
+        assertThat(task.getJobIdentifier()).isEqualTo(jobIdentifier());
+        assertThat(task.elasticProfile().platform()).isEqualTo(LINUX);
+        assertThat(task.environment()).isEqualTo("production");
+        assertThat(restarted.restoredTasks("cluster-2")).isEmpty();
+
+        assertThat(restarted.restoredSpotRequests()).containsExactly(spotRequest("sir-1"));
+    }
+
+    @Test
+    void shouldRestoreInstanceStatesAfterARestart() {
+        final PluginStateStore store = open();
+        store.recorded("i-1", "LAST_SEEN_IDLE", Instant.ofEpochMilli(1000));
+        store.recorded("i-1", "LAST_SEEN_IDLE", Instant.ofEpochMilli(2000));
+        store.recorded("i-2", "LAST_SEEN_IDLE", null);
+        store.recorded("i-2", "STOPPED_AT", Instant.ofEpochMilli(3000));
+        store.recorded("i-3", "STOPPED_AT", Instant.ofEpochMilli(4000));
+        store.forgotten(List.of("i-3"));
+        store.sync();
+
+        assertThat(open().restoredInstanceStates()).containsExactly(
+                new InstanceStateJournal.Entry("i-1", "LAST_SEEN_IDLE", Instant.ofEpochMilli(2000)),
+                new InstanceStateJournal.Entry("i-2", "LAST_SEEN_IDLE", null),
+                new InstanceStateJournal.Entry("i-2", "STOPPED_AT", Instant.ofEpochMilli(3000)));
+    }
+
+    @Test
+    void shouldKeepInstanceStatesWhenCompacting() {
+        final PluginStateStore store = open();
+        store.recorded("i-1", "STOPPED_AT", Instant.ofEpochMilli(1000));
+        final TaskJournal journal = store.taskJournal("cluster-1");
+        for (int i = 0; i < PluginStateStore.COMPACT_AFTER; i++) {
+            journal.recorded(task("agent-1", "i-1"));
+        }
+        journal.sync();
+
+        assertThat(open().restoredInstanceStates()).containsExactly(new InstanceStateJournal.Entry("i-1", "STOPPED_AT", Instant.ofEpochMilli(1000)));
+    }
+
+    @Test
+    void shouldIgnoreARecordTornByACrashAndKeepAppending() throws Exception {
+        final PluginStateStore store = open();
+        store.taskJournal("cluster-1").recorded(task("agent-1", "i-1"));
+        store.close();
+        Files.write(directory.resolve("state.journal"), new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        final PluginStateStore restarted = open();
+        restarted.taskJournal("cluster-1").recorded(task("agent-2", "i-2"));
+
+        assertThat(open().restoredTasks("cluster-1")).extracting(ECSTask::name).containsExactly("agent-1", "agent-2");
+    }
+
+    @Test
+    void shouldCompactTheJournalIntoASnapshot() throws Exception {
+        final PluginStateStore store = open();
+        final TaskJournal journal = store.taskJournal("cluster-1");
+        for (int i = 0; i < PluginStateStore.COMPACT_AFTER; i++) {
+            journal.recorded(task("agent-" + (i % 3), "i-1"));
+        }
+        journal.removed("agent-0");
+
+        assertThat(directory.resolve("state.snapshot")).exists();
+        assertThat(Files.size(directory.resolve("state.journal"))).isLessThan(Files.size(directory.resolve("state.snapshot")));
+        assertThat(open().restoredTasks("cluster-1")).extracting(ECSTask::name).containsExactlyInAnyOrder("agent-1", "agent-2");
+    }
+
+    @Test
+    void shouldKeepAppendingToTheJournalWhenTheSnapshotCannotBeWritten() throws Exception {
+        final PluginStateStore store = open();
+        // the snapshot is written to a temporary file first, which cannot be created over a directory
+        Files.createDirectory(directory.resolve("state.snapshot.tmp"));
+        final TaskJournal journal = store.taskJournal("cluster-1");
+        for (int i = 0; i < PluginStateStore.COMPACT_AFTER; i++) {
+            journal.recorded(task("agent-1", "i-1"));
+        }
+        journal.recorded(task("agent-2", "i-2"));
+        journal.sync();
+
+        assertThat(directory.resolve("state.snapshot")).doesNotExist();
+        Files.delete(directory.resolve("state.snapshot.tmp"));
+        assertThat(open().restoredTasks("cluster-1")).extracting(ECSTask::name).containsExactly("agent-1", "agent-2");
+    }
+
+    @Test
+    void shouldNotPersistAnythingWhenDisabled() {
+        final PluginStateStore store = PluginStateStore.disabled();
+
+        assertThat(store.enabled()).isFalse();
+        assertThat(store.taskJournal("cluster-1")).isSameAs(TaskJournal.NONE);
+        store.recorded(spotRequest("sir-1"));
+        store.recorded("i-1", "STOPPED_AT", Instant.ofEpochMilli(1000));
+        store.sync();
+        assertThat(store.restoredSpotRequests()).isEmpty();
+        assertThat(store.restoredInstanceStates()).isEmpty();
+    }
+
+    @Test
+    void shouldBeDisabledWhenTheSystemPropertySaysSo() {
+        final String previous = System.setProperty(PluginStateStore.STATE_DIRECTORY_PROPERTY, "off");
+        try {
+            assertThat(PluginStateStore.fromSystemProperty().enabled()).isFalse();
+        } finally {
+            if (previous == null) {
+                System.clearProperty(PluginStateStore.STATE_DIRECTORY_PROPERTY);
+            } else {
+                System.setProperty(PluginStateStore.STATE_DIRECTORY_PROPERTY, previous);
+            }
+        }
+    }
+
+    private PluginStateStore open() {
+        final PluginStateStore store = PluginStateStore.open(directory);
+        stores.add(store);
+        assertThat(store.enabled()).isTrue();
+        return store;
+    }
+
+    private static ECSTask task(String agentId, String ec2InstanceId) {
+        final Task task = Task.builder()
+                .taskArn("arn:task/" + agentId)
+                .taskDefinitionArn("arn:task-definition/" + agentId + ":1")
+                .containerInstanceArn("arn:container-instance/" + ec2InstanceId)
+                .lastStatus("RUNNING")
+                .startedAt(Instant.ofEpochMilli(1_000_000))
+                .build();
+        final TaskDefinition taskDefinition = TaskDefinition.builder().family(agentId).taskDefinitionArn(task.taskDefinitionArn()).build();
+        return new ECSTask(task, taskDefinition, ElasticAgentProfileProperties.empty(LINUX), jobIdentifier(), "production", ec2InstanceId);
+    }
+
+    private static JobIdentifier jobIdentifier() {
+        return new JobIdentifier("up42", 1L, "1", "stage", "1", "job", 100L);
+    }
+
+    private static SpotInstanceRequest spotRequest(String id) {
+        return SpotInstanceRequest.builder()
+                .spotInstanceRequestId(id)
+                .state("open")
+                .launchSpecification(LaunchSpecification.builder()
+                        .imageId("ami-123")
+                        .instanceType("t2.small")
+                        .subnetId("subnet-1")
+                        .securityGroups(GroupIdentifier.builder().groupId("sg-1").build())
+                        .build())
+                .tags(Tag.builder().key("platform").value("LINUX").build())
+                .build();
+    }
+}